@@ -3,8 +3,13 @@ package sheep;
 import sheep.expression.CoreFactory;
 import sheep.expression.ExpressionFactory;
 import sheep.features.Feature;
+import sheep.features.fill.FillDown;
+import sheep.features.files.Autosave;
 import sheep.features.files.FileLoading;
 import sheep.features.files.FileSaving;
+import sheep.features.files.Journaling;
+import sheep.features.files.MappedSheet;
+import sheep.features.history.UndoRedo;
 import sheep.fun.FunException;
 import sheep.games.life.Life;
 import sheep.games.random.RandomFreeCell;
@@ -43,6 +48,11 @@ public class Main {
         Feature[] features = new Feature[]{
                 new FileLoading(sheet),
                 new FileSaving(sheet),
+                new Journaling(sheet),
+                new Autosave(sheet),
+                new MappedSheet(sheet),
+                new FillDown(sheet),
+                new UndoRedo(sheet),
                 new Life(sheet),
                 new Snake(sheet, new RandomFreeCell(sheet, new Random())),
                 new Tetros(sheet, new RandomTetrosTile(new Random()))
@@ -0,0 +1,99 @@
+package sheep.core;
+
+import java.util.Optional;
+
+/**
+ * An update of a sheet whose cells are recalculated a slice at a time,
+ * so that a user interface can keep responding while a large update is recalculated.
+ * <p>
+ * Each call to {@link #step(long)} evaluates cells for a bounded time.
+ * Until the recalculation is finished, the cells still to be evaluated are calculating,
+ * see {@link #isCalculating(int, int)}, and the sheet view shows the values from before the update.
+ * Cells within the region given to {@link #prioritise(int, int, int, int)},
+ * along with the cells they depend upon, are evaluated before any other cell.
+ */
+public interface Recalculation {
+    /**
+     * Evaluate cells until every cell is evaluated or the time given has passed.
+     * Once every cell is evaluated, the update is stored in the sheet.
+     *
+     * @param nanos The time to spend evaluating, in nanoseconds.
+     * @return True if the recalculation is finished, otherwise false.
+     */
+    boolean step(long nanos);
+
+    /**
+     * Evaluate the cells within the given region, and the cells they depend upon,
+     * before any other cell.
+     *
+     * @param firstRow The first row of the region.
+     * @param firstColumn The first column of the region.
+     * @param lastRow The last row of the region.
+     * @param lastColumn The last column of the region.
+     */
+    void prioritise(int firstRow, int firstColumn, int lastRow, int lastColumn);
+
+    /**
+     * Whether the cell at the position changes with the update but is not yet evaluated.
+     *
+     * @param row The row index of the cell.
+     * @param column The column index of the cell.
+     * @return True if the cell is still to be evaluated, otherwise false.
+     */
+    boolean isCalculating(int row, int column);
+
+    /**
+     * The new value of the cell at the position, once it is evaluated.
+     * The value is final unless another cell of the update fails to evaluate,
+     * in which case the whole update fails and the cell keeps its previous value.
+     *
+     * @param row The row index of the cell.
+     * @param column The column index of the cell.
+     * @return The rendered value of the cell if it was evaluated by this recalculation,
+     *         otherwise empty.
+     */
+    Optional<String> valueAt(int row, int column);
+
+    /**
+     * Information about the status of performing the update.
+     *
+     * @requires {@link #step(long)} has returned true.
+     * @return An {@link UpdateResponse} indicating success or failure with a message.
+     */
+    UpdateResponse response();
+
+    /**
+     * A recalculation that finished straight away, e.g. an update that was performed at once
+     * or an input that could not be parsed.
+     *
+     * @param response The status of performing the update.
+     * @return A finished recalculation with the given response.
+     */
+    static Recalculation finished(UpdateResponse response) {
+        return new Recalculation() {
+            @Override
+            public boolean step(long nanos) {
+                return true;
+            }
+
+            @Override
+            public void prioritise(int firstRow, int firstColumn, int lastRow, int lastColumn) {
+            }
+
+            @Override
+            public boolean isCalculating(int row, int column) {
+                return false;
+            }
+
+            @Override
+            public Optional<String> valueAt(int row, int column) {
+                return Optional.empty();
+            }
+
+            @Override
+            public UpdateResponse response() {
+                return response;
+            }
+        };
+    }
+}
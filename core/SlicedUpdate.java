@@ -0,0 +1,20 @@
+package sheep.core;
+
+/**
+ * Handles replacing the value of a cell with a given input,
+ * recalculating the sheet a slice at a time rather than all at once.
+ */
+public interface SlicedUpdate extends SheetUpdate {
+    /**
+     * Start replacing a cell's value, as per {@link SheetUpdate#update(int, int, String)},
+     * without evaluating any cell yet.
+     *
+     * @param row The row index to update.
+     * @param column The column index to update.
+     * @param input The value as a string to replace within the sheet.
+     * @requires input != null
+     * @return A {@link Recalculation} which performs the update as it is stepped.
+     *         If the input cannot be parsed, the recalculation is already finished and failed.
+     */
+    Recalculation recalculate(int row, int column, String input);
+}
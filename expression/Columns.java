@@ -0,0 +1,27 @@
+package sheep.expression;
+
+/**
+ * The values of a block of cells, arranged as columns of numbers.
+ * <p>
+ * Columns are used to evaluate one expression over many consecutive rows at once,
+ * see {@link Expression#values(Columns)}.
+ * Every column has the same length, the number of rows in the block.
+ */
+public interface Columns {
+    /**
+     * The number of rows in the block.
+     * @return The number of rows in the block.
+     */
+    int length();
+
+    /**
+     * The numeric values of an identifier for every row in the block.
+     * <p>
+     * Row i of the result is the value the identifier refers to when evaluated in row i of the block.
+     *
+     * @param identifier A reference to either a cell or a built-in.
+     * @return An array of {@link #length()} numbers.
+     * @throws TypeError If the identifier does not have a numeric value in every row.
+     */
+    long[] column(String identifier) throws TypeError;
+}
@@ -3,7 +3,13 @@ package sheep.expression;
 import sheep.expression.arithmetic.Arithmetic;
 import sheep.expression.basic.Constant;
 import sheep.expression.basic.Nothing;
+import sheep.expression.basic.Range;
 import sheep.expression.basic.Reference;
+import sheep.expression.functions.Aggregate;
+import sheep.expression.functions.Lookup;
+import sheep.sheets.CellRange;
+
+import java.util.Optional;
 
 /**
  * An expression factory for the core expressions.
@@ -56,6 +62,17 @@ public class CoreFactory implements ExpressionFactory {
         return arguments;
     }
 
+    private Expression createRange(Expression[] args) throws InvalidExpression {
+        if (args.length != 2 || !args[0].isReference() || !args[1].isReference()) {
+            throw new InvalidExpression("Range must be between two cell references");
+        }
+        Optional<CellRange> range = CellRange.maybeRange(args[0].render() + ":" + args[1].render());
+        if (range.isEmpty()) {
+            throw new InvalidExpression("Range must be between two cell references");
+        }
+        return new Range(range.get());
+    }
+
     /**
      * An instance of {@link Arithmetic} based on the given operator name.
      * <p>
@@ -69,6 +86,10 @@ public class CoreFactory implements ExpressionFactory {
      *     <li>=;</li>
      * </ul>
      * and create the appropriate {@link Arithmetic} subclass.
+     * <p>
+     * The function names SUM, MIN, MAX and COUNT create the appropriate {@link Aggregate},
+     * the function names MATCH, VLOOKUP and INDEX create the appropriate {@link Lookup},
+     * and the operator name : creates a {@link Range} between two cell references.
      * If the operator name is not listed above, {@link InvalidExpression} should be thrown.
      *
      * @param name An identifier for the operator, e.g. +, *.
@@ -76,7 +97,8 @@ public class CoreFactory implements ExpressionFactory {
      * @return An appropriate operator expression.
      * @throws InvalidExpression If the operator name is unknown or
      * if any of the given {@link Object} arguments are not subclasses of {@link Expression} or
-     * if there are no arguments given.
+     * if there are no arguments given or
+     * if a function is given the wrong number of arguments.
      * @hint The {@code instanceof} operator can determine if an instance is a subclass of a class.
      * @stage2
      */
@@ -92,6 +114,14 @@ public class CoreFactory implements ExpressionFactory {
             case "/" -> Arithmetic.divide(castArguments(name, args));
             case "<" -> Arithmetic.less(castArguments(name, args));
             case "=" -> Arithmetic.equal(castArguments(name, args));
+            case ":" -> createRange(castArguments(name, args));
+            case "SUM" -> Aggregate.sum(castArguments(name, args));
+            case "MIN" -> Aggregate.min(castArguments(name, args));
+            case "MAX" -> Aggregate.max(castArguments(name, args));
+            case "COUNT" -> Aggregate.count(castArguments(name, args));
+            case "MATCH" -> Lookup.match(castArguments(name, args));
+            case "VLOOKUP" -> Lookup.vlookup(castArguments(name, args));
+            case "INDEX" -> Lookup.index(castArguments(name, args));
             default ->
                 throw new InvalidExpression("Unknown operator: " + name);
         };
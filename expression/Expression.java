@@ -61,6 +61,24 @@ public abstract class Expression {
      */
     public abstract Expression value(Map<String, Expression> state) throws TypeError;
 
+    /**
+     * Evaluate the expression for every row of a block of cells at once.
+     * <p>
+     * This is an optional, faster alternative to calling {@link #value(Map)} once per row,
+     * for expressions that are shared by many rows, see {@link sheep.expression.shared.SharedFormula}.
+     * Row i of the result must equal the numeric value of evaluating the expression in row i of the block.
+     * <p>
+     * By default, an expression cannot be evaluated column-wise and a type error is thrown,
+     * in which case each row should be evaluated with {@link #value(Map)} instead.
+     *
+     * @param columns The values of the cells referenced by the expression.
+     * @return An array of {@link Columns#length()} numbers.
+     * @throws TypeError If the expression cannot be evaluated column-wise.
+     */
+    public long[] values(Columns columns) throws TypeError {
+        throw new TypeError();
+    }
+
     /**
      * True if the expression is a reference.
      * The abstract class, expression, should return false by default.
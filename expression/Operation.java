@@ -0,0 +1,23 @@
+package sheep.expression;
+
+/**
+ * An expression built from a named operator applied to a sequence of arguments,
+ * e.g. A1 + 2 or SUM(A1:A4).
+ * <p>
+ * The name and arguments of an operation are exactly those that recreate it with
+ * {@link ExpressionFactory#createOperator(String, Object[])}, so an operation may be
+ * taken apart and rebuilt, e.g. when storing a formula in a file without rendering it.
+ */
+public interface Operation {
+    /**
+     * The name of the operator, as given to {@link ExpressionFactory#createOperator(String, Object[])}.
+     * @return The name of the operator, e.g. +, SUM.
+     */
+    String getName();
+
+    /**
+     * The arguments of the operator, as given to {@link ExpressionFactory#createOperator(String, Object[])}.
+     * @return A new array containing the arguments of the operator.
+     */
+    Expression[] getArguments();
+}
@@ -1,7 +1,9 @@
 package sheep.expression.arithmetic;
 
 import sheep.expression.basic.Constant;
+import sheep.expression.Columns;
 import sheep.expression.Expression;
+import sheep.expression.Operation;
 import sheep.expression.TypeError;
 import sheep.expression.basic.Nothing;
 
@@ -16,7 +18,7 @@ import java.util.StringJoiner;
  * Performs arithmetic operations on a sequence of sub-expressions.
  * @stage2
  */
-public abstract class Arithmetic extends Expression {
+public abstract class Arithmetic extends Expression implements Operation {
     private final String operator;
     private final Expression[] arguments;
 
@@ -98,6 +100,24 @@ public abstract class Arithmetic extends Expression {
         return new Equal(arguments);
     }
 
+    /**
+     * The name of the operator, e.g. +.
+     * @return The name of the operator.
+     */
+    @Override
+    public String getName() {
+        return operator;
+    }
+
+    /**
+     * The sub-expressions the operator is applied to.
+     * @return A new array containing the arguments of the operator.
+     */
+    @Override
+    public Expression[] getArguments() {
+        return arguments.clone();
+    }
+
     /**
      * Dependencies of the arithmetic expression.
      * The dependencies of an arithmetic expression are the union
@@ -141,6 +161,25 @@ public abstract class Arithmetic extends Expression {
         return new Constant(perform(values));
     }
 
+    /**
+     * Evaluate the expression for every row of a block of cells at once.
+     * <p>
+     * Each sub-expression is evaluated column-wise, then the arithmetic operation
+     * is performed across the columns, see {@link #perform(long[][], int)}.
+     *
+     * @param columns The values of the cells referenced by the expression.
+     * @return An array of {@link Columns#length()} results.
+     * @throws TypeError If any sub-expression cannot be evaluated column-wise.
+     */
+    @Override
+    public long[] values(Columns columns) throws TypeError {
+        long[][] values = new long[arguments.length][];
+        for (int i = 0; i < arguments.length; i++) {
+            values[i] = arguments[i].values(columns);
+        }
+        return perform(values, columns.length());
+    }
+
     /**
      * Evaluate the expression to a numeric value.
      * For arithmetic expressions, a type error will always be thrown.
@@ -161,6 +200,29 @@ public abstract class Arithmetic extends Expression {
      */
     protected abstract long perform(long[] arguments);
 
+    /**
+     * Perform the arithmetic operation row by row over columns of numbers.
+     * <p>
+     * By default, {@link #perform(long[])} is called for every row.
+     * Subclasses may override this method with a single loop over each column.
+     * The given columns must not be modified.
+     *
+     * @param arguments A column of numbers for each sub-expression.
+     * @param length The number of rows in every column.
+     * @return The result of performing the arithmetic operation on each row.
+     */
+    protected long[] perform(long[][] arguments, int length) {
+        long[] result = new long[length];
+        long[] row = new long[arguments.length];
+        for (int i = 0; i < length; i++) {
+            for (int argument = 0; argument < arguments.length; argument++) {
+                row[argument] = arguments[argument][i];
+            }
+            result[i] = perform(row);
+        }
+        return result;
+    }
+
     /**
      * The string representation of an expression when rendered within a cell.
      * For arithmetic, this is the sequence of sub-expressions joined
@@ -2,6 +2,8 @@ package sheep.expression.arithmetic;
 
 import sheep.expression.Expression;
 
+import java.util.Arrays;
+
 /**
  * A minus operation.
  * Minus operations must have the operator name "-".
@@ -38,4 +40,23 @@ class Minus extends Arithmetic {
         }
         return result;
     }
+
+    /**
+     * Subtract the columns of numbers row by row, one column at a time.
+     *
+     * @param arguments A column of numbers for each sub-expression.
+     * @param length The number of rows in every column.
+     * @return The result of the operation on each row.
+     */
+    @Override
+    protected long[] perform(long[][] arguments, int length) {
+        long[] result = Arrays.copyOf(arguments[0], length);
+        for (int argument = 1; argument < arguments.length; argument++) {
+            long[] column = arguments[argument];
+            for (int i = 0; i < length; i++) {
+                result[i] -= column[i];
+            }
+        }
+        return result;
+    }
 }
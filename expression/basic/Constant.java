@@ -1,5 +1,6 @@
 package sheep.expression.basic;
 
+import sheep.expression.Columns;
 import sheep.expression.Expression;
 
 import java.util.*;
@@ -121,6 +122,19 @@ public class Constant extends Expression {
         return number;
     }
 
+    /**
+     * Evaluate the expression for every row of a block of cells at once.
+     * For constants, every row is the long value stored.
+     * @param columns The values of the cells referenced by the expression.
+     * @return An array of {@link Columns#length()} copies of the stored number.
+     */
+    @Override
+    public long[] values(Columns columns) {
+        long[] result = new long[columns.length()];
+        Arrays.fill(result, number);
+        return result;
+    }
+
     /**
      * The string representation of an expression when rendered within a cell.
      * For constants, this is the number as a string.
@@ -0,0 +1,182 @@
+package sheep.expression.basic;
+
+import sheep.expression.Expression;
+import sheep.expression.Operation;
+import sheep.expression.TypeError;
+import sheep.sheets.CellLocation;
+import sheep.sheets.CellRange;
+
+import java.util.*;
+
+/**
+ * A reference to a rectangular range of cells, e.g. A1:A10.
+ * <p>
+ * A range evaluates to a {@link RangeValue} which summarises the cells within the range.
+ */
+public class Range extends Expression implements Operation {
+    /**
+     * The most cells of a range looked up one at a time,
+     * larger ranges visit the entries of the state instead.
+     */
+    private static final long LOOKUP_CELLS = 1 << 16;
+
+    private final CellRange range;
+
+    /**
+     * Construct a new reference to a range of cells.
+     * @requires range != null
+     * @param range The block of cells referenced.
+     */
+    public Range(CellRange range) {
+        this.range = range;
+    }
+
+    /**
+     * Returns the block of cells referenced.
+     * @return the block of cells referenced.
+     */
+    public CellRange getRange() {
+        return range;
+    }
+
+    /**
+     * The name of the range operator, a colon.
+     * @return ":"
+     */
+    @Override
+    public String getName() {
+        return ":";
+    }
+
+    /**
+     * References to the two corners of the range.
+     * @return A new array containing a reference to the top-left and bottom-right cells.
+     */
+    @Override
+    public Expression[] getArguments() {
+        CellLocation first = new CellLocation(range.getFirstRow(), range.getFirstColumn());
+        CellLocation last = new CellLocation(range.getLastRow(), range.getLastColumn());
+        return new Expression[]{new Reference(first.toString()), new Reference(last.toString())};
+    }
+
+    /**
+     * Dependencies of the range expression.
+     * The dependency of a range is the range itself, e.g. "A1:A10",
+     * rather than each individual cell within the range.
+     *
+     * @return A set containing the range identifier.
+     */
+    @Override
+    public Set<String> dependencies() {
+        Set<String> deps = new HashSet<>();
+        deps.add(range.toString());
+        return deps;
+    }
+
+    /**
+     * The result of evaluating this expression.
+     * <p>
+     * If the given state has an entry for the range identifier, e.g. "A1:A10",
+     * that entry is the value of the range.
+     * Otherwise, every cell of the range present in the state is evaluated
+     * and summarised with {@link RangeValue#of(int, int, Map)}.
+     * Small ranges look up each of their cells in the state, while larger ranges
+     * visit the entries of the state instead, so evaluating a range costs no more than
+     * the smaller of the range and the state, however many cells the range covers.
+     *
+     * @param state A mapping of references to the expression they hold.
+     * @return A {@link RangeValue} summarising the cells within the range.
+     * @throws TypeError If a type error occurs in the process of evaluation.
+     */
+    @Override
+    public Expression value(Map<String, Expression> state) throws TypeError {
+        if (state.containsKey(range.toString())) {
+            return state.get(range.toString()).value(state);
+        }
+        Map<Long, Expression> cells = new HashMap<>();
+        long covered = ((long) range.getLastRow() - range.getFirstRow() + 1) * range.getWidth();
+        if (covered <= LOOKUP_CELLS) {
+            for (CellLocation location : range.locations()) {
+                Expression cell = state.get(location.toString());
+                if (cell != null) {
+                    cells.put(index(location), cell.value(state));
+                }
+            }
+        } else {
+            for (Map.Entry<String, Expression> entry : state.entrySet()) {
+                Optional<CellLocation> location = CellLocation.maybeReference(entry.getKey());
+                if (location.isPresent() && range.contains(location.get())) {
+                    cells.put(index(location.get()), entry.getValue().value(state));
+                }
+            }
+        }
+        return RangeValue.of(range.getWidth(), range.getHeight(), cells);
+    }
+
+    /**
+     * The index of a cell within the range in row-major order.
+     */
+    private long index(CellLocation location) {
+        return (long) (location.getRow() - range.getFirstRow()) * range.getWidth()
+                + location.getColumn() - range.getFirstColumn();
+    }
+
+    /**
+     * Evaluate the expression to a numeric value.
+     * For ranges, a type error will always be thrown.
+     * @return Nothing will be returned as a {@link TypeError} is always thrown.
+     * @throws TypeError Will always be thrown by {@link Range}.
+     */
+    @Override
+    public long value() throws TypeError {
+        throw new TypeError();
+    }
+
+    /**
+     * If two instances of range are equal to each other.
+     * Equality is defined by referencing the same block of cells.
+     * @param obj another instance to compare against.
+     * @return true if the other object is a range of the same cells.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof Range other) {
+            return range.equals(other.range);
+        }
+        return false;
+    }
+
+    /**
+     * A hashcode method that respects the {@link Range#equals(Object)} method.
+     * @return An appropriate hashcode value for this instance.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(range);
+    }
+
+    /**
+     * The string representation of an expression when rendered within a cell.
+     * For ranges, this is the two corners separated by a colon.
+     * <pre>
+     * {@code
+     * Range range = new Range(CellRange.maybeRange("A1:A10").get());
+     * range.render(); // "A1:A10"
+     * }</pre>
+     * @return the string representation of the expression.
+     */
+    @Override
+    public String render() {
+        return range.toString();
+    }
+
+    /**
+     * String representation of the range.
+     * The result is formatted as "RANGE([range])", e.g. "RANGE(A1:A10)".
+     * @return String representation of the expression.
+     */
+    @Override
+    public String toString() {
+        return "RANGE(" + range + ")";
+    }
+}
@@ -0,0 +1,311 @@
+package sheep.expression.basic;
+
+import sheep.expression.Expression;
+import sheep.expression.TypeError;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+import java.util.Set;
+
+/**
+ * The value of a {@link Range} of cells.
+ * <p>
+ * A range value summarises the numeric cells within a range,
+ * such that functions over the range (e.g. a sum) do not need to
+ * visit every cell. Cells that do not hold a numeric value,
+ * such as empty cells, are not included in the summary.
+ * <p>
+ * A range value also gives access to the cells of the range as a table,
+ * so that lookup functions can search a column of the range for a value.
+ * <p>
+ * Spreadsheets may provide their own range values which are maintained
+ * as cells change, otherwise {@link RangeValue#of(int, int, Map)} summarises
+ * the cell values directly.
+ */
+public abstract class RangeValue extends Expression {
+    /**
+     * The number of numeric cells within the range.
+     * @return The number of numeric cells within the range.
+     */
+    public abstract long count();
+
+    /**
+     * The sum of the numeric cells within the range.
+     * @return The sum of the numeric cells within the range, or 0 if there are none.
+     */
+    public abstract long sum();
+
+    /**
+     * The smallest numeric cell within the range.
+     * @return The smallest numeric cell within the range, or 0 if there are none.
+     */
+    public abstract long min();
+
+    /**
+     * The largest numeric cell within the range.
+     * @return The largest numeric cell within the range, or 0 if there are none.
+     */
+    public abstract long max();
+
+    /**
+     * The number of columns within the range.
+     * @return The number of columns within the range.
+     */
+    public abstract int width();
+
+    /**
+     * The number of rows within the range.
+     * @return The number of rows within the range.
+     */
+    public abstract int height();
+
+    /**
+     * The value of a cell within the range.
+     *
+     * @param row The row of the cell, relative to the first row of the range.
+     * @param column The column of the cell, relative to the first column of the range.
+     * @requires 0 &lt;= row &lt; height() and 0 &lt;= column &lt; width()
+     * @return The value of the cell, or an instance of {@link Nothing} if the cell has no value.
+     */
+    public abstract Expression valueAt(int row, int column);
+
+    /**
+     * Find the first row of the range holding exactly the given number in the given column.
+     * <p>
+     * By default, this scans the column from the top.
+     * Range values maintained by a spreadsheet should index the column instead.
+     *
+     * @param value The number to find.
+     * @param column The column to search, relative to the first column of the range.
+     * @requires 0 &lt;= column &lt; width()
+     * @return The row of the first match, relative to the first row of the range,
+     *         or {@link OptionalInt#empty()} if no cell of the column holds the number.
+     */
+    public OptionalInt find(long value, int column) {
+        for (int row = 0; row < height(); row++) {
+            OptionalLong number = numeric(valueAt(row, column));
+            if (number.isPresent() && number.getAsLong() == value) {
+                return OptionalInt.of(row);
+            }
+        }
+        return OptionalInt.empty();
+    }
+
+    /**
+     * Find the row of the range holding the largest number in the given column
+     * that is not larger than the given number.
+     * If several rows hold that number, the last of them is found.
+     * <p>
+     * For a column sorted in ascending order, this is the row an approximate
+     * lookup of the number would stop at.
+     * By default, this scans the whole column.
+     * Range values maintained by a spreadsheet should index the column instead.
+     *
+     * @param value The number to find.
+     * @param column The column to search, relative to the first column of the range.
+     * @requires 0 &lt;= column &lt; width()
+     * @return The row of the match, relative to the first row of the range,
+     *         or {@link OptionalInt#empty()} if every number in the column is larger.
+     */
+    public OptionalInt floor(long value, int column) {
+        OptionalInt found = OptionalInt.empty();
+        long best = Long.MIN_VALUE;
+        for (int row = 0; row < height(); row++) {
+            OptionalLong number = numeric(valueAt(row, column));
+            if (number.isPresent() && number.getAsLong() <= value
+                    && (found.isEmpty() || number.getAsLong() >= best)) {
+                found = OptionalInt.of(row);
+                best = number.getAsLong();
+            }
+        }
+        return found;
+    }
+
+    /**
+     * The numeric value of a cell value, if it has one.
+     *
+     * @param value The value of a cell, or null if the cell has no value.
+     * @return The numeric value of the cell,
+     *         or {@link OptionalLong#empty()} if the value is not numeric.
+     */
+    public static OptionalLong numeric(Expression value) {
+        if (value == null) {
+            return OptionalLong.empty();
+        }
+        try {
+            return OptionalLong.of(value.value());
+        } catch (TypeError e) {
+            return OptionalLong.empty();
+        }
+    }
+
+    /**
+     * Summarise the values of the cells within a range.
+     *
+     * @param width The number of columns within the range.
+     * @param height The number of rows within the range.
+     * @param cells The value of each cell within the range in row-major order,
+     *              where a cell without a value is null.
+     * @requires cells.length == width * height
+     * @return A range value summarising the numeric cells.
+     */
+    public static RangeValue of(int width, int height, Expression[] cells) {
+        Map<Long, Expression> values = new HashMap<>();
+        for (int i = 0; i < cells.length; i++) {
+            if (cells[i] != null) {
+                values.put((long) i, cells[i]);
+            }
+        }
+        return of(width, height, values);
+    }
+
+    /**
+     * Summarise the values of the cells within a range, given only the cells with a value,
+     * so a summary of a large range holding few values takes little memory.
+     *
+     * @param width The number of columns within the range.
+     * @param height The number of rows within the range.
+     * @param cells The value of each cell within the range holding a value,
+     *              keyed by the index of the cell in row-major order,
+     *              i.e. {@code (long) row * width + column}.
+     * @return A range value summarising the numeric cells.
+     */
+    public static RangeValue of(int width, int height, Map<Long, Expression> cells) {
+        long count = 0;
+        long sum = 0;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (Expression cell : cells.values()) {
+            OptionalLong number = numeric(cell);
+            if (number.isPresent()) {
+                count++;
+                sum += number.getAsLong();
+                min = Math.min(min, number.getAsLong());
+                max = Math.max(max, number.getAsLong());
+            }
+        }
+        if (count == 0) {
+            min = 0;
+            max = 0;
+        }
+        return new Summary(width, height, cells, count, sum, min, max);
+    }
+
+    /**
+     * Dependencies of a range value.
+     * Range values are already evaluated and have no dependencies.
+     *
+     * @return An empty set to represent no dependencies.
+     */
+    @Override
+    public Set<String> dependencies() {
+        return new HashSet<>();
+    }
+
+    /**
+     * The result of evaluating this expression.
+     * <p>
+     * A range value cannot be further evaluated, therefore this method
+     * will return itself.
+     * @param state A mapping of references to the expression they hold.
+     * @return Itself.
+     */
+    @Override
+    public Expression value(Map<String, Expression> state) {
+        return this;
+    }
+
+    /**
+     * Evaluate the expression to a numeric value.
+     * A range holds many values, so a type error will always be thrown.
+     * @return Nothing will be returned as a {@link TypeError} is always thrown.
+     * @throws TypeError Will always be thrown by {@link RangeValue}.
+     */
+    @Override
+    public long value() throws TypeError {
+        throw new TypeError();
+    }
+
+    /**
+     * The string representation of a range value when rendered within a cell.
+     * A range cannot be displayed within a single cell, so "#RANGE" is rendered.
+     * @return the string representation of the expression.
+     */
+    @Override
+    public String render() {
+        return "#RANGE";
+    }
+
+    /**
+     * String representation of the range value.
+     * The result is formatted as "RANGEVALUE([count], [sum], [min], [max])".
+     * @return String representation of the range value.
+     */
+    @Override
+    public String toString() {
+        return "RANGEVALUE(" + count() + ", " + sum() + ", " + min() + ", " + max() + ")";
+    }
+
+    /**
+     * A fixed summary of a range, computed once from the cell values.
+     */
+    private static class Summary extends RangeValue {
+        private final int width;
+        private final int height;
+        private final Map<Long, Expression> cells;
+        private final long count;
+        private final long sum;
+        private final long min;
+        private final long max;
+
+        private Summary(int width, int height, Map<Long, Expression> cells,
+                        long count, long sum, long min, long max) {
+            this.width = width;
+            this.height = height;
+            this.cells = cells;
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public int width() {
+            return width;
+        }
+
+        @Override
+        public int height() {
+            return height;
+        }
+
+        @Override
+        public Expression valueAt(int row, int column) {
+            Expression cell = cells.get((long) row * width + column);
+            return cell == null ? new Nothing() : cell;
+        }
+
+        @Override
+        public long count() {
+            return count;
+        }
+
+        @Override
+        public long sum() {
+            return sum;
+        }
+
+        @Override
+        public long min() {
+            return min;
+        }
+
+        @Override
+        public long max() {
+            return max;
+        }
+    }
+}
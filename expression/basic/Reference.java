@@ -1,5 +1,6 @@
 package sheep.expression.basic;
 
+import sheep.expression.Columns;
 import sheep.expression.Expression;
 import sheep.expression.TypeError;
 import sheep.sheets.CellLocation;
@@ -124,6 +125,18 @@ public class Reference extends Expression {
         throw new TypeError();
     }
 
+    /**
+     * Evaluate the expression for every row of a block of cells at once.
+     * For references, this is the column of values referred to by the identifier.
+     * @param columns The values of the cells referenced by the expression.
+     * @return The column of values for the referenced identifier.
+     * @throws TypeError If the identifier does not have a numeric value in every row.
+     */
+    @Override
+    public long[] values(Columns columns) throws TypeError {
+        return columns.column(identifier);
+    }
+
     /**
      * The string representation of an expression when rendered within a cell.
      * For references, this is the referenced identifier.
@@ -0,0 +1,209 @@
+package sheep.expression.functions;
+
+import sheep.expression.Expression;
+import sheep.expression.Operation;
+import sheep.expression.TypeError;
+import sheep.expression.basic.Constant;
+import sheep.expression.basic.Nothing;
+import sheep.expression.basic.RangeValue;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+
+/**
+ * An aggregate function, e.g. SUM(A1:A10, B2).
+ * Combines the numeric values of ranges and sub-expressions into a single number.
+ * <p>
+ * Arguments which evaluate to a {@link RangeValue} contribute the summary of their range,
+ * so the cost of evaluating an aggregate does not depend on the size of its ranges.
+ * Any other argument must evaluate to a numeric value, or to {@link Nothing}
+ * for an empty cell, which is left out just as empty cells within a range are,
+ * e.g. SUM(A1, A2) and SUM(A1:A2) agree when either cell is empty.
+ */
+public abstract class Aggregate extends Expression implements Operation {
+    private final String name;
+    private final Expression[] arguments;
+
+    /**
+     * Construct a new aggregate function.
+     *
+     * @param name The name of the function, e.g. SUM.
+     * @param arguments A sequence of ranges and sub-expressions to aggregate.
+     * @requires arguments.length &gt; 0
+     */
+    protected Aggregate(String name, Expression[] arguments) {
+        this.name = name;
+        this.arguments = arguments;
+    }
+
+    /**
+     * Construct a new sum function.
+     *
+     * @param arguments A sequence of ranges and sub-expressions to aggregate.
+     * @requires arguments.length &gt; 0
+     * @return A sum expression.
+     */
+    public static Aggregate sum(Expression[] arguments) {
+        return new Sum(arguments);
+    }
+
+    /**
+     * Construct a new minimum function.
+     *
+     * @param arguments A sequence of ranges and sub-expressions to aggregate.
+     * @requires arguments.length &gt; 0
+     * @return A min expression.
+     */
+    public static Aggregate min(Expression[] arguments) {
+        return new Min(arguments);
+    }
+
+    /**
+     * Construct a new maximum function.
+     *
+     * @param arguments A sequence of ranges and sub-expressions to aggregate.
+     * @requires arguments.length &gt; 0
+     * @return A max expression.
+     */
+    public static Aggregate max(Expression[] arguments) {
+        return new Max(arguments);
+    }
+
+    /**
+     * Construct a new count function.
+     *
+     * @param arguments A sequence of ranges and sub-expressions to aggregate.
+     * @requires arguments.length &gt; 0
+     * @return A count expression.
+     */
+    public static Aggregate count(Expression[] arguments) {
+        return new Count(arguments);
+    }
+
+    /**
+     * The name of the operator, e.g. SUM.
+     * @return The name of the operator.
+     */
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The sub-expressions the operator is applied to.
+     * @return A new array containing the arguments of the operator.
+     */
+    @Override
+    public Expression[] getArguments() {
+        return arguments.clone();
+    }
+
+    /**
+     * Dependencies of the aggregate expression.
+     * The dependencies of an aggregate expression are the union
+     * of all its arguments.
+     *
+     * @return A set containing the union of all argument dependencies.
+     */
+    @Override
+    public Set<String> dependencies() {
+        Set<String> dependencies = new HashSet<>();
+        for (Expression expression : arguments) {
+            dependencies.addAll(expression.dependencies());
+        }
+        return dependencies;
+    }
+
+    /**
+     * The result of evaluating this expression.
+     * <p>
+     * An aggregate expression will evaluate to a {@link Constant} expression
+     * that stores the result of performing the specific aggregate function over
+     * the numeric values of every argument.
+     *
+     * @param state A mapping of references to the expression they hold.
+     * @return A constant expression of the result.
+     * @throws TypeError If any argument which is neither a range nor empty
+     *                   cannot be converted to a numeric value.
+     */
+    @Override
+    public Expression value(Map<String, Expression> state) throws TypeError {
+        long count = 0;
+        long sum = 0;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (Expression argument : arguments) {
+            Expression value = argument.value(state);
+            if (value instanceof RangeValue range) {
+                if (range.count() == 0) {
+                    continue;
+                }
+                count += range.count();
+                sum += range.sum();
+                min = Math.min(min, range.min());
+                max = Math.max(max, range.max());
+            } else if (!(value instanceof Nothing)) {
+                long number = value.value();
+                count++;
+                sum += number;
+                min = Math.min(min, number);
+                max = Math.max(max, number);
+            }
+        }
+        return new Constant(perform(count, sum, min, max));
+    }
+
+    /**
+     * Evaluate the expression to a numeric value.
+     * For aggregate expressions, a type error will always be thrown.
+     * @return Nothing will be returned as a {@link TypeError} is always thrown.
+     * @throws TypeError Will always be thrown by {@link Aggregate}.
+     */
+    @Override
+    public long value() throws TypeError {
+        throw new TypeError();
+    }
+
+    /**
+     * Perform the aggregate function over a summary of the numeric values.
+     * <p>
+     * This is an abstract method that should be implemented by each subclass.
+     * @param count The number of numeric values.
+     * @param sum The sum of the numeric values.
+     * @param min The smallest numeric value, only meaningful if count &gt; 0.
+     * @param max The largest numeric value, only meaningful if count &gt; 0.
+     * @return The result of performing the aggregate function.
+     */
+    protected abstract long perform(long count, long sum, long min, long max);
+
+    /**
+     * The string representation of an expression when rendered within a cell.
+     * For aggregates, this is the function name followed by its arguments.
+     * <pre>
+     * {@code
+     * Aggregate sum = Aggregate.sum(new Expression[]{new Range(range), new Constant(4)});
+     * sum.render(); // "SUM(A1:A10, 4)"
+     * }</pre>
+     * @return the string representation of the expression.
+     */
+    @Override
+    public String render() {
+        return toString();
+    }
+
+    /**
+     * The string representation of the expression.
+     * For aggregates, this is the function name followed by its arguments.
+     * @return the string representation of the expression.
+     */
+    @Override
+    public String toString() {
+        StringJoiner builder = new StringJoiner(", ", name + "(", ")");
+        for (Expression argument : arguments) {
+            builder.add(argument.render());
+        }
+        return builder.toString();
+    }
+}
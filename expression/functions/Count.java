@@ -0,0 +1,33 @@
+package sheep.expression.functions;
+
+import sheep.expression.Expression;
+
+/**
+ * A count function over ranges and values.
+ * Count functions must have the function name "COUNT".
+ */
+class Count extends Aggregate {
+    /**
+     * Construct a new count function.
+     *
+     * @param arguments A sequence of ranges and sub-expressions to aggregate.
+     * @requires arguments.length &gt; 0
+     */
+    public Count(Expression[] arguments) {
+        super("COUNT", arguments);
+    }
+
+    /**
+     * Count the numeric values, empty cells are not counted.
+     *
+     * @param count The number of numeric values.
+     * @param sum The sum of the numeric values.
+     * @param min The smallest numeric value.
+     * @param max The largest numeric value.
+     * @return The number of numeric values.
+     */
+    @Override
+    protected long perform(long count, long sum, long min, long max) {
+        return count;
+    }
+}
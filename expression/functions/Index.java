@@ -0,0 +1,33 @@
+package sheep.expression.functions;
+
+import sheep.expression.Expression;
+import sheep.expression.TypeError;
+
+/**
+ * An index function, reading a cell of a range by its position.
+ * Index functions must have the function name "INDEX".
+ */
+class Index extends Lookup {
+    /**
+     * Construct a new index function.
+     *
+     * @param arguments The range to read, the row and optionally the column.
+     * @requires arguments.length == 2 || arguments.length == 3
+     */
+    public Index(Expression[] arguments) {
+        super("INDEX", arguments);
+    }
+
+    /**
+     * Read the cell at the given row and column of the range.
+     *
+     * @param values The range to read, the row and optionally the column.
+     * @return The value of the cell.
+     * @throws TypeError If the position is outside the range or any argument is of the wrong type.
+     */
+    @Override
+    protected Expression perform(Expression[] values) throws TypeError {
+        long column = values.length < 3 ? 1 : values[2].value();
+        return cell(range(values[0]), values[1].value(), column);
+    }
+}
@@ -0,0 +1,243 @@
+package sheep.expression.functions;
+
+import sheep.expression.Expression;
+import sheep.expression.InvalidExpression;
+import sheep.expression.Operation;
+import sheep.expression.TypeError;
+import sheep.expression.basic.Nothing;
+import sheep.expression.basic.RangeValue;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.StringJoiner;
+
+/**
+ * A lookup function, e.g. VLOOKUP(4, A1:C100, 3).
+ * Finds a value within a column of a range, or reads a cell of a range by position.
+ * <p>
+ * Searching a column is delegated to the {@link RangeValue} of the range,
+ * so within a sheet an exact lookup costs O(1) and an approximate lookup costs O(log n)
+ * rather than scanning the column.
+ * <p>
+ * Lookups which do not find the value evaluate to {@link Nothing}.
+ */
+public abstract class Lookup extends Expression implements Operation {
+    private final String name;
+    private final Expression[] arguments;
+
+    /**
+     * Construct a new lookup function.
+     *
+     * @param name The name of the function, e.g. MATCH.
+     * @param arguments The arguments of the function.
+     */
+    protected Lookup(String name, Expression[] arguments) {
+        this.name = name;
+        this.arguments = arguments;
+    }
+
+    private static void checkArguments(String name, Expression[] arguments, int min, int max)
+            throws InvalidExpression {
+        if (arguments.length < min || arguments.length > max) {
+            throw new InvalidExpression("Wrong number of arguments to " + name);
+        }
+    }
+
+    /**
+     * Construct a new match function, MATCH(value, range[, approximate]).
+     * <p>
+     * Evaluates to the position, starting from 1, of the value within the first column of the range.
+     * If approximate is omitted or non-zero, the position of the largest number
+     * not larger than the value is found, assuming the column is sorted in ascending order.
+     * If approximate is zero, the position of the first exact match is found.
+     *
+     * @param arguments The value to find, the range to search and optionally whether to match approximately.
+     * @return A match expression.
+     * @throws InvalidExpression If there are not two or three arguments.
+     */
+    public static Lookup match(Expression[] arguments) throws InvalidExpression {
+        checkArguments("MATCH", arguments, 2, 3);
+        return new Match(arguments);
+    }
+
+    /**
+     * Construct a new vertical lookup function, VLOOKUP(value, range, column[, approximate]).
+     * <p>
+     * Finds the value within the first column of the range as per {@link #match(Expression[])}
+     * and evaluates to the cell in the given column, starting from 1, of the matching row.
+     *
+     * @param arguments The value to find, the range to search, the column to return
+     *                  and optionally whether to match approximately.
+     * @return A vertical lookup expression.
+     * @throws InvalidExpression If there are not three or four arguments.
+     */
+    public static Lookup vlookup(Expression[] arguments) throws InvalidExpression {
+        checkArguments("VLOOKUP", arguments, 3, 4);
+        return new VLookup(arguments);
+    }
+
+    /**
+     * Construct a new index function, INDEX(range, row[, column]).
+     * <p>
+     * Evaluates to the cell of the range at the given row and column, both starting from 1.
+     * If the column is omitted, the first column is used.
+     *
+     * @param arguments The range to read, the row and optionally the column.
+     * @return An index expression.
+     * @throws InvalidExpression If there are not two or three arguments.
+     */
+    public static Lookup index(Expression[] arguments) throws InvalidExpression {
+        checkArguments("INDEX", arguments, 2, 3);
+        return new Index(arguments);
+    }
+
+    /**
+     * Convert the value of an argument to a range.
+     *
+     * @param value The value of an argument.
+     * @return The value as a range.
+     * @throws TypeError If the value is not a range.
+     */
+    protected static RangeValue range(Expression value) throws TypeError {
+        if (value instanceof RangeValue range) {
+            return range;
+        }
+        throw new TypeError();
+    }
+
+    /**
+     * Find a number within the first column of a range.
+     *
+     * @param range The range to search.
+     * @param value The number to find.
+     * @param approximate Whether to find the largest number not larger than the value,
+     *                    rather than an exact match.
+     * @return The row of the match, relative to the first row of the range.
+     */
+    protected static OptionalInt search(RangeValue range, long value, boolean approximate) {
+        if (approximate) {
+            return range.floor(value, 0);
+        }
+        return range.find(value, 0);
+    }
+
+    /**
+     * Read a cell of a range by its position, starting from 1.
+     *
+     * @param range The range to read.
+     * @param row The row within the range, starting from 1.
+     * @param column The column within the range, starting from 1.
+     * @return The value of the cell.
+     * @throws TypeError If the position is outside the range.
+     */
+    protected static Expression cell(RangeValue range, long row, long column) throws TypeError {
+        if (row < 1 || row > range.height() || column < 1 || column > range.width()) {
+            throw new TypeError();
+        }
+        return range.valueAt((int) row - 1, (int) column - 1);
+    }
+
+    /**
+     * The name of the operator, e.g. VLOOKUP.
+     * @return The name of the operator.
+     */
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The sub-expressions the operator is applied to.
+     * @return A new array containing the arguments of the operator.
+     */
+    @Override
+    public Expression[] getArguments() {
+        return arguments.clone();
+    }
+
+    /**
+     * Dependencies of the lookup expression.
+     * The dependencies of a lookup expression are the union
+     * of all its arguments.
+     *
+     * @return A set containing the union of all argument dependencies.
+     */
+    @Override
+    public Set<String> dependencies() {
+        Set<String> dependencies = new HashSet<>();
+        for (Expression expression : arguments) {
+            dependencies.addAll(expression.dependencies());
+        }
+        return dependencies;
+    }
+
+    /**
+     * The result of evaluating this expression.
+     * <p>
+     * Every argument is evaluated, then the specific lookup is performed over the values.
+     *
+     * @param state A mapping of references to the expression they hold.
+     * @return The result of the lookup.
+     * @throws TypeError If any argument is not of the type the lookup expects.
+     */
+    @Override
+    public Expression value(Map<String, Expression> state) throws TypeError {
+        Expression[] values = new Expression[arguments.length];
+        for (int i = 0; i < arguments.length; i++) {
+            values[i] = arguments[i].value(state);
+        }
+        return perform(values);
+    }
+
+    /**
+     * Evaluate the expression to a numeric value.
+     * For lookup expressions, a type error will always be thrown.
+     * @return Nothing will be returned as a {@link TypeError} is always thrown.
+     * @throws TypeError Will always be thrown by {@link Lookup}.
+     */
+    @Override
+    public long value() throws TypeError {
+        throw new TypeError();
+    }
+
+    /**
+     * Perform the lookup over the values of the arguments.
+     * <p>
+     * This is an abstract method that should be implemented by each subclass.
+     * @param values The value of each argument.
+     * @return The result of the lookup.
+     * @throws TypeError If any argument is not of the type the lookup expects.
+     */
+    protected abstract Expression perform(Expression[] values) throws TypeError;
+
+    /**
+     * The string representation of an expression when rendered within a cell.
+     * For lookups, this is the function name followed by its arguments.
+     * <pre>
+     * {@code
+     * Lookup match = Lookup.match(new Expression[]{new Constant(4), new Range(range)});
+     * match.render(); // "MATCH(4, A1:A10)"
+     * }</pre>
+     * @return the string representation of the expression.
+     */
+    @Override
+    public String render() {
+        return toString();
+    }
+
+    /**
+     * The string representation of the expression.
+     * For lookups, this is the function name followed by its arguments.
+     * @return the string representation of the expression.
+     */
+    @Override
+    public String toString() {
+        StringJoiner builder = new StringJoiner(", ", name + "(", ")");
+        for (Expression argument : arguments) {
+            builder.add(argument.render());
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,41 @@
+package sheep.expression.functions;
+
+import sheep.expression.Expression;
+import sheep.expression.TypeError;
+import sheep.expression.basic.Constant;
+import sheep.expression.basic.Nothing;
+
+import java.util.OptionalInt;
+
+/**
+ * A match function, finding the position of a value within a range.
+ * Match functions must have the function name "MATCH".
+ */
+class Match extends Lookup {
+    /**
+     * Construct a new match function.
+     *
+     * @param arguments The value to find, the range to search and optionally whether to match approximately.
+     * @requires arguments.length == 2 || arguments.length == 3
+     */
+    public Match(Expression[] arguments) {
+        super("MATCH", arguments);
+    }
+
+    /**
+     * Find the position of the value within the first column of the range.
+     *
+     * @param values The value to find, the range to search and optionally whether to match approximately.
+     * @return The position of the match starting from 1, or {@link Nothing} if there is no match.
+     * @throws TypeError If the value or approximate flag are not numeric or the range is not a range.
+     */
+    @Override
+    protected Expression perform(Expression[] values) throws TypeError {
+        boolean approximate = values.length < 3 || values[2].value() != 0;
+        OptionalInt row = search(range(values[1]), values[0].value(), approximate);
+        if (row.isEmpty()) {
+            return new Nothing();
+        }
+        return new Constant(row.getAsInt() + 1);
+    }
+}
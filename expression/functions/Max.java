@@ -0,0 +1,33 @@
+package sheep.expression.functions;
+
+import sheep.expression.Expression;
+
+/**
+ * A maximum function over ranges and values.
+ * Max functions must have the function name "MAX".
+ */
+class Max extends Aggregate {
+    /**
+     * Construct a new max function.
+     *
+     * @param arguments A sequence of ranges and sub-expressions to aggregate.
+     * @requires arguments.length &gt; 0
+     */
+    public Max(Expression[] arguments) {
+        super("MAX", arguments);
+    }
+
+    /**
+     * Find the largest numeric value.
+     *
+     * @param count The number of numeric values.
+     * @param sum The sum of the numeric values.
+     * @param min The smallest numeric value.
+     * @param max The largest numeric value.
+     * @return The largest numeric value, or 0 if there are none.
+     */
+    @Override
+    protected long perform(long count, long sum, long min, long max) {
+        return count == 0 ? 0 : max;
+    }
+}
@@ -0,0 +1,33 @@
+package sheep.expression.functions;
+
+import sheep.expression.Expression;
+
+/**
+ * A minimum function over ranges and values.
+ * Min functions must have the function name "MIN".
+ */
+class Min extends Aggregate {
+    /**
+     * Construct a new min function.
+     *
+     * @param arguments A sequence of ranges and sub-expressions to aggregate.
+     * @requires arguments.length &gt; 0
+     */
+    public Min(Expression[] arguments) {
+        super("MIN", arguments);
+    }
+
+    /**
+     * Find the smallest numeric value.
+     *
+     * @param count The number of numeric values.
+     * @param sum The sum of the numeric values.
+     * @param min The smallest numeric value.
+     * @param max The largest numeric value.
+     * @return The smallest numeric value, or 0 if there are none.
+     */
+    @Override
+    protected long perform(long count, long sum, long min, long max) {
+        return count == 0 ? 0 : min;
+    }
+}
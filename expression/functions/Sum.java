@@ -0,0 +1,33 @@
+package sheep.expression.functions;
+
+import sheep.expression.Expression;
+
+/**
+ * A sum function over ranges and values.
+ * Sum functions must have the function name "SUM".
+ */
+class Sum extends Aggregate {
+    /**
+     * Construct a new sum function.
+     *
+     * @param arguments A sequence of ranges and sub-expressions to aggregate.
+     * @requires arguments.length &gt; 0
+     */
+    public Sum(Expression[] arguments) {
+        super("SUM", arguments);
+    }
+
+    /**
+     * Add together every numeric value.
+     *
+     * @param count The number of numeric values.
+     * @param sum The sum of the numeric values.
+     * @param min The smallest numeric value.
+     * @param max The largest numeric value.
+     * @return The sum of the numeric values, or 0 if there are none.
+     */
+    @Override
+    protected long perform(long count, long sum, long min, long max) {
+        return sum;
+    }
+}
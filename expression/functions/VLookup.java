@@ -0,0 +1,48 @@
+package sheep.expression.functions;
+
+import sheep.expression.Expression;
+import sheep.expression.TypeError;
+import sheep.expression.basic.Nothing;
+import sheep.expression.basic.RangeValue;
+
+import java.util.OptionalInt;
+
+/**
+ * A vertical lookup function, reading the row of a range where a value is found.
+ * Vertical lookup functions must have the function name "VLOOKUP".
+ */
+class VLookup extends Lookup {
+    /**
+     * Construct a new vertical lookup function.
+     *
+     * @param arguments The value to find, the range to search, the column to return
+     *                  and optionally whether to match approximately.
+     * @requires arguments.length == 3 || arguments.length == 4
+     */
+    public VLookup(Expression[] arguments) {
+        super("VLOOKUP", arguments);
+    }
+
+    /**
+     * Find the value within the first column of the range and read the given column of that row.
+     *
+     * @param values The value to find, the range to search, the column to return
+     *               and optionally whether to match approximately.
+     * @return The cell in the given column of the matching row, or {@link Nothing} if there is no match.
+     * @throws TypeError If the column is outside the range or any argument is of the wrong type.
+     */
+    @Override
+    protected Expression perform(Expression[] values) throws TypeError {
+        RangeValue range = range(values[1]);
+        long column = values[2].value();
+        boolean approximate = values.length < 4 || values[3].value() != 0;
+        if (column < 1 || column > range.width()) {
+            throw new TypeError();
+        }
+        OptionalInt row = search(range, values[0].value(), approximate);
+        if (row.isEmpty()) {
+            return new Nothing();
+        }
+        return cell(range, row.getAsInt() + 1, column);
+    }
+}
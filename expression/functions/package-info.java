@@ -0,0 +1,4 @@
+/**
+ * Functions over ranges of cells, such as SUM(A1:A10) and VLOOKUP(4, A1:C10, 2).
+ */
+package sheep.expression.functions;
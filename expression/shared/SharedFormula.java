@@ -0,0 +1,189 @@
+package sheep.expression.shared;
+
+import sheep.expression.Expression;
+import sheep.expression.TypeError;
+import sheep.sheets.CellLocation;
+import sheep.sheets.CellRange;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A cell formula that shares its expression with other cells, e.g. when filling down a column.
+ * <p>
+ * A shared formula is a template expression, written as it would appear in one cell,
+ * together with the offset of this cell from that one.
+ * Every cell reference within the template is relative to the cell it is evaluated in,
+ * so the template A2 + A1 at offset (1, 0) behaves as A3 + A2.
+ * <p>
+ * The template is parsed once and shared by reference,
+ * so each cell using it costs a constant amount of memory.
+ */
+public class SharedFormula extends Expression {
+    private static final Pattern CELL_REFERENCE = Pattern.compile("\\b[A-Z][0-9]+\\b");
+
+    private final Expression template;
+    private final int rowOffset;
+    private final int columnOffset;
+
+    /**
+     * Construct a new shared formula.
+     *
+     * @param template The expression shared between cells, as written in the original cell.
+     * @param rowOffset The number of rows from the original cell to this cell.
+     * @param columnOffset The number of columns from the original cell to this cell.
+     * @requires template != null
+     */
+    public SharedFormula(Expression template, int rowOffset, int columnOffset) {
+        this.template = template;
+        this.rowOffset = rowOffset;
+        this.columnOffset = columnOffset;
+    }
+
+    /**
+     * Shift an identifier by the given offset.
+     * Cell references and ranges are moved by the offset,
+     * any other identifier is returned unchanged.
+     * <pre>
+     * {@code
+     * SharedFormula.shift("A2", 3, 1) // "B5"
+     * SharedFormula.shift("A1:A4", 1, 0) // "A2:A5"
+     * SharedFormula.shift("hundred", 1, 0) // "hundred"
+     * }</pre>
+     *
+     * @param identifier An identifier of a cell, a range, or a built-in.
+     * @param rows The number of rows to move cell references by.
+     * @param columns The number of columns to move cell references by.
+     * @return The shifted identifier.
+     */
+    public static String shift(String identifier, int rows, int columns) {
+        if (rows == 0 && columns == 0) {
+            return identifier;
+        }
+        Optional<CellLocation> location = CellLocation.maybeReference(identifier);
+        if (location.isPresent()) {
+            return shift(location.get(), rows, columns).toString();
+        }
+        Optional<CellRange> range = CellRange.maybeRange(identifier);
+        if (range.isPresent()) {
+            CellRange shifted = new CellRange(
+                    new CellLocation(range.get().getFirstRow() + rows,
+                            range.get().getFirstColumn() + columns),
+                    new CellLocation(range.get().getLastRow() + rows,
+                            range.get().getLastColumn() + columns));
+            return shifted.toString();
+        }
+        return identifier;
+    }
+
+    private static CellLocation shift(CellLocation location, int rows, int columns) {
+        return new CellLocation(location.getRow() + rows, location.getColumn() + columns);
+    }
+
+    /**
+     * The expression shared between cells.
+     * @return The template expression.
+     */
+    public Expression getTemplate() {
+        return template;
+    }
+
+    /**
+     * The number of rows from the original cell of the template to this cell.
+     * @return The row offset of this cell.
+     */
+    public int getRowOffset() {
+        return rowOffset;
+    }
+
+    /**
+     * The number of columns from the original cell of the template to this cell.
+     * @return The column offset of this cell.
+     */
+    public int getColumnOffset() {
+        return columnOffset;
+    }
+
+    /**
+     * Dependencies of the shared formula.
+     * The dependencies of the template, shifted by the offset of this cell.
+     *
+     * @return A set containing the shifted dependencies of the template.
+     */
+    @Override
+    public Set<String> dependencies() {
+        Set<String> dependencies = new HashSet<>();
+        for (String dependency : template.dependencies()) {
+            dependencies.add(shift(dependency, rowOffset, columnOffset));
+        }
+        return dependencies;
+    }
+
+    /**
+     * The result of evaluating this expression.
+     * <p>
+     * The template is evaluated within a view of the state where
+     * every cell reference is shifted by the offset of this cell.
+     *
+     * @param state A mapping of references to the expression they hold.
+     * @return The result of evaluating the template at this cell.
+     * @throws TypeError If a type error occurs in the process of evaluation.
+     */
+    @Override
+    public Expression value(Map<String, Expression> state) throws TypeError {
+        if (rowOffset == 0 && columnOffset == 0) {
+            return template.value(state);
+        }
+        return template.value(new ShiftedState(state, rowOffset, columnOffset));
+    }
+
+    /**
+     * Evaluate the expression to a numeric value.
+     * For shared formulas, a type error will always be thrown.
+     * @return Nothing will be returned as a {@link TypeError} is always thrown.
+     * @throws TypeError Will always be thrown by {@link SharedFormula}.
+     */
+    @Override
+    public long value() throws TypeError {
+        throw new TypeError();
+    }
+
+    /**
+     * The string representation of an expression when rendered within a cell.
+     * For shared formulas, this is the rendered template with each cell reference shifted.
+     * <pre>
+     * {@code
+     * SharedFormula formula = new SharedFormula(parser.parse("A2 + A1"), 2, 0);
+     * formula.render(); // "A4 + A3"
+     * }</pre>
+     * @return the string representation of the expression.
+     */
+    @Override
+    public String render() {
+        String rendered = template.render();
+        if (rowOffset == 0 && columnOffset == 0) {
+            return rendered;
+        }
+        Matcher matcher = CELL_REFERENCE.matcher(rendered);
+        StringBuilder builder = new StringBuilder();
+        while (matcher.find()) {
+            matcher.appendReplacement(builder, shift(matcher.group(), rowOffset, columnOffset));
+        }
+        matcher.appendTail(builder);
+        return builder.toString();
+    }
+
+    /**
+     * String representation of the shared formula.
+     * The result is formatted as "SHARED([template], [row offset], [column offset])".
+     * @return String representation of the expression.
+     */
+    @Override
+    public String toString() {
+        return "SHARED(" + template + ", " + rowOffset + ", " + columnOffset + ")";
+    }
+}
@@ -0,0 +1,106 @@
+package sheep.expression.shared;
+
+import sheep.expression.Expression;
+
+import sheep.sheets.CellLocation;
+import sheep.sheets.CellRange;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * A view of a state where every cell reference is offset by a number of rows and columns.
+ * <p>
+ * Evaluating a template within a shifted state evaluates the template
+ * as though it were written at the offset position,
+ * without constructing a new expression for that position.
+ * Built-in identifiers are looked up unchanged.
+ * <p>
+ * Iterating a shifted state iterates the underlying state, moving each reference back
+ * by the offset and leaving out references that would move outside the sheet.
+ */
+class ShiftedState extends AbstractMap<String, Expression> {
+    private final Map<String, Expression> state;
+    private final int rows;
+    private final int columns;
+
+    /**
+     * Construct a new view of the given state.
+     *
+     * @param state The state to look up shifted references within.
+     * @param rows The number of rows to offset cell references by.
+     * @param columns The number of columns to offset cell references by.
+     */
+    ShiftedState(Map<String, Expression> state, int rows, int columns) {
+        this.state = state;
+        this.rows = rows;
+        this.columns = columns;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (key instanceof String identifier) {
+            return state.containsKey(SharedFormula.shift(identifier, rows, columns));
+        }
+        return false;
+    }
+
+    @Override
+    public Expression get(Object key) {
+        if (key instanceof String identifier) {
+            return state.get(SharedFormula.shift(identifier, rows, columns));
+        }
+        return null;
+    }
+
+    @Override
+    public Expression put(String key, Expression value) {
+        return state.put(SharedFormula.shift(key, rows, columns), value);
+    }
+
+    /**
+     * Every identifier of the underlying state, moved back by the offset,
+     * along with the expression it looks up to.
+     */
+    @Override
+    public Set<Entry<String, Expression>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, Expression>> iterator() {
+                return entries().iterator();
+            }
+
+            @Override
+            public int size() {
+                return (int) entries().count();
+            }
+        };
+    }
+
+    private Stream<Entry<String, Expression>> entries() {
+        return state.entrySet().stream()
+                .filter(entry -> isShiftable(entry.getKey()))
+                .map(entry -> Map.entry(SharedFormula.shift(entry.getKey(), -rows, -columns),
+                        entry.getValue()));
+    }
+
+    /**
+     * Whether an identifier stays within the sheet once moved back by the offset.
+     */
+    private boolean isShiftable(String identifier) {
+        Optional<CellLocation> location = CellLocation.maybeReference(identifier);
+        if (location.isPresent()) {
+            return location.get().getRow() >= rows && location.get().getColumn() >= columns;
+        }
+        Optional<CellRange> range = CellRange.maybeRange(identifier);
+        if (range.isPresent()) {
+            return range.get().getFirstRow() >= rows && range.get().getFirstColumn() >= columns;
+        }
+        return true;
+    }
+}
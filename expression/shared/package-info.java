@@ -0,0 +1,4 @@
+/**
+ * Formulas shared between many cells, such as a formula filled down a column.
+ */
+package sheep.expression.shared;
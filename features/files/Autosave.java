@@ -0,0 +1,428 @@
+package sheep.features.files;
+
+import sheep.core.UpdateResponse;
+import sheep.expression.Expression;
+import sheep.features.Feature;
+import sheep.sheets.CellLocation;
+import sheep.sheets.CellRange;
+import sheep.sheets.Sheet;
+import sheep.sheets.SheetListener;
+import sheep.sheets.SheetSnapshot;
+import sheep.sheets.UpdateBatch;
+import sheep.ui.Perform;
+import sheep.ui.Prompt;
+import sheep.ui.Tick;
+import sheep.ui.UI;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A class representing automatically saving a sheet as it changes.
+ * <p>
+ * The sheet is saved into a directory as a manifest holding the dimensions of the sheet,
+ * and a file for each tile of {@value #TILE_ROWS} rows that has populated cells, named after
+ * the number of the tile, e.g. "3.tile" holds rows 192 to 255. Each tile file is a binary
+ * sheet file, see {@link BinaryFormat}, listing the populated cells of the tile.
+ * <p>
+ * Changes to the sheet mark the tiles they touch as dirty. Bursts of changes are coalesced:
+ * the dirty tiles are saved once the sheet has been quiet for a while, once changes have
+ * been waiting for too long, or once enough changes have built up. Only the dirty tiles are
+ * written, so the cost of saving is proportional to the rows that changed rather than the
+ * size of the sheet. Tiles are written on a background thread from a snapshot of the tile.
+ * <p>
+ * Tiles may be saved at different times, so the values of cells are not stored
+ * and are evaluated when the autosave is restored.
+ */
+public class Autosave implements Feature, Perform, Tick, SheetListener {
+
+    /**
+     * The number of rows of each tile
+     */
+    static final int TILE_ROWS = 64;
+
+    /**
+     * The name of the file holding the dimensions of the sheet
+     */
+    private static final String MANIFEST = "sheet";
+
+    /**
+     * The file extension of tile files
+     */
+    private static final String TILE_EXTENSION = ".tile";
+
+    /**
+     * The default number of changes from which dirty tiles are saved straight away
+     */
+    private static final int MAX_EDITS = 256;
+
+    /**
+     * The default number of milliseconds without changes after which dirty tiles are saved
+     */
+    private static final long QUIET_PERIOD = 2000;
+
+    /**
+     * The default number of milliseconds that a change may wait before it is saved
+     */
+    private static final long MAX_DELAY = 10000;
+
+    /**
+     * The sheet that is to be saved
+     */
+    private final Sheet sheet;
+
+    /**
+     * The number of changes from which dirty tiles are saved straight away
+     */
+    private final int maxEdits;
+
+    /**
+     * The number of milliseconds without changes after which dirty tiles are saved
+     */
+    private final long quietPeriod;
+
+    /**
+     * The number of milliseconds that a change may wait before it is saved
+     */
+    private final long maxDelay;
+
+    /**
+     * The directory the sheet is saved to, or null if autosaving has not started
+     */
+    private Path directory;
+
+    /**
+     * The thread that tiles are written on
+     */
+    private ExecutorService writer;
+
+    /**
+     * The numbers of the tiles changed since they were last saved
+     */
+    private final Set<Integer> dirtyTiles = new HashSet<>();
+
+    /**
+     * Whether every tile must be saved, e.g. after the sheet is resized or cleared
+     */
+    private boolean everything = false;
+
+    /**
+     * The number of changes since the dirty tiles were last saved
+     */
+    private int edits = 0;
+
+    /**
+     * The times in milliseconds of the first and last changes since the dirty tiles were saved
+     */
+    private long firstEdit;
+    private long lastEdit;
+
+    /**
+     * The first error that occurred while writing, which stops autosaving
+     */
+    private volatile IOException failure;
+
+    /**
+     * The constructor method of this class, using the default limits for coalescing changes.
+     *
+     * @param sheet the sheet that is to be saved
+     */
+    public Autosave(Sheet sheet) {
+        this(sheet, MAX_EDITS, QUIET_PERIOD, MAX_DELAY);
+    }
+
+    /**
+     * The constructor method of this class.
+     *
+     * @param sheet the sheet that is to be saved
+     * @param maxEdits the number of changes from which dirty tiles are saved straight away
+     * @param quietPeriod the number of milliseconds without changes after which
+     *                    dirty tiles are saved
+     * @param maxDelay the number of milliseconds that a change may wait before it is saved
+     * @requires maxEdits &gt; 0 &amp;&amp; quietPeriod &gt;= 0 &amp;&amp; maxDelay &gt;= 0
+     */
+    public Autosave(Sheet sheet, int maxEdits, long quietPeriod, long maxDelay) {
+        this.sheet = sheet;
+        this.maxEdits = maxEdits;
+        this.quietPeriod = quietPeriod;
+        this.maxDelay = maxDelay;
+    }
+
+    @Override
+    public void register(UI ui) {
+        ui.addFeature("autosave", "Autosave", this);
+        ui.onTick(this);
+    }
+
+    /**
+     * Prompts the user for a directory to save the sheet to. If the directory holds an
+     * autosaved sheet, the user is asked whether to restore it. The whole sheet is then
+     * saved to the directory, and every later change is saved as it happens.
+     *
+     * @param row not used in this method.
+     * @param column not used in this method.
+     * @param prompt used to ask the user for a directory, and used to inform the user about
+     *               any errors that occurred.
+     */
+    @Override
+    public void perform(int row, int column, Prompt prompt) {
+        Optional<String> name = prompt.ask("Enter autosave directory");
+        if (name.isEmpty()) {
+            prompt.message("Directory not provided");
+            return;
+        }
+        try {
+            stop();
+            Path chosen = Path.of(name.get());
+            if (Files.exists(chosen.resolve(MANIFEST))
+                    && prompt.askYesNo("Restore autosaved sheet?")) {
+                restore(chosen, prompt);
+            }
+            Files.createDirectories(chosen);
+            start(chosen);
+        } catch (FileFormatException e) {
+            prompt.message("Incorrect file format");
+        } catch (InvalidPathException e) {
+            prompt.message("File not found");
+        } catch (IOException e) {
+            prompt.message("Unable to write to directory '" + name.get() + "'");
+        }
+    }
+
+    /**
+     * Saves the dirty tiles once the sheet has been quiet for long enough,
+     * or once the earliest unsaved change has waited for too long.
+     *
+     * @param prompt used to inform the user if saving has failed.
+     * @return false, as saving never changes the sheet.
+     */
+    @Override
+    public boolean onTick(Prompt prompt) {
+        if (failure != null && directory != null) {
+            prompt.message("Autosave stopped: " + failure.getMessage());
+            stop();
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (edits > 0 && (now - lastEdit >= quietPeriod || now - firstEdit >= maxDelay)) {
+            flush();
+        }
+        return false;
+    }
+
+    @Override
+    public void updated(Map<CellLocation, Expression> cells) {
+        for (CellLocation location : cells.keySet()) {
+            dirtyTiles.add(location.getRow() / TILE_ROWS);
+        }
+        edited();
+    }
+
+    @Override
+    public void resized(int rows, int columns) {
+        everything = true;
+        edited();
+    }
+
+    @Override
+    public void cleared() {
+        everything = true;
+        edited();
+    }
+
+    @Override
+    public void replaced() {
+        everything = true;
+        edited();
+    }
+
+    /**
+     * Stops saving changes to the sheet, once every change so far has been saved.
+     */
+    public void stop() {
+        if (directory == null) {
+            return;
+        }
+        if (edits > 0) {
+            flush();
+        }
+        sheet.removeListener(this);
+        directory = null;
+        writer.shutdown();
+    }
+
+    private void start(Path chosen) {
+        directory = chosen;
+        failure = null;
+        writer = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "sheet-autosave");
+            thread.setDaemon(true);
+            return thread;
+        });
+        everything = true;
+        flush();
+        sheet.addListener(this);
+    }
+
+    private void edited() {
+        long now = System.currentTimeMillis();
+        if (edits == 0) {
+            firstEdit = now;
+        }
+        lastEdit = now;
+        edits++;
+        if (edits >= maxEdits) {
+            flush();
+        }
+    }
+
+    /**
+     * Takes a snapshot of every dirty tile and writes them in the background.
+     */
+    private void flush() {
+        Set<Integer> tiles = dirtyTiles;
+        boolean prune = everything;
+        if (prune) {
+            tiles = new HashSet<>();
+            for (int tile = 0; tile * TILE_ROWS < sheet.getRows(); tile++) {
+                tiles.add(tile);
+            }
+        }
+        Map<Integer, SheetSnapshot> snapshots = new HashMap<>();
+        for (int tile : tiles) {
+            snapshots.put(tile, sheet.snapshot(new CellRange(
+                    new CellLocation(tile * TILE_ROWS, 0),
+                    new CellLocation(tile * TILE_ROWS + TILE_ROWS - 1, sheet.getColumns() - 1))));
+        }
+        int rows = sheet.getRows();
+        int columns = sheet.getColumns();
+        Path target = directory;
+        writer.execute(() -> {
+            try {
+                write(target, rows, columns, snapshots, prune);
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        });
+        dirtyTiles.clear();
+        everything = false;
+        edits = 0;
+    }
+
+    /**
+     * Writes the manifest and the given tiles, deleting the files of tiles without populated
+     * cells. If pruning, the files of every other tile are deleted too.
+     */
+    private static void write(Path directory, int rows, int columns,
+                              Map<Integer, SheetSnapshot> tiles, boolean prune)
+            throws IOException {
+        replace(directory.resolve(MANIFEST), stream ->
+                stream.write((rows + ";" + columns).getBytes(StandardCharsets.UTF_8)));
+        for (Map.Entry<Integer, SheetSnapshot> tile : tiles.entrySet()) {
+            Path path = directory.resolve(tile.getKey() + TILE_EXTENSION);
+            SheetSnapshot snapshot = tile.getValue();
+            if (snapshot.size() == 0) {
+                Files.deleteIfExists(path);
+                continue;
+            }
+            replace(path, stream -> {
+                BinaryFormat.Writer writer = new BinaryFormat.Writer(stream);
+                writer.writeHeader(rows, columns, snapshot.size());
+                for (CellLocation location : snapshot.populatedCells()) {
+                    writer.writeCell(location, snapshot.formulaAt(location), null);
+                }
+                writer.finish();
+            });
+        }
+        if (prune) {
+            for (Path path : tileFiles(directory)) {
+                String name = path.getFileName().toString();
+                int tile = Integer.parseInt(
+                        name.substring(0, name.length() - TILE_EXTENSION.length()));
+                if (!tiles.containsKey(tile)) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * The contents of a file, written to a stream.
+     */
+    private interface Contents {
+        void write(OutputStream stream) throws IOException;
+    }
+
+    /**
+     * Writes a file beside the given path which then replaces it,
+     * so the file is always complete.
+     */
+    private static void replace(Path path, Contents contents) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (OutputStream stream = Files.newOutputStream(temporary)) {
+            contents.write(stream);
+        }
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static Set<Path> tileFiles(Path directory) throws IOException {
+        Set<Path> files = new HashSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                path -> path.getFileName().toString().matches("[0-9]+\\" + TILE_EXTENSION))) {
+            for (Path path : stream) {
+                files.add(path);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Loads an autosaved sheet from a directory, evaluating every cell once.
+     */
+    private void restore(Path chosen, Prompt prompt) throws IOException, FileFormatException {
+        String manifest = Files.readString(chosen.resolve(MANIFEST), StandardCharsets.UTF_8);
+        String[] dimensions = manifest.trim().split(";");
+        if (dimensions.length != 2) {
+            throw new FileFormatException("Manifest malformed", 1);
+        }
+        int rows;
+        int columns;
+        try {
+            rows = Integer.parseInt(dimensions[0]);
+            columns = Integer.parseInt(dimensions[1]);
+        } catch (NumberFormatException e) {
+            throw new FileFormatException("Manifest value expected to be integer", 1);
+        }
+
+        UpdateBatch cells = sheet.batch();
+        for (Path path : tileFiles(chosen)) {
+            FileLoading loading = new FileLoading(sheet);
+            try (FileChannel channel = FileChannel.open(path)) {
+                cells.addAll(loading.loadValues(channel));
+            }
+        }
+        sheet.clear();
+        sheet.updateDimensions(rows, columns);
+        UpdateResponse response = cells.apply();
+        if (!response.isSuccess()) {
+            prompt.message(response.getMessage());
+        }
+    }
+}
@@ -0,0 +1,547 @@
+package sheep.features.files;
+
+import sheep.expression.Expression;
+import sheep.expression.ExpressionFactory;
+import sheep.expression.InvalidExpression;
+import sheep.expression.Operation;
+import sheep.expression.basic.Constant;
+import sheep.expression.basic.Nothing;
+import sheep.expression.basic.Reference;
+import sheep.expression.shared.SharedFormula;
+import sheep.sheets.CellLocation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Checksum;
+
+/**
+ * A class describing the binary sheet file format.
+ * <p>
+ * A binary file starts with the magic bytes "SHEP" and a version byte, followed by the
+ * number of rows, columns and cells of the sheet. Each cell is then stored in row-major
+ * order as the rows since the previous cell, its column, its formula and its value.
+ * <p>
+ * Formulas are stored as their expression tree rather than rendered, so they are rebuilt
+ * with an {@link ExpressionFactory} instead of being parsed when loaded. The template of a
+ * shared formula is stored once, by the first cell using it, and referred to by number
+ * from every later cell. Numbers are stored as variable-length integers, where small
+ * numbers take a single byte.
+ * <p>
+ * From version 2, the cells are followed by a CRC-32 checksum of the whole file.
+ * The value stored with each cell is the value it had when the file was written,
+ * so when the checksum matches and every value is stored, the values are consistent
+ * with the formulas and may be restored without evaluating anything.
+ */
+class BinaryFormat {
+
+    /**
+     * The bytes every binary sheet file starts with
+     */
+    static final byte[] MAGIC = {'S', 'H', 'E', 'P'};
+
+    /**
+     * The version of the format written by this class
+     */
+    static final int VERSION = 2;
+
+    /**
+     * The first version of the format to end with a checksum
+     */
+    private static final int CHECKSUM_VERSION = 2;
+
+    /**
+     * The kinds of expression nodes
+     */
+    private static final int EMPTY = 0;
+    private static final int CONSTANT = 1;
+    private static final int REFERENCE = 2;
+    private static final int OPERATION = 3;
+    private static final int TEMPLATE = 4;
+    private static final int SHARED = 5;
+
+    /**
+     * The kinds of cell values
+     */
+    private static final int NO_VALUE = 0;
+    private static final int NUMBER = 1;
+    private static final int OTHER_VALUE = 2;
+
+    /**
+     * The most arguments of an operation, and the longest string in bytes, that is read,
+     * so that a malformed length is reported rather than allocated
+     */
+    private static final int MAX_ARGUMENTS = 1 << 20;
+    private static final int MAX_STRING = 1 << 20;
+
+    /**
+     * Checks whether a file is in the binary format, without moving the position of the channel.
+     *
+     * @param channel the file to check
+     * @return true if the file starts with the magic bytes of the binary format.
+     * @throws IOException if the file cannot be read.
+     */
+    static boolean isBinary(FileChannel channel) throws IOException {
+        ByteBuffer start = ByteBuffer.allocate(MAGIC.length);
+        while (start.hasRemaining() && channel.read(start, start.position()) > 0) {
+            // keep reading until the magic bytes have been read or the file ends
+        }
+        return !start.hasRemaining() && Arrays.equals(start.array(), MAGIC);
+    }
+
+    /**
+     * A class writing the cells of a sheet in the binary format.
+     */
+    static class Writer {
+
+        /**
+         * The output that the file is written to
+         */
+        private final DataOutputStream out;
+
+        /**
+         * The checksum of every byte written so far
+         */
+        private final Checksum checksum = new CRC32();
+
+        /**
+         * The number given to each shared formula template that has been written
+         */
+        private final Map<Expression, Integer> templates = new IdentityHashMap<>();
+
+        /**
+         * The row of the last cell written
+         */
+        private int previousRow = 0;
+
+        /**
+         * The constructor method for this class.
+         *
+         * @param stream the stream that the file is to be written to
+         */
+        Writer(OutputStream stream) {
+            this.out = new DataOutputStream(
+                    new CheckedOutputStream(new BufferedOutputStream(stream), checksum));
+        }
+
+        /**
+         * Writes the magic bytes, version and dimensions of the sheet.
+         *
+         * @param rows the number of rows of the sheet
+         * @param cols the number of columns of the sheet
+         * @param cells the number of cells that will be written
+         * @throws IOException if the output cannot be written.
+         */
+        void writeHeader(int rows, int cols, int cells) throws IOException {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            writeVarLong(out, rows);
+            writeVarLong(out, cols);
+            writeVarLong(out, cells);
+        }
+
+        /**
+         * Writes a cell. Cells must be written in row-major order.
+         *
+         * @param location the location of the cell
+         * @param formula the formula of the cell
+         * @param value the value of the cell
+         * @throws IOException if the output cannot be written or the formula cannot be stored.
+         */
+        void writeCell(CellLocation location, Expression formula, Expression value)
+                throws IOException {
+            writeVarLong(out, location.getRow() - previousRow);
+            writeVarLong(out, location.getColumn());
+            previousRow = location.getRow();
+            writeExpression(formula);
+            if (value instanceof Constant constant) {
+                out.writeByte(NUMBER);
+                writeVarLong(out, zigzag(constant.getValue()));
+            } else if (value instanceof Nothing) {
+                out.writeByte(NO_VALUE);
+            } else {
+                out.writeByte(OTHER_VALUE);
+            }
+        }
+
+        /**
+         * Writes a number, e.g. the number of records that follow.
+         *
+         * @param number the number to write
+         * @throws IOException if the output cannot be written.
+         */
+        void writeNumber(int number) throws IOException {
+            writeVarLong(out, zigzag(number));
+        }
+
+        /**
+         * Writes the location and formula of a cell without its value, in any order.
+         *
+         * @param location the location of the cell
+         * @param formula the formula of the cell
+         * @throws IOException if the output cannot be written or the formula cannot be stored.
+         */
+        void writeFormula(CellLocation location, Expression formula) throws IOException {
+            writeVarLong(out, location.getRow());
+            writeVarLong(out, location.getColumn());
+            writeExpression(formula);
+        }
+
+        /**
+         * Flushes everything written so far to the underlying stream, without a checksum.
+         *
+         * @throws IOException if the output cannot be written.
+         */
+        void flush() throws IOException {
+            out.flush();
+        }
+
+        /**
+         * Writes the checksum of the file and flushes it to the underlying stream.
+         * Must be called once every cell has been written.
+         *
+         * @throws IOException if the output cannot be written.
+         */
+        void finish() throws IOException {
+            out.writeInt((int) checksum.getValue());
+            out.flush();
+        }
+
+        private void writeExpression(Expression expression) throws IOException {
+            if (expression instanceof SharedFormula shared) {
+                Integer template = templates.get(shared.getTemplate());
+                if (template == null) {
+                    templates.put(shared.getTemplate(), templates.size());
+                    out.writeByte(TEMPLATE);
+                    writeExpression(shared.getTemplate());
+                } else {
+                    out.writeByte(SHARED);
+                    writeVarLong(out, template);
+                }
+                writeVarLong(out, zigzag(shared.getRowOffset()));
+                writeVarLong(out, zigzag(shared.getColumnOffset()));
+            } else if (expression instanceof Constant constant) {
+                out.writeByte(CONSTANT);
+                writeVarLong(out, zigzag(constant.getValue()));
+            } else if (expression instanceof Reference reference) {
+                out.writeByte(REFERENCE);
+                writeString(out, reference.getIdentifier());
+            } else if (expression instanceof Operation operation) {
+                Expression[] arguments = operation.getArguments();
+                out.writeByte(OPERATION);
+                writeString(out, operation.getName());
+                writeVarLong(out, arguments.length);
+                for (Expression argument : arguments) {
+                    writeExpression(argument);
+                }
+            } else if (expression instanceof Nothing) {
+                out.writeByte(EMPTY);
+            } else {
+                throw new IOException("Unable to store formula " + expression);
+            }
+        }
+    }
+
+    /**
+     * A class reading the cells of a sheet in the binary format.
+     */
+    static class Reader {
+
+        /**
+         * The input that the file is read from
+         */
+        private final DataInputStream in;
+
+        /**
+         * The checksum of every byte read so far
+         */
+        private final Checksum checksum = new CRC32();
+
+        /**
+         * The factory used to rebuild formulas
+         */
+        private final ExpressionFactory factory;
+
+        /**
+         * Every shared formula template that has been read, in the order they were read
+         */
+        private final List<Expression> templates = new ArrayList<>();
+
+        /**
+         * The version of the file being read
+         */
+        private int version;
+
+        /**
+         * The row of the last cell read
+         */
+        private int previousRow = 0;
+
+        /**
+         * The number of cells read, used to report where the file is malformed
+         */
+        private int cellNumber = 0;
+
+        /**
+         * The parts of the last cell read
+         */
+        private CellLocation location;
+        private Expression formula;
+        private Expression value;
+
+        /**
+         * The constructor method for this class.
+         *
+         * @param stream the stream that the file is to be read from
+         * @param factory the factory used to rebuild formulas
+         */
+        Reader(InputStream stream, ExpressionFactory factory) {
+            this.in = new DataInputStream(
+                    new CheckedInputStream(new BufferedInputStream(stream, 1 << 16), checksum));
+            this.factory = factory;
+        }
+
+        /**
+         * Reads the magic bytes, version and dimensions of the sheet.
+         *
+         * @return an array of integers containing the rows, columns, and number of cells
+         *         in the file.
+         * @throws IOException if the input cannot be read.
+         * @throws FileFormatException if the file is not in a supported version of the format.
+         */
+        int[] readHeader() throws IOException, FileFormatException {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new FileFormatException("Not a binary sheet file", 0);
+            }
+            version = in.readUnsignedByte();
+            if (version < 1 || version > VERSION) {
+                throw new FileFormatException("Unsupported version " + version, 0);
+            }
+            return new int[]{readInt(), readInt(), readInt()};
+        }
+
+        /**
+         * Reads the next cell.
+         *
+         * @throws IOException if the input cannot be read.
+         * @throws FileFormatException if the cell is malformed.
+         */
+        void readCell() throws IOException, FileFormatException {
+            cellNumber++;
+            previousRow += readInt();
+            location = new CellLocation(previousRow, readInt());
+            formula = readExpression();
+            value = switch (in.readUnsignedByte()) {
+                case NO_VALUE -> factory.createEmpty();
+                case NUMBER -> factory.createConstant(unzigzag(readVarLong()));
+                case OTHER_VALUE -> null;
+                default -> throw malformed("Unknown value kind");
+            };
+        }
+
+        /**
+         * Reads a number written by {@link Writer#writeNumber(int)}.
+         *
+         * @return the number read.
+         * @throws IOException if the input cannot be read.
+         * @throws FileFormatException if the number is malformed.
+         */
+        int readNumber() throws IOException, FileFormatException {
+            long number = unzigzag(readVarLong());
+            if (number != (int) number) {
+                throw malformed("Number too large");
+            }
+            return (int) number;
+        }
+
+        /**
+         * Reads the location and formula of a cell written by
+         * {@link Writer#writeFormula(CellLocation, Expression)}. The cell has no stored value.
+         *
+         * @throws IOException if the input cannot be read.
+         * @throws FileFormatException if the cell is malformed.
+         */
+        void readFormula() throws IOException, FileFormatException {
+            cellNumber++;
+            location = new CellLocation(readInt(), readInt());
+            formula = readExpression();
+            value = null;
+        }
+
+        /**
+         * Returns whether the stored values of the cells can be trusted once the checksum
+         * has been verified. Files which predate checksums must have their values evaluated.
+         */
+        boolean hasConsistentValues() {
+            return version >= CHECKSUM_VERSION;
+        }
+
+        /**
+         * Reads and verifies the checksum at the end of the file,
+         * after every cell has been read. Files which predate checksums are not checked.
+         *
+         * @throws IOException if the input cannot be read.
+         * @throws FileFormatException if the checksum does not match the contents of the file.
+         */
+        void verifyChecksum() throws IOException, FileFormatException {
+            if (version < CHECKSUM_VERSION) {
+                return;
+            }
+            int expected = (int) checksum.getValue();
+            if (in.readInt() != expected) {
+                throw malformed("Checksum mismatch");
+            }
+        }
+
+        /**
+         * Returns the number of cells read so far.
+         */
+        int getCellNumber() {
+            return cellNumber;
+        }
+
+        /**
+         * Returns the location of the last cell read.
+         */
+        CellLocation getLocation() {
+            return location;
+        }
+
+        /**
+         * Returns the formula of the last cell read.
+         */
+        Expression getFormula() {
+            return formula;
+        }
+
+        /**
+         * Returns the stored value of the last cell read,
+         * or null if the value was not stored and must be evaluated.
+         */
+        Expression getValue() {
+            return value;
+        }
+
+        private int readInt() throws IOException, FileFormatException {
+            long value = readVarLong();
+            if (value < 0 || value > Integer.MAX_VALUE) {
+                throw malformed("Number too large");
+            }
+            return (int) value;
+        }
+
+        private Expression readExpression() throws IOException, FileFormatException {
+            int kind = in.readUnsignedByte();
+            switch (kind) {
+                case EMPTY:
+                    return factory.createEmpty();
+                case CONSTANT:
+                    return factory.createConstant(unzigzag(readVarLong()));
+                case REFERENCE:
+                    return factory.createReference(readString());
+                case OPERATION:
+                    String name = readString();
+                    int count = readInt();
+                    if (count > MAX_ARGUMENTS) {
+                        throw malformed("Too many arguments to " + name);
+                    }
+                    Expression[] arguments = new Expression[count];
+                    for (int i = 0; i < arguments.length; i++) {
+                        arguments[i] = readExpression();
+                    }
+                    try {
+                        return factory.createOperator(name, arguments);
+                    } catch (InvalidExpression e) {
+                        throw malformed("Invalid formula " + name);
+                    }
+                case TEMPLATE:
+                    Expression template = readExpression();
+                    templates.add(template);
+                    return new SharedFormula(template, (int) unzigzag(readVarLong()),
+                            (int) unzigzag(readVarLong()));
+                case SHARED:
+                    int index = readInt();
+                    if (index >= templates.size()) {
+                        throw malformed("Unknown shared formula");
+                    }
+                    return new SharedFormula(templates.get(index), (int) unzigzag(readVarLong()),
+                            (int) unzigzag(readVarLong()));
+                default:
+                    throw malformed("Unknown formula kind " + kind);
+            }
+        }
+
+        private long readVarLong() throws IOException, FileFormatException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int part = in.readUnsignedByte();
+                value |= (long) (part & 0x7F) << shift;
+                if ((part & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw malformed("Malformed number");
+        }
+
+        private String readString() throws IOException, FileFormatException {
+            long length = readVarLong();
+            if (length < 0 || length > MAX_STRING) {
+                throw malformed("String too long");
+            }
+            byte[] bytes = new byte[(int) length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private FileFormatException malformed(String message) {
+            return new FileFormatException(message, cellNumber);
+        }
+    }
+
+    /**
+     * Maps signed numbers to unsigned numbers so that numbers close to zero are small.
+     */
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writes an unsigned number seven bits at a time, least significant first,
+     * where the top bit of each byte marks that more bytes follow.
+     */
+    private static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static void writeString(DataOutput out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,222 @@
+package sheep.features.files;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A class reading the lines of a sheet file from a channel through a fixed size buffer,
+ * or from a part of the file already in memory.
+ * Each cell line of the form row;column;formula is split into its parts in place,
+ * so reading a file holds at most the buffer and the current formula in memory.
+ */
+class CellReader {
+
+    /**
+     * The channel that the file is read from
+     */
+    private final ReadableByteChannel channel;
+
+    /**
+     * The bytes read from the channel which have not been consumed yet
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Whether the end of the channel has been reached
+     */
+    private boolean finished = false;
+
+    /**
+     * The bounds of the current line within the buffer, excluding the line terminator
+     */
+    private int lineStart;
+    private int lineEnd;
+
+    /**
+     * The number of the current line, starting from 1
+     */
+    private int lineNumber = 0;
+
+    /**
+     * The parts of the current cell line
+     */
+    private int row;
+    private int column;
+    private String formula;
+
+    /**
+     * The constructor method for this class.
+     *
+     * @param channel the channel that the file is to be read from
+     * @param bufferSize the number of bytes to read from the channel at a time
+     */
+    CellReader(ReadableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.buffer.flip();
+    }
+
+    /**
+     * Constructs a reader over lines which are already in memory, e.g. a mapped part of a file.
+     *
+     * @param contents the lines to read, from the position to the limit of the buffer
+     * @param firstLine the number of the first line within the file, starting from 1
+     */
+    CellReader(ByteBuffer contents, int firstLine) {
+        this.channel = null;
+        this.buffer = contents;
+        this.finished = true;
+        this.lineNumber = firstLine - 1;
+    }
+
+    /**
+     * Moves to the next line of the file.
+     *
+     * @return true if there is a next line, false if the end of the file has been reached.
+     * @throws IOException if the channel cannot be read.
+     */
+    boolean nextLine() throws IOException {
+        int end = findLineEnd();
+        while (end < 0 && !finished) {
+            fill();
+            end = findLineEnd();
+        }
+        if (end < 0) {
+            if (!buffer.hasRemaining()) {
+                return false;
+            }
+            // the last line of the file has no line terminator
+            end = buffer.limit();
+        }
+        lineStart = buffer.position();
+        lineEnd = end;
+        buffer.position(Math.min(end + 1, buffer.limit()));
+        if (lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r') {
+            lineEnd--;
+        }
+        lineNumber++;
+        return true;
+    }
+
+    /**
+     * Returns the current line as a string.
+     */
+    String line() {
+        return decode(lineStart, lineEnd);
+    }
+
+    /**
+     * Splits the current line into the row, column and formula of a cell.
+     * The formula is every character after the second semicolon,
+     * where the formula "E" represents an empty cell.
+     *
+     * @throws FileFormatException if the line does not have 3 parts or the row and column
+     *                             are not integers.
+     */
+    void readCell() throws FileFormatException {
+        int first = indexOf(';', lineStart);
+        int second = first < 0 ? -1 : indexOf(';', first + 1);
+        if (second < 0 || second + 1 == lineEnd) {
+            int parts = first < 0 ? 1 : 2;
+            throw new FileFormatException("Expected 3 parts, got " + parts, lineNumber);
+        }
+        row = parseInt(lineStart, first);
+        column = parseInt(first + 1, second);
+        if (lineEnd - second == 2 && buffer.get(second + 1) == 'E') {
+            formula = "";
+        } else {
+            formula = decode(second + 1, lineEnd);
+        }
+    }
+
+    /**
+     * Returns the number of the current line, starting from 1.
+     */
+    int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Returns the row of the current cell line.
+     */
+    int getRow() {
+        return row;
+    }
+
+    /**
+     * Returns the column of the current cell line.
+     */
+    int getColumn() {
+        return column;
+    }
+
+    /**
+     * Returns the formula of the current cell line.
+     */
+    String getFormula() {
+        return formula;
+    }
+
+    /**
+     * Reads more of the channel into the buffer, discarding the consumed bytes.
+     * If the buffer is full of a single unfinished line, the buffer is doubled in size.
+     */
+    private void fill() throws IOException {
+        if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+            larger.put(buffer);
+            buffer = larger;
+        } else {
+            buffer.compact();
+        }
+        if (channel.read(buffer) < 0) {
+            finished = true;
+        }
+        buffer.flip();
+    }
+
+    private int findLineEnd() {
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOf(char character, int from) {
+        for (int i = from; i < lineEnd; i++) {
+            if (buffer.get(i) == character) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int parseInt(int start, int end) throws FileFormatException {
+        if (start == end || end - start > 9) {
+            throw new FileFormatException("Cell location expected to be integer", lineNumber);
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            byte digit = buffer.get(i);
+            if (digit < '0' || digit > '9') {
+                throw new FileFormatException("Cell location expected to be integer", lineNumber);
+            }
+            value = value * 10 + (digit - '0');
+        }
+        return value;
+    }
+
+    private String decode(int start, int end) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, end - start,
+                    StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
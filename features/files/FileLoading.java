@@ -1,12 +1,20 @@
 package sheep.features.files;
 
+import sheep.core.UpdateResponse;
+import sheep.expression.CoreFactory;
 import sheep.features.Feature;
 import sheep.sheets.CellLocation;
 import sheep.sheets.Sheet;
+import sheep.sheets.UpdateBatch;
 import sheep.ui.Perform;
 import sheep.ui.UI;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -15,6 +23,21 @@ import java.util.Map;
  */
 public class FileLoading implements Feature {
 
+    /**
+     * The number of bytes read from a file at a time when streaming values
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The size in bytes from which files are memory-mapped and read in parallel
+     */
+    private static final long MAPPED_SIZE = 1 << 24;
+
+    /**
+     * The number of cells of an indexed file that may be paged in at once
+     */
+    private static final int PAGED_CELLS = 1 << 20;
+
     /**
      * The sheet that the file is to be loaded to
      */
@@ -142,6 +165,219 @@ public class FileLoading implements Feature {
         return sheetValues;
     }
 
+    /**
+     * Reads the file header and then each line in the file as it is read from the channel,
+     * parsing each cell straight into a batch update of the sheet. Unlike
+     * {@link #readValues(Reader)}, the lines of the file are never all held in memory,
+     * only a fixed size buffer of the file and the parsed cells.
+     * <p>
+     * The sheet is not changed until the returned batch is applied.
+     *
+     * @param channel the channel that the file is to be read from.
+     * @return a batch of updates containing every cell in the file.
+     * @throws FileFormatException if the header is malformed, if there are not enough lines,
+     *                             if a line is malformed or outside the sheet,
+     *                             or if a formula cannot be parsed.
+     */
+    protected UpdateBatch streamValues(ReadableByteChannel channel) throws
+            IOException, FileFormatException {
+        CellReader reader = new CellReader(channel, BUFFER_SIZE);
+        int[] headerValues = readHeaderLine(reader.nextLine() ? reader.line() : null);
+        setRows(headerValues[0]);
+        setCols(headerValues[1]);
+
+        UpdateBatch batch = sheet.batch();
+        for (int i = 0; i < headerValues[2]; i++) {
+            if (!reader.nextLine()) {
+                throw new FileFormatException("Unable to read enough lines",
+                        reader.getLineNumber() + 1);
+            }
+            reader.readCell();
+            if (reader.getRow() >= getRows() || reader.getColumn() >= getCols()) {
+                throw new FileFormatException("Cell outside of sheet", reader.getLineNumber());
+            }
+            UpdateResponse response = batch.add(reader.getRow(), reader.getColumn(),
+                    reader.getFormula());
+            if (!response.isSuccess()) {
+                throw new FileFormatException(response.getMessage(), reader.getLineNumber());
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Reads the file header and then every line in the file in parallel.
+     * <p>
+     * The file is split into line-aligned chunks which are memory-mapped, tokenized and
+     * parsed in parallel on the common {@link java.util.concurrent.ForkJoinPool},
+     * then combined into a single batch update of the sheet.
+     * Reported line numbers are those of the whole file, as per {@link #streamValues}.
+     * <p>
+     * The sheet is not changed until the returned batch is applied.
+     *
+     * @param channel the file that is to be read.
+     * @return a batch of updates containing every cell in the file.
+     * @throws FileFormatException if the header is malformed, if there are not enough lines,
+     *                             if a line is malformed or outside the sheet,
+     *                             or if a formula cannot be parsed.
+     */
+    protected UpdateBatch mapValues(FileChannel channel) throws
+            IOException, FileFormatException {
+        MappedLoader loader = new MappedLoader(sheet, channel);
+        long headerEnd = loader.lineEnd(0);
+        String headerLine = null;
+        if (headerEnd > 0) {
+            ByteBuffer header = ByteBuffer.allocate((int) headerEnd);
+            channel.read(header, 0);
+            headerLine = new String(header.array(), 0, header.position(), StandardCharsets.UTF_8)
+                    .replaceAll("\\r?\\n$", "");
+        }
+        int[] headerValues = readHeaderLine(headerLine);
+        setRows(headerValues[0]);
+        setCols(headerValues[1]);
+        return loader.read(headerEnd, 2, headerValues[2], getRows(), getCols());
+    }
+
+    /**
+     * Reads the header and then every cell of a file in the binary format, see
+     * {@link BinaryFormat}. Formulas are rebuilt from their stored expression trees
+     * rather than parsed. Errors are reported at the number of the cell that is malformed.
+     * <p>
+     * Files which store a consistent value for every cell are restored without evaluating
+     * any formula, see {@link UpdateBatch#restore}, as long as the checksum of the file matches.
+     * <p>
+     * The sheet is not changed until the returned batch is applied.
+     *
+     * @param stream the stream that the file is to be read from.
+     * @return a batch of updates containing every cell in the file.
+     * @throws FileFormatException if the header is malformed, if there are not enough cells,
+     *                             if a cell is malformed or outside the sheet,
+     *                             or if the checksum does not match.
+     */
+    protected UpdateBatch readBinary(InputStream stream) throws
+            IOException, FileFormatException {
+        BinaryFormat.Reader reader = new BinaryFormat.Reader(stream, new CoreFactory());
+        int[] headerValues;
+        try {
+            headerValues = reader.readHeader();
+        } catch (EOFException e) {
+            throw new FileFormatException("File header malformed", 0);
+        }
+        setRows(headerValues[0]);
+        setCols(headerValues[1]);
+
+        UpdateBatch batch = sheet.batch();
+        for (int i = 0; i < headerValues[2]; i++) {
+            try {
+                reader.readCell();
+            } catch (EOFException e) {
+                throw new FileFormatException("Unable to read enough cells",
+                        reader.getCellNumber());
+            }
+            CellLocation location = reader.getLocation();
+            if (location.getRow() >= getRows() || location.getColumn() >= getCols()) {
+                throw new FileFormatException("Cell outside of sheet", reader.getCellNumber());
+            }
+            if (reader.hasConsistentValues() && reader.getValue() != null) {
+                batch.restore(location, reader.getFormula(), reader.getValue());
+            } else {
+                batch.add(location, reader.getFormula());
+            }
+        }
+        try {
+            reader.verifyChecksum();
+        } catch (EOFException e) {
+            throw new FileFormatException("Missing checksum", reader.getCellNumber());
+        }
+        return batch;
+    }
+
+    /**
+     * Reads every block of a file in the indexed format, see {@link IndexedFile},
+     * into a batch update of the sheet. As with {@link #readBinary(InputStream)}, cells are
+     * restored without evaluating any formula if the file stores the value of every cell.
+     * <p>
+     * The sheet is not changed until the returned batch is applied.
+     *
+     * @param channel the file that is to be read.
+     * @return a batch of updates containing every cell in the file.
+     * @throws FileFormatException if the index is malformed, if a block is malformed
+     *                             or does not match its checksum, or if a cell is outside the sheet.
+     */
+    protected UpdateBatch readIndexed(FileChannel channel) throws
+            IOException, FileFormatException {
+        IndexedFile file = IndexedFile.open(channel);
+        setRows(file.getRows());
+        setCols(file.getColumns());
+
+        UpdateBatch batch = sheet.batch();
+        for (int block : file.getBlocks()) {
+            for (IndexedFile.Cell cell : file.readBlock(block)) {
+                if (file.hasValues()) {
+                    batch.restore(cell.location(), cell.formula(), cell.value());
+                } else {
+                    batch.add(cell.location(), cell.formula());
+                }
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Replaces the cells of the sheet with those of a file in the indexed format which stores
+     * the value of every cell, without reading any of its cells up front. Blocks of rows are
+     * paged in from the file as the sheet uses them, see {@link PagedCellStore}.
+     * <p>
+     * The channel is left open for as long as the sheet pages from it if the sheet is replaced,
+     * and is otherwise left for the caller to read or close.
+     *
+     * @param channel the file that is to be opened.
+     * @return true if the sheet now pages its cells from the file, false if the file must be
+     *         read with {@link #loadValues(FileChannel)} instead.
+     * @throws FileFormatException if the index of the file is malformed.
+     */
+    protected boolean openPaged(FileChannel channel) throws IOException, FileFormatException {
+        if (!IndexedFile.isIndexed(channel)) {
+            return false;
+        }
+        IndexedFile file = IndexedFile.open(channel);
+        if (!file.hasValues()) {
+            return false;
+        }
+        setRows(file.getRows());
+        setCols(file.getColumns());
+        sheet.open(new PagedCellStore(file, PAGED_CELLS), file.getRows(), file.getColumns());
+        return true;
+    }
+
+    /**
+     * Reads every cell in the file into a batch update of the sheet.
+     * Files in the indexed and binary formats are recognised by their first bytes and decoded
+     * directly, otherwise small text files are streamed and large text files are read in parallel
+     * when there are cores to spare.
+     *
+     * @param channel the file that is to be read.
+     * @return a batch of updates containing every cell in the file.
+     * @throws FileFormatException if the file is malformed.
+     * @see #streamValues(ReadableByteChannel)
+     * @see #mapValues(FileChannel)
+     * @see #readBinary(InputStream)
+     * @see #readIndexed(FileChannel)
+     */
+    protected UpdateBatch loadValues(FileChannel channel) throws
+            IOException, FileFormatException {
+        if (IndexedFile.isIndexed(channel)) {
+            return readIndexed(channel);
+        }
+        if (BinaryFormat.isBinary(channel)) {
+            return readBinary(Channels.newInputStream(channel));
+        }
+        if (channel.size() >= MAPPED_SIZE && Runtime.getRuntime().availableProcessors() > 1) {
+            return mapValues(channel);
+        }
+        return streamValues(channel);
+    }
+
     /**
      * The action to be performed when a file is loaded.
      *
@@ -2,13 +2,30 @@ package sheep.features.files;
 
 import sheep.features.Feature;
 import sheep.sheets.CellLocation;
+import sheep.expression.Expression;
 import sheep.sheets.Sheet;
+import sheep.sheets.SheetSnapshot;
 import sheep.ui.Perform;
 import sheep.ui.UI;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A class representing saving a sheet to a file.
+ * <p>
+ * A file may list every cell of the sheet, or be sparse and list only the cells that are
+ * not empty. Both are read the same way, as the header records the number of cells listed
+ * and any cell that is not listed is left empty when loaded.
+ * <p>
+ * A sheet may instead be written in a compact binary format, see {@link BinaryFormat},
+ * which stores the expression tree of each formula so that it need not be parsed again.
+ * The indexed variant of the format, see {@link IndexedFile}, groups the cells into blocks of rows
+ * so that a loaded sheet may read each block only once it is used.
  */
 public class FileSaving implements Feature {
 
@@ -33,7 +50,9 @@ public class FileSaving implements Feature {
 
     @Override
     public void register(UI ui) {
-        ui.addFeature("save-file", "Save File", save());
+        Save action = new Save(getSheet());
+        ui.addFeature("save-file", "Save File", action);
+        ui.onTick(action);
     }
 
     /**
@@ -61,9 +80,13 @@ public class FileSaving implements Feature {
      * by semicolons.
      */
     public String cellInfo(Sheet sheet, CellLocation location) {
+        return cellInfo(location, sheet.formulaAt(location));
+    }
+
+    private String cellInfo(CellLocation location, Expression formula) {
         int row = location.getRow();
         int col = location.getColumn();
-        String value = sheet.formulaAt(location).render();
+        String value = formula.render();
         if (value.isEmpty()) {
             value = "E"; //value is set to "E" for empty cells
         }
@@ -87,6 +110,71 @@ public class FileSaving implements Feature {
         }
     }
 
+    /**
+     * Writes the header line, and a line for each cell of a snapshot that is not empty.
+     * The header records the number of cells that are listed, so the size of the file depends
+     * on the number of filled cells rather than the size of the sheet.
+     * Lines are written as they are created rather than collected first,
+     * so this may be called on any thread.
+     *
+     * @param snapshot the snapshot of the sheet that is to be saved
+     * @param writer the writer that the file is to be written to
+     * @param written counts the cells written so far, to report the progress of the save
+     * @throws IOException if the writer cannot be written to.
+     */
+    public void writeText(SheetSnapshot snapshot, Writer writer, AtomicInteger written)
+            throws IOException {
+        List<CellLocation> cells = snapshot.populatedCells();
+        writer.write(snapshot.getRows() + ";" + snapshot.getColumns() + ";" + cells.size());
+        writer.write(System.lineSeparator());
+        for (CellLocation location : cells) {
+            writer.write(cellInfo(location, snapshot.formulaAt(location)));
+            writer.write(System.lineSeparator());
+            written.incrementAndGet();
+        }
+        writer.flush();
+    }
+
+    /**
+     * Writes the cells of a snapshot that are not empty to a stream in the binary format,
+     * see {@link BinaryFormat}, along with the current value of each cell, so that loading
+     * the file can restore the values rather than evaluate every formula.
+     * Files saved by the user are written in the indexed format instead, see
+     * {@link #writeIndexed}; this format is kept for journal checkpoints. This may be called
+     * on any thread.
+     *
+     * @param snapshot the snapshot of the sheet that is to be saved
+     * @param stream the stream that the file is to be written to
+     * @param written counts the cells written so far, to report the progress of the save
+     * @throws IOException if the stream cannot be written to.
+     */
+    public void writeBinary(SheetSnapshot snapshot, OutputStream stream, AtomicInteger written)
+            throws IOException {
+        BinaryFormat.Writer writer = new BinaryFormat.Writer(stream);
+        List<CellLocation> cells = snapshot.populatedCells();
+        writer.writeHeader(snapshot.getRows(), snapshot.getColumns(), cells.size());
+        for (CellLocation location : cells) {
+            writer.writeCell(location, snapshot.formulaAt(location), snapshot.valueAt(location));
+            written.incrementAndGet();
+        }
+        writer.finish();
+    }
+
+    /**
+     * Writes the cells of a snapshot to a stream in the indexed format, see {@link IndexedFile},
+     * along with the current value of each cell. Loading a file in this format may page its
+     * rows in as they are used rather than read the whole file. This may be called on any thread.
+     *
+     * @param snapshot the snapshot of the sheet that is to be saved
+     * @param stream the stream that the file is to be written to
+     * @param written counts the cells written so far, to report the progress of the save
+     * @throws IOException if the stream cannot be written to.
+     */
+    public void writeIndexed(SheetSnapshot snapshot, OutputStream stream, AtomicInteger written)
+            throws IOException {
+        IndexedFile.write(snapshot, stream, written);
+    }
+
     /**
      * The action to be performed when the save button is pressed.
      *
@@ -0,0 +1,428 @@
+package sheep.features.files;
+
+import sheep.expression.CoreFactory;
+import sheep.expression.Expression;
+import sheep.expression.basic.Constant;
+import sheep.expression.basic.Nothing;
+import sheep.sheets.CellLocation;
+import sheep.sheets.CellRange;
+import sheep.sheets.CellStore;
+import sheep.sheets.SheetSnapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * A class describing the indexed binary sheet file format, which may be read one block of
+ * rows at a time rather than from start to end.
+ * <p>
+ * The file starts with the magic bytes "SHEP", the version byte {@value #VERSION}, and the
+ * number of rows, columns and cells of the sheet. The populated cells then follow in blocks
+ * of {@value #BLOCK_ROWS} rows, each encoded as the cells of {@link BinaryFormat} and
+ * decodable on its own. Blocks without populated cells are left out.
+ * <p>
+ * The file ends with an index of the blocks, recording the number, cell count, offset,
+ * length and CRC-32 checksum of each block, then a trailer holding the offset of the index,
+ * the number of blocks, whether every value is stored, and the magic bytes again.
+ * From version 4, each entry of the index also records the first and last row used by the
+ * formulas of its block, so a sheet paging the file in need only record the dependencies of
+ * the blocks which may use a changed cell, see {@link CellStore#rowGroups()}.
+ * Opening a file reads only the header and the index.
+ */
+class IndexedFile {
+
+    /**
+     * The version of the binary format written by this class
+     */
+    static final int VERSION = 4;
+
+    /**
+     * The first version of the format which is indexed, and the first to record the rows
+     * used by each block
+     */
+    private static final int INDEXED_VERSION = 3;
+    private static final int USED_ROWS_VERSION = 4;
+
+    /**
+     * The number of rows of each block
+     */
+    static final int BLOCK_ROWS = 1024;
+
+    /**
+     * The number of bytes of the header, index entries and trailer
+     */
+    private static final int HEADER = BinaryFormat.MAGIC.length + 1 + 3 * Integer.BYTES;
+    private static final int ENTRY = 6 * Integer.BYTES + Long.BYTES;
+    private static final int UNUSED_ROWS_ENTRY = 4 * Integer.BYTES + Long.BYTES;
+    private static final int TRAILER = Long.BYTES + 2 * Integer.BYTES + BinaryFormat.MAGIC.length;
+
+    /**
+     * A cell read from a block. The value is null if it was not stored.
+     */
+    record Cell(CellLocation location, Expression formula, Expression value) {
+
+    }
+
+    /**
+     * The position of a block within the file, and the rows used by its formulas.
+     */
+    private record Entry(int cells, long offset, int length, int checksum,
+                         int firstUsedRow, int lastUsedRow) {
+
+    }
+
+    /**
+     * Closes files once they are closed and no longer used by any view, see {@link #share(Object)}
+     */
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    /**
+     * The file that is read
+     */
+    private final FileChannel channel;
+
+    /**
+     * The dimensions and number of cells of the sheet
+     */
+    private final int rows;
+    private final int columns;
+    private final int cells;
+
+    /**
+     * Whether the value of every cell is stored
+     */
+    private final boolean valuesStored;
+
+    /**
+     * The position of each block, by block number
+     */
+    private final Map<Integer, Entry> blocks;
+
+    /**
+     * The number of users of the file which have not yet released it
+     */
+    private int users = 1;
+
+    private IndexedFile(FileChannel channel, int rows, int columns, int cells,
+                        boolean valuesStored, Map<Integer, Entry> blocks) {
+        this.channel = channel;
+        this.rows = rows;
+        this.columns = columns;
+        this.cells = cells;
+        this.valuesStored = valuesStored;
+        this.blocks = blocks;
+    }
+
+    /**
+     * Checks whether a file is in the indexed format, without moving the position of the channel.
+     *
+     * @param channel the file to check
+     * @return true if the file starts with the magic bytes and version of the indexed format.
+     * @throws IOException if the file cannot be read.
+     */
+    static boolean isIndexed(FileChannel channel) throws IOException {
+        if (channel.size() < HEADER + TRAILER) {
+            return false;
+        }
+        ByteBuffer start = read(channel, 0, BinaryFormat.MAGIC.length + 1);
+        int version = start.get(BinaryFormat.MAGIC.length);
+        return Arrays.equals(Arrays.copyOf(start.array(), BinaryFormat.MAGIC.length),
+                BinaryFormat.MAGIC) && version >= INDEXED_VERSION && version <= VERSION;
+    }
+
+    /**
+     * Reads the header and index of a file in the indexed format. The channel is read from
+     * whenever a block is read, so it must stay open for as long as the file is used.
+     *
+     * @param channel the file to read
+     * @return the opened file.
+     * @throws IOException if the file cannot be read.
+     * @throws FileFormatException if the header, index or trailer is malformed.
+     */
+    static IndexedFile open(FileChannel channel) throws IOException, FileFormatException {
+        long size = channel.size();
+        if (size < HEADER + TRAILER) {
+            throw new FileFormatException("File header malformed", 0);
+        }
+        ByteBuffer header = read(channel, 0, HEADER);
+        header.position(BinaryFormat.MAGIC.length);
+        boolean usedRows = header.get() >= USED_ROWS_VERSION;
+        int entrySize = usedRows ? ENTRY : UNUSED_ROWS_ENTRY;
+        int rows = header.getInt();
+        int columns = header.getInt();
+        int cells = header.getInt();
+
+        ByteBuffer trailer = read(channel, size - TRAILER, TRAILER);
+        long indexOffset = trailer.getLong();
+        int blockCount = trailer.getInt();
+        boolean valuesStored = trailer.getInt() != 0;
+        byte[] magic = new byte[BinaryFormat.MAGIC.length];
+        trailer.get(magic);
+        if (!Arrays.equals(magic, BinaryFormat.MAGIC) || blockCount < 0
+                || indexOffset < HEADER
+                || indexOffset + (long) blockCount * entrySize != size - TRAILER) {
+            throw new FileFormatException("File index malformed", 0);
+        }
+
+        Map<Integer, Entry> blocks = new TreeMap<>();
+        ByteBuffer index = read(channel, indexOffset, blockCount * entrySize);
+        for (int i = 0; i < blockCount; i++) {
+            int block = index.getInt();
+            int cellCount = index.getInt();
+            long offset = index.getLong();
+            int length = index.getInt();
+            int checksum = index.getInt();
+            // earlier versions do not record the rows used, so a block may use any row
+            Entry entry = usedRows
+                    ? new Entry(cellCount, offset, length, checksum, index.getInt(), index.getInt())
+                    : new Entry(cellCount, offset, length, checksum, 0, Integer.MAX_VALUE);
+            if (entry.offset() < HEADER || entry.length() < 0
+                    || entry.offset() + entry.length() > indexOffset) {
+                throw new FileFormatException("File index malformed", 0);
+            }
+            blocks.put(block, entry);
+        }
+        return new IndexedFile(channel, rows, columns, cells, valuesStored, blocks);
+    }
+
+    /**
+     * Writes the cells of a snapshot in the indexed format.
+     *
+     * @param snapshot the snapshot of the sheet that is to be saved
+     * @param stream the stream that the file is to be written to
+     * @param written counts the cells written so far, to report the progress of the save
+     * @throws IOException if the stream cannot be written to.
+     */
+    static void write(SheetSnapshot snapshot, OutputStream stream, AtomicInteger written)
+            throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        List<CellLocation> cells = snapshot.populatedCells();
+        out.write(BinaryFormat.MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(snapshot.getRows());
+        out.writeInt(snapshot.getColumns());
+        out.writeInt(cells.size());
+
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream indexOut = new DataOutputStream(index);
+        long offset = HEADER;
+        int blockCount = 0;
+        boolean valuesStored = true;
+        int start = 0;
+        while (start < cells.size()) {
+            int block = cells.get(start).getRow() / BLOCK_ROWS;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            BinaryFormat.Writer writer = new BinaryFormat.Writer(bytes);
+            int end = start;
+            int[] usedRows = {Integer.MAX_VALUE, -1};
+            while (end < cells.size() && cells.get(end).getRow() / BLOCK_ROWS == block) {
+                CellLocation location = cells.get(end);
+                Expression formula = snapshot.formulaAt(location);
+                Expression value = snapshot.valueAt(location);
+                valuesStored &= value instanceof Constant || value instanceof Nothing;
+                addUsedRows(usedRows, formula);
+                writer.writeCell(location, formula, value);
+                written.incrementAndGet();
+                end++;
+            }
+            writer.flush();
+
+            CRC32 checksum = new CRC32();
+            checksum.update(bytes.toByteArray());
+            indexOut.writeInt(block);
+            indexOut.writeInt(end - start);
+            indexOut.writeLong(offset);
+            indexOut.writeInt(bytes.size());
+            indexOut.writeInt((int) checksum.getValue());
+            indexOut.writeInt(usedRows[0]);
+            indexOut.writeInt(usedRows[1]);
+            bytes.writeTo(out);
+            offset += bytes.size();
+            blockCount++;
+            start = end;
+        }
+
+        index.writeTo(out);
+        out.writeLong(offset);
+        out.writeInt(blockCount);
+        out.writeInt(valuesStored ? 1 : 0);
+        out.write(BinaryFormat.MAGIC);
+        out.flush();
+    }
+
+    /**
+     * Widens a span of rows to hold every row used by a formula.
+     */
+    private static void addUsedRows(int[] usedRows, Expression formula) {
+        for (String dependency : formula.dependencies()) {
+            Optional<CellLocation> reference = CellLocation.maybeReference(dependency);
+            if (reference.isPresent()) {
+                usedRows[0] = Math.min(usedRows[0], reference.get().getRow());
+                usedRows[1] = Math.max(usedRows[1], reference.get().getRow());
+            }
+            Optional<CellRange> range = CellRange.maybeRange(dependency);
+            if (range.isPresent()) {
+                usedRows[0] = Math.min(usedRows[0], range.get().getFirstRow());
+                usedRows[1] = Math.max(usedRows[1], range.get().getLastRow());
+            }
+        }
+    }
+
+    /**
+     * Returns the number of rows of the sheet.
+     */
+    int getRows() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of columns of the sheet.
+     */
+    int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Returns the number of cells in the file.
+     */
+    int getCells() {
+        return cells;
+    }
+
+    /**
+     * Returns whether the value of every cell is stored,
+     * so the cells can be used without evaluating any formula.
+     */
+    boolean hasValues() {
+        return valuesStored;
+    }
+
+    /**
+     * Returns the number of every block within the file, in order.
+     */
+    Iterable<Integer> getBlocks() {
+        return blocks.keySet();
+    }
+
+    /**
+     * Returns the rows of every block within the file, along with the rows used by its formulas.
+     */
+    List<CellStore.RowGroup> rowGroups() {
+        List<CellStore.RowGroup> groups = new ArrayList<>(blocks.size());
+        for (Map.Entry<Integer, Entry> block : blocks.entrySet()) {
+            int firstRow = block.getKey() * BLOCK_ROWS;
+            groups.add(new CellStore.RowGroup(firstRow, firstRow + BLOCK_ROWS - 1,
+                    block.getValue().firstUsedRow(), block.getValue().lastUsedRow()));
+        }
+        return groups;
+    }
+
+    /**
+     * Returns the number of cells within a block, or 0 if the file has no such block.
+     *
+     * @param block the number of a block
+     */
+    int cellsIn(int block) {
+        Entry entry = blocks.get(block);
+        return entry == null ? 0 : entry.cells();
+    }
+
+    /**
+     * Reads every cell within a block.
+     *
+     * @param block the number of a block
+     * @return the cells of the block in row-major order, or an empty list if there is no block.
+     * @throws IOException if the file cannot be read.
+     * @throws FileFormatException if the block is malformed, does not match its checksum,
+     *                             or holds a cell outside of the sheet.
+     */
+    List<Cell> readBlock(int block) throws IOException, FileFormatException {
+        Entry entry = blocks.get(block);
+        if (entry == null) {
+            return new ArrayList<>();
+        }
+        byte[] bytes = read(channel, entry.offset(), entry.length()).array();
+        CRC32 checksum = new CRC32();
+        checksum.update(bytes);
+        if ((int) checksum.getValue() != entry.checksum()) {
+            throw new FileFormatException("Checksum mismatch in block", block);
+        }
+        BinaryFormat.Reader reader = new BinaryFormat.Reader(new ByteArrayInputStream(bytes),
+                new CoreFactory());
+        List<Cell> result = new ArrayList<>(entry.cells());
+        for (int i = 0; i < entry.cells(); i++) {
+            reader.readCell();
+            CellLocation location = reader.getLocation();
+            if (location.getRow() / BLOCK_ROWS != block) {
+                throw new FileFormatException("Cell outside of block", block);
+            }
+            if (location.getRow() >= rows || location.getColumn() >= columns) {
+                throw new FileFormatException("Cell outside of sheet", block);
+            }
+            result.add(new Cell(location, reader.getFormula(), reader.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * Keeps the file open for as long as a user of it is reachable, even once the file is closed,
+     * e.g. for a view of its cells which may be read on another thread after its store is closed.
+     * Blocks may be read from many threads at once.
+     *
+     * @param user the object reading blocks from the file
+     */
+    void share(Object user) {
+        synchronized (this) {
+            users++;
+        }
+        CLEANER.register(user, () -> {
+            try {
+                release();
+            } catch (IOException e) {
+                // nothing is left to read from the file, so it failing to close is not reported
+            }
+        });
+    }
+
+    /**
+     * Closes the file, once every user it is shared with is no longer reachable.
+     *
+     * @throws IOException if the file cannot be closed.
+     */
+    void close() throws IOException {
+        release();
+    }
+
+    private synchronized void release() throws IOException {
+        users--;
+        if (users == 0) {
+            channel.close();
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new java.io.EOFException();
+            }
+        }
+        return buffer.flip();
+    }
+}
@@ -0,0 +1,495 @@
+package sheep.features.files;
+
+import sheep.core.UpdateResponse;
+import sheep.expression.CoreFactory;
+import sheep.expression.Expression;
+import sheep.sheets.CellLocation;
+import sheep.sheets.Sheet;
+import sheep.sheets.SheetListener;
+import sheep.sheets.SheetSnapshot;
+import sheep.sheets.UpdateBatch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * A class recording every change to a sheet in an append-only log beside a snapshot file.
+ * <p>
+ * The snapshot is a binary sheet file, see {@link BinaryFormat}. The log is a sequence of
+ * numbered segment files named after the snapshot, e.g. "sheet.bin.log.3". Every successful
+ * change to the sheet appends a record to the current segment, made up of the length and
+ * CRC-32 checksum of the record followed by the changed formulas, the new dimensions, or a
+ * mark that the sheet was cleared. Writes reach the disk on a fixed interval rather than
+ * after every change, so at most one interval of changes is lost in a crash.
+ * <p>
+ * Once the current segment grows too large, the journal moves to a new segment and writes a
+ * snapshot of the sheet in the background, then deletes the segments the snapshot replaces.
+ * Records set cells rather than change them, so replaying a segment that a snapshot already
+ * includes, e.g. after a crash before the segment was deleted, results in the same sheet.
+ * <p>
+ * Changes are recorded on the thread that changes the sheet, while syncing and compacting
+ * happen on a single background thread.
+ */
+class Journal implements SheetListener {
+
+    /**
+     * The kinds of records
+     */
+    private static final int CELLS = 1;
+    private static final int RESIZE = 2;
+    private static final int CLEAR = 3;
+
+    /**
+     * The number of bytes before the contents of each record
+     */
+    private static final int RECORD_HEADER = 8;
+
+    /**
+     * The sheet that is being journaled
+     */
+    private final Sheet sheet;
+
+    /**
+     * The snapshot file, which the name of every segment starts with
+     */
+    private final Path base;
+
+    /**
+     * The size in bytes from which a segment is folded into a new snapshot
+     */
+    private final long compactSize;
+
+    /**
+     * The thread that syncs segments and writes snapshots
+     */
+    private final ScheduledExecutorService background;
+
+    /**
+     * The segment that records are appended to
+     */
+    private FileChannel segment;
+    private int segmentNumber;
+    private long segmentSize;
+
+    /**
+     * Whether records have been appended since the segment was last synced
+     */
+    private boolean dirty = false;
+
+    /**
+     * The snapshot currently being written, or null if none has been started
+     */
+    private Future<?> compaction;
+
+    /**
+     * The first error that occurred while writing, which stops the journal
+     */
+    private volatile IOException failure;
+
+    /**
+     * The constructor method for this class. The journal does not record changes until started.
+     *
+     * @param sheet the sheet that is to be journaled
+     * @param base the snapshot file, which the name of every segment starts with
+     * @param syncInterval the number of milliseconds between writes reaching the disk
+     * @param compactSize the size in bytes from which a segment is folded into a new snapshot
+     */
+    Journal(Sheet sheet, Path base, long syncInterval, long compactSize) {
+        this.sheet = sheet;
+        this.base = base.toAbsolutePath();
+        this.compactSize = compactSize;
+        this.background = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "sheet-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        background.scheduleWithFixedDelay(this::sync, syncInterval, syncInterval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Loads the snapshot and then replays every segment of a journal into the sheet.
+     * Replaying stops at the first record that is incomplete or does not match its checksum,
+     * as happens when the sheet was being changed during a crash.
+     *
+     * @param sheet the sheet that the journal is to be loaded into
+     * @param base the snapshot file of the journal
+     * @return true if there was a journal to recover.
+     * @throws IOException if the snapshot or a segment cannot be read.
+     * @throws FileFormatException if the snapshot or a record is malformed, or cannot be
+     *                             inserted into the sheet.
+     */
+    static boolean recover(Sheet sheet, Path base) throws IOException, FileFormatException {
+        base = base.toAbsolutePath();
+        List<Path> segments = segments(base);
+        if (!Files.exists(base) && segments.isEmpty()) {
+            return false;
+        }
+        if (Files.exists(base)) {
+            FileLoading loading = new FileLoading(sheet);
+            try (FileChannel channel = FileChannel.open(base)) {
+                UpdateBatch batch = loading.loadValues(channel);
+                sheet.clear();
+                sheet.updateDimensions(loading.getRows(), loading.getCols());
+                apply(batch, 0);
+            }
+        }
+        int recordNumber = 0;
+        for (Path path : segments) {
+            try (InputStream stream = Files.newInputStream(path)) {
+                DataInputStream input = new DataInputStream(stream);
+                byte[] record;
+                while ((record = readRecord(input)) != null) {
+                    replay(sheet, record, ++recordNumber);
+                }
+                if (input.read() != -1) {
+                    // a corrupt record, so later records may depend on changes that are lost
+                    return true;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Starts recording changes to the sheet in a new segment, after writing a snapshot of the
+     * sheet that replaces every existing segment. Returns once the snapshot has been written.
+     *
+     * @throws IOException if the snapshot or segment cannot be written.
+     */
+    void start() throws IOException {
+        List<Path> existing = segments(base);
+        segmentNumber = existing.isEmpty() ? 0 : numberOf(existing.get(existing.size() - 1));
+        try {
+            compact().get();
+        } catch (Exception e) {
+            fail(new IOException("Unable to write snapshot", e));
+        }
+        if (failure != null) {
+            background.shutdownNow();
+            synchronized (this) {
+                if (segment != null) {
+                    segment.close();
+                    segment = null;
+                }
+            }
+            throw failure;
+        }
+        sheet.addListener(this);
+    }
+
+    /**
+     * Stops recording changes to the sheet, waiting for every record to reach the disk.
+     *
+     * @throws IOException if a record could not be written.
+     */
+    void stop() throws IOException {
+        sheet.removeListener(this);
+        background.shutdown();
+        try {
+            background.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (segment != null) {
+                segment.force(false);
+                segment.close();
+                segment = null;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Returns the first error that occurred while writing, or null if none has occurred.
+     */
+    IOException getFailure() {
+        return failure;
+    }
+
+    @Override
+    public void updated(Map<CellLocation, Expression> cells) {
+        append(encode(writer -> {
+            writer.writeNumber(CELLS);
+            writer.writeNumber(cells.size());
+            for (Map.Entry<CellLocation, Expression> cell : cells.entrySet()) {
+                writer.writeFormula(cell.getKey(), cell.getValue());
+            }
+        }));
+    }
+
+    @Override
+    public void resized(int rows, int columns) {
+        append(encode(writer -> {
+            writer.writeNumber(RESIZE);
+            writer.writeNumber(rows);
+            writer.writeNumber(columns);
+        }));
+    }
+
+    @Override
+    public void cleared() {
+        append(encode(writer -> writer.writeNumber(CLEAR)));
+    }
+
+    /**
+     * The replaced cells are not listed, so a snapshot of the whole sheet is written instead.
+     */
+    @Override
+    public void replaced() {
+        Future<?> running;
+        synchronized (this) {
+            running = compaction;
+        }
+        try {
+            // the snapshot being written does not include the replaced cells
+            if (running != null) {
+                running.get();
+            }
+        } catch (Exception e) {
+            fail(new IOException("Unable to write snapshot", e));
+        }
+        synchronized (this) {
+            if (failure == null) {
+                compact();
+            }
+        }
+    }
+
+    /**
+     * The contents of a record, written through a {@link BinaryFormat.Writer}.
+     */
+    private interface Contents {
+        void write(BinaryFormat.Writer writer) throws IOException;
+    }
+
+    /**
+     * Creates a record from its contents, or returns null if the contents cannot be written.
+     */
+    private ByteBuffer encode(Contents contents) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            BinaryFormat.Writer writer = new BinaryFormat.Writer(bytes);
+            contents.write(writer);
+            writer.flush();
+        } catch (IOException e) {
+            fail(e);
+            return null;
+        }
+        CRC32 checksum = new CRC32();
+        checksum.update(bytes.toByteArray());
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + bytes.size());
+        record.putInt(bytes.size());
+        record.putInt((int) checksum.getValue());
+        record.put(bytes.toByteArray());
+        return record.flip();
+    }
+
+    /**
+     * Appends a record to the current segment, moving to a new segment
+     * and compacting once the current segment grows too large.
+     */
+    private synchronized void append(ByteBuffer record) {
+        if (record == null || failure != null) {
+            return;
+        }
+        try {
+            while (record.hasRemaining()) {
+                segmentSize += segment.write(record);
+            }
+            dirty = true;
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+        if (segmentSize >= compactSize && (compaction == null || compaction.isDone())) {
+            compact();
+        }
+    }
+
+    /**
+     * Forces the records appended since the last sync to the disk.
+     */
+    private void sync() {
+        FileChannel channel;
+        synchronized (this) {
+            if (!dirty || segment == null) {
+                return;
+            }
+            dirty = false;
+            channel = segment;
+        }
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Moves to a new segment, then writes a snapshot of the sheet in the background
+     * and deletes every earlier segment once the snapshot is on the disk.
+     */
+    private synchronized Future<?> compact() {
+        FileChannel folded = segment;
+        int foldedNumber = segmentNumber;
+        try {
+            segmentNumber++;
+            segment = FileChannel.open(segmentPath(segmentNumber),
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            segmentSize = 0;
+        } catch (IOException e) {
+            fail(e);
+            return compaction;
+        }
+        SheetSnapshot snapshot = sheet.snapshot();
+        compaction = background.submit(() -> {
+            try {
+                if (folded != null) {
+                    folded.force(false);
+                    folded.close();
+                }
+                writeSnapshot(snapshot);
+                for (Path path : segments(base)) {
+                    if (numberOf(path) <= foldedNumber) {
+                        Files.delete(path);
+                    }
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        });
+        return compaction;
+    }
+
+    /**
+     * Writes a snapshot to a temporary file which then replaces the snapshot file,
+     * so the snapshot file is always complete.
+     */
+    private void writeSnapshot(SheetSnapshot snapshot) throws IOException {
+        Path temporary = base.resolveSibling(base.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream stream = Channels.newOutputStream(channel);
+            new FileSaving(sheet).writeBinary(snapshot, stream, new AtomicInteger());
+            channel.force(true);
+        }
+        Files.move(temporary, base, StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    private Path segmentPath(int number) {
+        return base.resolveSibling(base.getFileName() + ".log." + number);
+    }
+
+    private static int numberOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring(name.lastIndexOf('.') + 1));
+    }
+
+    /**
+     * Returns every segment of a journal, in the order they were written.
+     */
+    private static List<Path> segments(Path base) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        String prefix = base.getFileName() + ".log.";
+        try (DirectoryStream<Path> directory = Files.newDirectoryStream(base.getParent(),
+                path -> path.getFileName().toString().startsWith(prefix)
+                        && path.getFileName().toString().substring(prefix.length())
+                        .matches("[0-9]+"))) {
+            for (Path path : directory) {
+                segments.add(path);
+            }
+        }
+        segments.sort((first, second) -> Integer.compare(numberOf(first),
+                numberOf(second)));
+        return segments;
+    }
+
+    /**
+     * Reads the contents of the next record of a segment,
+     * or returns null if the segment has ended or the record is incomplete or corrupt.
+     */
+    private static byte[] readRecord(DataInputStream input) throws IOException {
+        try {
+            int length = input.readInt();
+            int expected = input.readInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] contents = input.readNBytes(length);
+            CRC32 checksum = new CRC32();
+            checksum.update(contents);
+            if (contents.length != length || (int) checksum.getValue() != expected) {
+                return null;
+            }
+            return contents;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Applies the contents of a record to a sheet.
+     */
+    private static void replay(Sheet sheet, byte[] record, int recordNumber)
+            throws IOException, FileFormatException {
+        BinaryFormat.Reader reader = new BinaryFormat.Reader(
+                new ByteArrayInputStream(record), new CoreFactory());
+        switch (reader.readNumber()) {
+            case CELLS -> {
+                UpdateBatch batch = sheet.batch();
+                int count = reader.readNumber();
+                for (int i = 0; i < count; i++) {
+                    reader.readFormula();
+                    if (!sheet.contains(reader.getLocation())) {
+                        throw new FileFormatException("Cell outside of sheet", recordNumber);
+                    }
+                    batch.add(reader.getLocation(), reader.getFormula());
+                }
+                apply(batch, recordNumber);
+            }
+            case RESIZE -> sheet.updateDimensions(reader.readNumber(), reader.readNumber());
+            case CLEAR -> sheet.clear();
+            default -> throw new FileFormatException("Unknown record kind", recordNumber);
+        }
+    }
+
+    private static void apply(UpdateBatch batch, int recordNumber) throws FileFormatException {
+        UpdateResponse response = batch.apply();
+        if (!response.isSuccess()) {
+            throw new FileFormatException(response.getMessage(), recordNumber);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package sheep.features.files;
+
+import sheep.features.Feature;
+import sheep.sheets.Sheet;
+import sheep.ui.Perform;
+import sheep.ui.Prompt;
+import sheep.ui.Tick;
+import sheep.ui.UI;
+
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * A class representing journaling a sheet, where every change to the sheet is appended to a
+ * log beside a snapshot file rather than the whole sheet being saved. See {@link Journal}.
+ * <p>
+ * Opening a journal that already exists recovers the sheet from it, as after a crash,
+ * then continues recording changes to it.
+ */
+public class Journaling implements Feature, Perform, Tick {
+
+    /**
+     * The default number of milliseconds between writes reaching the disk
+     */
+    private static final long SYNC_INTERVAL = 200;
+
+    /**
+     * The default size in bytes from which the log is folded into a new snapshot
+     */
+    private static final long COMPACT_SIZE = 1 << 22;
+
+    /**
+     * The sheet that is to be journaled
+     */
+    private final Sheet sheet;
+
+    /**
+     * The number of milliseconds between writes reaching the disk
+     */
+    private final long syncInterval;
+
+    /**
+     * The size in bytes from which the log is folded into a new snapshot
+     */
+    private final long compactSize;
+
+    /**
+     * The journal currently recording changes, or null if none is open
+     */
+    private Journal journal;
+
+    /**
+     * The constructor method of this class, using the default sync interval and compaction size.
+     *
+     * @param sheet the sheet that is to be journaled
+     */
+    public Journaling(Sheet sheet) {
+        this(sheet, SYNC_INTERVAL, COMPACT_SIZE);
+    }
+
+    /**
+     * The constructor method of this class.
+     *
+     * @param sheet the sheet that is to be journaled
+     * @param syncInterval the number of milliseconds between writes reaching the disk,
+     *                     which bounds the changes lost in a crash
+     * @param compactSize the size in bytes from which the log is folded into a new snapshot
+     * @requires syncInterval &gt; 0 &amp;&amp; compactSize &gt; 0
+     */
+    public Journaling(Sheet sheet, long syncInterval, long compactSize) {
+        this.sheet = sheet;
+        this.syncInterval = syncInterval;
+        this.compactSize = compactSize;
+    }
+
+    @Override
+    public void register(UI ui) {
+        ui.addFeature("open-journal", "Open Journal", this);
+        ui.onTick(this);
+    }
+
+    /**
+     * Prompts the user for the name of a snapshot file. If the journal already exists, the
+     * sheet is recovered from it, otherwise the sheet is written to it. Every later change to
+     * the sheet is then recorded in the journal. Any journal that was already open is closed.
+     *
+     * @param row not used in this method.
+     * @param column not used in this method.
+     * @param prompt used to ask the user for a file name, and used to inform the user about
+     *               any errors that occurred.
+     */
+    @Override
+    public void perform(int row, int column, Prompt prompt) {
+        Optional<String> fileName = prompt.ask("Enter journal file name");
+        if (fileName.isEmpty()) {
+            prompt.message("File not provided");
+            return;
+        }
+        try {
+            close();
+            Path base = Path.of(fileName.get());
+            Journal.recover(sheet, base);
+            Journal opened = new Journal(sheet, base, syncInterval, compactSize);
+            opened.start();
+            journal = opened;
+        } catch (FileFormatException e) {
+            prompt.message("Incorrect file format");
+        } catch (InvalidPathException e) {
+            prompt.message("File not found");
+        } catch (IOException e) {
+            prompt.message("Unable to write to journal '" + fileName.get() + "'");
+        }
+    }
+
+    /**
+     * Informs the user and closes the journal if writing to it has failed.
+     *
+     * @param prompt used to inform the user about any errors that occurred.
+     * @return false, as journaling never changes the sheet.
+     */
+    @Override
+    public boolean onTick(Prompt prompt) {
+        if (journal != null && journal.getFailure() != null) {
+            prompt.message("Journal stopped: " + journal.getFailure().getMessage());
+            try {
+                close();
+            } catch (IOException e) {
+                // already reported
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops recording changes in the open journal, if any,
+     * once every recorded change has reached the disk.
+     *
+     * @throws IOException if a change could not be written.
+     */
+    public void close() throws IOException {
+        if (journal != null) {
+            Journal closing = journal;
+            journal = null;
+            closing.stop();
+        }
+    }
+}
@@ -1,15 +1,16 @@
 package sheep.features.files;
 
-import sheep.sheets.CellLocation;
+import sheep.core.UpdateResponse;
 import sheep.sheets.Sheet;
+import sheep.sheets.UpdateBatch;
 import sheep.ui.Perform;
 import sheep.ui.Prompt;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.Reader;
-import java.util.Map;
+import java.nio.channels.FileChannel;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.util.Optional;
 
 /**
@@ -29,7 +30,13 @@ public class Load extends FileLoading implements Perform {
     /**
      * Prompts the user for a file name. If a file name is given, the method attempts to read
      * from the file, clears the sheet and updates its dimensions, and updates the sheet with
-     * the values stored in the file.
+     * the values stored in the file. Small files are streamed and large files are read in
+     * parallel, see {@link FileLoading#loadValues}, then the values are inserted in a single bulk update,
+     * so each cell is evaluated once after the cells it depends upon. If a cell causes a type error,
+     * the cells are inserted one at a time instead, so every other cell is still loaded.
+     * <p>
+     * Indexed files storing the value of every cell are instead opened without reading any cell,
+     * and their rows are paged in as they are used, see {@link FileLoading#openPaged}.
      *
      * @param row not used in this method.
      * @param column not used in this method.
@@ -41,11 +48,18 @@ public class Load extends FileLoading implements Perform {
         Sheet sheet = super.getSheet();
         Optional<String> filePath = prompt.ask("Enter file name");
         String fileName = filePath.orElse(null); //set filename to null if no file name is given
-        Map<CellLocation, String> sheetValues;
+        UpdateBatch sheetValues;
 
         if (fileName != null) {
-            try (Reader reader = new FileReader(fileName)) {
-                sheetValues = super.readValues(reader);
+            FileChannel channel = null;
+            boolean paged = false;
+            try {
+                channel = FileChannel.open(Path.of(fileName));
+                paged = super.openPaged(channel);
+                if (paged) {
+                    return;
+                }
+                sheetValues = super.loadValues(channel);
                 int rows = super.getRows();
                 int cols = super.getCols();
 
@@ -53,17 +67,26 @@ public class Load extends FileLoading implements Perform {
                 //dimensions must be updated to ensure the file can be loaded properly
                 sheet.updateDimensions(rows, cols);
 
-                for (Map.Entry<CellLocation, String> entry : sheetValues.entrySet()) {
-                    sheet.update(entry.getKey().getRow(), entry.getKey().getColumn(),
-                            entry.getValue());
+                // cells causing a type error are left out, rather than the whole file
+                UpdateResponse response = sheetValues.applyEach();
+                if (!response.isSuccess()) {
+                    prompt.message(response.getMessage());
                 }
 
             } catch (FileFormatException e) {
                 prompt.message("Incorrect file format");
-            } catch (FileNotFoundException e) {
+            } catch (NoSuchFileException | InvalidPathException e) {
                 prompt.message("File not found");
             } catch (IOException e) {
                 prompt.message("File cannot be read");
+            } finally {
+                if (channel != null && !paged) {
+                    try {
+                        channel.close();
+                    } catch (IOException e) {
+                        prompt.message("File cannot be closed");
+                    }
+                }
             }
 
         } else {
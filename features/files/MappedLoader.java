@@ -0,0 +1,226 @@
+package sheep.features.files;
+
+import sheep.core.UpdateResponse;
+import sheep.sheets.Sheet;
+import sheep.sheets.UpdateBatch;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * A class reading the cell lines of a large sheet file in parallel.
+ * <p>
+ * The file is split into chunks which each end at the end of a line, and each chunk is
+ * memory-mapped rather than read. The lines in every chunk are counted in parallel,
+ * so that the line number each chunk starts at is known, and then every chunk is
+ * tokenized and parsed in parallel into its own batch of updates.
+ * The batches are combined in file order into a single batch.
+ */
+class MappedLoader {
+
+    /**
+     * The number of bytes of the file within each chunk, excluding the end of the last line
+     */
+    private static final int CHUNK_SIZE = 1 << 22;
+
+    /**
+     * The number of bytes read at a time when searching for the end of a line
+     */
+    private static final int SEARCH_SIZE = 1 << 12;
+
+    /**
+     * The sheet that the cells will be loaded into
+     */
+    private final Sheet sheet;
+
+    /**
+     * The file that is being loaded
+     */
+    private final FileChannel channel;
+
+    /**
+     * The pool used to read chunks in parallel
+     */
+    private final ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    /**
+     * A line-aligned part of the file.
+     *
+     * @param start the position of the first byte of the chunk within the file
+     * @param end the position after the last byte of the chunk within the file
+     */
+    private record Chunk(long start, long end) {
+
+    }
+
+    /**
+     * The constructor method for this class.
+     *
+     * @param sheet the sheet that the cells will be loaded into
+     * @param channel the file that is to be loaded
+     */
+    MappedLoader(Sheet sheet, FileChannel channel) {
+        this.sheet = sheet;
+        this.channel = channel;
+    }
+
+    /**
+     * Finds the position after the end of the line containing the given position.
+     *
+     * @param position a position within the file
+     * @return the position after the next line terminator at or after the position,
+     *         or the size of the file if there is none.
+     * @throws IOException if the file cannot be read.
+     */
+    long lineEnd(long position) throws IOException {
+        ByteBuffer search = ByteBuffer.allocate(SEARCH_SIZE);
+        long size = channel.size();
+        while (position < size) {
+            search.clear();
+            int read = channel.read(search, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (search.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * Reads the given number of cell lines, starting at the given position of the file,
+     * into a single batch of updates to the sheet.
+     *
+     * @param start the position of the first cell line within the file
+     * @param firstLine the line number of the first cell line
+     * @param cells the number of cell lines to read, later lines are ignored
+     * @param rows the number of rows the sheet will have
+     * @param cols the number of columns the sheet will have
+     * @return a batch containing every cell read.
+     * @throws IOException if the file cannot be read.
+     * @throws FileFormatException if there are not enough lines, if a line is malformed
+     *                             or outside the sheet, or if a formula cannot be parsed.
+     */
+    UpdateBatch read(long start, int firstLine, int cells, int rows, int cols)
+            throws IOException, FileFormatException {
+        List<Chunk> chunks = new ArrayList<>();
+        long size = channel.size();
+        while (start < size) {
+            long end = lineEnd(Math.min(start + CHUNK_SIZE, size) - 1);
+            chunks.add(new Chunk(start, end));
+            start = end;
+        }
+
+        List<Callable<Integer>> counts = new ArrayList<>();
+        for (Chunk chunk : chunks) {
+            counts.add(() -> countLines(map(chunk)));
+        }
+        List<Integer> lines = all(pool.invokeAll(counts));
+
+        // the first line of each chunk is the sum of the lines in every earlier chunk
+        List<Callable<UpdateBatch>> parses = new ArrayList<>();
+        int line = 0;
+        for (int i = 0; i < chunks.size() && line < cells; i++) {
+            Chunk chunk = chunks.get(i);
+            int first = line;
+            int limit = Math.min(lines.get(i), cells - first);
+            parses.add(() -> parse(map(chunk), firstLine + first, limit, rows, cols));
+            line += lines.get(i);
+        }
+        if (line < cells) {
+            throw new FileFormatException("Unable to read enough lines", firstLine + line);
+        }
+
+        UpdateBatch batch = sheet.batch();
+        for (UpdateBatch part : all(pool.invokeAll(parses))) {
+            batch.addAll(part);
+        }
+        return batch;
+    }
+
+    private MappedByteBuffer map(Chunk chunk) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, chunk.start(), chunk.end() - chunk.start());
+    }
+
+    /**
+     * Counts the lines within a chunk, including a final line without a line terminator.
+     */
+    private static int countLines(ByteBuffer contents) {
+        int lines = 0;
+        int limit = contents.limit();
+        for (int i = 0; i < limit; i++) {
+            if (contents.get(i) == '\n') {
+                lines++;
+            }
+        }
+        if (limit > 0 && contents.get(limit - 1) != '\n') {
+            lines++;
+        }
+        return lines;
+    }
+
+    /**
+     * Tokenizes and parses the cell lines of a chunk into a new batch.
+     */
+    private UpdateBatch parse(ByteBuffer contents, int firstLine, int limit, int rows, int cols)
+            throws IOException, FileFormatException {
+        CellReader reader = new CellReader(contents, firstLine);
+        UpdateBatch batch = sheet.batch();
+        for (int i = 0; i < limit && reader.nextLine(); i++) {
+            reader.readCell();
+            if (reader.getRow() >= rows || reader.getColumn() >= cols) {
+                throw new FileFormatException("Cell outside of sheet", reader.getLineNumber());
+            }
+            UpdateResponse response = batch.add(reader.getRow(), reader.getColumn(),
+                    reader.getFormula());
+            if (!response.isSuccess()) {
+                throw new FileFormatException(response.getMessage(), reader.getLineNumber());
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Waits for the results of every task in order.
+     * If any task failed, the failure of the earliest task is thrown,
+     * so a malformed file reports the first malformed line.
+     */
+    private static <T> List<T> all(List<Future<T>> futures)
+            throws IOException, FileFormatException {
+        List<T> results = new ArrayList<>();
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while loading", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                // the pool wraps checked exceptions thrown by a task
+                if (cause instanceof RuntimeException && cause.getCause() != null) {
+                    cause = cause.getCause();
+                }
+                if (cause instanceof FileFormatException format) {
+                    throw format;
+                }
+                if (cause instanceof IOException io) {
+                    throw io;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,155 @@
+package sheep.features.files;
+
+import sheep.expression.CoreFactory;
+import sheep.expression.Expression;
+import sheep.features.Feature;
+import sheep.parsing.SimpleParser;
+import sheep.sheets.CellLocation;
+import sheep.sheets.MappedCellStore;
+import sheep.sheets.Sheet;
+import sheep.sheets.SheetListener;
+import sheep.sheets.SheetSnapshot;
+import sheep.sheets.UpdateBatch;
+import sheep.ui.Perform;
+import sheep.ui.Prompt;
+import sheep.ui.UI;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A feature that keeps the cells of a sheet in a memory-mapped file, see {@link MappedCellStore}.
+ * <p>
+ * Opening an existing file makes its cells usable straight away, without reading them,
+ * and every later change to the sheet is written through to the file. Opening a file that
+ * does not exist yet copies the current cells of the sheet into it.
+ * The file stays in use until another file is loaded into the sheet.
+ */
+public class MappedSheet implements Feature, Perform, SheetListener {
+
+    /**
+     * The sheet that is kept in a file
+     */
+    private final Sheet sheet;
+
+    /**
+     * The store currently used by the sheet, or null if the sheet uses another store
+     */
+    private MappedCellStore store;
+
+    /**
+     * Whether the sheet is being given a store by this feature
+     */
+    private boolean opening;
+
+    /**
+     * The constructor method for this class
+     *
+     * @param sheet the sheet that is to be kept in a file
+     */
+    public MappedSheet(Sheet sheet) {
+        this.sheet = sheet;
+        sheet.addListener(this);
+    }
+
+    @Override
+    public void register(UI ui) {
+        ui.addFeature("open-mapped", "Open Mapped File", this);
+    }
+
+    /**
+     * Prompts the user for a file name. If the file holds a mapped sheet, the sheet is
+     * replaced by the cells of the file, and any cell whose value was not stored is evaluated.
+     * Otherwise the file is created holding the current cells of the sheet.
+     *
+     * @param row not used in this method.
+     * @param column not used in this method.
+     * @param prompt used to ask the user for a file name, and used to inform the user about
+     *               any errors that occurred.
+     */
+    @Override
+    public void perform(int row, int column, Prompt prompt) {
+        Optional<String> name = prompt.ask("Enter file name");
+        if (name.isEmpty()) {
+            prompt.message("File not provided");
+            return;
+        }
+        try {
+            Path path = Path.of(name.get());
+            MappedCellStore opened;
+            if (Files.exists(path)) {
+                if (!MappedCellStore.isMapped(path)) {
+                    prompt.message("Incorrect file format");
+                    return;
+                }
+                opened = MappedCellStore.open(path, new SimpleParser(new CoreFactory()));
+            } else {
+                opened = copy(path);
+            }
+            opening = true;
+            try {
+                sheet.open(opened, opened.getRows(), opened.getColumns());
+            } finally {
+                opening = false;
+            }
+            store = opened;
+
+            if (!opened.unvaluedCells().isEmpty()) {
+                UpdateBatch batch = sheet.batch();
+                for (CellLocation location : opened.unvaluedCells()) {
+                    batch.add(location, sheet.formulaAt(location));
+                }
+                opened.unvaluedCells().clear();
+                batch.apply();
+            }
+        } catch (InvalidPathException e) {
+            prompt.message("File not found");
+        } catch (IOException | UncheckedIOException e) {
+            prompt.message("Unable to open file '" + name.get() + "'");
+        }
+    }
+
+    /**
+     * Creates a file holding the current cells and values of the sheet.
+     */
+    private MappedCellStore copy(Path path) throws IOException {
+        SheetSnapshot snapshot = sheet.snapshot();
+        MappedCellStore copy = MappedCellStore.create(path, snapshot.getRows(),
+                snapshot.getColumns());
+        for (CellLocation location : snapshot.populatedCells()) {
+            copy.setFormula(location, snapshot.formulaAt(location));
+            copy.setValue(location, snapshot.valueAt(location));
+        }
+        return copy;
+    }
+
+    @Override
+    public void updated(Map<CellLocation, Expression> cells) {
+    }
+
+    @Override
+    public void resized(int rows, int columns) {
+        if (store != null) {
+            store.setDimensions(rows, columns);
+        }
+    }
+
+    @Override
+    public void cleared() {
+    }
+
+    /**
+     * Forgets the file once another is loaded into the sheet, as the sheet closes it.
+     */
+    @Override
+    public void replaced() {
+        if (!opening) {
+            store = null;
+        }
+    }
+}
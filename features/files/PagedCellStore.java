@@ -0,0 +1,409 @@
+package sheep.features.files;
+
+import sheep.expression.Expression;
+import sheep.sheets.CellLocation;
+import sheep.sheets.CellStore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A store paging the cells of a sheet in from a file in the indexed format, see {@link IndexedFile}.
+ * <p>
+ * A block of rows is read from the file the first time one of its cells is used.
+ * Once more than the budget of cells is paged in, the least recently used blocks are dropped
+ * and read again when next used. Cells changed since the file was opened are held separately
+ * and never dropped, so the file itself is only ever read from.
+ * <p>
+ * The blocks of the file are the row groups of the store, see {@link #rowGroups()},
+ * so a sheet opening the store records the dependencies of a block only once it, or a row
+ * its formulas use, changes. A view of the store, see {@link #view()}, copies the changed
+ * cells and reads every other cell from the file as the view is read.
+ * <p>
+ * Errors reading the file are thrown as an {@link UncheckedIOException}.
+ * <p>
+ * Reading a cell may page in a block and reorders the blocks by their use, so a read changes
+ * the store. Every method holds the lock of the store, so the store may be read and changed
+ * from several threads, e.g. an interface rendering cells while a sheet is saved.
+ * Views of the store only read what they copied and the file, so they take no lock.
+ */
+class PagedCellStore implements CellStore {
+
+    /**
+     * A cell changed since the file was opened. A null formula marks a removed cell.
+     */
+    private static class Change {
+        private Expression formula;
+        private Expression value;
+
+        private Change(Expression formula, Expression value) {
+            this.formula = formula;
+            this.value = value;
+        }
+    }
+
+    /**
+     * An unchanging view of the store, reading the cells of the file as they are used.
+     */
+    private static class PageView implements View {
+        private final IndexedFile file;
+        private final Map<Integer, Map<CellLocation, IndexedFile.Cell>> pages;
+        private final Map<CellLocation, IndexedFile.Cell> changes;
+
+        /**
+         * The block of the file read most recently, as the cells of a view are mostly read
+         * in order
+         */
+        private volatile Page recent;
+
+        private record Page(int block, Map<CellLocation, IndexedFile.Cell> cells) {
+
+        }
+
+        private PageView(IndexedFile file, Map<Integer, Map<CellLocation, IndexedFile.Cell>> pages,
+                         Map<CellLocation, IndexedFile.Cell> changes) {
+            this.file = file;
+            this.pages = pages;
+            this.changes = changes;
+            if (file != null) {
+                file.share(this);
+            }
+        }
+
+        @Override
+        public Expression formula(CellLocation location) {
+            IndexedFile.Cell cell = cell(location);
+            return cell == null ? null : cell.formula();
+        }
+
+        @Override
+        public Expression value(CellLocation location) {
+            IndexedFile.Cell cell = cell(location);
+            return cell == null ? null : cell.value();
+        }
+
+        @Override
+        public void forEach(Consumer<CellLocation> action) {
+            if (file != null) {
+                for (int block : file.getBlocks()) {
+                    for (CellLocation location : page(block).keySet()) {
+                        if (!changes.containsKey(location)) {
+                            action.accept(location);
+                        }
+                    }
+                }
+            }
+            for (IndexedFile.Cell cell : changes.values()) {
+                if (cell.formula() != null) {
+                    action.accept(cell.location());
+                }
+            }
+        }
+
+        private IndexedFile.Cell cell(CellLocation location) {
+            if (changes.containsKey(location)) {
+                return changes.get(location);
+            }
+            int block = location.getRow() / IndexedFile.BLOCK_ROWS;
+            if (file == null || file.cellsIn(block) == 0) {
+                return null;
+            }
+            return page(block).get(location);
+        }
+
+        private Map<CellLocation, IndexedFile.Cell> page(int block) {
+            Map<CellLocation, IndexedFile.Cell> page = pages.get(block);
+            if (page != null) {
+                return page;
+            }
+            Page last = recent;
+            if (last != null && last.block() == block) {
+                return last.cells();
+            }
+            page = index(read(file, block));
+            recent = new Page(block, page);
+            return page;
+        }
+    }
+
+    /**
+     * The file that blocks are read from, or null once the store is cleared
+     */
+    private IndexedFile file;
+
+    /**
+     * The number of cells that may be paged in before blocks are dropped
+     */
+    private final int budget;
+
+    /**
+     * The cells of each paged in block, by block number, in order of least recent use
+     */
+    private final LinkedHashMap<Integer, Map<CellLocation, IndexedFile.Cell>> pages =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The cells changed since the file was opened
+     */
+    private final Map<CellLocation, Change> changes = new HashMap<>();
+
+    /**
+     * The number of cells that are paged in, and the number of stored cells
+     */
+    private int paged;
+    private int size;
+
+    /**
+     * Creates a store over the cells of a file.
+     * The store takes ownership of the file, closing it once the store is cleared.
+     *
+     * @param file the opened file to read blocks from
+     * @param budget the number of cells that may be paged in at once
+     */
+    PagedCellStore(IndexedFile file, int budget) {
+        this.file = file;
+        this.budget = budget;
+        this.size = file.getCells();
+    }
+
+    @Override
+    public synchronized Expression formula(CellLocation location) {
+        Change change = changes.get(location);
+        if (change != null) {
+            return change.formula;
+        }
+        IndexedFile.Cell cell = page(location);
+        return cell == null ? null : cell.formula();
+    }
+
+    @Override
+    public synchronized Expression value(CellLocation location) {
+        Change change = changes.get(location);
+        if (change != null) {
+            return change.value;
+        }
+        IndexedFile.Cell cell = page(location);
+        return cell == null ? null : cell.value();
+    }
+
+    @Override
+    public synchronized void setFormula(CellLocation location, Expression formula) {
+        Change change = change(location);
+        if (change.formula == null) {
+            size++;
+        }
+        change.formula = formula;
+    }
+
+    @Override
+    public synchronized void setValue(CellLocation location, Expression value) {
+        change(location).value = value;
+    }
+
+    @Override
+    public synchronized void remove(CellLocation location) {
+        Change change = change(location);
+        if (change.formula != null) {
+            size--;
+        }
+        change.formula = null;
+        change.value = null;
+    }
+
+    /**
+     * Reads every block of the file in turn, without paging them in.
+     */
+    @Override
+    public synchronized Collection<CellLocation> locations() {
+        List<CellLocation> locations = new ArrayList<>(size);
+        if (file != null) {
+            for (int block : file.getBlocks()) {
+                Map<CellLocation, IndexedFile.Cell> page = pages.get(block);
+                Collection<IndexedFile.Cell> cells = page != null ? page.values() : read(file, block);
+                for (IndexedFile.Cell cell : cells) {
+                    if (!changes.containsKey(cell.location())) {
+                        locations.add(cell.location());
+                    }
+                }
+            }
+        }
+        for (Map.Entry<CellLocation, Change> entry : changes.entrySet()) {
+            if (entry.getValue().formula != null) {
+                locations.add(entry.getKey());
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * Pages in only the blocks of the file holding the rows.
+     */
+    @Override
+    public synchronized Collection<CellLocation> locations(int firstRow, int lastRow) {
+        List<CellLocation> locations = new ArrayList<>();
+        if (file != null) {
+            for (int block = firstRow / IndexedFile.BLOCK_ROWS;
+                 block <= lastRow / IndexedFile.BLOCK_ROWS; block++) {
+                if (file.cellsIn(block) == 0) {
+                    continue;
+                }
+                for (CellLocation location : page(block).keySet()) {
+                    if (location.getRow() >= firstRow && location.getRow() <= lastRow
+                            && !changes.containsKey(location)) {
+                        locations.add(location);
+                    }
+                }
+            }
+        }
+        for (Map.Entry<CellLocation, Change> entry : changes.entrySet()) {
+            int row = entry.getKey().getRow();
+            if (entry.getValue().formula != null && row >= firstRow && row <= lastRow) {
+                locations.add(entry.getKey());
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * The blocks of the file, as changed cells are recorded as they change.
+     */
+    @Override
+    public synchronized List<RowGroup> rowGroups() {
+        return file == null ? List.of() : file.rowGroups();
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Also closes the file, as none of its cells are stored any longer.
+     */
+    @Override
+    public synchronized void clear() {
+        changes.clear();
+        size = 0;
+        close();
+    }
+
+    /**
+     * Closes the file, after which the cells of the file are no longer stored.
+     */
+    @Override
+    public synchronized void close() {
+        pages.clear();
+        paged = 0;
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                file = null;
+            }
+        }
+    }
+
+    /**
+     * Copies the changed cells, and shares the blocks that are paged in and the file with the view,
+     * so the file is kept open for as long as the view is used.
+     */
+    @Override
+    public synchronized View view() {
+        Map<CellLocation, IndexedFile.Cell> changed = new HashMap<>();
+        for (Map.Entry<CellLocation, Change> entry : changes.entrySet()) {
+            Change change = entry.getValue();
+            changed.put(entry.getKey(),
+                    new IndexedFile.Cell(entry.getKey(), change.formula, change.value));
+        }
+        return new PageView(file, new HashMap<>(pages), changed);
+    }
+
+    /**
+     * Returns the number of cells that are currently paged in.
+     */
+    synchronized int getPagedCells() {
+        return paged;
+    }
+
+    /**
+     * Returns the change of a cell, starting from its cell in the file if it has not changed yet.
+     */
+    private Change change(CellLocation location) {
+        Change change = changes.get(location);
+        if (change == null) {
+            IndexedFile.Cell cell = page(location);
+            change = cell == null ? new Change(null, null)
+                    : new Change(cell.formula(), cell.value());
+            changes.put(location, change);
+        }
+        return change;
+    }
+
+    /**
+     * Returns the cell of the file at a location, paging in its block if needed.
+     */
+    private IndexedFile.Cell page(CellLocation location) {
+        if (file == null) {
+            return null;
+        }
+        int block = location.getRow() / IndexedFile.BLOCK_ROWS;
+        if (file.cellsIn(block) == 0) {
+            return null;
+        }
+        return page(block).get(location);
+    }
+
+    /**
+     * Returns the cells of a block of the file, paging it in if needed.
+     */
+    private Map<CellLocation, IndexedFile.Cell> page(int block) {
+        Map<CellLocation, IndexedFile.Cell> page = pages.get(block);
+        if (page == null) {
+            page = index(read(file, block));
+            pages.put(block, page);
+            paged += page.size();
+            evict();
+        }
+        return page;
+    }
+
+    private static Map<CellLocation, IndexedFile.Cell> index(List<IndexedFile.Cell> cells) {
+        Map<CellLocation, IndexedFile.Cell> page = new HashMap<>();
+        for (IndexedFile.Cell cell : cells) {
+            page.put(cell.location(), cell);
+        }
+        return page;
+    }
+
+    /**
+     * Drops the least recently used blocks until the paged in cells fit within the budget,
+     * always keeping the most recently used block.
+     */
+    private void evict() {
+        Iterator<Map<CellLocation, IndexedFile.Cell>> eldest = pages.values().iterator();
+        while (paged > budget && pages.size() > 1) {
+            paged -= eldest.next().size();
+            eldest.remove();
+        }
+    }
+
+    private static List<IndexedFile.Cell> read(IndexedFile file, int block) {
+        try {
+            return file.readBlock(block);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (FileFormatException e) {
+            throw new UncheckedIOException(new IOException(e.getMessage(), e));
+        }
+    }
+}
@@ -1,16 +1,68 @@
 package sheep.features.files;
 
 import sheep.sheets.Sheet;
+import sheep.sheets.SheetSnapshot;
 import sheep.ui.Perform;
 import sheep.ui.Prompt;
+import sheep.ui.Tick;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A class representing the action that is performed when a sheet is to be saved to a file
+ * <p>
+ * Saving takes a snapshot of the sheet on the thread the action is performed on, then
+ * writes the snapshot to the file on a background thread, so the user interface stays
+ * responsive and later changes to the sheet do not affect the file being written.
+ * While a save is being written, its progress is shown as a status on every tick.
+ * Once it finishes, its outcome is reported on the next tick, or the next time the action
+ * is performed: a failure as a message, and a success as a status.
  */
-public class Save extends FileSaving implements Perform {
+public class Save extends FileSaving implements Perform, Tick {
+
+    /**
+     * The file extension of files saved in the indexed binary format
+     */
+    private static final String BINARY_EXTENSION = ".bin";
+
+    /**
+     * The thread that files are written on, shared so that saves happen one at a time
+     */
+    private static final ExecutorService SAVER = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "sheet-save");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The save currently being written, or null if its outcome has been reported
+     */
+    private Future<?> pending;
+
+    /**
+     * The name of the file currently being written
+     */
+    private String pendingFile;
+
+    /**
+     * The number of cells in the snapshot currently being written,
+     * or -1 until they are counted
+     */
+    private volatile int total;
+
+    /**
+     * The number of cells of the snapshot written so far
+     */
+    private final AtomicInteger written = new AtomicInteger();
 
     /**
      * The constructor method for this class
@@ -22,8 +74,12 @@ public class Save extends FileSaving implements Perform {
     }
 
     /**
-     * The user is prompted for a file path. If a file is specified, the method attempts to
-     * write each respective string on a new line of the file.
+     * The user is prompted for a file path. If a file is specified, a snapshot of the sheet is
+     * taken and each respective string is written on a new line of the file in the background.
+     * Only the cells that are not empty are written. Files named with the ".bin" extension are
+     * written in the indexed binary format instead, see {@link IndexedFile}.
+     * <p>
+     * If a save is still being written, the user is instead told how far it has progressed.
      *
      * @param row not used in this method.
      * @param column not used in this method.
@@ -32,23 +88,104 @@ public class Save extends FileSaving implements Perform {
      */
     @Override
     public void perform(int row, int column, Prompt prompt) {
+        report(prompt);
+        if (isSaving()) {
+            prompt.message("Saving '" + pendingFile + "': " + getProgress() + "%");
+            return;
+        }
+
         Optional<String> filePathOpt = prompt.ask("Enter file name");
         String fileName = filePathOpt.orElse(null); //set file name to null if no name is given
 
         if (fileName != null) {
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
-                populateSheetItems(super.getSheet(), super.getSheetItems());
-                for (String item : super.getSheetItems()) {
-                    writer.write(item, 0, item.length());
-                    writer.newLine(); //ensures that the string for each cell is on a new line
-                }
-            } catch (FileNotFoundException f) {
-                prompt.message("'" + fileName + "' does not exist");
-            } catch (IOException e) {
-                prompt.message("Unable to write to file '" + fileName + "'");
-            }
+            SheetSnapshot snapshot = super.getSheet().snapshot();
+            written.set(0);
+            total = -1;
+            pendingFile = fileName;
+            pending = SAVER.submit(() -> {
+                // counting may read the cells of a snapshot, so happens in the background too
+                total = snapshot.size();
+                write(snapshot, fileName);
+                return null;
+            });
         } else {
             prompt.message("File not specified");
         }
     }
+
+    /**
+     * Shows the progress of a save that is being written,
+     * or reports the outcome of a save that has finished being written.
+     *
+     * @param prompt used to show the progress, and to inform users of the outcome.
+     * @return false, as saving never changes the sheet.
+     */
+    @Override
+    public boolean onTick(Prompt prompt) {
+        if (isSaving()) {
+            prompt.status("Saving '" + pendingFile + "': " + getProgress() + "%");
+        } else {
+            report(prompt);
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether a save is still being written.
+     */
+    public boolean isSaving() {
+        return pending != null && !pending.isDone();
+    }
+
+    /**
+     * Returns the percentage of the cells of the current save that have been written.
+     */
+    public int getProgress() {
+        int cells = total;
+        if (cells < 0) {
+            return 0;
+        }
+        return cells == 0 ? 100 : (int) (100L * written.get() / cells);
+    }
+
+    private void write(SheetSnapshot snapshot, String fileName) throws IOException {
+        if (fileName.endsWith(BINARY_EXTENSION)) {
+            // the sheet may be paging its cells in from this very file,
+            // so the file is replaced rather than overwritten
+            Path target = Path.of(fileName);
+            Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+            try (OutputStream stream = new FileOutputStream(temporary.toFile())) {
+                writeIndexed(snapshot, stream, written);
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } else {
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
+                writeText(snapshot, writer, written);
+            }
+        }
+    }
+
+    /**
+     * Informs the user whether the last save succeeded, once it has finished being written.
+     */
+    private void report(Prompt prompt) {
+        if (pending == null || !pending.isDone()) {
+            return;
+        }
+        Future<?> finished = pending;
+        pending = null;
+        try {
+            finished.get();
+            prompt.status("Saved '" + pendingFile + "'");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof FileNotFoundException) {
+                prompt.message("'" + pendingFile + "' does not exist");
+            } else {
+                prompt.message("Unable to write to file '" + pendingFile + "'");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 }
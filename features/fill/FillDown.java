@@ -0,0 +1,80 @@
+package sheep.features.fill;
+
+import sheep.core.UpdateResponse;
+import sheep.features.Feature;
+import sheep.sheets.CellLocation;
+import sheep.sheets.CellRange;
+import sheep.sheets.Sheet;
+import sheep.ui.Perform;
+import sheep.ui.Prompt;
+import sheep.ui.UI;
+
+import java.util.Optional;
+
+/**
+ * A class representing filling the formula of the selected cell down the rows below it.
+ * <p>
+ * The filled cells share the formula of the selected cell,
+ * with cell references relative to each filled cell.
+ */
+public class FillDown implements Feature, Perform {
+
+    /**
+     * The sheet that is to be filled
+     */
+    private final Sheet sheet;
+
+    /**
+     * The constructor method of this class.
+     *
+     * @param sheet the sheet whose cells are to be filled
+     */
+    public FillDown(Sheet sheet) {
+        this.sheet = sheet;
+    }
+
+    @Override
+    public void register(UI ui) {
+        ui.addFeature("fill-down", "Fill Down", this);
+    }
+
+    /**
+     * Prompts the user for the number of rows to fill, then fills that many rows
+     * starting at the selected cell with the formula of the selected cell.
+     *
+     * @param row the selected row, or -2 if no cell is selected.
+     * @param column the selected column, or -2 if no cell is selected.
+     * @param prompt used to ask the user for the number of rows, and used to inform the user
+     *               about any errors that occurred.
+     */
+    @Override
+    public void perform(int row, int column, Prompt prompt) {
+        CellLocation selected = new CellLocation(row, column);
+        if (!sheet.contains(selected)) {
+            prompt.message("No cell selected");
+            return;
+        }
+        Optional<String> answer = prompt.ask("Number of rows to fill");
+        if (answer.isEmpty()) {
+            return;
+        }
+        int count;
+        try {
+            count = Integer.parseInt(answer.get().strip());
+        } catch (NumberFormatException e) {
+            prompt.message("Number of rows must be an integer");
+            return;
+        }
+        if (count < 1) {
+            prompt.message("Number of rows must be positive");
+            return;
+        }
+        int lastRow = (int) Math.min(sheet.getRows() - 1L, (long) row + count - 1);
+
+        CellRange range = new CellRange(selected, new CellLocation(lastRow, column));
+        UpdateResponse response = sheet.fill(range, sheet.formulaAt(selected).render());
+        if (!response.isSuccess()) {
+            prompt.message(response.getMessage());
+        }
+    }
+}
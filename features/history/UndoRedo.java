@@ -0,0 +1,60 @@
+package sheep.features.history;
+
+import sheep.core.UpdateResponse;
+import sheep.features.Feature;
+import sheep.sheets.Sheet;
+import sheep.ui.Perform;
+import sheep.ui.Prompt;
+import sheep.ui.UI;
+
+/**
+ * A class representing undoing and redoing updates to a sheet, see {@link Sheet#undo()}.
+ */
+public class UndoRedo implements Feature {
+
+    /**
+     * The sheet whose updates are undone
+     */
+    private final Sheet sheet;
+
+    /**
+     * The constructor method of this class.
+     *
+     * @param sheet the sheet whose updates are to be undone and redone
+     */
+    public UndoRedo(Sheet sheet) {
+        this.sheet = sheet;
+    }
+
+    @Override
+    public void register(UI ui) {
+        ui.addFeature("undo", "Undo", new Undo());
+        ui.addFeature("redo", "Redo", new Redo());
+    }
+
+    /**
+     * A class representing the action to be performed when the latest update is undone
+     */
+    public class Undo implements Perform {
+        @Override
+        public void perform(int row, int column, Prompt prompt) {
+            report(sheet.undo(), prompt);
+        }
+    }
+
+    /**
+     * A class representing the action to be performed when the latest undone update is redone
+     */
+    public class Redo implements Perform {
+        @Override
+        public void perform(int row, int column, Prompt prompt) {
+            report(sheet.redo(), prompt);
+        }
+    }
+
+    private static void report(UpdateResponse response, Prompt prompt) {
+        if (!response.isSuccess()) {
+            prompt.message(response.getMessage());
+        }
+    }
+}
@@ -4,6 +4,9 @@ import sheep.expression.Expression;
 import sheep.expression.ExpressionFactory;
 import sheep.expression.InvalidExpression;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Parser of basic expressions and arithmetic expressions.
  */
@@ -37,18 +40,24 @@ public class SimpleParser implements Parser {
             // ignore unable to parse
         }
 
-        if (input.contains("=")) {
-            return factory.createOperator("=", tryParse(input.split("=")));
-        } else if (input.contains("<")) {
-            return factory.createOperator("<", tryParse(input.split("<")));
-        } else if (input.contains("+")) {
-            return factory.createOperator("+", tryParse(input.split("\\+")));
-        } else if (input.contains("-")) {
-            return factory.createOperator("-", tryParse(input.split("-")));
-        } else if (input.contains("*")) {
-            return factory.createOperator("*", tryParse(input.split("\\*")));
-        } else if (input.contains("/")) {
-            return factory.createOperator("/", tryParse(input.split("/")));
+        if (isCall(input)) {
+            return tryParseCall(input);
+        }
+
+        if (containsOutside(input, '=')) {
+            return factory.createOperator("=", tryParse(splitOutside(input, '=')));
+        } else if (containsOutside(input, '<')) {
+            return factory.createOperator("<", tryParse(splitOutside(input, '<')));
+        } else if (containsOutside(input, '+')) {
+            return factory.createOperator("+", tryParse(splitOutside(input, '+')));
+        } else if (containsOutside(input, '-')) {
+            return factory.createOperator("-", tryParse(splitOutside(input, '-')));
+        } else if (containsOutside(input, '*')) {
+            return factory.createOperator("*", tryParse(splitOutside(input, '*')));
+        } else if (containsOutside(input, '/')) {
+            return factory.createOperator("/", tryParse(splitOutside(input, '/')));
+        } else if (containsOutside(input, ':')) {
+            return factory.createOperator(":", tryParse(splitOutside(input, ':')));
         }
 
         for (char character : input.toCharArray()) {
@@ -62,6 +71,88 @@ public class SimpleParser implements Parser {
         return factory.createReference(input);
     }
 
+    /**
+     * Whether the input is a single function call, e.g. SUM(A1:A4),
+     * that is, a name followed by parenthesised arguments that span the rest of the input.
+     */
+    private static boolean isCall(String input) {
+        int open = input.indexOf('(');
+        if (open < 1 || !input.endsWith(")")) {
+            return false;
+        }
+        for (int i = 0; i < open; i++) {
+            if (!Character.isLetterOrDigit(input.charAt(i))) {
+                return false;
+            }
+        }
+        int depth = 0;
+        for (int i = open; i < input.length(); i++) {
+            if (input.charAt(i) == '(') {
+                depth++;
+            } else if (input.charAt(i) == ')') {
+                depth--;
+                if (depth == 0) {
+                    return i == input.length() - 1;
+                }
+            }
+        }
+        return false;
+    }
+
+    private Expression tryParseCall(String input) throws ParseException, InvalidExpression {
+        int open = input.indexOf('(');
+        String name = input.substring(0, open);
+        String arguments = input.substring(open + 1, input.length() - 1);
+        if (arguments.isBlank()) {
+            return factory.createOperator(name, new Object[0]);
+        }
+        return factory.createOperator(name, tryParse(splitOutside(arguments, ',')));
+    }
+
+    /**
+     * Whether the separator occurs in the input outside of any parentheses.
+     */
+    private static boolean containsOutside(String input, char separator) {
+        int depth = 0;
+        for (int i = 0; i < input.length(); i++) {
+            char character = input.charAt(i);
+            if (character == '(') {
+                depth++;
+            } else if (character == ')') {
+                depth--;
+            } else if (character == separator && depth == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Split the input on every occurrence of the separator outside of parentheses.
+     * Trailing empty components are discarded, as per {@link String#split(String)}.
+     */
+    private static String[] splitOutside(String input, char separator) {
+        List<String> parts = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < input.length(); i++) {
+            char character = input.charAt(i);
+            if (character == '(') {
+                depth++;
+            } else if (character == ')') {
+                depth--;
+            } else if (character == separator && depth == 0) {
+                parts.add(input.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(input.substring(start));
+        while (!parts.isEmpty() && parts.get(parts.size() - 1).isEmpty()) {
+            parts.remove(parts.size() - 1);
+        }
+        return parts.toArray(new String[0]);
+    }
+
     /**
      * Attempt to parse a string expression into an expression.
      * <ul>
@@ -95,6 +186,16 @@ public class SimpleParser implements Parser {
      * Note: This does not need to be implemented until stage 2.
      * </li>
      * <li>
+     * Any string of the form name(arguments), e.g. SUM(A1:A4, 2), is a function call.
+     * The arguments are separated by commas and parsed as per the top-level expression,
+     * then the function is constructed with {@link ExpressionFactory#createOperator(String, Object[])}.
+     * Operators and commas within parentheses do not split the surrounding expression.
+     * </li>
+     * <li>
+     * Any remaining string containing a colon, e.g. A1:A4, is a range and is constructed
+     * with {@link ExpressionFactory#createOperator(String, Object[])} using the operator name ":".
+     * </li>
+     * <li>
      * Any remaining expressions that 
      * 1) cannot be parsed as a number or arithmetic expression, and
      * 2) only contains alphabetic {@link Character#isAlphabetic(int)} and digit characters {@link Character#isDigit(char)},
@@ -110,6 +211,7 @@ public class SimpleParser implements Parser {
      * parser.parse("HEY "); // Reference("HEY")
      * parser.parse("hello + world"); // Plus(Reference("hello"), Reference("world"))
      * parser.parse("4 + 5 + 7 * 12 + 3"); // Plus(Constant(4), Constant(5), Times(Constant(7), Constant(12)), Constant(3))
+     * parser.parse("SUM(A1:A4) + 1"); // Plus(Sum(Range(A1:A4)), Constant(1))
      * }</pre>
      *
      * @param input A string to attempt to parse.
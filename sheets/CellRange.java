@@ -0,0 +1,181 @@
+package sheep.sheets;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A rectangular block of cells within a grid.
+ * This class represents a range via the two corner cell locations of the block,
+ * both of which are included in the range.
+ * <p>
+ * Ranges are normalised on construction so that the first row and column
+ * are never greater than the last row and column,
+ * e.g. the range A3:A1 is the same range as A1:A3.
+ */
+public class CellRange {
+    private final int firstRow;
+    private final int firstColumn;
+    private final int lastRow;
+    private final int lastColumn;
+
+    /**
+     * Construct a new range spanning the block between the two given corners.
+     * <pre>
+     * {@code
+     * CellRange range = new CellRange(new CellLocation(3, 'B'), new CellLocation(1, 'A'));
+     * range.getFirstRow() // 1
+     * range.getLastRow() // 3
+     * range.getFirstColumn() // 0
+     * range.getLastColumn() // 1
+     * }</pre>
+     *
+     * @param from One corner of the range.
+     * @param to The opposite corner of the range.
+     * @requires from != null &amp;&amp; to != null
+     */
+    public CellRange(CellLocation from, CellLocation to) {
+        this.firstRow = Math.min(from.getRow(), to.getRow());
+        this.lastRow = Math.max(from.getRow(), to.getRow());
+        this.firstColumn = Math.min(from.getColumn(), to.getColumn());
+        this.lastColumn = Math.max(from.getColumn(), to.getColumn());
+    }
+
+    /**
+     * Attempt to parse a string as a reference to a range of cells.
+     * If the string is not a range reference, returns {@link Optional#empty()}.
+     * The format of a range is two cell references,
+     * as per {@link CellLocation#maybeReference(String)}, separated by a colon.
+     *
+     * <pre>
+     * {@code
+     * CellRange.maybeRange("A1:B3") // Optional.of(new CellRange(A1, B3))
+     * CellRange.maybeRange("A1") // Optional.empty()
+     * CellRange.maybeRange("A1 : B3") // Optional.empty()
+     * }</pre>
+     *
+     * @param ref A string that may represent a range of cells.
+     * @requires ref != null
+     * @return An optional containing a range if the string is a range reference,
+     *         otherwise the empty optional.
+     */
+    public static Optional<CellRange> maybeRange(String ref) {
+        int separator = ref.indexOf(':');
+        if (separator < 0) {
+            return Optional.empty();
+        }
+        Optional<CellLocation> from = CellLocation.maybeReference(ref.substring(0, separator));
+        Optional<CellLocation> to = CellLocation.maybeReference(ref.substring(separator + 1));
+        if (from.isEmpty() || to.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(new CellRange(from.get(), to.get()));
+    }
+
+    /**
+     * The top-most row of this range.
+     * @return The top-most row of this range.
+     */
+    public int getFirstRow() {
+        return firstRow;
+    }
+
+    /**
+     * The bottom-most row of this range.
+     * @return The bottom-most row of this range.
+     */
+    public int getLastRow() {
+        return lastRow;
+    }
+
+    /**
+     * The left-most column of this range.
+     * @return The left-most column of this range.
+     */
+    public int getFirstColumn() {
+        return firstColumn;
+    }
+
+    /**
+     * The right-most column of this range.
+     * @return The right-most column of this range.
+     */
+    public int getLastColumn() {
+        return lastColumn;
+    }
+
+    /**
+     * The number of columns spanned by this range.
+     * @return The number of columns spanned by this range.
+     */
+    public int getWidth() {
+        return lastColumn - firstColumn + 1;
+    }
+
+    /**
+     * The number of rows spanned by this range.
+     * @return The number of rows spanned by this range.
+     */
+    public int getHeight() {
+        return lastRow - firstRow + 1;
+    }
+
+    /**
+     * Whether the given cell location is within this range.
+     *
+     * @param location A cell location to check.
+     * @return true if the location is within the rows and columns of this range.
+     */
+    public boolean contains(CellLocation location) {
+        return location.getRow() >= firstRow && location.getRow() <= lastRow
+                && location.getColumn() >= firstColumn && location.getColumn() <= lastColumn;
+    }
+
+    /**
+     * Every cell location within this range, in row-major order.
+     * @return A list of the cell locations within this range.
+     */
+    public List<CellLocation> locations() {
+        List<CellLocation> locations = new ArrayList<>();
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                locations.add(new CellLocation(row, column));
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * If two instances of cell range are equal to each other.
+     * Equality is defined by covering the same block of cells.
+     * @param obj another instance to compare against.
+     * @return true if the other object is a cell range with the same corners.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof CellRange other)) {
+            return false;
+        }
+        return other.firstRow == firstRow && other.lastRow == lastRow
+                && other.firstColumn == firstColumn && other.lastColumn == lastColumn;
+    }
+
+    /**
+     * A hashcode method that respects the {@link CellRange#equals(Object)} method.
+     * @return An appropriate hashcode value for this instance.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(firstRow, firstColumn, lastRow, lastColumn);
+    }
+
+    /**
+     * A string representation of a cell range.
+     * @return A string representation of this cell range, e.g. A1:B3.
+     */
+    @Override
+    public String toString() {
+        return new CellLocation(firstRow, firstColumn) + ":" + new CellLocation(lastRow, lastColumn);
+    }
+}
@@ -0,0 +1,231 @@
+package sheep.sheets;
+
+import sheep.expression.Expression;
+import sheep.expression.basic.Constant;
+import sheep.expression.basic.Nothing;
+import sheep.expression.shared.SharedFormula;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The fixed size records that cells are stored as outside of the heap,
+ * see {@link OffHeapCellStore} and {@link MappedCellStore}.
+ * <p>
+ * A record holds a tag for the formula and for the value of the cell, the index of a
+ * formula held in a table, the number or offsets of the formula, and the number or table
+ * index of the value. Numbers are held within the record itself, shared formulas hold their
+ * offsets within the record and refer to their template by index, and any other formula
+ * or value is referred to by index. Records are zero when no cell is stored.
+ */
+class CellRecords {
+    /**
+     * The number of bytes of each record
+     */
+    static final int RECORD = 24;
+
+    private static final int FORMULA_TAG = 0;
+    private static final int VALUE_TAG = 1;
+    private static final int FORMULA_INDEX = 4;
+    private static final int FORMULA_DATA = 8;
+    private static final int VALUE_DATA = 16;
+
+    /**
+     * Formula tags. Cells without a stored formula are not stored.
+     */
+    private static final byte NOT_STORED = 0;
+    private static final byte TABLE_FORMULA = 1;
+    private static final byte SHARED_FORMULA = 2;
+    private static final byte CONSTANT_FORMULA = 3;
+
+    /**
+     * Value tags
+     */
+    static final byte NO_VALUE = 0;
+    static final byte NUMBER = 1;
+    static final byte NOTHING = 2;
+    static final byte TABLE_VALUE = 3;
+
+    private static final Expression EMPTY = new Nothing();
+
+    /**
+     * Expressions referred to by index from records.
+     */
+    interface Table {
+        /**
+         * Returns the index of an expression, adding it to the table if needed.
+         * Every call is matched by a call to {@link #release(int)} once the record
+         * no longer refers to the index.
+         */
+        int intern(Expression expression);
+
+        /**
+         * Returns the expression at an index, or null if there is none.
+         */
+        Expression get(int index);
+
+        /**
+         * Records that a record no longer refers to an index.
+         */
+        void release(int index);
+    }
+
+    /**
+     * Returns whether the record at an offset holds a cell.
+     */
+    static boolean isStored(ByteBuffer records, int record) {
+        return records.get(record + FORMULA_TAG) != NOT_STORED;
+    }
+
+    /**
+     * Returns the tag of the value of the record at an offset.
+     */
+    static byte valueTag(ByteBuffer records, int record) {
+        return records.get(record + VALUE_TAG);
+    }
+
+    /**
+     * Returns the number held as the value of the record at an offset.
+     *
+     * @requires the value of the record is a number, see {@link #valueTag(ByteBuffer, int)}
+     */
+    static long number(ByteBuffer records, int record) {
+        return records.getLong(record + VALUE_DATA);
+    }
+
+    /**
+     * Returns the index of the formula that the record at an offset refers to,
+     * or -1 if it refers to none.
+     */
+    static int formulaIndex(ByteBuffer records, int record) {
+        byte tag = records.get(record + FORMULA_TAG);
+        return tag == TABLE_FORMULA || tag == SHARED_FORMULA
+                ? records.getInt(record + FORMULA_INDEX) : -1;
+    }
+
+    /**
+     * Replaces the index of the formula that the record at an offset refers to,
+     * e.g. once the formulas of its table are renumbered.
+     *
+     * @requires the record refers to a formula, see {@link #formulaIndex(ByteBuffer, int)}
+     */
+    static void setFormulaIndex(ByteBuffer records, int record, int index) {
+        records.putInt(record + FORMULA_INDEX, index);
+    }
+
+    /**
+     * Rebuilds the formula of the record at an offset, or returns null if no cell is stored.
+     */
+    static Expression formula(ByteBuffer records, int record, Table formulas) {
+        return switch (records.get(record + FORMULA_TAG)) {
+            case TABLE_FORMULA -> formulas.get(records.getInt(record + FORMULA_INDEX));
+            case SHARED_FORMULA -> {
+                long offsets = records.getLong(record + FORMULA_DATA);
+                yield new SharedFormula(formulas.get(records.getInt(record + FORMULA_INDEX)),
+                        (int) (offsets >> 32), (int) offsets);
+            }
+            case CONSTANT_FORMULA -> new Constant(records.getLong(record + FORMULA_DATA));
+            default -> null;
+        };
+    }
+
+    /**
+     * Rebuilds the value of the record at an offset, or returns null if there is no value.
+     */
+    static Expression value(ByteBuffer records, int record, Table values) {
+        return switch (records.get(record + VALUE_TAG)) {
+            case NUMBER -> new Constant(records.getLong(record + VALUE_DATA));
+            case NOTHING -> EMPTY;
+            case TABLE_VALUE -> values.get((int) records.getLong(record + VALUE_DATA));
+            default -> null;
+        };
+    }
+
+    /**
+     * Stores a formula in the record at an offset, keeping its value.
+     *
+     * @return true if the record did not hold a cell before.
+     */
+    static boolean setFormula(ByteBuffer records, int record, Expression formula, Table formulas) {
+        boolean added = !isStored(records, record);
+        releaseFormula(records, record, formulas);
+        if (formula.getClass() == SharedFormula.class) {
+            SharedFormula shared = (SharedFormula) formula;
+            records.putInt(record + FORMULA_INDEX, formulas.intern(shared.getTemplate()));
+            records.putLong(record + FORMULA_DATA, (long) shared.getRowOffset() << 32
+                    | (shared.getColumnOffset() & 0xFFFFFFFFL));
+            records.put(record + FORMULA_TAG, SHARED_FORMULA);
+        } else if (formula.getClass() == Constant.class) {
+            records.putLong(record + FORMULA_DATA, ((Constant) formula).getValue());
+            records.put(record + FORMULA_TAG, CONSTANT_FORMULA);
+        } else {
+            records.putInt(record + FORMULA_INDEX, formulas.intern(formula));
+            records.put(record + FORMULA_TAG, TABLE_FORMULA);
+        }
+        return added;
+    }
+
+    /**
+     * Stores a value in the record at an offset, or clears the value if it is null.
+     */
+    static void setValue(ByteBuffer records, int record, Expression value, Table values) {
+        releaseValue(records, record, values);
+        if (value == null) {
+            records.put(record + VALUE_TAG, NO_VALUE);
+        } else if (value.getClass() == Constant.class) {
+            records.putLong(record + VALUE_DATA, ((Constant) value).getValue());
+            records.put(record + VALUE_TAG, NUMBER);
+        } else if (value.getClass() == Nothing.class) {
+            records.put(record + VALUE_TAG, NOTHING);
+        } else {
+            records.putLong(record + VALUE_DATA, values.intern(value));
+            records.put(record + VALUE_TAG, TABLE_VALUE);
+        }
+    }
+
+    /**
+     * Stores a number as the value of the record at an offset,
+     * as per {@link #setValue(ByteBuffer, int, Expression, Table)} without building a constant.
+     */
+    static void setNumber(ByteBuffer records, int record, long number, Table values) {
+        releaseValue(records, record, values);
+        records.putLong(record + VALUE_DATA, number);
+        records.put(record + VALUE_TAG, NUMBER);
+    }
+
+    /**
+     * Clears the value of the record at an offset without releasing it from its table,
+     * e.g. once the table is no longer held.
+     */
+    static void forgetValue(ByteBuffer records, int record) {
+        records.put(record + VALUE_TAG, NO_VALUE);
+    }
+
+    /**
+     * Clears the record at an offset.
+     *
+     * @return true if the record held a cell before.
+     */
+    static boolean remove(ByteBuffer records, int record, Table formulas, Table values) {
+        if (!isStored(records, record)) {
+            return false;
+        }
+        releaseFormula(records, record, formulas);
+        releaseValue(records, record, values);
+        records.put(record + FORMULA_TAG, NOT_STORED);
+        records.put(record + VALUE_TAG, NO_VALUE);
+        return true;
+    }
+
+    private static void releaseFormula(ByteBuffer records, int record, Table formulas) {
+        byte tag = records.get(record + FORMULA_TAG);
+        if (tag == TABLE_FORMULA || tag == SHARED_FORMULA) {
+            formulas.release(records.getInt(record + FORMULA_INDEX));
+        }
+    }
+
+    private static void releaseValue(ByteBuffer records, int record, Table values) {
+        if (records.get(record + VALUE_TAG) == TABLE_VALUE) {
+            values.release((int) records.getLong(record + VALUE_DATA));
+        }
+    }
+}
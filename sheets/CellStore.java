@@ -0,0 +1,239 @@
+package sheep.sheets;
+
+import sheep.expression.Expression;
+import sheep.expression.basic.Constant;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Storage for the cells of a sheet.
+ * <p>
+ * A store only holds populated cells, i.e. those whose formula is not the default expression
+ * of the sheet. Every other cell holds the default expression as both its formula and value,
+ * so an empty store represents a sheet of any size.
+ * <p>
+ * Implementations decide where the cells live, e.g. in hash maps on the heap,
+ * or paged in from a file on demand. A store is only accessed from the thread updating its sheet.
+ */
+public interface CellStore {
+    /**
+     * A span of rows of the stored cells, along with the span of rows their formulas use.
+     * The used span is empty, i.e. its first row is after its last row,
+     * if none of the formulas within the group use any cell.
+     *
+     * @param firstRow The first row of the group.
+     * @param lastRow The last row of the group.
+     * @param firstUsedRow The first row used by a formula within the group.
+     * @param lastUsedRow The last row used by a formula within the group.
+     */
+    record RowGroup(int firstRow, int lastRow, int firstUsedRow, int lastUsedRow) {
+        /**
+         * Whether the row is within the group.
+         *
+         * @param row A row index.
+         * @return True if the group holds the row.
+         */
+        public boolean contains(int row) {
+            return firstRow <= row && row <= lastRow;
+        }
+
+        /**
+         * Whether a formula within the group may use a cell of the row.
+         *
+         * @param row A row index.
+         * @return True if the row is within the span of rows used by the group.
+         */
+        public boolean uses(int row) {
+            return firstUsedRow <= row && row <= lastUsedRow;
+        }
+    }
+
+    /**
+     * An unchanging copy of the cells of a store, which may be read from any thread.
+     */
+    interface View {
+        /**
+         * The formula of a cell within the view.
+         *
+         * @param location A cell location.
+         * @return The formula at the location, or null if the cell is not stored.
+         */
+        Expression formula(CellLocation location);
+
+        /**
+         * The value of a cell within the view.
+         *
+         * @param location A cell location.
+         * @return The value at the location, or null if the cell is not stored
+         *         or has no value.
+         */
+        Expression value(CellLocation location);
+
+        /**
+         * Perform an action for the location of every cell within the view, in no particular order.
+         *
+         * @param action The action to perform for each location.
+         */
+        void forEach(Consumer<CellLocation> action);
+    }
+
+    /**
+     * The formula of a stored cell.
+     *
+     * @param location A cell location.
+     * @return The formula at the location, or null if the cell is not stored.
+     */
+    Expression formula(CellLocation location);
+
+    /**
+     * The value of a stored cell.
+     *
+     * @param location A cell location.
+     * @return The value at the location, or null if the cell is not stored
+     *         or has not been given a value yet.
+     */
+    Expression value(CellLocation location);
+
+    /**
+     * Store the formula of a cell, keeping its current value until a new value is stored.
+     *
+     * @param location A cell location.
+     * @param formula The new formula of the cell.
+     */
+    void setFormula(CellLocation location, Expression formula);
+
+    /**
+     * Store the value of a cell.
+     *
+     * @param location The location of a stored cell.
+     * @param value The new value of the cell.
+     * @requires the cell is stored
+     */
+    void setValue(CellLocation location, Expression value);
+
+    /**
+     * Read the numeric values of consecutive cells of a column at once,
+     * e.g. to evaluate a block of cells column-wise, see {@link ColumnBlocks}.
+     * By default, the value of each cell is read by its location.
+     *
+     * @param column The column of the cells.
+     * @param firstRow The row of the first cell.
+     * @param numbers Receives the value of each cell holding a number, from the first row.
+     * @return The cells, counted from the first row, that are not stored or whose value is
+     *         not a number, whose entries of numbers are left unchanged.
+     */
+    default BitSet numbers(int column, int firstRow, long[] numbers) {
+        BitSet missing = new BitSet(numbers.length);
+        for (int i = 0; i < numbers.length; i++) {
+            if (value(new CellLocation(firstRow + i, column)) instanceof Constant constant) {
+                numbers[i] = constant.getValue();
+            } else {
+                missing.set(i);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Store numeric values of consecutive cells of a column at once,
+     * e.g. once a block of cells is evaluated column-wise, see {@link ColumnBlocks}.
+     * By default, the value of each cell is stored by its location.
+     *
+     * @param column The column of the cells.
+     * @param firstRow The row of the first cell.
+     * @param numbers The new value of each cell, from the first row.
+     * @requires every cell is stored
+     */
+    default void setNumbers(int column, int firstRow, long[] numbers) {
+        for (int i = 0; i < numbers.length; i++) {
+            setValue(new CellLocation(firstRow + i, column), new Constant(numbers[i]));
+        }
+    }
+
+    /**
+     * Remove a cell from the store, returning it to the default expression.
+     *
+     * @param location A cell location.
+     */
+    void remove(CellLocation location);
+
+    /**
+     * The locations of every stored cell, in no particular order.
+     * The collection must not be modified, nor used after the store changes.
+     *
+     * @return The location of every stored cell.
+     */
+    Collection<CellLocation> locations();
+
+    /**
+     * The locations of every stored cell within a span of rows, in no particular order.
+     * The collection must not be modified, nor used after the store changes.
+     * By default, every stored cell is visited to find those within the rows.
+     *
+     * @param firstRow The first row of the span.
+     * @param lastRow The last row of the span.
+     * @return The location of every stored cell within the rows.
+     */
+    default Collection<CellLocation> locations(int firstRow, int lastRow) {
+        return locations().stream()
+                .filter(location -> firstRow <= location.getRow() && location.getRow() <= lastRow)
+                .toList();
+    }
+
+    /**
+     * The rows of the stored cells split into groups, each with the rows their formulas use,
+     * so that a sheet opening the store need only record the dependencies of a group once
+     * the group, or a row it uses, changes, see {@link Sheet#open(CellStore, int, int)}.
+     * By default, every row is in a single group which may use any row.
+     *
+     * @return Groups of rows holding every stored cell.
+     */
+    default List<RowGroup> rowGroups() {
+        return List.of(new RowGroup(0, Integer.MAX_VALUE, 0, Integer.MAX_VALUE));
+    }
+
+    /**
+     * The number of stored cells.
+     *
+     * @return The number of stored cells.
+     */
+    int size();
+
+    /**
+     * Remove every cell from the store.
+     */
+    void clear();
+
+    /**
+     * Release any resource held by the store once its sheet no longer uses it,
+     * e.g. a file that cells are read from. Unlike {@link #clear()}, the cells are not removed,
+     * so a store kept in a file may be opened again later.
+     */
+    default void close() {
+    }
+
+    /**
+     * A view of the stored cells which later changes to the store do not affect,
+     * if the store can provide one without copying every cell,
+     * e.g. one reading unchanged cells from a file as it is read, see {@link Sheet#snapshot()}.
+     *
+     * @return A view of the stored cells, or null if the store does not provide one.
+     */
+    default View view() {
+        return null;
+    }
+
+    /**
+     * Whether the store may be read from many threads at once while it is not being changed,
+     * e.g. to evaluate unrelated cells in parallel. Stores whose reads change the store,
+     * e.g. by paging cells in, may not.
+     *
+     * @return True if reading the store from many threads at once is safe.
+     */
+    default boolean isConcurrentlyReadable() {
+        return false;
+    }
+}
@@ -0,0 +1,294 @@
+package sheep.sheets;
+
+import sheep.expression.Expression;
+
+import java.util.function.Consumer;
+
+/**
+ * An immutable map from cell locations to the formula and value of each cell,
+ * held as a hash array mapped trie.
+ * <p>
+ * Each level of the trie consumes five bits of the hash of a location, and each node only
+ * holds the children that are present, found through a bitmap. Changing a cell copies the
+ * nodes on the path to the cell, at most seven, and shares every other node with the trie
+ * it was changed from. Both tries remain usable, so keeping a trie is a snapshot of the cells
+ * at no cost. Locations whose hashes are equal are kept together in a collision node.
+ */
+final class CellTrie {
+    /**
+     * The trie without any cell
+     */
+    static final CellTrie EMPTY = new CellTrie(new Branch(0, new Object[0]), 0);
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    /**
+     * A cell held by the trie.
+     */
+    static final class Cell {
+        private final CellLocation location;
+        private final int hash;
+        private final Expression formula;
+        private final Expression value;
+
+        private Cell(CellLocation location, int hash, Expression formula, Expression value) {
+            this.location = location;
+            this.hash = hash;
+            this.formula = formula;
+            this.value = value;
+        }
+
+        CellLocation location() {
+            return location;
+        }
+
+        Expression formula() {
+            return formula;
+        }
+
+        Expression value() {
+            return value;
+        }
+    }
+
+    /**
+     * A node of the trie, holding a cell, a node or nothing for each fragment of the hash.
+     * Children are held in order of their fragment, only for those fragments set in the bitmap.
+     */
+    private static final class Branch {
+        private final int bitmap;
+        private final Object[] children;
+
+        private Branch(int bitmap, Object[] children) {
+            this.bitmap = bitmap;
+            this.children = children;
+        }
+    }
+
+    /**
+     * Cells whose locations have equal hashes, below the last level of branches.
+     */
+    private static final class Collision {
+        private final Cell[] cells;
+
+        private Collision(Cell[] cells) {
+            this.cells = cells;
+        }
+    }
+
+    private final Branch root;
+    private final int size;
+
+    private CellTrie(Branch root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * The number of cells in the trie.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the cell at a location, or null if the trie has no cell there.
+     */
+    Cell get(CellLocation location) {
+        int hash = hash(location);
+        Object node = root;
+        for (int shift = 0; ; shift += BITS) {
+            if (node instanceof Branch branch) {
+                int bit = 1 << ((hash >>> shift) & MASK);
+                if ((branch.bitmap & bit) == 0) {
+                    return null;
+                }
+                node = branch.children[Integer.bitCount(branch.bitmap & (bit - 1))];
+            } else if (node instanceof Cell cell) {
+                return cell.location.equals(location) ? cell : null;
+            } else {
+                for (Cell cell : ((Collision) node).cells) {
+                    if (cell.location.equals(location)) {
+                        return cell;
+                    }
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Returns a trie holding the given formula and value at a location,
+     * and every other cell of this trie.
+     */
+    CellTrie with(CellLocation location, Expression formula, Expression value) {
+        Cell cell = new Cell(location, hash(location), formula, value);
+        boolean[] added = new boolean[1];
+        Branch branch = (Branch) put(root, cell, 0, added);
+        return new CellTrie(branch, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * Returns a trie holding every cell of this trie but the cell at a location.
+     */
+    CellTrie without(CellLocation location) {
+        Object node = remove(root, location, hash(location), 0);
+        if (node == root) {
+            return this;
+        }
+        Branch branch;
+        if (node instanceof Branch) {
+            branch = (Branch) node;
+        } else if (node == null) {
+            branch = EMPTY.root;
+        } else {
+            Cell cell = (Cell) node;
+            branch = new Branch(1 << (cell.hash & MASK), new Object[] {cell});
+        }
+        return new CellTrie(branch, size - 1);
+    }
+
+    /**
+     * Passes every cell of the trie to an action, in no particular order.
+     */
+    void forEach(Consumer<Cell> action) {
+        forEach(root, action);
+    }
+
+    private static void forEach(Object node, Consumer<Cell> action) {
+        if (node instanceof Branch branch) {
+            for (Object child : branch.children) {
+                forEach(child, action);
+            }
+        } else if (node instanceof Cell cell) {
+            action.accept(cell);
+        } else {
+            for (Cell cell : ((Collision) node).cells) {
+                action.accept(cell);
+            }
+        }
+    }
+
+    private static Object put(Object node, Cell cell, int shift, boolean[] added) {
+        if (node instanceof Branch branch) {
+            int bit = 1 << ((cell.hash >>> shift) & MASK);
+            int index = Integer.bitCount(branch.bitmap & (bit - 1));
+            if ((branch.bitmap & bit) == 0) {
+                added[0] = true;
+                Object[] children = new Object[branch.children.length + 1];
+                System.arraycopy(branch.children, 0, children, 0, index);
+                children[index] = cell;
+                System.arraycopy(branch.children, index, children, index + 1,
+                        branch.children.length - index);
+                return new Branch(branch.bitmap | bit, children);
+            }
+            Object[] children = branch.children.clone();
+            children[index] = put(children[index], cell, shift + BITS, added);
+            return new Branch(branch.bitmap, children);
+        }
+        if (node instanceof Cell existing) {
+            if (existing.location.equals(cell.location)) {
+                return cell;
+            }
+            added[0] = true;
+            return join(existing, cell, shift);
+        }
+        Cell[] cells = ((Collision) node).cells;
+        for (int i = 0; i < cells.length; i++) {
+            if (cells[i].location.equals(cell.location)) {
+                Cell[] replaced = cells.clone();
+                replaced[i] = cell;
+                return new Collision(replaced);
+            }
+        }
+        added[0] = true;
+        Cell[] grown = new Cell[cells.length + 1];
+        System.arraycopy(cells, 0, grown, 0, cells.length);
+        grown[cells.length] = cell;
+        return new Collision(grown);
+    }
+
+    /**
+     * Returns a node holding two cells at different locations, found at the given shift.
+     */
+    private static Object join(Cell first, Cell second, int shift) {
+        if (shift >= Integer.SIZE) {
+            return new Collision(new Cell[] {first, second});
+        }
+        int firstFragment = (first.hash >>> shift) & MASK;
+        int secondFragment = (second.hash >>> shift) & MASK;
+        if (firstFragment == secondFragment) {
+            return new Branch(1 << firstFragment,
+                    new Object[] {join(first, second, shift + BITS)});
+        }
+        Object[] children = firstFragment < secondFragment
+                ? new Object[] {first, second} : new Object[] {second, first};
+        return new Branch((1 << firstFragment) | (1 << secondFragment), children);
+    }
+
+    /**
+     * Returns the node without the cell at a location: the same node if it has no such cell,
+     * null if nothing is left, or the only cell left if the node has no other child.
+     */
+    private static Object remove(Object node, CellLocation location, int hash, int shift) {
+        if (node instanceof Branch branch) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((branch.bitmap & bit) == 0) {
+                return branch;
+            }
+            int index = Integer.bitCount(branch.bitmap & (bit - 1));
+            Object child = branch.children[index];
+            Object removed = remove(child, location, hash, shift + BITS);
+            if (removed == child) {
+                return branch;
+            }
+            if (removed != null) {
+                if (branch.children.length == 1 && removed instanceof Cell) {
+                    return removed;
+                }
+                Object[] children = branch.children.clone();
+                children[index] = removed;
+                return new Branch(branch.bitmap, children);
+            }
+            if (branch.children.length == 1) {
+                return null;
+            }
+            if (branch.children.length == 2 && branch.children[1 - index] instanceof Cell) {
+                return branch.children[1 - index];
+            }
+            Object[] children = new Object[branch.children.length - 1];
+            System.arraycopy(branch.children, 0, children, 0, index);
+            System.arraycopy(branch.children, index + 1, children, index,
+                    children.length - index);
+            return new Branch(branch.bitmap & ~bit, children);
+        }
+        if (node instanceof Cell cell) {
+            return cell.location.equals(location) ? null : cell;
+        }
+        Cell[] cells = ((Collision) node).cells;
+        for (int i = 0; i < cells.length; i++) {
+            if (cells[i].location.equals(location)) {
+                if (cells.length == 2) {
+                    return cells[1 - i];
+                }
+                Cell[] shrunk = new Cell[cells.length - 1];
+                System.arraycopy(cells, 0, shrunk, 0, i);
+                System.arraycopy(cells, i + 1, shrunk, i, shrunk.length - i);
+                return new Collision(shrunk);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Spreads the row and column of a location over every bit of the hash,
+     * so that neighbouring cells fall into different branches.
+     */
+    private static int hash(CellLocation location) {
+        int hash = location.getRow() * 0x9E3779B9 + location.getColumn();
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        return hash ^ (hash >>> 13);
+    }
+}
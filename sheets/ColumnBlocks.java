@@ -0,0 +1,181 @@
+package sheep.sheets;
+
+import sheep.expression.Columns;
+import sheep.expression.Expression;
+import sheep.expression.TypeError;
+import sheep.expression.basic.Constant;
+import sheep.expression.shared.SharedFormula;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Column-wise evaluation of shared formulas within a sheet.
+ * <p>
+ * Cells of one column that share a formula template, at consecutive rows,
+ * form a block. Rather than evaluating the template once per cell,
+ * the values referenced by the template are gathered into a primitive array per reference
+ * and the template is evaluated over all of them at once with {@link Expression#values(Columns)}.
+ * The referenced values are read a run of a column at a time, straight from the records of
+ * the store where it keeps numbers as primitives, see {@link SheetState#numbers(int, int, long[])},
+ * and the values of a block are assigned to the state as a single run of numbers,
+ * see {@link SheetState#assign(int, int, long[])}, so no constant is built per cell.
+ * <p>
+ * Blocks which cannot be evaluated column-wise, e.g. because a referenced cell is empty,
+ * are left to be evaluated cell by cell.
+ */
+class ColumnBlocks {
+    /**
+     * The fewest cells worth evaluating as a block.
+     */
+    private static final int MIN_BLOCK = 16;
+
+    private record Group(Expression template, int anchorRow, int anchorColumn, int column) {
+
+    }
+
+    /**
+     * The values of a block evaluated column-wise.
+     *
+     * @param column The column of the block.
+     * @param firstRow The row of the first cell of the block.
+     * @param values The value of each cell of the block, from the first row.
+     * @param cells The location of each cell of the block, from the first row.
+     */
+    record Block(int column, int firstRow, long[] values, List<CellLocation> cells) {
+
+    }
+
+    /**
+     * The values of the cells referenced by a block, read from the evaluation state
+     * a column at a time.
+     */
+    private static class StateColumns implements Columns {
+        private final SheetState state;
+        private final int rowOffset;
+        private final int columnOffset;
+        private final int length;
+
+        private StateColumns(SheetState state, int rowOffset, int columnOffset, int length) {
+            this.state = state;
+            this.rowOffset = rowOffset;
+            this.columnOffset = columnOffset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public long[] column(String identifier) throws TypeError {
+            long[] result = new long[length];
+            Optional<CellLocation> reference = CellLocation.maybeReference(identifier);
+            if (reference.isEmpty()) {
+                Arrays.fill(result, number(state.get(identifier)));
+                return result;
+            }
+            if (!state.numbers(reference.get().getColumn() + columnOffset,
+                    reference.get().getRow() + rowOffset, result)) {
+                throw new TypeError();
+            }
+            return result;
+        }
+
+        private static long number(Expression value) throws TypeError {
+            if (value instanceof Constant constant) {
+                return constant.getValue();
+            }
+            throw new TypeError();
+        }
+    }
+
+    /**
+     * Evaluate every block of shared formulas among the given cells,
+     * assigning the values of each block to the state.
+     *
+     * @param cells Cells to evaluate, none of which depend on each other.
+     * @param formulas The formula at a cell location.
+     * @param state The state of the sheet being updated,
+     *              including the values of every cell the given cells depend upon.
+     * @param evaluated Called with each block once its values are assigned to the state.
+     * @return The cells that were not evaluated as part of a block, in the given order.
+     */
+    static List<CellLocation> evaluate(List<CellLocation> cells,
+                                       Function<CellLocation, Expression> formulas,
+                                       SheetState state, Consumer<Block> evaluated) {
+        if (cells.size() < MIN_BLOCK) {
+            return cells;
+        }
+        Map<Group, List<Integer>> groups = new HashMap<>();
+        for (int i = 0; i < cells.size(); i++) {
+            CellLocation location = cells.get(i);
+            if (formulas.apply(location) instanceof SharedFormula shared) {
+                Group group = new Group(shared.getTemplate(),
+                        location.getRow() - shared.getRowOffset(),
+                        location.getColumn() - shared.getColumnOffset(),
+                        location.getColumn());
+                groups.computeIfAbsent(group, key -> new ArrayList<>()).add(i);
+            }
+        }
+
+        boolean[] done = new boolean[cells.size()];
+        boolean any = false;
+        for (Map.Entry<Group, List<Integer>> entry : groups.entrySet()) {
+            List<Integer> indices = entry.getValue();
+            if (indices.size() < MIN_BLOCK) {
+                continue;
+            }
+            indices.sort(Comparator.comparingInt(i -> cells.get(i).getRow()));
+            int start = 0;
+            for (int i = 1; i <= indices.size(); i++) {
+                if (i == indices.size() || cells.get(indices.get(i)).getRow()
+                        != cells.get(indices.get(i - 1)).getRow() + 1) {
+                    if (i - start >= MIN_BLOCK) {
+                        List<Integer> block = indices.subList(start, i);
+                        if (evaluate(entry.getKey(), block, cells, state, evaluated)) {
+                            block.forEach(index -> done[index] = true);
+                            any = true;
+                        }
+                    }
+                    start = i;
+                }
+            }
+        }
+        if (!any) {
+            return cells;
+        }
+        List<CellLocation> left = new ArrayList<>();
+        for (int i = 0; i < cells.size(); i++) {
+            if (!done[i]) {
+                left.add(cells.get(i));
+            }
+        }
+        return left;
+    }
+
+    private static boolean evaluate(Group group, List<Integer> indices, List<CellLocation> cells,
+                                    SheetState state, Consumer<Block> evaluated) {
+        CellLocation first = cells.get(indices.get(0));
+        Columns columns = new StateColumns(state,
+                first.getRow() - group.anchorRow(),
+                first.getColumn() - group.anchorColumn(),
+                indices.size());
+        long[] values;
+        try {
+            values = group.template().values(columns);
+        } catch (TypeError | ArithmeticException e) {
+            // leave the block to be evaluated, or fail, one cell at a time
+            return false;
+        }
+        List<CellLocation> block = new ArrayList<>(indices.size());
+        for (int index : indices) {
+            block.add(cells.get(index));
+        }
+        state.assign(group.column(), first.getRow(), values);
+        evaluated.accept(new Block(group.column(), first.getRow(), values, block));
+        return true;
+    }
+}
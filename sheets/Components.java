@@ -0,0 +1,113 @@
+package sheep.sheets;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The weakly connected components of the dependencies of a sheet, kept as a union-find forest.
+ * <p>
+ * Nodes are cell locations, along with a node for each range in use, see {@link RangeTree},
+ * which joins the users of the range. A cell within a range is joined to the range once the
+ * cell is evaluated, see {@link Sheet}. Adding a dependency joins two components in nearly
+ * constant time. Removing a dependency may split a component, which union-find cannot do, so
+ * removals are only counted: components are larger than needed until the forest is rebuilt
+ * from the dependencies, once enough dependencies have been removed.
+ * Two cells in different components never depend upon each other, even transitively.
+ */
+class Components {
+    /**
+     * The least number of removed dependencies before the forest is rebuilt
+     */
+    private static final int MIN_REBUILD = 1024;
+
+    private final Map<Object, Object> parents = new HashMap<>();
+    private final Map<Object, Integer> sizes = new HashMap<>();
+    private int removed;
+
+    /**
+     * Join the components of two nodes.
+     */
+    void union(Object first, Object second) {
+        Object firstRoot = find(first);
+        Object secondRoot = find(second);
+        if (firstRoot.equals(secondRoot)) {
+            return;
+        }
+        int firstSize = sizes.getOrDefault(firstRoot, 1);
+        int secondSize = sizes.getOrDefault(secondRoot, 1);
+        if (firstSize < secondSize) {
+            Object swap = firstRoot;
+            firstRoot = secondRoot;
+            secondRoot = swap;
+        }
+        parents.put(secondRoot, firstRoot);
+        sizes.remove(secondRoot);
+        sizes.put(firstRoot, firstSize + secondSize);
+    }
+
+    /**
+     * Returns the node standing for the component of a node,
+     * which is the same for every node of a component until the next union.
+     */
+    Object find(Object node) {
+        Object parent = parents.get(node);
+        if (parent == null) {
+            return node;
+        }
+        Object root = node;
+        while (parent != null) {
+            root = parent;
+            parent = parents.get(root);
+        }
+        // point every node on the path straight at the root
+        while (!node.equals(root)) {
+            Object next = parents.put(node, root);
+            node = next;
+        }
+        return root;
+    }
+
+    /**
+     * Record that a dependency was removed, so components may need to split.
+     */
+    void removed() {
+        removed++;
+    }
+
+    /**
+     * Whether enough dependencies were removed that the forest should be rebuilt,
+     * i.e. at least {@value #MIN_REBUILD} and at least half the nodes joined.
+     */
+    boolean isStale() {
+        return removed >= MIN_REBUILD && removed * 2 >= parents.size();
+    }
+
+    /**
+     * Rebuild the forest from every dependency of the sheet.
+     *
+     * @param usages The cells using each cell.
+     * @param ranges Every range in use.
+     */
+    void rebuild(Map<CellLocation, ? extends Collection<CellLocation>> usages,
+                 Collection<RangeTree> ranges) {
+        clear();
+        for (Map.Entry<CellLocation, ? extends Collection<CellLocation>> entry
+                : usages.entrySet()) {
+            for (CellLocation user : entry.getValue()) {
+                union(entry.getKey(), user);
+            }
+        }
+        for (RangeTree range : ranges) {
+            for (CellLocation user : range.getUsers()) {
+                union(range, user);
+            }
+        }
+    }
+
+    void clear() {
+        parents.clear();
+        sizes.clear();
+        removed = 0;
+    }
+}
@@ -0,0 +1,75 @@
+package sheep.sheets;
+
+import sheep.expression.Expression;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A table of expressions held on the heap for cell records, see {@link CellRecords}.
+ * <p>
+ * Expressions are held once however many records refer to them, by identity,
+ * and are dropped once no record refers to them so their index may be reused.
+ */
+class ExpressionTable implements CellRecords.Table {
+    private final List<Expression> expressions = new ArrayList<>();
+    private final Map<Expression, Integer> indices = new IdentityHashMap<>();
+    private final Deque<Integer> free = new ArrayDeque<>();
+    private int[] references = new int[16];
+
+    @Override
+    public int intern(Expression expression) {
+        Integer index = indices.get(expression);
+        if (index == null) {
+            index = free.isEmpty() ? expressions.size() : free.pop();
+            if (index == expressions.size()) {
+                expressions.add(expression);
+            } else {
+                expressions.set(index, expression);
+            }
+            indices.put(expression, index);
+            if (index >= references.length) {
+                int[] grown = new int[references.length * 2];
+                System.arraycopy(references, 0, grown, 0, references.length);
+                references = grown;
+            }
+        }
+        references[index]++;
+        return index;
+    }
+
+    @Override
+    public Expression get(int index) {
+        return index < expressions.size() ? expressions.get(index) : null;
+    }
+
+    @Override
+    public void release(int index) {
+        if (--references[index] == 0) {
+            indices.remove(expressions.get(index));
+            expressions.set(index, null);
+            free.push(index);
+        }
+    }
+
+    /**
+     * The number of distinct expressions held.
+     */
+    int size() {
+        return indices.size();
+    }
+
+    /**
+     * Drop every expression.
+     */
+    void clear() {
+        expressions.clear();
+        indices.clear();
+        free.clear();
+        references = new int[16];
+    }
+}
@@ -0,0 +1,64 @@
+package sheep.sheets;
+
+import sheep.expression.Expression;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A store holding every populated cell of a sheet in hash maps on the heap.
+ * Changes are made in place, so a snapshot of a sheet using this store copies every cell.
+ */
+public class HashCellStore implements CellStore {
+    private final Map<CellLocation, Expression> formulas = new HashMap<>();
+    private final Map<CellLocation, Expression> values = new HashMap<>();
+
+    @Override
+    public Expression formula(CellLocation location) {
+        return formulas.get(location);
+    }
+
+    @Override
+    public Expression value(CellLocation location) {
+        return values.get(location);
+    }
+
+    @Override
+    public void setFormula(CellLocation location, Expression formula) {
+        formulas.put(location, formula);
+    }
+
+    @Override
+    public void setValue(CellLocation location, Expression value) {
+        values.put(location, value);
+    }
+
+    @Override
+    public void remove(CellLocation location) {
+        formulas.remove(location);
+        values.remove(location);
+    }
+
+    @Override
+    public Collection<CellLocation> locations() {
+        return Collections.unmodifiableSet(formulas.keySet());
+    }
+
+    @Override
+    public int size() {
+        return formulas.size();
+    }
+
+    @Override
+    public boolean isConcurrentlyReadable() {
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        formulas.clear();
+        values.clear();
+    }
+}
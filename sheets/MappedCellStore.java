@@ -0,0 +1,780 @@
+package sheep.sheets;
+
+import sheep.expression.Expression;
+import sheep.parsing.ParseException;
+import sheep.parsing.Parser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A store holding the cells of a sheet in a memory-mapped file, so that the sheet is usable
+ * as soon as the file is mapped and every change is written straight through to the file.
+ * The operating system decides which parts of the file are held in memory,
+ * so a sheet may be larger than the memory available.
+ * <p>
+ * Cells are stored as the fixed size records of {@link OffHeapCellStore}, grouped into tiles
+ * of {@value OffHeapCellStore#TILE_ROWS} rows by {@value OffHeapCellStore#TILE_COLUMNS}
+ * columns. Every tile has a fixed place in the file after a header holding the dimensions
+ * of the sheet and the number of stored cells, so tiles without cells are left as holes.
+ * Formulas that are neither numbers nor filled are rendered into a table stored alongside the
+ * file, with the suffix {@value #TABLE_SUFFIX}, and parsed again the first time they are used
+ * once the file is opened. The table is appended to as formulas are stored, and compacted when
+ * the store is forced or closed once it has grown to twice its size since last compacted,
+ * dropping the formulas no cell refers to any longer.
+ * <p>
+ * The header also records the span of rows used by the formulas of each band of
+ * {@value OffHeapCellStore#TILE_ROWS} rows, for as many bands as fit within the header,
+ * so a sheet opening the store need only record the dependencies of a band once the band,
+ * or a row it uses, changes, see {@link #rowGroups()}. A span only grows as formulas are stored.
+ * <p>
+ * Values that are neither numbers nor empty, e.g. ranges, are only held for as long as
+ * the store is open. Their cells are reported by {@link #unvaluedCells()} once the file
+ * is opened again, so they can be evaluated again.
+ * <p>
+ * Changes reach the file once the operating system writes them back,
+ * or once {@link #force()} is called. Errors accessing the file are thrown as an
+ * {@link UncheckedIOException}.
+ */
+public class MappedCellStore implements CellStore {
+    /**
+     * The suffix of the file holding the table of formulas
+     */
+    public static final String TABLE_SUFFIX = ".formulas";
+
+    /**
+     * The number of columns that may be stored
+     */
+    public static final int MAX_COLUMNS = 32;
+
+    private static final byte[] MAGIC = {'S', 'H', 'E', 'M'};
+    private static final int VERSION = 2;
+
+    /**
+     * The first version of the format to record the rows used by each band
+     */
+    private static final int USED_ROWS_VERSION = 2;
+
+    /**
+     * The layout of the header, which takes a whole page so that tiles are page aligned
+     */
+    private static final int HEADER = 4096;
+    private static final int VERSION_AT = 4;
+    private static final int ROWS_AT = 8;
+    private static final int COLUMNS_AT = 12;
+    private static final int SIZE_AT = 16;
+    private static final int UNVALUED_AT = 24;
+    private static final int USED_ROWS_AT = 32;
+
+    /**
+     * The number of bands whose used rows fit within the header, as the first used row
+     * and one past the last used row of each band
+     */
+    private static final int USED_ROWS = 2 * Integer.BYTES;
+    private static final int RECORDED_BANDS = (HEADER - USED_ROWS_AT) / USED_ROWS;
+
+    private static final int TILE_ROWS = OffHeapCellStore.TILE_ROWS;
+    private static final int TILE_COLUMNS = OffHeapCellStore.TILE_COLUMNS;
+    private static final int GROUPS = MAX_COLUMNS / TILE_COLUMNS;
+    private static final int TILE_CELLS = TILE_ROWS * TILE_COLUMNS;
+    private static final int TILE_BYTES = TILE_CELLS * CellRecords.RECORD;
+
+    /**
+     * The number of tiles mapped at once
+     */
+    private static final int REGION_TILES = 64;
+    private static final long REGION_BYTES = (long) REGION_TILES * TILE_BYTES;
+
+    /**
+     * The fewest formulas a table holds before it is compacted
+     */
+    private static final int COMPACT_FORMULAS = 1024;
+
+    /**
+     * The formulas referred to from records, written to the table file as they are added.
+     * Formulas read from the table file are kept as text until they are first used.
+     */
+    private static class FormulaTable implements CellRecords.Table {
+        private final Path path;
+        private final Parser parser;
+        private final List<Expression> formulas = new ArrayList<>();
+        private final List<String> sources = new ArrayList<>();
+        private final Map<Expression, Integer> indices = new IdentityHashMap<>();
+        private int compacted;
+        private BufferedWriter out;
+
+        private FormulaTable(Path path, Parser parser) {
+            this.path = path;
+            this.parser = parser;
+        }
+
+        private void read() throws IOException {
+            try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    formulas.add(null);
+                    sources.add(line);
+                }
+            }
+            compacted = formulas.size();
+            append();
+        }
+
+        private void append() throws IOException {
+            out = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+
+        @Override
+        public int intern(Expression expression) {
+            Integer index = indices.get(expression);
+            if (index == null) {
+                index = formulas.size();
+                try {
+                    out.write(expression.render());
+                    out.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                formulas.add(expression);
+                sources.add(null);
+                indices.put(expression, index);
+            }
+            return index;
+        }
+
+        @Override
+        public Expression get(int index) {
+            if (index >= formulas.size()) {
+                return null;
+            }
+            Expression formula = formulas.get(index);
+            if (formula == null) {
+                try {
+                    formula = parser.parse(sources.get(index));
+                } catch (ParseException e) {
+                    throw new UncheckedIOException(new IOException("Unable to parse formula "
+                            + (index + 1) + " of " + path, e));
+                }
+                formulas.set(index, formula);
+                sources.set(index, null);
+                indices.put(formula, index);
+            }
+            return formula;
+        }
+
+        @Override
+        public void release(int index) {
+        }
+
+        /**
+         * Whether the table has grown enough since last compacted to be compacted again.
+         */
+        private boolean isGrown() {
+            return formulas.size() >= Math.max(COMPACT_FORMULAS, 2 * compacted);
+        }
+
+        /**
+         * Replaces the table file with only the formulas that are kept, renumbered in order.
+         * The new table is written to a temporary file which then replaces the table file.
+         *
+         * @param numbers The new index of each formula, or -1 if it is dropped.
+         */
+        private void compact(int[] numbers) throws IOException {
+            List<Expression> keptFormulas = new ArrayList<>();
+            List<String> keptSources = new ArrayList<>();
+            out.close();
+            Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                for (int index = 0; index < numbers.length; index++) {
+                    if (numbers[index] < 0) {
+                        continue;
+                    }
+                    Expression formula = formulas.get(index);
+                    writer.write(formula == null ? sources.get(index) : formula.render());
+                    writer.write('\n');
+                    keptFormulas.add(formula);
+                    keptSources.add(sources.get(index));
+                }
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            formulas.clear();
+            formulas.addAll(keptFormulas);
+            sources.clear();
+            sources.addAll(keptSources);
+            indices.clear();
+            for (int index = 0; index < formulas.size(); index++) {
+                if (formulas.get(index) != null) {
+                    indices.put(formulas.get(index), index);
+                }
+            }
+            compacted = formulas.size();
+            append();
+        }
+
+        private void clear() throws IOException {
+            if (out != null) {
+                out.close();
+            }
+            formulas.clear();
+            sources.clear();
+            indices.clear();
+            compacted = 0;
+            Files.newBufferedWriter(path, StandardCharsets.UTF_8).close();
+            append();
+        }
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final Map<Integer, MappedByteBuffer> regions = new HashMap<>();
+    private final FormulaTable formulas;
+    private final ExpressionTable values = new ExpressionTable();
+    private final List<CellLocation> unvalued = new ArrayList<>();
+    private int size;
+    private long tableValues;
+    private boolean usedRowsRecorded = true;
+
+    private MappedCellStore(FileChannel channel, FormulaTable formulas) throws IOException {
+        this.channel = channel;
+        this.formulas = formulas;
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+    }
+
+    /**
+     * Create a new empty store in a file, replacing any file already there.
+     *
+     * @param path The file to store cells in.
+     * @param rows The number of rows of the sheet.
+     * @param columns The number of columns of the sheet.
+     * @return The store, which must be closed once no longer used.
+     * @throws IOException If the file cannot be written.
+     * @requires columns &lt;= MAX_COLUMNS
+     */
+    public static MappedCellStore create(Path path, int rows, int columns) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            FormulaTable formulas = new FormulaTable(table(path), null);
+            formulas.clear();
+            MappedCellStore store = new MappedCellStore(channel, formulas);
+            store.header.put(0, MAGIC);
+            store.header.putInt(VERSION_AT, VERSION);
+            store.setDimensions(rows, columns);
+            return store;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open a store previously created in a file. Only the header of the file and the table
+     * of formulas are read, unless the file holds values that were not stored, in which case
+     * their cells are found so that they may be evaluated again, see {@link #unvaluedCells()}.
+     * Formulas of the table are parsed the first time they are used, so a formula that cannot
+     * be parsed is thrown as an {@link UncheckedIOException} once used.
+     *
+     * @param path The file that cells are stored in.
+     * @param parser The parser used to parse the table of formulas.
+     * @return The store, which must be closed once no longer used.
+     * @throws IOException If the file cannot be read or is not a store.
+     */
+    public static MappedCellStore open(Path path, Parser parser) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < HEADER) {
+                throw new IOException("Not a mapped sheet: " + path);
+            }
+            FormulaTable formulas = new FormulaTable(table(path), parser);
+            MappedCellStore store = new MappedCellStore(channel, formulas);
+            byte[] magic = new byte[MAGIC.length];
+            store.header.get(0, magic);
+            int version = store.header.getInt(VERSION_AT);
+            if (!Arrays.equals(magic, MAGIC) || version < 1 || version > VERSION) {
+                throw new IOException("Not a mapped sheet: " + path);
+            }
+            // earlier versions do not record the rows used, so any band may use any row
+            store.usedRowsRecorded = version >= USED_ROWS_VERSION;
+            formulas.read();
+            store.size = (int) store.header.getLong(SIZE_AT);
+            store.tableValues = store.header.getLong(UNVALUED_AT);
+            if (store.tableValues > 0) {
+                store.forgetValues();
+            }
+            return store;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Whether a file holds a store, judging by its first bytes.
+     *
+     * @param path A file.
+     * @return True if the file starts as a store does.
+     * @throws IOException If the file cannot be read.
+     */
+    public static boolean isMapped(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer start = ByteBuffer.allocate(MAGIC.length);
+            channel.read(start, 0);
+            return !start.hasRemaining() && Arrays.equals(start.array(), MAGIC);
+        }
+    }
+
+    /**
+     * The number of rows of the sheet, as last recorded.
+     *
+     * @return The number of rows.
+     */
+    public int getRows() {
+        return header.getInt(ROWS_AT);
+    }
+
+    /**
+     * The number of columns of the sheet, as last recorded.
+     *
+     * @return The number of columns.
+     */
+    public int getColumns() {
+        return header.getInt(COLUMNS_AT);
+    }
+
+    /**
+     * Record the dimensions of the sheet, e.g. once the sheet is resized.
+     *
+     * @param rows The number of rows of the sheet.
+     * @param columns The number of columns of the sheet.
+     */
+    public void setDimensions(int rows, int columns) {
+        header.putInt(ROWS_AT, rows);
+        header.putInt(COLUMNS_AT, columns);
+    }
+
+    /**
+     * The cells whose values were not stored when the file was last open,
+     * and which have no value until they are evaluated again.
+     *
+     * @return The locations of the cells without a value.
+     */
+    public List<CellLocation> unvaluedCells() {
+        return unvalued;
+    }
+
+    @Override
+    public Expression formula(CellLocation location) {
+        ByteBuffer region = region(location, false);
+        return region == null ? null : CellRecords.formula(region, record(location), formulas);
+    }
+
+    @Override
+    public Expression value(CellLocation location) {
+        ByteBuffer region = region(location, false);
+        return region == null ? null : CellRecords.value(region, record(location), values);
+    }
+
+    @Override
+    public void setFormula(CellLocation location, Expression formula) {
+        if (location.getColumn() >= MAX_COLUMNS) {
+            throw new IllegalArgumentException("Column " + location.getColumn()
+                    + " cannot be stored in a mapped sheet");
+        }
+        if (CellRecords.setFormula(region(location, true), record(location), formula, formulas)) {
+            size++;
+            header.putLong(SIZE_AT, size);
+        }
+        addUsedRows(location.getRow() / TILE_ROWS, formula);
+    }
+
+    @Override
+    public void setValue(CellLocation location, Expression value) {
+        ByteBuffer region = region(location, true);
+        int record = record(location);
+        boolean before = CellRecords.valueTag(region, record) == CellRecords.TABLE_VALUE;
+        CellRecords.setValue(region, record, value, values);
+        countTableValue(before, CellRecords.valueTag(region, record) == CellRecords.TABLE_VALUE);
+    }
+
+    /**
+     * Reads the records of each tile of the column directly, without building any constant.
+     */
+    @Override
+    public BitSet numbers(int column, int firstRow, long[] numbers) {
+        BitSet missing = new BitSet(numbers.length);
+        if (column >= MAX_COLUMNS) {
+            missing.set(0, numbers.length);
+            return missing;
+        }
+        int i = 0;
+        while (i < numbers.length) {
+            int row = firstRow + i;
+            ByteBuffer region = region((int) (tile(row, column) / REGION_TILES), false);
+            int end = Math.min(numbers.length, i + TILE_ROWS - row % TILE_ROWS);
+            if (region == null) {
+                missing.set(i, end);
+                i = end;
+                continue;
+            }
+            for (; i < end; i++) {
+                int record = record(firstRow + i, column);
+                if (CellRecords.valueTag(region, record) == CellRecords.NUMBER) {
+                    numbers[i] = CellRecords.number(region, record);
+                } else {
+                    missing.set(i);
+                }
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Writes the records of each tile of the column directly, without building any constant.
+     */
+    @Override
+    public void setNumbers(int column, int firstRow, long[] numbers) {
+        int i = 0;
+        while (i < numbers.length) {
+            int row = firstRow + i;
+            ByteBuffer region = region((int) (tile(row, column) / REGION_TILES), true);
+            int end = Math.min(numbers.length, i + TILE_ROWS - row % TILE_ROWS);
+            for (; i < end; i++) {
+                int record = record(firstRow + i, column);
+                boolean before = CellRecords.valueTag(region, record) == CellRecords.TABLE_VALUE;
+                CellRecords.setNumber(region, record, numbers[i], values);
+                countTableValue(before, false);
+            }
+        }
+    }
+
+    @Override
+    public void remove(CellLocation location) {
+        ByteBuffer region = region(location, false);
+        if (region == null) {
+            return;
+        }
+        int record = record(location);
+        boolean before = CellRecords.valueTag(region, record) == CellRecords.TABLE_VALUE;
+        if (CellRecords.remove(region, record, formulas, values)) {
+            size--;
+            header.putLong(SIZE_AT, size);
+            countTableValue(before, false);
+        }
+    }
+
+    /**
+     * Scans every tile of the file.
+     */
+    @Override
+    public Collection<CellLocation> locations() {
+        List<CellLocation> locations = new ArrayList<>(size);
+        scan(0, tiles(), (location, region, record) -> locations.add(location));
+        return locations;
+    }
+
+    /**
+     * Scans only the tiles of the file holding the rows.
+     */
+    @Override
+    public Collection<CellLocation> locations(int firstRow, int lastRow) {
+        List<CellLocation> locations = new ArrayList<>();
+        long first = (long) (firstRow / TILE_ROWS) * GROUPS;
+        long end = Math.min(((long) lastRow / TILE_ROWS + 1) * GROUPS, tiles());
+        scan(first, end, (location, region, record) -> {
+            if (location.getRow() >= firstRow && location.getRow() <= lastRow) {
+                locations.add(location);
+            }
+        });
+        return locations;
+    }
+
+    /**
+     * The bands of rows of the file, as recorded in its header. Bands beyond those recorded,
+     * and every band of a file written before the used rows were recorded, may use any row.
+     */
+    @Override
+    public List<RowGroup> rowGroups() {
+        if (!usedRowsRecorded) {
+            return CellStore.super.rowGroups();
+        }
+        long bands = (tiles() + GROUPS - 1) / GROUPS;
+        List<RowGroup> groups = new ArrayList<>();
+        for (int band = 0; band < Math.min(bands, RECORDED_BANDS); band++) {
+            int at = USED_ROWS_AT + band * USED_ROWS;
+            groups.add(new RowGroup(band * TILE_ROWS, band * TILE_ROWS + TILE_ROWS - 1,
+                    header.getInt(at), header.getInt(at + Integer.BYTES) - 1));
+        }
+        if (bands > RECORDED_BANDS) {
+            groups.add(new RowGroup(RECORDED_BANDS * TILE_ROWS, Integer.MAX_VALUE,
+                    0, Integer.MAX_VALUE));
+        }
+        return groups;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Empties the file and the table of formulas.
+     */
+    @Override
+    public void clear() {
+        regions.clear();
+        values.clear();
+        unvalued.clear();
+        try {
+            channel.truncate(HEADER);
+            formulas.clear();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        size = 0;
+        tableValues = 0;
+        header.putLong(SIZE_AT, size);
+        header.putLong(UNVALUED_AT, tableValues);
+        header.put(USED_ROWS_AT, new byte[HEADER - USED_ROWS_AT]);
+        header.putInt(VERSION_AT, VERSION);
+        usedRowsRecorded = true;
+    }
+
+    /**
+     * Write every change to the file and the table of formulas to the disk,
+     * compacting the table first if it has grown enough since last compacted.
+     */
+    public void force() {
+        try {
+            if (formulas.isGrown()) {
+                compactFormulas();
+            }
+            formulas.out.flush();
+            for (MappedByteBuffer region : regions.values()) {
+                region.force();
+            }
+            header.force();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes every change through and closes the file, keeping its cells.
+     */
+    @Override
+    public void close() {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            force();
+            formulas.out.close();
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            regions.clear();
+        }
+    }
+
+    private static Path table(Path path) {
+        return path.resolveSibling(path.getFileName() + TABLE_SUFFIX);
+    }
+
+    private static long tile(CellLocation location) {
+        return tile(location.getRow(), location.getColumn());
+    }
+
+    private static long tile(int row, int column) {
+        return (long) (row / TILE_ROWS) * GROUPS + column / TILE_COLUMNS;
+    }
+
+    private static int record(CellLocation location) {
+        return record(location.getRow(), location.getColumn());
+    }
+
+    private static int record(int row, int column) {
+        int inner = (row % TILE_ROWS) * TILE_COLUMNS + column % TILE_COLUMNS;
+        return (int) (tile(row, column) % REGION_TILES) * TILE_BYTES + inner * CellRecords.RECORD;
+    }
+
+    /**
+     * Returns the mapped region holding a cell, mapping it if needed.
+     * Regions beyond the end of the file are only mapped, growing the file, if created.
+     */
+    private ByteBuffer region(CellLocation location, boolean create) {
+        if (location.getColumn() >= MAX_COLUMNS) {
+            return null;
+        }
+        return region((int) (tile(location) / REGION_TILES), create);
+    }
+
+    private ByteBuffer region(int number, boolean create) {
+        MappedByteBuffer region = regions.get(number);
+        if (region == null) {
+            long start = HEADER + number * REGION_BYTES;
+            try {
+                if (!create && start >= channel.size()) {
+                    return null;
+                }
+                region = channel.map(FileChannel.MapMode.READ_WRITE, start, REGION_BYTES);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            regions.put(number, region);
+        }
+        return region;
+    }
+
+    private interface Visitor {
+        void visit(CellLocation location, ByteBuffer region, int record);
+    }
+
+    /**
+     * The number of tiles within the regions of the file.
+     */
+    private long tiles() {
+        long length;
+        try {
+            length = channel.size() - HEADER;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return (length + REGION_BYTES - 1) / REGION_BYTES * REGION_TILES;
+    }
+
+    /**
+     * Visits every stored cell of the file within a span of tiles.
+     *
+     * @param first The index of the first tile to visit.
+     * @param end The index after the last tile to visit, at most {@link #tiles()}.
+     */
+    private void scan(long first, long end, Visitor visitor) {
+        for (long index = first; index < end; index++) {
+            ByteBuffer region = region((int) (index / REGION_TILES), false);
+            int tile = (int) (index % REGION_TILES);
+            int top = (int) (index / GROUPS) * TILE_ROWS;
+            int left = (int) (index % GROUPS) * TILE_COLUMNS;
+            for (int cell = 0; cell < TILE_CELLS; cell++) {
+                int record = tile * TILE_BYTES + cell * CellRecords.RECORD;
+                if (CellRecords.isStored(region, record)) {
+                    visitor.visit(new CellLocation(top + cell / TILE_COLUMNS,
+                            left + cell % TILE_COLUMNS), region, record);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the formulas no record refers to from the table,
+     * renumbering the records which refer to the formulas that are kept.
+     */
+    private void compactFormulas() throws IOException {
+        int[] numbers = new int[formulas.formulas.size()];
+        Arrays.fill(numbers, -1);
+        scan(0, tiles(), (location, region, record) -> {
+            int index = CellRecords.formulaIndex(region, record);
+            if (index >= 0) {
+                numbers[index] = 0;
+            }
+        });
+        int kept = 0;
+        for (int index = 0; index < numbers.length; index++) {
+            if (numbers[index] == 0) {
+                numbers[index] = kept++;
+            }
+        }
+        if (kept == numbers.length) {
+            formulas.compacted = kept;
+            return;
+        }
+        formulas.compact(numbers);
+        scan(0, tiles(), (location, region, record) -> {
+            int index = CellRecords.formulaIndex(region, record);
+            if (index >= 0) {
+                CellRecords.setFormulaIndex(region, record, numbers[index]);
+            }
+        });
+    }
+
+    /**
+     * Widens the span of rows recorded as used by a band to hold the rows used by a formula.
+     */
+    private void addUsedRows(int band, Expression formula) {
+        if (!usedRowsRecorded || band >= RECORDED_BANDS) {
+            return;
+        }
+        int at = USED_ROWS_AT + band * USED_ROWS;
+        int first = header.getInt(at);
+        int end = header.getInt(at + Integer.BYTES);
+        for (String dependency : formula.dependencies()) {
+            int firstUsed;
+            int lastUsed;
+            Optional<CellLocation> reference = CellLocation.maybeReference(dependency);
+            Optional<CellRange> range = CellRange.maybeRange(dependency);
+            if (reference.isPresent()) {
+                firstUsed = reference.get().getRow();
+                lastUsed = firstUsed;
+            } else if (range.isPresent()) {
+                firstUsed = range.get().getFirstRow();
+                lastUsed = range.get().getLastRow();
+            } else {
+                continue;
+            }
+            if (end <= first) {
+                first = firstUsed;
+                end = lastUsed + 1;
+            } else {
+                first = Math.min(first, firstUsed);
+                end = Math.max(end, lastUsed + 1);
+            }
+        }
+        header.putInt(at, first);
+        header.putInt(at + Integer.BYTES, end);
+    }
+
+    /**
+     * Clears the values that were held only while the file was last open,
+     * remembering their cells.
+     */
+    private void forgetValues() {
+        scan(0, tiles(), (location, region, record) -> {
+            if (CellRecords.valueTag(region, record) == CellRecords.TABLE_VALUE) {
+                CellRecords.forgetValue(region, record);
+                unvalued.add(location);
+            }
+        });
+        tableValues = 0;
+        header.putLong(UNVALUED_AT, tableValues);
+    }
+
+    private void countTableValue(boolean before, boolean after) {
+        if (before != after) {
+            tableValues += after ? 1 : -1;
+            header.putLong(UNVALUED_AT, tableValues);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package sheep.sheets;
+
+import sheep.expression.Expression;
+import sheep.expression.shared.SharedFormula;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A store holding the cells of a sheet outside of the Java heap, in direct byte buffers.
+ * <p>
+ * Cells are grouped into tiles of {@value #TILE_ROWS} rows by {@value #TILE_COLUMNS} columns,
+ * and each tile is a single buffer of fixed size records, allocated once a cell of the tile
+ * is stored. A record holds a type tag for the formula and for the value of the cell:
+ * <ul>
+ *     <li>numbers are stored within the record itself,</li>
+ *     <li>shared formulas, see {@link SharedFormula}, store their offsets within the record
+ *     and refer to their template by index,</li>
+ *     <li>any other formula or value is kept on the heap and referred to by index,
+ *     so a formula used by many cells is held once.</li>
+ * </ul>
+ * The heap used by the store therefore depends on the number of distinct formulas,
+ * rather than the number of cells. Formulas and values are rebuilt from their records
+ * each time they are read.
+ * <p>
+ * The sheet still tracks the dependencies between cells on the heap, so only a sheet
+ * holding mostly numbers keeps nearly all of its cells off the heap. A sheet of formulas
+ * that read other cells still uses heap for every such cell.
+ * <p>
+ * Sheets only use this store if built with it, see {@link SheetBuilder#storeIn}.
+ * <pre>
+ * {@code
+ * Sheet sheet = new SheetBuilder(parser, exp)
+ *         .storeIn(OffHeapCellStore::new)
+ *         .empty(1000000, 25);
+ * }</pre>
+ */
+public class OffHeapCellStore implements CellStore {
+    /**
+     * The dimensions of each tile
+     */
+    public static final int TILE_ROWS = 2048;
+    public static final int TILE_COLUMNS = 8;
+
+    private static final int TILE_BYTES = TILE_ROWS * TILE_COLUMNS * CellRecords.RECORD;
+
+    /**
+     * The number of emptied tiles kept for reuse, as direct buffers are only freed by the collector
+     */
+    private static final int SPARE_TILES = 16;
+
+    /**
+     * A tile of cells, and the number of its cells that are stored.
+     */
+    private static class Tile {
+        private final ByteBuffer records;
+        private int cells;
+
+        private Tile(ByteBuffer records) {
+            this.records = records;
+        }
+    }
+
+    private final Map<Long, Tile> tiles = new HashMap<>();
+    private final Deque<ByteBuffer> spare = new ArrayDeque<>();
+    private final ExpressionTable expressions = new ExpressionTable();
+    private int size;
+
+    @Override
+    public Expression formula(CellLocation location) {
+        Tile tile = tiles.get(key(location));
+        return tile == null ? null
+                : CellRecords.formula(tile.records, record(location), expressions);
+    }
+
+    @Override
+    public Expression value(CellLocation location) {
+        Tile tile = tiles.get(key(location));
+        return tile == null ? null
+                : CellRecords.value(tile.records, record(location), expressions);
+    }
+
+    @Override
+    public void setFormula(CellLocation location, Expression formula) {
+        Tile tile = tiles.computeIfAbsent(key(location), key -> new Tile(allocate()));
+        if (CellRecords.setFormula(tile.records, record(location), formula, expressions)) {
+            tile.cells++;
+            size++;
+        }
+    }
+
+    @Override
+    public void setValue(CellLocation location, Expression value) {
+        Tile tile = tiles.get(key(location));
+        CellRecords.setValue(tile.records, record(location), value, expressions);
+    }
+
+    /**
+     * Reads the records of each tile of the column directly, without building any constant.
+     */
+    @Override
+    public BitSet numbers(int column, int firstRow, long[] numbers) {
+        BitSet missing = new BitSet(numbers.length);
+        int i = 0;
+        while (i < numbers.length) {
+            int row = firstRow + i;
+            Tile tile = tiles.get(key(row, column));
+            int end = Math.min(numbers.length, i + TILE_ROWS - row % TILE_ROWS);
+            if (tile == null) {
+                missing.set(i, end);
+                i = end;
+                continue;
+            }
+            for (; i < end; i++) {
+                int record = record(firstRow + i, column);
+                if (CellRecords.valueTag(tile.records, record) == CellRecords.NUMBER) {
+                    numbers[i] = CellRecords.number(tile.records, record);
+                } else {
+                    missing.set(i);
+                }
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Writes the records of each tile of the column directly, without building any constant.
+     */
+    @Override
+    public void setNumbers(int column, int firstRow, long[] numbers) {
+        int i = 0;
+        while (i < numbers.length) {
+            int row = firstRow + i;
+            Tile tile = tiles.get(key(row, column));
+            int end = Math.min(numbers.length, i + TILE_ROWS - row % TILE_ROWS);
+            for (; i < end; i++) {
+                CellRecords.setNumber(tile.records, record(firstRow + i, column), numbers[i],
+                        expressions);
+            }
+        }
+    }
+
+    @Override
+    public void remove(CellLocation location) {
+        long key = key(location);
+        Tile tile = tiles.get(key);
+        if (tile == null
+                || !CellRecords.remove(tile.records, record(location), expressions, expressions)) {
+            return;
+        }
+        size--;
+        if (--tile.cells == 0) {
+            tiles.remove(key);
+            release(tile.records);
+        }
+    }
+
+    @Override
+    public Collection<CellLocation> locations() {
+        List<CellLocation> locations = new ArrayList<>(size);
+        for (Map.Entry<Long, Tile> entry : tiles.entrySet()) {
+            int top = (int) (entry.getKey() >> 32) * TILE_ROWS;
+            int left = (int) (long) entry.getKey() * TILE_COLUMNS;
+            ByteBuffer records = entry.getValue().records;
+            for (int cell = 0; cell < TILE_ROWS * TILE_COLUMNS; cell++) {
+                if (CellRecords.isStored(records, cell * CellRecords.RECORD)) {
+                    locations.add(new CellLocation(top + cell / TILE_COLUMNS,
+                            left + cell % TILE_COLUMNS));
+                }
+            }
+        }
+        return locations;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isConcurrentlyReadable() {
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        for (Tile tile : tiles.values()) {
+            release(tile.records);
+        }
+        tiles.clear();
+        expressions.clear();
+        size = 0;
+    }
+
+    /**
+     * Also drops the spare tiles, so every buffer may be freed.
+     */
+    @Override
+    public void close() {
+        clear();
+        spare.clear();
+    }
+
+    /**
+     * The number of bytes currently allocated outside of the heap, including spare tiles.
+     *
+     * @return The number of bytes of every allocated tile.
+     */
+    public long allocatedBytes() {
+        return (long) (tiles.size() + spare.size()) * TILE_BYTES;
+    }
+
+    /**
+     * The number of distinct formulas and values held on the heap.
+     *
+     * @return The number of expressions referred to by index.
+     */
+    public int heapExpressions() {
+        return expressions.size();
+    }
+
+    private static long key(CellLocation location) {
+        return key(location.getRow(), location.getColumn());
+    }
+
+    private static long key(int row, int column) {
+        return (long) (row / TILE_ROWS) << 32 | (column / TILE_COLUMNS);
+    }
+
+    private static int record(CellLocation location) {
+        return record(location.getRow(), location.getColumn());
+    }
+
+    private static int record(int row, int column) {
+        return ((row % TILE_ROWS) * TILE_COLUMNS + column % TILE_COLUMNS) * CellRecords.RECORD;
+    }
+
+    private ByteBuffer allocate() {
+        ByteBuffer records = spare.poll();
+        if (records == null) {
+            return ByteBuffer.allocateDirect(TILE_BYTES);
+        }
+        for (int offset = 0; offset < TILE_BYTES; offset += Long.BYTES) {
+            records.putLong(offset, 0);
+        }
+        return records;
+    }
+
+    private void release(ByteBuffer records) {
+        if (spare.size() < SPARE_TILES) {
+            spare.push(records);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package sheep.sheets;
+
+import sheep.expression.Expression;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A store holding every populated cell of a sheet in an immutable trie, see {@link CellTrie}.
+ * <p>
+ * Every change replaces the trie with a new one sharing all but the path to the changed cell,
+ * so the cells held at any moment can be kept at no cost. Sheets holding their cells in this
+ * store take snapshots in constant time, see {@link Sheet#snapshot()}.
+ * This is the store used by a sheet unless another is given.
+ */
+public class PersistentCellStore implements CellStore {
+    private CellTrie cells = CellTrie.EMPTY;
+
+    /**
+     * The cells currently held, which are never changed by later changes to the store.
+     *
+     * @return The trie of every stored cell.
+     */
+    CellTrie cells() {
+        return cells;
+    }
+
+    @Override
+    public Expression formula(CellLocation location) {
+        CellTrie.Cell cell = cells.get(location);
+        return cell == null ? null : cell.formula();
+    }
+
+    @Override
+    public Expression value(CellLocation location) {
+        CellTrie.Cell cell = cells.get(location);
+        return cell == null ? null : cell.value();
+    }
+
+    @Override
+    public void setFormula(CellLocation location, Expression formula) {
+        CellTrie.Cell cell = cells.get(location);
+        cells = cells.with(location, formula, cell == null ? null : cell.value());
+    }
+
+    @Override
+    public void setValue(CellLocation location, Expression value) {
+        cells = cells.with(location, cells.get(location).formula(), value);
+    }
+
+    @Override
+    public void remove(CellLocation location) {
+        cells = cells.without(location);
+    }
+
+    @Override
+    public Collection<CellLocation> locations() {
+        List<CellLocation> locations = new ArrayList<>(cells.size());
+        cells.forEach(cell -> locations.add(cell.location()));
+        return locations;
+    }
+
+    @Override
+    public int size() {
+        return cells.size();
+    }
+
+    @Override
+    public boolean isConcurrentlyReadable() {
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        cells = CellTrie.EMPTY;
+    }
+}
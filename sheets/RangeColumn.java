@@ -0,0 +1,334 @@
+package sheep.sheets;
+
+import sheep.expression.Expression;
+import sheep.expression.basic.Nothing;
+import sheep.expression.basic.RangeValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.TreeMap;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * The values of a column of cells covered by ranges, shared by every range covering the column,
+ * see {@link RangeTree}.
+ * <p>
+ * A range column is a sparse segment tree over the rows of the column, whose nodes are only
+ * created for rows holding a value. Every node stores the count, sum, minimum and maximum
+ * of the numeric cells beneath it, so changing a cell costs O(log n) and summarising
+ * any span of rows costs O(log n). As every range over the column shares the same nodes,
+ * the memory used is proportional to the cells holding a value, however many ranges
+ * cover them, rather than to the cells covered by each range.
+ * <p>
+ * Rows are loaded as ranges covering them are added, see {@link #load(int, int, Rows)},
+ * and only loaded rows are kept up to date, see {@link #set(int, Expression)}.
+ * A range column may be changed by evaluations of unrelated cells on several threads at once,
+ * so every method holds the lock of the column.
+ */
+class RangeColumn {
+    private static final int NONE = 0;
+    private static final int ROOT = 1;
+    private static final int LAST_ROW = Integer.MAX_VALUE;
+    private static final int DEPTH = 31;
+    private static final int COUNT = 0;
+    private static final int SUM = 1;
+    private static final int MIN = 2;
+    private static final int MAX = 3;
+
+    private int[] lefts = new int[16];
+    private int[] rights = new int[16];
+    private long[] counts = new long[16];
+    private long[] sums = new long[16];
+    private long[] mins = new long[16];
+    private long[] maxes = new long[16];
+    private Expression[] values = new Expression[16];
+    private int nodes = 0;
+    private final TreeMap<Integer, Integer> loaded = new TreeMap<>();
+    private int ranges = 0;
+
+    /**
+     * Reads the values of a span of rows as it is loaded.
+     */
+    interface Rows {
+        /**
+         * Set the value of every cell within the span of rows holding a value,
+         * see {@link #set(int, Expression)}.
+         *
+         * @param firstRow The first row of the span.
+         * @param lastRow The last row of the span, inclusive.
+         */
+        void load(int firstRow, int lastRow);
+    }
+
+    RangeColumn() {
+        // the empty node, which every missing child refers to, then the root
+        allocate();
+        allocate();
+    }
+
+    /**
+     * Load the values of every row within a span that is not yet loaded.
+     *
+     * @param firstRow The first row of the span.
+     * @param lastRow The last row of the span, inclusive.
+     * @param rows Reads the values of the rows not yet loaded.
+     */
+    synchronized void load(int firstRow, int lastRow, Rows rows) {
+        List<int[]> missing = new ArrayList<>();
+        long row = firstRow;
+        while (row <= lastRow) {
+            Map.Entry<Integer, Integer> covering = loaded.floorEntry((int) row);
+            if (covering != null && covering.getValue() >= row) {
+                row = covering.getValue() + 1L;
+                continue;
+            }
+            Map.Entry<Integer, Integer> next = loaded.higherEntry((int) row);
+            int end = next == null ? lastRow : Math.min(lastRow, next.getKey() - 1);
+            missing.add(new int[] {(int) row, end});
+            row = end + 1L;
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        markLoaded(firstRow, lastRow);
+        for (int[] span : missing) {
+            rows.load(span[0], span[1]);
+        }
+    }
+
+    private void markLoaded(int firstRow, int lastRow) {
+        int first = firstRow;
+        int last = lastRow;
+        Map.Entry<Integer, Integer> before = loaded.floorEntry(firstRow);
+        if (before != null && before.getValue() >= firstRow - 1L) {
+            first = before.getKey();
+            last = Math.max(last, before.getValue());
+        }
+        while (true) {
+            Map.Entry<Integer, Integer> after = loaded.ceilingEntry(first);
+            if (after == null || after.getKey() > last + 1L) {
+                break;
+            }
+            last = Math.max(last, after.getValue());
+            loaded.remove(after.getKey());
+        }
+        loaded.put(first, last);
+    }
+
+    private boolean isLoaded(int row) {
+        Map.Entry<Integer, Integer> covering = loaded.floorEntry(row);
+        return covering != null && covering.getValue() >= row;
+    }
+
+    /**
+     * Record that another range covers the column.
+     */
+    synchronized void retain() {
+        ranges++;
+    }
+
+    /**
+     * Record that a range covering the column was removed.
+     *
+     * @return true if no ranges cover the column anymore.
+     */
+    synchronized boolean release() {
+        return --ranges == 0;
+    }
+
+    /**
+     * Replace the value of a cell of the column, if its row is loaded.
+     * An empty value, i.e. an instance of {@link Nothing}, is held as no value,
+     * so empty cells take no nodes.
+     *
+     * @param row The row of the cell.
+     * @param value The new value of the cell, or null if the cell has no value.
+     * @return The previous value of the cell, or null if it had none or its row is not loaded.
+     */
+    synchronized Expression set(int row, Expression value) {
+        if (!isLoaded(row)) {
+            return null;
+        }
+        if (value instanceof Nothing) {
+            value = null;
+        }
+        int[] path = new int[DEPTH];
+        int node = ROOT;
+        int low = 0;
+        int high = LAST_ROW;
+        int depth = 0;
+        while (low < high) {
+            path[depth++] = node;
+            int mid = low + (high - low) / 2;
+            boolean left = row <= mid;
+            int child = left ? lefts[node] : rights[node];
+            if (child == NONE) {
+                if (value == null) {
+                    return null;
+                }
+                child = allocate();
+                if (left) {
+                    lefts[node] = child;
+                } else {
+                    rights[node] = child;
+                }
+            }
+            node = child;
+            if (left) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        Expression previous = values[node];
+        values[node] = value;
+        OptionalLong number = RangeValue.numeric(value);
+        counts[node] = number.isPresent() ? 1 : 0;
+        sums[node] = number.orElse(0);
+        mins[node] = number.orElse(Long.MAX_VALUE);
+        maxes[node] = number.orElse(Long.MIN_VALUE);
+        while (depth > 0) {
+            pull(path[--depth]);
+        }
+        return previous;
+    }
+
+    /**
+     * The value of a cell of the column.
+     *
+     * @param row The row of the cell.
+     * @requires the row is loaded.
+     * @return The value of the cell, or null if the cell has no value.
+     */
+    synchronized Expression get(int row) {
+        int node = ROOT;
+        int low = 0;
+        int high = LAST_ROW;
+        while (low < high && node != NONE) {
+            int mid = low + (high - low) / 2;
+            if (row <= mid) {
+                node = lefts[node];
+                high = mid;
+            } else {
+                node = rights[node];
+                low = mid + 1;
+            }
+        }
+        return node == NONE ? null : values[node];
+    }
+
+    /**
+     * Visit every numeric cell within a span of rows, in order.
+     *
+     * @param firstRow The first row of the span.
+     * @param lastRow The last row of the span, inclusive.
+     * @param visit Called with the value and row of each numeric cell.
+     */
+    synchronized void forEachNumber(int firstRow, int lastRow, ObjIntConsumer<Expression> visit) {
+        forEachNumber(ROOT, 0, LAST_ROW, firstRow, lastRow, visit);
+    }
+
+    private void forEachNumber(int node, int low, int high, int firstRow, int lastRow,
+                               ObjIntConsumer<Expression> visit) {
+        if (counts[node] == 0 || high < firstRow || low > lastRow) {
+            return;
+        }
+        if (low == high) {
+            visit.accept(values[node], low);
+            return;
+        }
+        int mid = low + (high - low) / 2;
+        forEachNumber(lefts[node], low, mid, firstRow, lastRow, visit);
+        forEachNumber(rights[node], mid + 1, high, firstRow, lastRow, visit);
+    }
+
+    /**
+     * The number of numeric cells within a span of rows.
+     */
+    synchronized long count(int firstRow, int lastRow) {
+        return query(ROOT, 0, LAST_ROW, firstRow, lastRow, COUNT);
+    }
+
+    /**
+     * The sum of the numeric cells within a span of rows, or 0 if there are none.
+     */
+    synchronized long sum(int firstRow, int lastRow) {
+        return query(ROOT, 0, LAST_ROW, firstRow, lastRow, SUM);
+    }
+
+    /**
+     * The smallest numeric cell within a span of rows, or {@link Long#MAX_VALUE} if there are none.
+     */
+    synchronized long min(int firstRow, int lastRow) {
+        return query(ROOT, 0, LAST_ROW, firstRow, lastRow, MIN);
+    }
+
+    /**
+     * The largest numeric cell within a span of rows, or {@link Long#MIN_VALUE} if there are none.
+     */
+    synchronized long max(int firstRow, int lastRow) {
+        return query(ROOT, 0, LAST_ROW, firstRow, lastRow, MAX);
+    }
+
+    /**
+     * The number of nodes of the tree, which bounds the memory used by the column.
+     */
+    synchronized int nodes() {
+        return nodes;
+    }
+
+    private long query(int node, int low, int high, int firstRow, int lastRow, int kind) {
+        if (node == NONE || high < firstRow || low > lastRow) {
+            return summary(NONE, kind);
+        }
+        if (firstRow <= low && high <= lastRow) {
+            return summary(node, kind);
+        }
+        int mid = low + (high - low) / 2;
+        long left = query(lefts[node], low, mid, firstRow, lastRow, kind);
+        long right = query(rights[node], mid + 1, high, firstRow, lastRow, kind);
+        return switch (kind) {
+            case MIN -> Math.min(left, right);
+            case MAX -> Math.max(left, right);
+            default -> left + right;
+        };
+    }
+
+    private long summary(int node, int kind) {
+        return switch (kind) {
+            case COUNT -> counts[node];
+            case SUM -> sums[node];
+            case MIN -> mins[node];
+            default -> maxes[node];
+        };
+    }
+
+    private void pull(int node) {
+        int left = lefts[node];
+        int right = rights[node];
+        counts[node] = counts[left] + counts[right];
+        sums[node] = sums[left] + sums[right];
+        mins[node] = Math.min(mins[left], mins[right]);
+        maxes[node] = Math.max(maxes[left], maxes[right]);
+    }
+
+    private int allocate() {
+        if (nodes == lefts.length) {
+            int capacity = 2 * nodes;
+            lefts = Arrays.copyOf(lefts, capacity);
+            rights = Arrays.copyOf(rights, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            sums = Arrays.copyOf(sums, capacity);
+            mins = Arrays.copyOf(mins, capacity);
+            maxes = Arrays.copyOf(maxes, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        int node = nodes++;
+        mins[node] = Long.MAX_VALUE;
+        maxes[node] = Long.MIN_VALUE;
+        return node;
+    }
+}
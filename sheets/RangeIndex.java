@@ -0,0 +1,188 @@
+package sheep.sheets;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * An interval index over the ranges used by formulas within a sheet.
+ * <p>
+ * Each range is stored once, regardless of how many cells it covers,
+ * so a formula such as SUM(A1:A100000) costs a single entry rather than
+ * an edge for every cell in the range.
+ * <p>
+ * Ranges are indexed in both dimensions: each column has its own treap holding the ranges
+ * which span that column, ordered by their first row, where every node also records
+ * the largest last row within its subtree. Finding the ranges that cover a cell
+ * only searches the treap of its column, and only visits subtrees which can overlap
+ * the row of the cell, so ranges over the same rows in other columns are never visited.
+ * This costs O((k + 1) log n) expected for k covering ranges among n ranges of the column.
+ * A range is added to the treap of every column it spans, which is cheap as
+ * a sheet has few columns.
+ */
+class RangeIndex {
+    private final Random random = new Random();
+    private final Map<RangeTree, Long> keys = new HashMap<>();
+    private final Map<Integer, Node> columns = new HashMap<>();
+    private long nextKey = 0;
+
+    private static class Node {
+        private final RangeTree tree;
+        private final long key;
+        private final int priority;
+        private int maxLastRow;
+        private Node left;
+        private Node right;
+
+        private Node(RangeTree tree, long key, int priority) {
+            this.tree = tree;
+            this.key = key;
+            this.priority = priority;
+            this.maxLastRow = tree.getRange().getLastRow();
+        }
+
+        private int firstRow() {
+            return tree.getRange().getFirstRow();
+        }
+    }
+
+    /**
+     * Add a range to the index.
+     *
+     * @param tree The range to add.
+     * @requires the range is not already in the index.
+     */
+    void add(RangeTree tree) {
+        long key = nextKey++;
+        keys.put(tree, key);
+        CellRange range = tree.getRange();
+        for (int column = range.getFirstColumn(); column <= range.getLastColumn(); column++) {
+            Node node = new Node(tree, key, random.nextInt());
+            Node[] parts = split(columns.get(column), range.getFirstRow(), key);
+            columns.put(column, merge(merge(parts[0], node), parts[1]));
+        }
+    }
+
+    /**
+     * Remove a range from the index.
+     * If the range is not in the index, nothing happens.
+     *
+     * @param tree The range to remove.
+     */
+    void remove(RangeTree tree) {
+        Long key = keys.remove(tree);
+        if (key == null) {
+            return;
+        }
+        CellRange range = tree.getRange();
+        for (int column = range.getFirstColumn(); column <= range.getLastColumn(); column++) {
+            Node[] lower = split(columns.get(column), range.getFirstRow(), key);
+            Node[] upper = split(lower[1], range.getFirstRow(), key + 1);
+            Node root = merge(lower[0], upper[1]);
+            if (root == null) {
+                columns.remove(column);
+            } else {
+                columns.put(column, root);
+            }
+        }
+    }
+
+    /**
+     * Remove every range from the index.
+     */
+    void clear() {
+        keys.clear();
+        columns.clear();
+    }
+
+    /**
+     * Find every range within the index that contains the given cell location.
+     *
+     * @param location A cell location to find the covering ranges of.
+     * @return All the ranges that contain the location.
+     */
+    List<RangeTree> covering(CellLocation location) {
+        Node root = columns.get(location.getColumn());
+        if (root == null) {
+            return Collections.emptyList();
+        }
+        List<RangeTree> result = new ArrayList<>();
+        collect(root, location, result);
+        return result;
+    }
+
+    private void collect(Node node, CellLocation location, List<RangeTree> result) {
+        if (node == null || node.maxLastRow < location.getRow()) {
+            return;
+        }
+        collect(node.left, location, result);
+        // every range to the right starts on or after this node's first row
+        if (node.firstRow() <= location.getRow()) {
+            // the treap only holds ranges spanning the column of the location
+            if (node.tree.getRange().getLastRow() >= location.getRow()) {
+                result.add(node.tree);
+            }
+            collect(node.right, location, result);
+        }
+    }
+
+    private static boolean before(Node node, int firstRow, long key) {
+        if (node.firstRow() != firstRow) {
+            return node.firstRow() < firstRow;
+        }
+        return node.key < key;
+    }
+
+    /**
+     * Split a subtree into the nodes ordered before (firstRow, key) and the remaining nodes.
+     */
+    private static Node[] split(Node node, int firstRow, long key) {
+        if (node == null) {
+            return new Node[]{null, null};
+        }
+        if (before(node, firstRow, key)) {
+            Node[] parts = split(node.right, firstRow, key);
+            node.right = parts[0];
+            update(node);
+            return new Node[]{node, parts[1]};
+        }
+        Node[] parts = split(node.left, firstRow, key);
+        node.left = parts[1];
+        update(node);
+        return new Node[]{parts[0], node};
+    }
+
+    /**
+     * Merge two subtrees where every node of the first is ordered before the second.
+     */
+    private static Node merge(Node first, Node second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        if (first.priority > second.priority) {
+            first.right = merge(first.right, second);
+            update(first);
+            return first;
+        }
+        second.left = merge(first, second.left);
+        update(second);
+        return second;
+    }
+
+    private static void update(Node node) {
+        int max = node.tree.getRange().getLastRow();
+        if (node.left != null) {
+            max = Math.max(max, node.left.maxLastRow);
+        }
+        if (node.right != null) {
+            max = Math.max(max, node.right.maxLastRow);
+        }
+        node.maxLastRow = max;
+    }
+}
@@ -0,0 +1,200 @@
+package sheep.sheets;
+
+import sheep.expression.Expression;
+import sheep.expression.basic.Nothing;
+import sheep.expression.basic.RangeValue;
+
+import java.util.*;
+
+/**
+ * The value of a range of cells within a sheet, maintained as the cells change.
+ * <p>
+ * A range tree summarises the cells of a range through the columns it covers, see
+ * {@link RangeColumn}, which hold the values of the cells in sparse segment trees shared
+ * by every range over the column. Changing a single cell costs O(log n) however many ranges
+ * cover it, and summarising the range costs O(w log n) for a range w columns wide.
+ * A range therefore only costs its users and its lookup indexes, rather than memory
+ * for every cell it covers, so many overlapping ranges, e.g. running totals, stay cheap.
+ * <p>
+ * Columns searched by lookup functions are indexed on first use.
+ * A column index maps each number in the column to the rows holding it,
+ * alongside the distinct numbers in sorted order, so an exact lookup costs O(1)
+ * and an approximate lookup costs O(log n). Indexes are kept up to date as cells change.
+ */
+class RangeTree extends RangeValue {
+    private final CellRange range;
+    private final RangeColumn[] columns;
+    private final Map<Integer, ColumnIndex> indexes = new HashMap<>();
+    private final Set<CellLocation> users = new HashSet<>();
+
+    /**
+     * The rows of a column holding each number.
+     */
+    private static class ColumnIndex {
+        private final Map<Long, TreeSet<Integer>> rows = new HashMap<>();
+        private final TreeSet<Long> numbers = new TreeSet<>();
+
+        private void add(long number, int row) {
+            rows.computeIfAbsent(number, key -> new TreeSet<>()).add(row);
+            numbers.add(number);
+        }
+
+        private void remove(long number, int row) {
+            TreeSet<Integer> holding = rows.get(number);
+            holding.remove(row);
+            if (holding.isEmpty()) {
+                rows.remove(number);
+                numbers.remove(number);
+            }
+        }
+    }
+
+    /**
+     * Construct a new range tree over the columns covered by the range.
+     *
+     * @param range The block of cells summarised by the tree.
+     * @param columns The shared values of each column of the range, from its first column,
+     *                with every row of the range loaded.
+     * @requires columns.length == range.getWidth()
+     */
+    RangeTree(CellRange range, RangeColumn[] columns) {
+        this.range = range;
+        this.columns = columns;
+    }
+
+    /**
+     * The block of cells summarised by the tree.
+     */
+    CellRange getRange() {
+        return range;
+    }
+
+    /**
+     * The shared values of each column of the range, from its first column.
+     */
+    RangeColumn[] getColumns() {
+        return columns;
+    }
+
+    /**
+     * Update the lookup indexes of the range once the value of a cell within it has changed.
+     * The summary is kept by the columns of the range, see {@link RangeColumn#set(int, Expression)}.
+     *
+     * @param location A cell location within the range.
+     * @param previous The previous value of the cell, or null if the cell had no value.
+     * @param value The new value of the cell, or null if the cell has no value.
+     */
+    void changed(CellLocation location, Expression previous, Expression value) {
+        ColumnIndex columnIndex = indexes.get(location.getColumn() - range.getFirstColumn());
+        if (columnIndex != null) {
+            int row = location.getRow() - range.getFirstRow();
+            numeric(previous).ifPresent(number -> columnIndex.remove(number, row));
+            numeric(value).ifPresent(number -> columnIndex.add(number, row));
+        }
+    }
+
+    /**
+     * Record that the formula at the given location uses this range.
+     *
+     * @param location The location of a formula using the range.
+     */
+    void addUser(CellLocation location) {
+        users.add(location);
+    }
+
+    /**
+     * Record that the formula at the given location no longer uses this range.
+     *
+     * @param location The location of a formula that used the range.
+     * @return true if no formulas use the range anymore.
+     */
+    boolean removeUser(CellLocation location) {
+        users.remove(location);
+        return users.isEmpty();
+    }
+
+    /**
+     * The locations of every formula using this range.
+     */
+    Set<CellLocation> getUsers() {
+        return users;
+    }
+
+    private ColumnIndex indexed(int column) {
+        return indexes.computeIfAbsent(column, key -> {
+            ColumnIndex columnIndex = new ColumnIndex();
+            int firstRow = range.getFirstRow();
+            columns[key].forEachNumber(firstRow, range.getLastRow(),
+                    (value, row) -> columnIndex.add(numeric(value).getAsLong(), row - firstRow));
+            return columnIndex;
+        });
+    }
+
+    @Override
+    public int width() {
+        return range.getWidth();
+    }
+
+    @Override
+    public int height() {
+        return range.getHeight();
+    }
+
+    @Override
+    public Expression valueAt(int row, int column) {
+        Expression cell = columns[column].get(range.getFirstRow() + row);
+        return cell == null ? new Nothing() : cell;
+    }
+
+    @Override
+    public OptionalInt find(long value, int column) {
+        TreeSet<Integer> rows = indexed(column).rows.get(value);
+        return rows == null ? OptionalInt.empty() : OptionalInt.of(rows.first());
+    }
+
+    @Override
+    public OptionalInt floor(long value, int column) {
+        ColumnIndex columnIndex = indexed(column);
+        Long number = columnIndex.numbers.floor(value);
+        if (number == null) {
+            return OptionalInt.empty();
+        }
+        return OptionalInt.of(columnIndex.rows.get(number).last());
+    }
+
+    @Override
+    public long count() {
+        long count = 0;
+        for (RangeColumn column : columns) {
+            count += column.count(range.getFirstRow(), range.getLastRow());
+        }
+        return count;
+    }
+
+    @Override
+    public long sum() {
+        long sum = 0;
+        for (RangeColumn column : columns) {
+            sum += column.sum(range.getFirstRow(), range.getLastRow());
+        }
+        return sum;
+    }
+
+    @Override
+    public long min() {
+        long min = Long.MAX_VALUE;
+        for (RangeColumn column : columns) {
+            min = Math.min(min, column.min(range.getFirstRow(), range.getLastRow()));
+        }
+        return count() == 0 ? 0 : min;
+    }
+
+    @Override
+    public long max() {
+        long max = Long.MIN_VALUE;
+        for (RangeColumn column : columns) {
+            max = Math.max(max, column.max(range.getFirstRow(), range.getLastRow()));
+        }
+        return count() == 0 ? 0 : max;
+    }
+}
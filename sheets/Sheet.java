@@ -1,15 +1,23 @@
 package sheep.sheets;
 
-import sheep.core.SheetUpdate;
+import sheep.core.Recalculation;
 import sheep.core.SheetView;
+import sheep.core.SlicedUpdate;
 import sheep.core.UpdateResponse;
 import sheep.core.ViewElement;
 import sheep.expression.Expression;
 import sheep.expression.TypeError;
+import sheep.expression.basic.Constant;
+import sheep.expression.basic.Nothing;
+import sheep.expression.basic.RangeValue;
+import sheep.expression.shared.SharedFormula;
 import sheep.parsing.ParseException;
 import sheep.parsing.Parser;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
 
 /**
  * Spreadsheet that evaluates its expressions and updates dependant cells.
@@ -19,17 +27,48 @@ import java.util.*;
  * Each cell location of a spreadsheet has a formula and a value.
  * The formula is what has been written in the cell by a user
  * whereas the value is what value the cell contains.
+ * <p>
+ * A sheet is changed by a single thread at a time, unless it is a {@link StripedSheet}.
+ * Once a change succeeds it is committed:
+ * a sheet holding its cells in a {@link PersistentCellStore} publishes the new version of its
+ * cells, see {@link #committed()}. The {@link SheetView} methods read the latest committed
+ * version without locking, so they may be called from any thread, e.g. to repaint while
+ * the sheet recalculates on another thread, and never observe a change in progress.
+ * A sheet holding its cells in any other store is only read from the thread changing it,
+ * where the {@link SheetView} methods read the cells as of the latest change without
+ * finishing a recalculation in progress.
+ * <p>
+ * An update may also be recalculated a slice at a time, see {@link #recalculate(int, int, String)},
+ * so that a user interface stays responsive while a large update is recalculated.
  * @stage2
  */
-public class Sheet implements SheetView, SheetUpdate {
+public class Sheet implements SheetView, SlicedUpdate {
+    /**
+     * The least number of cells evaluated by an update before its unrelated parts are
+     * evaluated in parallel
+     */
+    private static final int PARALLEL_CELLS = 2048;
 
-    private final Map<CellLocation, Expression> formulas = new HashMap<>();
-    private final Map<CellLocation, Expression> values = new HashMap<>();
+    /**
+     * The most cells evaluated by a recalculation between checks of the time it has taken
+     */
+    private static final int SLICE_CELLS = 64;
+
+    private CellStore store;
+    private final List<CellStore.RowGroup> unwired = new ArrayList<>();
     private final Map<CellLocation, Set<CellLocation>> usages = new HashMap<>();
+    private final Map<String, RangeTree> ranges = new HashMap<>();
+    private final RangeIndex rangeIndex = new RangeIndex();
+    private final Map<Integer, RangeColumn> rangeColumns = new HashMap<>();
+    private final List<SheetListener> listeners = new ArrayList<>();
+    private final UndoHistory history = new UndoHistory(UndoHistory.DEFAULT_BUDGET);
+    private final Components components = new Components();
+    private volatile SheetSnapshot committed;
+    private SlicedRecalculation pending;
     private final Map<String, Expression> builtins;
     private final Expression defaultExpression;
-    private int rows;
-    private int columns;
+    private volatile int rows;
+    private volatile int columns;
 
     private final Parser parser;
 
@@ -48,11 +87,32 @@ public class Sheet implements SheetView, SheetUpdate {
      */
     protected Sheet(Parser parser, Map<String, Expression> builtins,
           Expression defaultExpression, int rows, int columns) {
+        this(parser, builtins, defaultExpression, rows, columns, new PersistentCellStore());
+    }
+
+    /**
+     * Construct a new instance of the sheet class, holding its cells in the given store.
+     * <p>
+     * A sheet should initially be populated in every cell with the defaultExpression,
+     * so any cells within the store are removed.
+     *
+     * @param parser The parser instance used to create expressions.
+     * @param builtins A mapping of built-in identifiers to expressions.
+     * @param defaultExpression The default expression to load in every cell.
+     * @param rows Amount of rows for the new sheet.
+     * @param columns Amount of columns for the new sheet.
+     * @param store The storage for the populated cells of the sheet.
+     * @requires rows &gt; 0
+     * @requires columns &gt; 0 &amp;&amp; columns &lt; 26
+     */
+    protected Sheet(Parser parser, Map<String, Expression> builtins,
+          Expression defaultExpression, int rows, int columns, CellStore store) {
         this.parser = parser;
         this.rows = rows;
         this.columns = columns;
         this.defaultExpression = defaultExpression;
         this.builtins = new HashMap<>(builtins);
+        this.store = store;
         this.populate();
     }
 
@@ -62,21 +122,153 @@ public class Sheet implements SheetView, SheetUpdate {
      */
     public void clear() {
         populate();
+        for (SheetListener listener : listeners) {
+            listener.cleared();
+        }
+    }
+
+    /**
+     * Register a listener to be notified of every successful change to the spreadsheet.
+     *
+     * @param listener The listener to notify.
+     */
+    public void addListener(SheetListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Stop notifying a listener of changes to the spreadsheet.
+     *
+     * @param listener The listener to no longer notify.
+     */
+    public void removeListener(SheetListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void notifyUpdated(Map<CellLocation, Expression> cells) {
+        for (SheetListener listener : listeners) {
+            listener.updated(Collections.unmodifiableMap(cells));
+        }
+    }
+
+    /**
+     * Replace every cell of the spreadsheet with the cells of a store,
+     * e.g. one that pages cells in from a file as they are accessed.
+     * <p>
+     * No cell is read or evaluated when the store is opened: the stored values are trusted,
+     * and the dependencies between cells are only recorded once the spreadsheet next changes,
+     * for those groups of rows of the store which hold or may use a changed cell,
+     * see {@link CellStore#rowGroups()}.
+     * The store previously used is closed, see {@link CellStore#close()}.
+     *
+     * @param store A store holding the formula and value of every populated cell.
+     * @param rows The number of rows of the spreadsheet.
+     * @param columns The number of columns of the spreadsheet.
+     * @requires every stored value is the value its formula evaluates to within the store.
+     * @requires rows &gt; 0
+     * @requires columns &gt; 0 &amp;&amp; columns &lt; 26
+     */
+    public void open(CellStore store, int rows, int columns) {
+        settle();
+        this.store.close();
+        this.store = store;
+        this.rows = rows;
+        this.columns = columns;
+        usages.clear();
+        ranges.clear();
+        rangeIndex.clear();
+        rangeColumns.clear();
+        components.clear();
+        history.clear();
+        unwired.clear();
+        if (store.size() > 0) {
+            unwired.addAll(store.rowGroups());
+        }
+        commit();
+        for (SheetListener listener : listeners) {
+            listener.replaced();
+        }
     }
 
     private void populate() {
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < columns; j++) {
-                CellLocation location = new CellLocation(i, j);
-                populate(location);
+        settle();
+        history.clear();
+        store.clear();
+        usages.clear();
+        ranges.clear();
+        rangeIndex.clear();
+        rangeColumns.clear();
+        components.clear();
+        unwired.clear();
+        commit();
+    }
+
+    /**
+     * Publish the current cells as the latest committed version, if it costs nothing to keep them.
+     */
+    private void commit() {
+        committed = store instanceof PersistentCellStore persistent
+                ? new SheetSnapshot(rows, columns, persistent.cells(), defaultExpression)
+                : null;
+    }
+
+    /**
+     * The cells of the spreadsheet as of the latest successful change,
+     * which may be read from any thread while the spreadsheet is being changed.
+     * <p>
+     * Versions are only kept if the cells are held in a {@link PersistentCellStore},
+     * as keeping them then costs nothing.
+     *
+     * @return The latest committed version of the cells,
+     *         or null if the cells are not held in a {@link PersistentCellStore}.
+     */
+    public SheetSnapshot committed() {
+        return committed;
+    }
+
+    /**
+     * Record the dependencies of the stored cells which hold or may use the given location,
+     * if they were not recorded when the cells were stored.
+     * A cell is wired before it changes or any of its dependants are found.
+     */
+    private void wire(CellLocation location) {
+        if (unwired.isEmpty()) {
+            return;
+        }
+        Iterator<CellStore.RowGroup> groups = unwired.iterator();
+        while (groups.hasNext()) {
+            CellStore.RowGroup group = groups.next();
+            if (group.contains(location.getRow()) || group.uses(location.getRow())) {
+                groups.remove();
+                for (CellLocation stored : store.locations(group.firstRow(), group.lastRow())) {
+                    addUsage(stored, store.formula(stored));
+                }
             }
         }
     }
 
-    private void populate(CellLocation location) {
-        values.put(location, defaultExpression);
-        formulas.put(location, defaultExpression);
-        usages.put(location, new HashSet<>());
+    /**
+     * The formula of a cell, which is the default expression for any cell within
+     * the bounds of the spreadsheet that is not stored.
+     */
+    private Expression formula(CellLocation location) {
+        Expression formula = store.formula(location);
+        if (formula == null && contains(location)) {
+            return defaultExpression;
+        }
+        return formula;
+    }
+
+    /**
+     * The value of a cell, which is the default expression for any cell within
+     * the bounds of the spreadsheet that is not stored.
+     */
+    private Expression value(CellLocation location) {
+        Expression value = store.value(location);
+        if (value == null && contains(location)) {
+            return defaultExpression;
+        }
+        return value;
     }
 
     /**
@@ -84,23 +276,29 @@ public class Sheet implements SheetView, SheetUpdate {
      * If the spreadsheet shrinks, the values of removed cells are remembered
      * and may be accessed if the spreadsheet grows again.
      * If the spreadsheet grows, the default values are populated.
+     * Earlier changes can no longer be undone.
      *
      * @param rows New number of rows.
      * @param columns New number of columns.
      */
     public void updateDimensions(int rows, int columns) {
-        for (int newRow = 0; newRow < rows - this.rows; newRow++) {
-            for (int column = 0; column < columns; column++) {
-                populate(new CellLocation(newRow + this.rows, column));
+        settle();
+        List<CellLocation> grown = new ArrayList<>();
+        for (CellLocation location : store.locations()) {
+            if (!contains(location) && location.getRow() < rows && location.getColumn() < columns) {
+                grown.add(location);
             }
         }
-        for (int newCol = 0; newCol < columns - this.columns; newCol++) {
-            for (int row = 0; row < columns; row++) {
-                populate(new CellLocation(row, newCol + this.columns));
-            }
+        for (CellLocation location : grown) {
+            store.remove(location);
         }
         this.rows = rows;
         this.columns = columns;
+        history.clear();
+        commit();
+        for (SheetListener listener : listeners) {
+            listener.resized(rows, columns);
+        }
     }
 
     /**
@@ -140,6 +338,9 @@ public class Sheet implements SheetView, SheetUpdate {
      * The content of the {@link ViewElement} should correspond to the result
      * of the {@link Expression#render()} method on {@link #valueAt(CellLocation)}.
      * The foreground and background colours may be any compatible colours.
+     * The value is read from the latest committed version, see {@link #committed()},
+     * or otherwise from the store as of the latest change, without finishing a recalculation
+     * in progress, see {@link #recalculate(int, int, String)}.
      *
      * @param row A row within the spreadsheet.
      * @param column A column within the spreadsheet.
@@ -148,7 +349,11 @@ public class Sheet implements SheetView, SheetUpdate {
      */
     @Override
     public ViewElement valueAt(int row, int column) {
-        return new ViewElement(valueAt(new CellLocation(row, column)).render(), "white", "black");
+        CellLocation location = new CellLocation(row, column);
+        SheetSnapshot version = committed;
+        Expression value = version == null ? committedValue(location) : version.valueAt(location);
+        return new ViewElement((value == null ? defaultExpression : value).render(),
+                "white", "black");
     }
 
     /**
@@ -156,6 +361,8 @@ public class Sheet implements SheetView, SheetUpdate {
      * The content of the {@link ViewElement} should correspond to the result
      * of the {@link Expression#render()} method on {@link #formulaAt(CellLocation)}.
      * The foreground and background colours may be any compatible colours.
+     * The formula is read from the latest committed version, see {@link #committed()},
+     * or otherwise from the store as of the latest change, as per {@link #valueAt(int, int)}.
      *
      * @param row A row within the spreadsheet.
      * @param column A column within the spreadsheet.
@@ -164,7 +371,37 @@ public class Sheet implements SheetView, SheetUpdate {
      */
     @Override
     public ViewElement formulaAt(int row, int column) {
-        return new ViewElement(formulaAt(new CellLocation(row, column)).render(), "white", "black");
+        CellLocation location = new CellLocation(row, column);
+        SheetSnapshot version = committed;
+        Expression formula = version == null
+                ? committedFormula(location) : version.formulaAt(location);
+        return new ViewElement((formula == null ? defaultExpression : formula).render(),
+                "white", "black");
+    }
+
+    /**
+     * The value of a cell as of the latest change, without finishing the recalculation
+     * in progress. The store does not hold the new values of a recalculation until it finishes,
+     * only the new formulas of the cells it inserts, whose values are kept by the recalculation.
+     */
+    private Expression committedValue(CellLocation location) {
+        SlicedRecalculation recalculation = pending;
+        if (recalculation != null && recalculation.previousValues.containsKey(location)) {
+            return recalculation.previousValues.get(location);
+        }
+        return value(location);
+    }
+
+    /**
+     * The formula of a cell as of the latest change, without finishing the recalculation
+     * in progress, as per {@link #committedValue(CellLocation)}.
+     */
+    private Expression committedFormula(CellLocation location) {
+        SlicedRecalculation recalculation = pending;
+        if (recalculation != null && recalculation.previous.containsKey(location)) {
+            return recalculation.previous.get(location);
+        }
+        return formula(location);
     }
 
     /**
@@ -201,6 +438,95 @@ public class Sheet implements SheetView, SheetUpdate {
         }
     }
 
+    /**
+     * Start updating the cell at row and column within the sheet with the given input,
+     * evaluating the affected cells a slice at a time as the returned recalculation is stepped,
+     * e.g. between the events of a user interface.
+     * <p>
+     * The input is parsed and its formula stored straight away, failing as per
+     * {@link #update(int, int, String)} if it cannot be parsed. The affected cells are then
+     * evaluated in the same order as {@link #update(Map)}, except that cells given priority,
+     * along with the cells they depend upon, are evaluated first.
+     * Until the recalculation is finished the update is not committed, so the
+     * {@link SheetView} methods show the cells as they were before the update.
+     * <p>
+     * Any other change to the sheet, or any read other than through the {@link SheetView} methods,
+     * first finishes the recalculation in progress.
+     *
+     * @param row The row index to update.
+     * @param column The column index to update.
+     * @param input The value as a string to replace within the sheet.
+     * @return The recalculation performing the update.
+     */
+    @Override
+    public Recalculation recalculate(int row, int column, String input) {
+        Expression expr;
+        try {
+            expr = parser.parse(input);
+        } catch (ParseException e) {
+            return Recalculation.finished(UpdateResponse.fail("Unable to parse: " + input));
+        }
+        settle();
+        Map<CellLocation, Expression> cells = new HashMap<>();
+        cells.put(new CellLocation(row, column), expr);
+        pending = new SlicedRecalculation(cells);
+        return pending;
+    }
+
+    /**
+     * Finish the recalculation in progress, if any, see {@link #recalculate(int, int, String)}.
+     */
+    private void settle() {
+        if (pending != null) {
+            pending.step(Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Attempt to insert many cells into the spreadsheet at once, e.g. when loading a file.
+     * <p>
+     * Every input is parsed before the sheet is changed. The parsed expressions are then
+     * inserted as a single update: the dependencies of every cell are recorded once,
+     * and every inserted cell, along with every cell that uses an inserted cell,
+     * is evaluated exactly once after all the cells it depends upon.
+     * Loading n cells therefore costs O(n) evaluations rather than recalculating
+     * the sheet once per cell.
+     * <p>
+     * If any input cannot be parsed,
+     * then the update response must fail with "Unable to parse: [input]".
+     * If a {@link TypeError} occurs,
+     * then the update response must fail with "Type error: [e]".
+     * In either case the sheet is unchanged.
+     *
+     * @param inputs A mapping of cell locations to the string to insert at that location.
+     * @requires every location is within the bounds (row/columns) of the spreadsheet.
+     * @return Information about the status of performing the update.
+     */
+    public UpdateResponse updateAll(Map<CellLocation, String> inputs) {
+        UpdateBatch batch = batch();
+        for (Map.Entry<CellLocation, String> entry : inputs.entrySet()) {
+            UpdateResponse response = batch.add(entry.getKey().getRow(),
+                    entry.getKey().getColumn(), entry.getValue());
+            if (!response.isSuccess()) {
+                return response;
+            }
+        }
+        return batch.apply();
+    }
+
+    /**
+     * Start a new batch of updates to the spreadsheet, inserted as a single bulk update
+     * as per {@link #updateAll(Map)} once applied.
+     * <p>
+     * A batch allows cells to be parsed as they are read, e.g. from a file,
+     * without holding every input string in memory.
+     *
+     * @return A new empty batch of updates to this sheet.
+     */
+    public UpdateBatch batch() {
+        return new UpdateBatch(this, parser);
+    }
+
     /**
      * The formula expression currently stored at the location in the spreadsheet.
      * @param location A cell location within the spreadsheet.
@@ -208,7 +534,8 @@ public class Sheet implements SheetView, SheetUpdate {
      * @return The formula expression at the given cell location.
      */
     public Expression formulaAt(CellLocation location) {
-        return formulas.get(location);
+        settle();
+        return formula(location);
     }
 
     /**
@@ -223,7 +550,83 @@ public class Sheet implements SheetView, SheetUpdate {
      * @return The value expression at the given cell location.
      */
     public Expression valueAt(CellLocation location) {
-        return values.get(location);
+        settle();
+        return value(location);
+    }
+
+    /**
+     * The locations of every cell within the spreadsheet
+     * whose formula is not the default expression, in row-major order.
+     * <p>
+     * Populated cells are tracked as formulas change, so the cost of this method
+     * depends only on the number of populated cells rather than the size of the sheet.
+     *
+     * @return The location of every populated cell, ordered by row then column.
+     */
+    public List<CellLocation> populatedCells() {
+        settle();
+        List<CellLocation> cells = new ArrayList<>();
+        for (CellLocation location : store.locations()) {
+            if (contains(location)) {
+                cells.add(location);
+            }
+        }
+        cells.sort(Comparator.comparingInt(CellLocation::getRow)
+                .thenComparingInt(CellLocation::getColumn));
+        return cells;
+    }
+
+    /**
+     * Take a snapshot of the populated cells of the spreadsheet,
+     * which does not change as the spreadsheet changes.
+     * This takes constant time if the cells are held in a {@link PersistentCellStore},
+     * time proportional to the cells changed since a store was opened if the store provides
+     * a view of its cells, see {@link CellStore#view()},
+     * and otherwise time proportional to the number of populated cells.
+     *
+     * @return A snapshot of the formula and value of every populated cell.
+     */
+    public SheetSnapshot snapshot() {
+        settle();
+        if (store instanceof PersistentCellStore persistent) {
+            return new SheetSnapshot(rows, columns, persistent.cells(), defaultExpression);
+        }
+        CellStore.View view = store.view();
+        if (view != null) {
+            return new SheetSnapshot(rows, columns, view, defaultExpression);
+        }
+        CellTrie cells = CellTrie.EMPTY;
+        for (CellLocation location : store.locations()) {
+            if (contains(location)) {
+                cells = cells.with(location, store.formula(location), value(location));
+            }
+        }
+        return new SheetSnapshot(rows, columns, cells, defaultExpression);
+    }
+
+    /**
+     * Take a snapshot of the populated cells of the spreadsheet within a range,
+     * at a cost proportional to the size of the range rather than the spreadsheet.
+     *
+     * @param range The cells to include in the snapshot,
+     *              any cells outside the bounds of the spreadsheet are ignored.
+     * @return A snapshot of the formula and value of every populated cell within the range.
+     */
+    public SheetSnapshot snapshot(CellRange range) {
+        settle();
+        CellTrie cells = CellTrie.EMPTY;
+        int lastRow = Math.min(range.getLastRow(), rows - 1);
+        int lastColumn = Math.min(range.getLastColumn(), columns - 1);
+        for (int row = range.getFirstRow(); row <= lastRow; row++) {
+            for (int column = range.getFirstColumn(); column <= lastColumn; column++) {
+                CellLocation location = new CellLocation(row, column);
+                Expression formula = store.formula(location);
+                if (formula != null) {
+                    cells = cells.with(location, formula, value(location));
+                }
+            }
+        }
+        return new SheetSnapshot(rows, columns, cells, defaultExpression);
     }
 
     /**
@@ -256,27 +659,39 @@ public class Sheet implements SheetView, SheetUpdate {
      * @return All the cells which use the given cell as a dependency.
      */
     public Set<CellLocation> usedBy(CellLocation location) {
-        Set<CellLocation> usages = new HashSet<>();
-        usedBy(location, usages);
-        return usages;
-    }
-
-    private void usedBy(CellLocation location, Set<CellLocation> seen) {
-        for (CellLocation next : usages.get(location)) {
-            if (seen.contains(next)) {
-                return;
+        Set<CellLocation> seen = new HashSet<>();
+        Deque<CellLocation> pending = new ArrayDeque<>();
+        pending.push(location);
+        while (!pending.isEmpty()) {
+            for (CellLocation next : dependants(pending.pop())) {
+                if (seen.add(next)) {
+                    pending.push(next);
+                }
             }
-            seen.add(next);
-            usedBy(next, seen);
         }
+        return seen;
     }
 
-    private Map<String, Expression> createState() {
-        Map<String, Expression> symbols = new HashMap<>(builtins);
-        for (CellLocation location : formulas.keySet()) {
-            symbols.put(location.toString(), values.get(location));
+    /**
+     * The cells whose formulas directly use the given cell location,
+     * either as a reference or within a range.
+     */
+    private Set<CellLocation> dependants(CellLocation location) {
+        wire(location);
+        List<RangeTree> covering = rangeIndex.covering(location);
+        Set<CellLocation> direct = usages.getOrDefault(location, Collections.emptySet());
+        if (covering.isEmpty()) {
+            return direct;
+        }
+        Set<CellLocation> dependants = new HashSet<>(direct);
+        for (RangeTree tree : covering) {
+            dependants.addAll(tree.getUsers());
         }
-        return symbols;
+        return dependants;
+    }
+
+    private SheetState createState() {
+        return new SheetState(this::value, store, () -> store.locations(), ranges, builtins);
     }
 
     /**
@@ -308,50 +723,1020 @@ public class Sheet implements SheetView, SheetUpdate {
      *                  results in a TypeError being thrown.
      */
     public void update(CellLocation location, Expression cell) throws TypeError {
-        Map<String, Expression> state = createState();
-        state.put(location.toString(), cell.value(state));
-        // recursively pre-calculate all the updated values
-        // this approach triggers a TypeError before the state is modified
-        applyUpdate(state, location);
+        Map<CellLocation, Expression> cells = new HashMap<>();
+        cells.put(location, cell);
+        update(cells);
+    }
+
+    /**
+     * Insert many expressions into the sheet at once, recalculating the sheet a single time.
+     * <p>
+     * The new formulas are wired into the dependency graph first,
+     * then every changed cell and every cell that transitively uses a changed cell
+     * is evaluated exactly once, level by level, where each level only depends upon earlier levels.
+     * Within a level, runs of cells sharing a formula template are evaluated column-wise,
+     * see {@link ColumnBlocks}. Large updates split their cells by the connected components of
+     * the dependencies, see {@link Components}, and evaluate unrelated components in parallel.
+     * <p>
+     * If a {@link TypeError} is thrown, the sheet returns to the same state as before this method was called.
+     * Otherwise the update may be undone as a whole, see {@link #undo()}.
+     *
+     * @param cells A mapping of cell locations to the expression to insert at that location.
+     * @throws TypeError If the evaluation of any inserted cell or any of its usages
+     *                   results in a TypeError being thrown.
+     */
+    void update(Map<CellLocation, Expression> cells) throws TypeError {
+        settle();
+        Map<CellLocation, Expression> previous = insert(cells);
+        List<Level> levels = evaluationLevels(cells.keySet());
+        List<Evaluation> evaluations = split(levels);
+        TypeError failure = null;
+        startEvaluating();
+        try {
+            // pre-calculate all the updated values
+            // this approach triggers a TypeError before any values are modified
+            failure = evaluate(evaluations, this::evaluate);
+        } finally {
+            finishEvaluating();
+        }
+        if (failure != null) {
+            for (Evaluation evaluation : evaluations) {
+                restoreRanges(evaluation.assigned());
+            }
+            restoreFormulas(previous);
+            throw failure;
+        }
+
+        // no type error, update the values
+        for (Evaluation evaluation : evaluations) {
+            storeValues(evaluation.state());
+        }
+        updated(previous, cells);
+    }
+
+    /**
+     * Insert many expressions into the sheet at once as per {@link #update(Map)},
+     * except that a cell whose evaluation throws a {@link TypeError} is left out,
+     * along with every cell that transitively uses it, rather than failing the whole update.
+     * <p>
+     * The cells are evaluated a single time, level by level, so a cell is only evaluated
+     * once every cell it uses has either been evaluated or left out. A level is evaluated
+     * as a whole, and only evaluated one cell at a time once the level as a whole fails.
+     * Inserted cells that are left out keep their previous formula, and every cell left out
+     * keeps its previous value. The other cells are committed and may be undone as a whole.
+     * <p>
+     * Cells outside of the update that use a cell left out are not evaluated again,
+     * so this suits an update of a sheet whose other cells do not use the updated cells,
+     * e.g. loading a file into a cleared sheet.
+     *
+     * @param cells A mapping of cell locations to the expression to insert at that location.
+     * @return The first type error thrown, or null if no cell was left out.
+     */
+    TypeError updateEach(Map<CellLocation, Expression> cells) {
+        settle();
+        Map<CellLocation, Expression> previous = insert(cells);
+        List<Level> levels = evaluationLevels(cells.keySet());
+        List<Evaluation> evaluations = split(levels);
+        TypeError failure;
+        startEvaluating();
+        try {
+            failure = evaluate(evaluations, this::evaluateEach);
+        } finally {
+            finishEvaluating();
+        }
+
+        Set<CellLocation> failed = new HashSet<>();
+        for (Evaluation evaluation : evaluations) {
+            failed.addAll(evaluation.failed());
+        }
+        Map<CellLocation, Expression> inserted = new HashMap<>(cells);
+        Map<CellLocation, Expression> leftOut = new HashMap<>();
+        for (CellLocation location : failed) {
+            // cells evaluated before their level failed as a whole may have changed ranges
+            updateRanges(location, value(location));
+            if (previous.containsKey(location)) {
+                leftOut.put(location, previous.remove(location));
+                inserted.remove(location);
+            }
+        }
+        restoreFormulas(leftOut);
+        for (Evaluation evaluation : evaluations) {
+            if (evaluation.failed().isEmpty()) {
+                storeValues(evaluation.state());
+                continue;
+            }
+            for (Level level : evaluation.levels()) {
+                for (CellLocation location : level.cells()) {
+                    if (!failed.contains(location)) {
+                        setValue(location, evaluation.state().valueAt(location));
+                    }
+                }
+            }
+        }
+        if (!inserted.isEmpty()) {
+            updated(previous, inserted);
+        }
+        return failure;
+    }
+
+    /**
+     * Store and wire the formulas of an update, before any cell is evaluated.
+     *
+     * @return The previous formula of every inserted cell.
+     */
+    private Map<CellLocation, Expression> insert(Map<CellLocation, Expression> cells) {
+        Map<CellLocation, Expression> previous = new HashMap<>();
+        for (Map.Entry<CellLocation, Expression> entry : cells.entrySet()) {
+            wire(entry.getKey());
+            previous.put(entry.getKey(), formula(entry.getKey()));
+            updateUsage(entry.getKey(), entry.getValue());
+            setFormula(entry.getKey(), entry.getValue());
+        }
+        return previous;
+    }
+
+    /**
+     * Range values are updated in place as cells are evaluated,
+     * so restore them to the existing values of the given cells.
+     */
+    private void restoreRanges(List<CellLocation> assigned) {
+        for (CellLocation changed : assigned) {
+            updateRanges(changed, value(changed));
+        }
+    }
+
+    private void restoreFormulas(Map<CellLocation, Expression> previous) {
+        for (Map.Entry<CellLocation, Expression> entry : previous.entrySet()) {
+            updateUsage(entry.getKey(), entry.getValue());
+            setFormula(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Store the value of every cell assigned within the state,
+     * storing runs of numbers assigned at once in bulk.
+     */
+    private void storeValues(SheetState state) {
+        state.forEachAssigned(store::setNumbers, this::setValue);
+    }
+
+    /**
+     * Finish a successful update: record it to be undone, commit it and notify the listeners.
+     */
+    private void updated(Map<CellLocation, Expression> previous,
+                         Map<CellLocation, Expression> cells) {
+        history.record(previous);
+        commit();
+        notifyUpdated(cells);
+    }
+
+    /**
+     * Called once the formulas of an update are stored and wired, before any cell is evaluated.
+     * From then until {@link #finishEvaluating()}, the update only reads the formulas, values
+     * and dependencies of the sheet, and only changes the ranges covering the evaluated cells.
+     * Does nothing unless overridden, see {@link StripedSheet}.
+     */
+    void startEvaluating() {
+    }
+
+    /**
+     * Called once every cell of an update is evaluated, or a cell fails to evaluate,
+     * before the values are stored. Does nothing unless overridden.
+     */
+    void finishEvaluating() {
+    }
+
+    /**
+     * The cells read or changed by inserting the given cells: the inserted cells,
+     * every cell that transitively uses them, and every cell or range that those cells
+     * or the inserted formulas depend upon.
+     *
+     * @param cells A mapping of cell locations to the expression to insert at that location.
+     * @return The blocks of cells touched, where single cells are blocks of one cell.
+     */
+    List<CellRange> touchedBy(Map<CellLocation, Expression> cells) {
+        Set<CellLocation> affected = new HashSet<>(cells.keySet());
+        Deque<CellLocation> pending = new ArrayDeque<>(cells.keySet());
+        while (!pending.isEmpty()) {
+            for (CellLocation next : dependants(pending.pop())) {
+                if (affected.add(next)) {
+                    pending.push(next);
+                }
+            }
+        }
+        List<CellRange> touched = new ArrayList<>();
+        for (CellLocation location : affected) {
+            touched.add(new CellRange(location, location));
+            addDependencies(touched, formula(location));
+        }
+        for (Expression formula : cells.values()) {
+            addDependencies(touched, formula);
+        }
+        return touched;
+    }
+
+    private static void addDependencies(List<CellRange> touched, Expression formula) {
+        if (formula == null) {
+            return;
+        }
+        for (String dependency : formula.dependencies()) {
+            CellLocation.maybeReference(dependency)
+                    .ifPresent(location -> touched.add(new CellRange(location, location)));
+            CellRange.maybeRange(dependency).ifPresent(touched::add);
+        }
+    }
+
+    /**
+     * Insert many expressions into the sheet along with their already known values,
+     * without evaluating anything.
+     * <p>
+     * The values are stored as given, then the new formulas are wired into the dependency graph,
+     * so the cells are recalculated as usual once any cell they depend upon next changes.
+     * This is how a sheet is loaded from a file that stores the values of its cells,
+     * so earlier changes can no longer be undone.
+     *
+     * @param cells A mapping of cell locations to the expression to insert at that location.
+     * @param known A mapping of the same cell locations to the value of their expression.
+     * @requires every known value is the value its expression would evaluate to
+     *           within the rest of the sheet, e.g. as saved from a sheet with the same formulas.
+     */
+    void restore(Map<CellLocation, Expression> cells, Map<CellLocation, Expression> known) {
+        settle();
+        history.clear();
+        for (Map.Entry<CellLocation, Expression> entry : cells.entrySet()) {
+            wire(entry.getKey());
+            updateUsage(entry.getKey(), entry.getValue());
+            setFormula(entry.getKey(), entry.getValue());
+        }
+        // ranges created while wiring may hold the values from before the restore
+        for (Map.Entry<CellLocation, Expression> entry : known.entrySet()) {
+            setValue(entry.getKey(), entry.getValue());
+            updateRanges(entry.getKey(), entry.getValue());
+        }
+        commit();
+        notifyUpdated(cells);
+    }
+
+    /**
+     * A set of cells to evaluate together.
+     *
+     * @param cells The cells of the level.
+     * @param independent Whether none of the cells depend upon each other.
+     */
+    private record Level(List<CellLocation> cells, boolean independent) {
+
+    }
+
+    /**
+     * Levels of cells evaluated together, in order, into their own state.
+     *
+     * @param levels The levels to evaluate.
+     * @param state The state the values of the cells are assigned to.
+     * @param assigned Every cell assigned so far, whose ranges are restored if evaluation fails.
+     * @param failed Every cell left out so far, see {@link #updateEach(Map)}.
+     */
+    private record Evaluation(List<Level> levels, SheetState state,
+                              List<CellLocation> assigned, Set<CellLocation> failed) {
+
+        private Evaluation(List<Level> levels, SheetState state) {
+            this(levels, state, new ArrayList<>(), new HashSet<>());
+        }
+    }
+
+    /**
+     * Split the levels of an update into evaluations that may run in parallel,
+     * by the connected components of their cells, see {@link Components}.
+     * Small updates, and updates of sheets whose store cannot be read from many threads
+     * at once, are evaluated as a single evaluation.
+     */
+    private List<Evaluation> split(List<Level> levels) {
+        int cells = 0;
+        for (Level level : levels) {
+            cells += level.cells().size();
+        }
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        if (cells < PARALLEL_CELLS || parallelism < 2 || !store.isConcurrentlyReadable()) {
+            return List.of(new Evaluation(levels, createState()));
+        }
+
+        if (components.isStale()) {
+            components.rebuild(usages, ranges.values());
+        }
+        // a cell within a range is in the component of the range's users
+        for (Level level : levels) {
+            for (CellLocation location : level.cells()) {
+                for (RangeTree tree : rangeIndex.covering(location)) {
+                    components.union(tree, location);
+                }
+            }
+        }
+        Map<Object, List<Level>> byComponent = new HashMap<>();
+        Map<Object, Integer> sizes = new HashMap<>();
+        for (Level level : levels) {
+            Map<Object, List<CellLocation>> parts = new HashMap<>();
+            for (CellLocation location : level.cells()) {
+                parts.computeIfAbsent(components.find(location), key -> new ArrayList<>())
+                        .add(location);
+            }
+            for (Map.Entry<Object, List<CellLocation>> part : parts.entrySet()) {
+                byComponent.computeIfAbsent(part.getKey(), key -> new ArrayList<>())
+                        .add(new Level(part.getValue(), level.independent()));
+                sizes.merge(part.getKey(), part.getValue().size(), Integer::sum);
+            }
+        }
+        if (byComponent.size() < 2) {
+            return List.of(new Evaluation(levels, createState()));
+        }
 
-        // no type error, update the state
-        updateUsage(location, cell);
-        formulas.put(location, cell);
-        for (CellLocation existing : values.keySet()) {
-            if (state.containsKey(existing.toString())) {
-                values.put(existing, state.get(existing.toString()));
+        // give the largest components out first, each to the evaluation with the fewest cells
+        List<Object> order = new ArrayList<>(byComponent.keySet());
+        order.sort(Comparator.comparing(sizes::get, Comparator.reverseOrder()));
+        int count = Math.min(parallelism, order.size());
+        List<Evaluation> evaluations = new ArrayList<>(count);
+        int[] loads = new int[count];
+        for (int i = 0; i < count; i++) {
+            evaluations.add(new Evaluation(new ArrayList<>(), createState()));
+        }
+        for (Object component : order) {
+            int least = 0;
+            for (int i = 1; i < count; i++) {
+                if (loads[i] < loads[least]) {
+                    least = i;
+                }
             }
+            evaluations.get(least).levels().addAll(byComponent.get(component));
+            loads[least] += sizes.get(component);
         }
+        return evaluations;
     }
 
-    private void applyUpdate(Map<String, Expression> state, CellLocation location)
+    /**
+     * Evaluate every cell of the evaluations, running them in parallel if there are several.
+     * Evaluations share nothing but what the sheet holds, which is only read meanwhile.
+     *
+     * @param evaluate Evaluates a single evaluation, returning the first type error thrown.
+     * @return The first type error thrown, or null if every cell was evaluated.
+     */
+    private TypeError evaluate(List<Evaluation> evaluations,
+                               Function<Evaluation, TypeError> evaluate) {
+        if (evaluations.size() == 1) {
+            return evaluate.apply(evaluations.get(0));
+        }
+        List<ForkJoinTask<TypeError>> tasks = new ArrayList<>(evaluations.size());
+        for (Evaluation evaluation : evaluations) {
+            tasks.add(ForkJoinPool.commonPool().submit(() -> evaluate.apply(evaluation)));
+        }
+        TypeError failure = null;
+        for (ForkJoinTask<TypeError> task : tasks) {
+            TypeError error = task.join();
+            if (failure == null) {
+                failure = error;
+            }
+        }
+        return failure;
+    }
+
+    private TypeError evaluate(Evaluation evaluation) {
+        try {
+            for (Level level : evaluation.levels()) {
+                evaluate(level.cells(), level.independent(),
+                        evaluation.state(), evaluation.assigned());
+            }
+            return null;
+        } catch (TypeError e) {
+            return e;
+        }
+    }
+
+    /**
+     * Evaluate every cell of the evaluation, leaving out each cell that fails to evaluate
+     * along with every cell that transitively uses it, see {@link #updateEach(Map)}.
+     *
+     * @return The first type error thrown, or null if no cell was left out.
+     */
+    private TypeError evaluateEach(Evaluation evaluation) {
+        TypeError failure = null;
+        for (Level level : evaluation.levels()) {
+            List<CellLocation> cells = level.cells();
+            if (!evaluation.failed().isEmpty()) {
+                cells = new ArrayList<>(cells);
+                cells.removeIf(evaluation.failed()::contains);
+            }
+            try {
+                evaluate(cells, level.independent(), evaluation.state(), evaluation.assigned());
+            } catch (TypeError e) {
+                // find the cells that fail by evaluating the level again one cell at a time
+                TypeError error = evaluateEach(cells, evaluation);
+                failure = failure == null ? error : failure;
+            }
+        }
+        return failure;
+    }
+
+    /**
+     * Evaluate cells of a level one at a time, leaving out each cell that fails to evaluate.
+     *
+     * @return The first type error thrown, or null if no cell was left out.
+     */
+    private TypeError evaluateEach(List<CellLocation> cells, Evaluation evaluation) {
+        TypeError failure = null;
+        for (CellLocation location : cells) {
+            if (evaluation.failed().contains(location)) {
+                // uses a cell of the same level, within a reference loop, that failed
+                continue;
+            }
+            try {
+                evaluate(List.of(location), false, evaluation.state(), evaluation.assigned());
+            } catch (TypeError e) {
+                failure = failure == null ? e : failure;
+                leaveOut(location, evaluation.failed());
+            }
+        }
+        return failure;
+    }
+
+    /**
+     * Leave out a cell that failed to evaluate, along with every cell that transitively uses it.
+     * Every such cell was wired while the evaluation levels were determined,
+     * so this only reads the dependencies of the sheet.
+     */
+    private void leaveOut(CellLocation location, Set<CellLocation> failed) {
+        Deque<CellLocation> search = new ArrayDeque<>();
+        failed.add(location);
+        search.push(location);
+        while (!search.isEmpty()) {
+            for (CellLocation dependant : dependants(search.pop())) {
+                if (failed.add(dependant)) {
+                    search.push(dependant);
+                }
+            }
+        }
+    }
+
+    /**
+     * Evaluate cells of a level in order, assigning their values to the state.
+     *
+     * @param cells Cells of a single level.
+     * @param independent Whether none of the cells depend upon each other.
+     * @param state The state the values of the cells are assigned to.
+     * @param assigned Every cell assigned so far, which the evaluated cells are added to.
+     * @throws TypeError If any cell fails to evaluate, or evaluates to a range.
+     */
+    private void evaluate(List<CellLocation> cells, boolean independent,
+                          SheetState state, List<CellLocation> assigned)
             throws TypeError {
-        for (CellLocation usage : usages.get(location)) {
-            Expression value = formulas.get(usage).value(state);
-            state.put(usage.toString(), value);
-            applyUpdate(state, usage);
+        if (independent) {
+            cells = ColumnBlocks.evaluate(cells, this::formula, state,
+                    block -> assigned(block, assigned));
+        }
+        for (CellLocation location : cells) {
+            Expression value = formula(location).value(state);
+            if (value instanceof RangeValue) {
+                // range values of the sheet change in place, so a cell cannot hold one
+                throw new TypeError("A range cannot be the value of a cell: " + location);
+            }
+            assign(state, location, value, assigned);
+        }
+    }
+
+    /**
+     * Determine the order to evaluate the given cells and every cell that transitively uses them.
+     * <p>
+     * The cells are split into levels, where the first level holds the cells
+     * that do not depend on any other affected cell, and every later level holds
+     * the cells whose affected dependencies are all in earlier levels.
+     * Cells within a reference loop never become ready, so they are placed in a final level.
+     */
+    private List<Level> evaluationLevels(Collection<CellLocation> changed) {
+        // every cell that transitively uses a changed cell
+        Map<CellLocation, Pending> affected = new HashMap<>();
+        Deque<Pending> search = new ArrayDeque<>();
+        for (CellLocation location : changed) {
+            if (!affected.containsKey(location)) {
+                Pending cell = new Pending(location, dependants(location));
+                affected.put(location, cell);
+                search.push(cell);
+            }
+        }
+        while (!search.isEmpty()) {
+            Pending cell = search.pop();
+            for (int i = 0; i < cell.dependants.length; i++) {
+                CellLocation usage = cell.dependants[i];
+                Pending dependant = affected.get(usage);
+                if (dependant == null) {
+                    dependant = new Pending(usage, dependants(usage));
+                    affected.put(usage, dependant);
+                    search.push(dependant);
+                }
+                cell.next[i] = dependant;
+                dependant.waiting++;
+            }
+        }
+
+        List<Level> levels = new ArrayList<>();
+        List<Pending> level = new ArrayList<>();
+        for (Pending cell : affected.values()) {
+            if (cell.waiting == 0) {
+                level.add(cell);
+            }
+        }
+        int evaluated = 0;
+        while (!level.isEmpty()) {
+            List<CellLocation> cells = new ArrayList<>(level.size());
+            List<Pending> next = new ArrayList<>();
+            for (Pending cell : level) {
+                cells.add(cell.location);
+                for (Pending dependant : cell.next) {
+                    if (--dependant.waiting == 0) {
+                        next.add(dependant);
+                    }
+                }
+            }
+            levels.add(new Level(cells, true));
+            evaluated += cells.size();
+            level = next;
+        }
+
+        if (evaluated < affected.size()) {
+            List<CellLocation> loop = new ArrayList<>();
+            for (Pending cell : affected.values()) {
+                if (cell.waiting > 0) {
+                    loop.add(cell.location);
+                }
+            }
+            levels.add(new Level(loop, false));
+        }
+        return levels;
+    }
+
+    /**
+     * An affected cell while determining the evaluation order,
+     * linked to the affected cells that directly use it.
+     */
+    private static class Pending {
+        private final CellLocation location;
+        private final CellLocation[] dependants;
+        private final Pending[] next;
+        private int waiting = 0;
+
+        private Pending(CellLocation location, Set<CellLocation> dependants) {
+            this.location = location;
+            this.dependants = dependants.toArray(new CellLocation[0]);
+            this.next = new Pending[this.dependants.length];
+        }
+    }
+
+    /**
+     * An update whose cells are evaluated a slice at a time, see {@link #recalculate(int, int, String)}.
+     * <p>
+     * The levels of the update are worked through in order, {@value #SLICE_CELLS} cells at a time,
+     * so a slice overruns its time by at most that many cells.
+     * Giving cells priority splits every level in two: the parts holding the cells given priority,
+     * and every cell they transitively depend upon, are evaluated first, followed by the rest.
+     * As no cell given priority depends upon the rest, each cell is still evaluated
+     * after the cells it depends upon.
+     */
+    private class SlicedRecalculation implements Recalculation {
+        private final Map<CellLocation, Expression> cells;
+        private final Map<CellLocation, Expression> previous;
+        private final Map<CellLocation, Expression> previousValues = new HashMap<>();
+        private final List<Level> levels;
+        private final SheetState state = createState();
+        private final List<CellLocation> assigned = new ArrayList<>();
+        private final Set<CellLocation> affected = new HashSet<>();
+        private final Set<CellLocation> calculating;
+        private final Deque<Level> work;
+        private int cursor;
+        private UpdateResponse response;
+
+        private SlicedRecalculation(Map<CellLocation, Expression> cells) {
+            this.cells = cells;
+            for (CellLocation location : cells.keySet()) {
+                previousValues.put(location, value(location));
+            }
+            this.previous = insert(cells);
+            this.levels = evaluationLevels(cells.keySet());
+            for (Level level : levels) {
+                affected.addAll(level.cells());
+            }
+            this.calculating = new HashSet<>(affected);
+            this.work = new ArrayDeque<>(levels);
+        }
+
+        @Override
+        public boolean step(long nanos) {
+            if (response != null) {
+                return true;
+            }
+            long start = System.nanoTime();
+            try {
+                while (!work.isEmpty()) {
+                    Level level = work.peek();
+                    int end = Math.min(cursor + SLICE_CELLS, level.cells().size());
+                    List<CellLocation> slice = level.cells().subList(cursor, end);
+                    evaluate(slice, level.independent(), state, assigned);
+                    slice.forEach(calculating::remove);
+                    cursor = end;
+                    if (cursor == level.cells().size()) {
+                        work.pop();
+                        cursor = 0;
+                    }
+                    if (!work.isEmpty() && System.nanoTime() - start >= nanos) {
+                        return false;
+                    }
+                }
+            } catch (TypeError e) {
+                finish(UpdateResponse.fail("Type error: " + e));
+                restoreRanges(assigned);
+                restoreFormulas(previous);
+                return true;
+            }
+            finish(UpdateResponse.success());
+            storeValues(state);
+            updated(previous, cells);
+            return true;
+        }
+
+        private void finish(UpdateResponse response) {
+            this.response = response;
+            calculating.clear();
+            work.clear();
+            pending = null;
+        }
+
+        @Override
+        public void prioritise(int firstRow, int firstColumn, int lastRow, int lastColumn) {
+            if (response != null) {
+                return;
+            }
+            CellRange region = new CellRange(new CellLocation(firstRow, firstColumn),
+                    new CellLocation(lastRow, lastColumn));
+            Set<CellLocation> wanted = new HashSet<>();
+            Deque<CellLocation> search = new ArrayDeque<>();
+            for (CellLocation location : calculating) {
+                if (region.contains(location)) {
+                    wanted.add(location);
+                    search.push(location);
+                }
+            }
+            if (wanted.isEmpty()) {
+                return;
+            }
+            Set<String> searched = new HashSet<>();
+            while (!search.isEmpty()) {
+                for (String dependency : formula(search.pop()).dependencies()) {
+                    Optional<CellLocation> reference = CellLocation.maybeReference(dependency);
+                    if (reference.isPresent() && calculating.contains(reference.get())
+                            && wanted.add(reference.get())) {
+                        search.push(reference.get());
+                    }
+                    Optional<CellRange> range = CellRange.maybeRange(dependency);
+                    if (range.isEmpty() || !searched.add(dependency)) {
+                        continue;
+                    }
+                    // look up whichever is smaller: the cells of the range, or the cells left
+                    Collection<CellLocation> within =
+                            (long) range.get().getWidth() * range.get().getHeight() < calculating.size()
+                                    ? range.get().locations()
+                                    : calculating;
+                    for (CellLocation location : within) {
+                        if (range.get().contains(location) && calculating.contains(location)
+                                && wanted.add(location)) {
+                            search.push(location);
+                        }
+                    }
+                }
+            }
+
+            work.clear();
+            cursor = 0;
+            List<Level> later = new ArrayList<>();
+            for (Level level : levels) {
+                List<CellLocation> first = new ArrayList<>();
+                List<CellLocation> rest = new ArrayList<>();
+                for (CellLocation location : level.cells()) {
+                    if (calculating.contains(location)) {
+                        (wanted.contains(location) ? first : rest).add(location);
+                    }
+                }
+                if (!first.isEmpty()) {
+                    work.add(new Level(first, level.independent()));
+                }
+                if (!rest.isEmpty()) {
+                    later.add(new Level(rest, level.independent()));
+                }
+            }
+            work.addAll(later);
+        }
+
+        @Override
+        public boolean isCalculating(int row, int column) {
+            return calculating.contains(new CellLocation(row, column));
+        }
+
+        @Override
+        public Optional<String> valueAt(int row, int column) {
+            CellLocation location = new CellLocation(row, column);
+            if (response != null || !affected.contains(location) || calculating.contains(location)) {
+                return Optional.empty();
+            }
+            return Optional.of(state.valueAt(location).render());
+        }
+
+        @Override
+        public UpdateResponse response() {
+            return response;
+        }
+    }
+
+    /**
+     * Undo the latest update of the spreadsheet, or batch of updates, that has not been undone.
+     * <p>
+     * The previous formulas of the updated cells are inserted again as a single update,
+     * so only those cells and the cells using them are recalculated, and the undone update
+     * may then be redone, see {@link #redo()}. Updates made before the spreadsheet was
+     * cleared, resized or loaded cannot be undone, nor can updates beyond the memory budget,
+     * see {@link #setUndoBudget(long)}.
+     *
+     * @return Information about the status of undoing, which fails with "Nothing to undo"
+     *         if there is no update to undo.
+     */
+    public UpdateResponse undo() {
+        settle();
+        return replay(history.startUndo(), "Nothing to undo");
+    }
+
+    /**
+     * Redo the latest undone update, as per {@link #undo()}.
+     * An undone update can no longer be redone once the spreadsheet is otherwise updated.
+     *
+     * @return Information about the status of redoing, which fails with "Nothing to redo"
+     *         if there is no update to redo.
+     */
+    public UpdateResponse redo() {
+        settle();
+        return replay(history.startRedo(), "Nothing to redo");
+    }
+
+    /**
+     * Limit the memory used to remember updates that may be undone or redone,
+     * forgetting the oldest updates once the limit is reached.
+     *
+     * @param bytes The estimated number of bytes of updates to remember.
+     */
+    public void setUndoBudget(long bytes) {
+        history.setBudget(bytes);
+    }
+
+    private UpdateResponse replay(Map<CellLocation, Expression> cells, String nothing) {
+        if (cells == null) {
+            return UpdateResponse.fail(nothing);
+        }
+        try {
+            update(cells);
+            return UpdateResponse.success();
+        } catch (TypeError e) {
+            return UpdateResponse.fail("Type error: " + e);
+        } finally {
+            history.finish();
+        }
+    }
+
+    /**
+     * Fill a range of cells with a single formula, as though it were written in the
+     * top-left cell of the range and copied to every other cell of the range.
+     * <p>
+     * The input string is parsed once into a template. Every cell of the range stores a
+     * {@link SharedFormula} of that template, offset from the top-left cell,
+     * so that cell references within the formula are relative to each cell.
+     * For example, filling A3:A6 with A2 + A1 results in A4 containing A3 + A2.
+     * <p>
+     * All the cells are inserted in a single update as per {@link #update(CellLocation, Expression)}.
+     * If the string cannot be parsed,
+     * then the update response must fail with "Unable to parse: [input]".
+     * If a cell reference would be moved outside the grid,
+     * then the update response must fail with "Reference out of bounds: [reference]".
+     * If a {@link TypeError} occurs,
+     * then the update response must fail with "Type error: [e]".
+     *
+     * @param range The range of cells to fill.
+     * @param input The formula of the top-left cell of the range.
+     * @requires range is within the bounds (row/columns) of the spreadsheet.
+     * @return Information about the status of performing the update.
+     */
+    public UpdateResponse fill(CellRange range, String input) {
+        Expression template;
+        try {
+            template = parser.parse(input);
+        } catch (ParseException e) {
+            return UpdateResponse.fail("Unable to parse: " + input);
+        }
+
+        int columnSpan = range.getWidth() - 1;
+        for (String dependency : template.dependencies()) {
+            List<CellLocation> corners = new ArrayList<>();
+            CellLocation.maybeReference(dependency).ifPresent(corners::add);
+            CellRange.maybeRange(dependency).ifPresent(dependencyRange -> {
+                corners.add(new CellLocation(dependencyRange.getFirstRow(), dependencyRange.getFirstColumn()));
+                corners.add(new CellLocation(dependencyRange.getLastRow(), dependencyRange.getLastColumn()));
+            });
+            for (CellLocation corner : corners) {
+                if (corner.getColumn() + columnSpan >= 26) {
+                    return UpdateResponse.fail("Reference out of bounds: " + dependency);
+                }
+            }
+        }
+
+        Map<CellLocation, Expression> cells = new HashMap<>();
+        for (int row = range.getFirstRow(); row <= range.getLastRow(); row++) {
+            for (int column = range.getFirstColumn(); column <= range.getLastColumn(); column++) {
+                cells.put(new CellLocation(row, column), new SharedFormula(template,
+                        row - range.getFirstRow(), column - range.getFirstColumn()));
+            }
+        }
+        try {
+            update(cells);
+            return UpdateResponse.success();
+        } catch (TypeError e) {
+            return UpdateResponse.fail("Type error: " + e);
+        }
+    }
+
+    /**
+     * Store a newly calculated value in the state,
+     * including within the value of every range covering the location.
+     */
+    private void assign(SheetState state, CellLocation location,
+                        Expression value, List<CellLocation> assigned) {
+        state.assign(location, value);
+        assigned.add(location);
+        updateRanges(location, value);
+    }
+
+    /**
+     * Record a block of cells whose values were assigned to the state at once,
+     * see {@link ColumnBlocks}, only building a constant per cell if ranges cover its column.
+     */
+    private void assigned(ColumnBlocks.Block block, List<CellLocation> assigned) {
+        assigned.addAll(block.cells());
+        if (rangeColumns.containsKey(block.column())) {
+            for (int i = 0; i < block.values().length; i++) {
+                updateRanges(block.cells().get(i), new Constant(block.values()[i]));
+            }
+        }
+    }
+
+    /**
+     * Store the formula of a cell, keeping track of every cell that is not the default.
+     */
+    private void setFormula(CellLocation location, Expression formula) {
+        if (isDefault(formula)) {
+            store.remove(location);
+        } else {
+            store.setFormula(location, formula);
+        }
+    }
+
+    /**
+     * Store the value of a cell. Cells holding the default formula are not stored,
+     * as their value is always the default expression.
+     */
+    private void setValue(CellLocation location, Expression value) {
+        if (store.formula(location) != null) {
+            store.setValue(location, value);
+        }
+    }
+
+    /**
+     * Whether a formula is equivalent to the default expression,
+     * i.e. is of the same type and renders the same.
+     */
+    private boolean isDefault(Expression formula) {
+        return formula == defaultExpression
+                || (formula.getClass() == defaultExpression.getClass()
+                    && formula.render().equals(defaultExpression.render()));
+    }
+
+    private void updateRanges(CellLocation location, Expression value) {
+        RangeColumn column = rangeColumns.get(location.getColumn());
+        if (column == null) {
+            return;
+        }
+        Expression previous = column.set(location.getRow(), value);
+        for (RangeTree tree : rangeIndex.covering(location)) {
+            tree.changed(location, previous, value);
         }
     }
 
     private void updateUsage(CellLocation location, Expression newExpression) {
         // remove all usages of old formula
-        Expression oldExpression = formulas.get(location);
+        Expression oldExpression = formula(location);
         for (String oldDep : oldExpression.dependencies()) {
             Optional<CellLocation> ref = CellLocation.maybeReference(oldDep);
-            if (ref.isPresent()) {
+            if (ref.isPresent() && usages.containsKey(ref.get())) {
                 usages.get(ref.get()).remove(location);
+                components.removed();
+            }
+            if (CellRange.maybeRange(oldDep).isPresent()) {
+                removeRangeUsage(oldDep, location);
+                components.removed();
             }
         }
 
+        addUsage(location, newExpression);
+    }
+
+    private void addUsage(CellLocation location, Expression newExpression) {
         // insert all new usages
         for (String dep : newExpression.dependencies()) {
             Optional<CellLocation> ref = CellLocation.maybeReference(dep);
             if (ref.isPresent()) {
-                usages.get(ref.get()).add(location);
+                usages.computeIfAbsent(ref.get(), key -> new HashSet<>()).add(location);
+                components.union(ref.get(), location);
+            }
+            Optional<CellRange> range = CellRange.maybeRange(dep);
+            if (range.isPresent()) {
+                addRangeUsage(dep, range.get(), location);
+            }
+        }
+    }
+
+    private void addRangeUsage(String dependency, CellRange range, CellLocation location) {
+        RangeTree tree = ranges.get(dependency);
+        if (tree == null) {
+            tree = new RangeTree(range, rangeColumns(range));
+            ranges.put(dependency, tree);
+            rangeIndex.add(tree);
+        }
+        tree.addUser(location);
+        components.union(tree, location);
+    }
+
+    private void removeRangeUsage(String dependency, CellLocation location) {
+        RangeTree tree = ranges.get(dependency);
+        if (tree != null && tree.removeUser(location)) {
+            ranges.remove(dependency);
+            rangeIndex.remove(tree);
+            int column = tree.getRange().getFirstColumn();
+            for (RangeColumn shared : tree.getColumns()) {
+                if (shared.release()) {
+                    rangeColumns.remove(column);
+                }
+                column++;
             }
         }
     }
 
+    /**
+     * The shared values of each column of a range, see {@link RangeColumn},
+     * loading the rows of the range within each column that are not yet loaded.
+     * A span of rows is read cell by cell if it holds fewer cells than the store,
+     * otherwise the stored cells within the span are read, so a large range over
+     * a sparse sheet does not read every cell it covers.
+     */
+    private RangeColumn[] rangeColumns(CellRange range) {
+        RangeColumn[] shared = new RangeColumn[range.getWidth()];
+        for (int i = 0; i < shared.length; i++) {
+            int column = range.getFirstColumn() + i;
+            RangeColumn values = rangeColumns.computeIfAbsent(column, key -> new RangeColumn());
+            values.retain();
+            values.load(range.getFirstRow(), range.getLastRow(), (firstRow, lastRow) -> {
+                int last = Math.min(lastRow, rows - 1);
+                if (firstRow > last) {
+                    return;
+                }
+                // cells that are not stored hold the default expression, which is only
+                // left out of the column if it is empty
+                if (defaultExpression instanceof Nothing
+                        && (long) last - firstRow + 1 >= store.size()) {
+                    for (CellLocation location : store.locations(firstRow, last)) {
+                        if (location.getColumn() == column) {
+                            values.set(location.getRow(), value(location));
+                        }
+                    }
+                    return;
+                }
+                for (int row = firstRow; row <= last; row++) {
+                    values.set(row, value(new CellLocation(row, column)));
+                }
+            });
+            shared[i] = values;
+        }
+        return shared;
+    }
+
+    /**
+     * The number of nodes held by the shared columns of every range in use,
+     * which bounds the memory used to summarise the ranges, see {@link RangeColumn}.
+     */
+    long rangeNodes() {
+        long nodes = 0;
+        for (RangeColumn column : rangeColumns.values()) {
+            nodes += column.nodes();
+        }
+        return nodes;
+    }
+
     /**
      * Create an appropriate string representation of the current spreadsheet.
      * A spreadsheet is represented as cells separated by pipes (|) and
@@ -381,11 +1766,12 @@ public class Sheet implements SheetView, SheetUpdate {
      * @return The string representation of the current spreadsheet.
      */
     public String encode() {
+        settle();
         StringJoiner builder = new StringJoiner("\n");
         for (int row = 0; row < rows; row++) {
             StringJoiner rowEncoding = new StringJoiner("|");
             for (int column = 0; column < columns; column++) {
-                rowEncoding.add(formulas.get(new CellLocation(row, column)).render());
+                rowEncoding.add(formula(new CellLocation(row, column)).render());
             }
             builder.add(rowEncoding.toString());
         }
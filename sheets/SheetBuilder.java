@@ -5,6 +5,7 @@ import sheep.parsing.Parser;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Supplier;
 
 /**
  * Builder pattern to construct {@link Sheet} instances.
@@ -32,6 +33,7 @@ public class SheetBuilder {
     private final Map<String, Expression> builtins = new HashMap<>();
     private final Parser parser;
     private final Expression defaultExpression;
+    private Supplier<? extends CellStore> stores = PersistentCellStore::new;
 
     /**
      * Construct an instance of SheetBuilder than will create
@@ -65,6 +67,26 @@ public class SheetBuilder {
         return this;
     }
 
+    /**
+     * Hold the cells of any sheet constructed by this builder instance
+     * in stores created by the given supplier, rather than in a {@link PersistentCellStore}.
+     * Each constructed sheet is given a new store.
+     *
+     * <pre>
+     * {@code
+     * Sheet sheet = new SheetBuilder(parser, exp)
+     *         .storeIn(OffHeapCellStore::new)
+     *         .empty(1000000, 25);
+     * }</pre>
+     *
+     * @param stores Creates an empty store for each constructed sheet.
+     * @return The current instance of the SheetBuilder.
+     */
+    public SheetBuilder storeIn(Supplier<? extends CellStore> stores) {
+        this.stores = stores;
+        return this;
+    }
+
     /**
      * Construct a new empty sheet with the given number of rows and columns.
      * <p>
@@ -85,7 +107,8 @@ public class SheetBuilder {
      * @return A new sheet with the appropriate built-ins and of the specified dimensions.
      */
     public Sheet empty(int rows, int columns) {
-        return new Sheet(parser, new HashMap<>(builtins), defaultExpression, rows, columns);
+        return new Sheet(parser, new HashMap<>(builtins), defaultExpression, rows, columns,
+                stores.get());
     }
 
 }
\ No newline at end of file
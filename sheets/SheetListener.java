@@ -0,0 +1,41 @@
+package sheep.sheets;
+
+import sheep.expression.Expression;
+
+import java.util.Map;
+
+/**
+ * A listener notified of every change made to a sheet, e.g. to record the changes in a journal.
+ * <p>
+ * Listeners are notified on the thread that changed the sheet, once the change has succeeded,
+ * so replaying the notified changes in order onto an equal sheet results in an equal sheet.
+ */
+public interface SheetListener {
+    /**
+     * Called when formulas have been inserted into the sheet.
+     *
+     * @param cells A mapping of each changed cell location to its new formula.
+     *              The mapping must not be modified or kept beyond the call.
+     */
+    void updated(Map<CellLocation, Expression> cells);
+
+    /**
+     * Called when the dimensions of the sheet have changed.
+     *
+     * @param rows The new number of rows.
+     * @param columns The new number of columns.
+     */
+    void resized(int rows, int columns);
+
+    /**
+     * Called when every cell of the sheet has been reset to the default formula.
+     */
+    void cleared();
+
+    /**
+     * Called when every cell of the sheet has been replaced at once,
+     * e.g. by opening a store that pages cells in from a file.
+     * The new cells are not listed, as reading them may be expensive.
+     */
+    void replaced();
+}
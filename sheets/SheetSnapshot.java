@@ -0,0 +1,162 @@
+package sheep.sheets;
+
+import sheep.expression.Expression;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * An unchanging copy of the populated cells of a sheet at a point in time.
+ * <p>
+ * Expressions are immutable, and cells are held in an immutable trie, see {@link CellTrie},
+ * so a sheet holding its cells in a {@link PersistentCellStore} is snapshot at no cost by
+ * keeping its current trie. A sheet whose store provides a view of its cells, see
+ * {@link CellStore#view()}, is snapshot by keeping the view, which may read the cells as the
+ * snapshot is read. Any other sheet copies references to the formula and value of
+ * each populated cell, at a cost proportional to the number of populated cells.
+ * A snapshot is taken on the thread that updates the sheet and may then be read from any
+ * thread, e.g. to save the sheet in the background while it continues to change.
+ */
+public class SheetSnapshot {
+    private final int rows;
+    private final int columns;
+    private final CellStore.View cells;
+    private final Expression defaultExpression;
+    private int size = -1;
+
+    /**
+     * Construct a new snapshot.
+     * <p>
+     * The trie may hold cells beyond the bounds of the sheet, e.g. once the sheet shrinks,
+     * which are left out of the snapshot, and cells without a value,
+     * which hold the default expression.
+     *
+     * @param rows The number of rows of the sheet.
+     * @param columns The number of columns of the sheet.
+     * @param cells The formula and value of every populated cell.
+     * @param defaultExpression The value of populated cells without a value.
+     */
+    SheetSnapshot(int rows, int columns, CellTrie cells, Expression defaultExpression) {
+        this(rows, columns, new CellStore.View() {
+            @Override
+            public Expression formula(CellLocation location) {
+                CellTrie.Cell cell = cells.get(location);
+                return cell == null ? null : cell.formula();
+            }
+
+            @Override
+            public Expression value(CellLocation location) {
+                CellTrie.Cell cell = cells.get(location);
+                return cell == null ? null : cell.value();
+            }
+
+            @Override
+            public void forEach(Consumer<CellLocation> action) {
+                cells.forEach(cell -> action.accept(cell.location()));
+            }
+        }, defaultExpression);
+    }
+
+    /**
+     * Construct a new snapshot over a view of the cells of a store.
+     * <p>
+     * As with a trie, the view may hold cells beyond the bounds of the sheet,
+     * which are left out of the snapshot, and cells without a value,
+     * which hold the default expression.
+     *
+     * @param rows The number of rows of the sheet.
+     * @param columns The number of columns of the sheet.
+     * @param cells The formula and value of every populated cell.
+     * @param defaultExpression The value of populated cells without a value.
+     */
+    SheetSnapshot(int rows, int columns, CellStore.View cells, Expression defaultExpression) {
+        this.rows = rows;
+        this.columns = columns;
+        this.cells = cells;
+        this.defaultExpression = defaultExpression;
+    }
+
+    /**
+     * The number of rows of the sheet when the snapshot was taken.
+     * @return The number of rows of the sheet.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * The number of columns of the sheet when the snapshot was taken.
+     * @return The number of columns of the sheet.
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * The number of populated cells within the snapshot.
+     * Cells are counted the first time this method is called.
+     *
+     * @return The number of populated cells.
+     */
+    public int size() {
+        if (size < 0) {
+            int[] count = new int[1];
+            cells.forEach(location -> {
+                if (contains(location)) {
+                    count[0]++;
+                }
+            });
+            size = count[0];
+        }
+        return size;
+    }
+
+    /**
+     * The locations of every populated cell within the snapshot, in row-major order.
+     * Sorting happens when this method is called, rather than when the snapshot is taken.
+     *
+     * @see Sheet#populatedCells()
+     * @return The location of every populated cell, ordered by row then column.
+     */
+    public List<CellLocation> populatedCells() {
+        List<CellLocation> populated = new ArrayList<>();
+        cells.forEach(location -> {
+            if (contains(location)) {
+                populated.add(location);
+            }
+        });
+        populated.sort(Comparator.comparingInt(CellLocation::getRow)
+                .thenComparingInt(CellLocation::getColumn));
+        return populated;
+    }
+
+    /**
+     * The formula of a populated cell when the snapshot was taken.
+     *
+     * @param location The location of a populated cell.
+     * @return The formula at the given cell location, or null if the cell was not populated.
+     */
+    public Expression formulaAt(CellLocation location) {
+        return contains(location) ? cells.formula(location) : null;
+    }
+
+    /**
+     * The value of a populated cell when the snapshot was taken.
+     *
+     * @param location The location of a populated cell.
+     * @return The value at the given cell location, or null if the cell was not populated.
+     */
+    public Expression valueAt(CellLocation location) {
+        if (formulaAt(location) == null) {
+            return null;
+        }
+        Expression value = cells.value(location);
+        return value == null ? defaultExpression : value;
+    }
+
+    private boolean contains(CellLocation location) {
+        return location.getRow() < rows && location.getColumn() < columns;
+    }
+}
@@ -0,0 +1,266 @@
+package sheep.sheets;
+
+import sheep.expression.Expression;
+import sheep.expression.basic.Constant;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * The state of a sheet during an update, as seen by the expressions being evaluated.
+ * <p>
+ * Rather than copying the value of every cell into a new map for each update,
+ * a sheet state looks identifiers up on demand: first among the values assigned
+ * during the update, then among the committed cell values, the ranges of the sheet
+ * and finally the built-ins. Values assigned to cells are kept by cell location,
+ * so the sheet may read them back with {@link #valueAt(CellLocation)}
+ * without rendering and parsing a reference for each cell. Creating a state therefore costs O(1) regardless of the
+ * size of the sheet, and values assigned to the state do not affect the sheet
+ * until the sheet commits them.
+ * <p>
+ * Blocks of cells evaluated column-wise, see {@link ColumnBlocks}, read and assign runs of
+ * numbers within a column at once: runs are read from the store of the sheet as primitives,
+ * see {@link CellStore#numbers(int, int, long[])}, and assigned runs are kept as primitive arrays,
+ * so no constant is built for a cell unless it is looked up on its own.
+ * <p>
+ * Iterating a sheet state visits the same sources lazily, so it costs nothing
+ * unless an expression iterates its state. Cells holding the default expression
+ * are not stored, so they are not visited, although they may be looked up.
+ */
+class SheetState extends AbstractMap<String, Expression> {
+    private final Function<CellLocation, Expression> values;
+    private final CellStore store;
+    private final Supplier<? extends Collection<CellLocation>> locations;
+    private final Map<String, ? extends Expression> ranges;
+    private final Map<String, Expression> builtins;
+    private final Map<CellLocation, Expression> assignedCells = new HashMap<>();
+    private final Map<Integer, BitSet> assignedRows = new HashMap<>();
+    private final Map<Integer, TreeMap<Integer, long[]>> assignedRuns = new HashMap<>();
+    private final Map<String, Expression> assigned = new HashMap<>();
+
+    /**
+     * Construct a new view over the values of a sheet.
+     *
+     * @param values The committed value of a cell, or null if the sheet has no such cell.
+     * @param store The store of the sheet, from which runs of committed numbers are read.
+     * @param locations The location of every stored cell, only read if the state is iterated.
+     * @param ranges The value of each range used within the sheet, keyed by the range identifier.
+     * @param builtins A mapping of built-in identifiers to expressions.
+     */
+    SheetState(Function<CellLocation, Expression> values, CellStore store,
+               Supplier<? extends Collection<CellLocation>> locations,
+               Map<String, ? extends Expression> ranges,
+               Map<String, Expression> builtins) {
+        this.values = values;
+        this.store = store;
+        this.locations = locations;
+        this.ranges = ranges;
+        this.builtins = builtins;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public Expression get(Object key) {
+        if (!(key instanceof String identifier)) {
+            return null;
+        }
+        Optional<CellLocation> location = CellLocation.maybeReference(identifier);
+        if (location.isPresent()) {
+            Expression value = valueAt(location.get());
+            if (value != null) {
+                return value;
+            }
+        }
+        Expression value = assigned.get(identifier);
+        if (value != null) {
+            return value;
+        }
+        value = ranges.get(identifier);
+        if (value != null) {
+            return value;
+        }
+        return builtins.get(identifier);
+    }
+
+    @Override
+    public Expression put(String key, Expression value) {
+        Optional<CellLocation> location = CellLocation.maybeReference(key);
+        if (location.isPresent()) {
+            return assign(location.get(), value);
+        }
+        return assigned.put(key, value);
+    }
+
+    /**
+     * The value of a cell within the state, as per {@link #get(Object)} for its reference.
+     *
+     * @param location The location of the cell.
+     * @return The value assigned to the cell during the update, otherwise its committed value,
+     *         or null if the sheet has no such cell.
+     */
+    Expression valueAt(CellLocation location) {
+        Expression value = assignedCells.get(location);
+        if (value != null) {
+            return value;
+        }
+        if (!assignedRuns.isEmpty()) {
+            TreeMap<Integer, long[]> runs = assignedRuns.get(location.getColumn());
+            Map.Entry<Integer, long[]> run = runs == null ? null : runs.floorEntry(location.getRow());
+            if (run != null && location.getRow() - run.getKey() < run.getValue().length) {
+                return new Constant(run.getValue()[location.getRow() - run.getKey()]);
+            }
+        }
+        return values.apply(location);
+    }
+
+    /**
+     * Read the values of consecutive cells of a column within the state, which must all be
+     * numbers, as per {@link #valueAt(CellLocation)} for each cell.
+     *
+     * @param column The column of the cells.
+     * @param firstRow The row of the first cell.
+     * @param numbers Receives the value of each cell, from the first row.
+     * @return True if every cell is a number, otherwise false,
+     *         in which case the entries of numbers are unspecified.
+     */
+    boolean numbers(int column, int firstRow, long[] numbers) {
+        if (firstRow < 0 || column < 0) {
+            return false;
+        }
+        BitSet missing = store.numbers(column, firstRow, numbers);
+        long end = (long) firstRow + numbers.length;
+        TreeMap<Integer, long[]> runs = assignedRuns.get(column);
+        if (runs != null) {
+            Integer from = runs.floorKey(firstRow);
+            for (Map.Entry<Integer, long[]> run
+                    : runs.tailMap(from == null ? firstRow : from, true).entrySet()) {
+                if (run.getKey() >= end) {
+                    break;
+                }
+                int start = Math.max(firstRow, run.getKey());
+                int stop = (int) Math.min(end, (long) run.getKey() + run.getValue().length);
+                if (start < stop) {
+                    System.arraycopy(run.getValue(), start - run.getKey(),
+                            numbers, start - firstRow, stop - start);
+                    missing.clear(start - firstRow, stop - firstRow);
+                }
+            }
+        }
+        BitSet rows = assignedRows.get(column);
+        if (rows != null) {
+            // cells assigned one at a time are read below, as they take precedence
+            for (int row = rows.nextSetBit(firstRow); row >= 0 && row < end;
+                    row = rows.nextSetBit(row + 1)) {
+                missing.set(row - firstRow);
+            }
+        }
+        for (int i = missing.nextSetBit(0); i >= 0; i = missing.nextSetBit(i + 1)) {
+            if (!(valueAt(new CellLocation(firstRow + i, column)) instanceof Constant constant)) {
+                return false;
+            }
+            numbers[i] = constant.getValue();
+        }
+        return true;
+    }
+
+    /**
+     * Assign a value to a cell within the state, as per {@link #put(String, Expression)}
+     * for its reference.
+     *
+     * @param location The location of the cell.
+     * @param value The value of the cell.
+     * @return The value previously assigned to the cell during the update, if any.
+     */
+    Expression assign(CellLocation location, Expression value) {
+        assignedRows.computeIfAbsent(location.getColumn(), key -> new BitSet())
+                .set(location.getRow());
+        return assignedCells.put(location, value);
+    }
+
+    /**
+     * Assign numbers to consecutive cells of a column within the state at once,
+     * e.g. once a block of cells is evaluated column-wise.
+     * Values assigned to a cell on its own take precedence over a run holding the cell.
+     *
+     * @param column The column of the cells.
+     * @param firstRow The row of the first cell.
+     * @param numbers The value of each cell, from the first row.
+     * @requires no cell of the run is within a run assigned before
+     */
+    void assign(int column, int firstRow, long[] numbers) {
+        assignedRuns.computeIfAbsent(column, key -> new TreeMap<>()).put(firstRow, numbers);
+    }
+
+    /**
+     * Receives a run of numbers assigned to consecutive cells of a column.
+     */
+    interface Run {
+        void accept(int column, int firstRow, long[] numbers);
+    }
+
+    /**
+     * Visit every value assigned within the state, e.g. to commit them to the sheet.
+     * Runs are visited before cells assigned on their own, which take precedence.
+     *
+     * @param runs Called with each run of numbers assigned at once.
+     * @param cells Called with each cell assigned on its own and its value.
+     */
+    void forEachAssigned(Run runs, BiConsumer<CellLocation, Expression> cells) {
+        for (Map.Entry<Integer, TreeMap<Integer, long[]>> column : assignedRuns.entrySet()) {
+            for (Map.Entry<Integer, long[]> run : column.getValue().entrySet()) {
+                runs.accept(column.getKey(), run.getKey(), run.getValue());
+            }
+        }
+        assignedCells.forEach(cells);
+    }
+
+    /**
+     * Every identifier of the state along with the expression it looks up to,
+     * read from the sources of the state as it is iterated.
+     */
+    @Override
+    public Set<Entry<String, Expression>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, Expression>> iterator() {
+                return entries().iterator();
+            }
+
+            @Override
+            public int size() {
+                return (int) entries().count();
+            }
+        };
+    }
+
+    /**
+     * The entries of every source, leaving out any entry hidden by an earlier source.
+     */
+    private Stream<Entry<String, Expression>> entries() {
+        Stream<Entry<String, Expression>> cells = Stream.concat(
+                        assignedCells.keySet().stream(), locations.get().stream())
+                .distinct()
+                .map(location -> Map.entry(location.toString(), valueAt(location)));
+        return Stream.of(cells, assigned.entrySet().stream(),
+                        ranges.entrySet().stream(), builtins.entrySet().stream())
+                .flatMap(source -> source)
+                .map(entry -> Map.entry(entry.getKey(), (Expression) entry.getValue()))
+                .filter(entry -> get(entry.getKey()) == entry.getValue());
+    }
+}
@@ -0,0 +1,178 @@
+package sheep.sheets;
+
+import sheep.core.SheetUpdate;
+import sheep.core.UpdateResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A front end that lets any thread update a sheet, by funnelling every update
+ * through a mailbox drained by a single writer thread.
+ * <p>
+ * The writer takes every update queued since it last ran, up to {@value #MAX_BATCH} of them,
+ * and inserts them into the sheet as a single batch, see {@link Sheet#batch()}, so the sheet
+ * is recalculated once per batch rather than once per update. The busier the mailbox,
+ * the larger the batches and the fewer recalculations per update. Updates of the same cell
+ * within a batch are applied in the order they were submitted, so the later one wins.
+ * <p>
+ * Each update completes with its own response: an input that cannot be parsed fails alone,
+ * and if a batch fails with a type error, its updates are applied one at a time instead,
+ * so only the updates causing a type error fail.
+ * <p>
+ * Nothing in this program updates a sheet through a writer: the graphical interface and
+ * the games update their sheet directly on the event dispatch thread, recalculating large
+ * updates a slice at a time there instead, see {@link Sheet#recalculate(int, int, String)}.
+ * A writer suits a program updating a sheet from threads of its own,
+ * e.g. one feeding in values as they arrive.
+ * <p>
+ * While a writer is open, the sheet must only be changed through it, including by opening
+ * another store or loading a file. Other threads may only read a sheet holding its cells
+ * in a persistent store, see {@link Sheet#committed()}. Any other store, such as the
+ * {@link MappedCellStore} of a sheet kept in a memory-mapped file, is not safe to use
+ * from two threads at once, so no other thread may read such a sheet while a writer is open.
+ */
+public class SheetWriter implements SheetUpdate, AutoCloseable {
+    /**
+     * The most updates inserted as a single batch
+     */
+    public static final int MAX_BATCH = 4096;
+
+    /**
+     * An update waiting in the mailbox. An update without an input stops the writer.
+     */
+    private record Pending(int row, int column, String input,
+                           CompletableFuture<UpdateResponse> response) {
+
+    }
+
+    private final Sheet sheet;
+    private final BlockingQueue<Pending> mailbox = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    /**
+     * Start a writer thread for a sheet.
+     *
+     * @param sheet The sheet to update, which must only be changed by the writer from now on.
+     */
+    public SheetWriter(Sheet sheet) {
+        this.sheet = sheet;
+        this.writer = new Thread(this::drain, "sheet-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queue an update of a cell, to be inserted into the sheet by the writer thread
+     * as per {@link Sheet#update(int, int, String)}.
+     *
+     * @param row The row index to update.
+     * @param column The column index to update.
+     * @param input The value as a string to insert.
+     * @return The status of performing the update, once the writer has performed it.
+     *         Fails with "Writer closed" if the writer was closed first.
+     */
+    public CompletableFuture<UpdateResponse> submit(int row, int column, String input) {
+        CompletableFuture<UpdateResponse> response = new CompletableFuture<>();
+        if (closed) {
+            response.complete(UpdateResponse.fail("Writer closed"));
+        } else {
+            mailbox.add(new Pending(row, column, input, response));
+        }
+        return response;
+    }
+
+    /**
+     * Queue an update of a cell and wait until the writer has performed it.
+     *
+     * @see #submit(int, int, String)
+     */
+    @Override
+    public UpdateResponse update(int row, int column, String input) {
+        return submit(row, column, input).join();
+    }
+
+    /**
+     * Stop accepting updates, and wait for the writer to perform every update already queued.
+     * If interrupted while waiting, stops waiting and keeps the interrupt status of the thread,
+     * while the writer goes on to perform the queued updates.
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            mailbox.add(new Pending(0, 0, null, null));
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        List<Pending> taken = new ArrayList<>();
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                taken.add(mailbox.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            mailbox.drainTo(taken, MAX_BATCH - 1);
+            for (int i = 0; i < taken.size() && !stopping; i++) {
+                if (taken.get(i).input() == null) {
+                    // updates submitted while closing are not performed
+                    for (Pending late : taken.subList(i + 1, taken.size())) {
+                        late.response().complete(UpdateResponse.fail("Writer closed"));
+                    }
+                    taken.subList(i, taken.size()).clear();
+                    stopping = true;
+                }
+            }
+            try {
+                apply(taken);
+            } catch (RuntimeException e) {
+                for (Pending pending : taken) {
+                    pending.response().completeExceptionally(e);
+                }
+            }
+            taken.clear();
+        }
+        for (Pending late : mailbox) {
+            late.response().complete(UpdateResponse.fail("Writer closed"));
+        }
+    }
+
+    private void apply(List<Pending> taken) {
+        UpdateBatch batch = sheet.batch();
+        List<Pending> parsed = new ArrayList<>(taken.size());
+        for (Pending pending : taken) {
+            UpdateResponse response = batch.add(pending.row(), pending.column(), pending.input());
+            if (response.isSuccess()) {
+                parsed.add(pending);
+            } else {
+                pending.response().complete(response);
+            }
+        }
+        if (parsed.isEmpty()) {
+            return;
+        }
+        UpdateResponse response = batch.apply();
+        if (response.isSuccess() || parsed.size() == 1) {
+            for (Pending pending : parsed) {
+                pending.response().complete(response);
+            }
+            return;
+        }
+        // the batch is unchanged, so find the updates causing the type error
+        for (Pending pending : parsed) {
+            pending.response().complete(
+                    sheet.update(pending.row(), pending.column(), pending.input()));
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package sheep.sheets;
+
+import sheep.expression.Expression;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A store holding the recently used tiles of a sheet in memory,
+ * and spilling every other tile to a local file under a memory budget.
+ * <p>
+ * Cells are stored as the fixed size records of {@link OffHeapCellStore}, grouped into tiles
+ * of {@value OffHeapCellStore#TILE_ROWS} rows by {@value OffHeapCellStore#TILE_COLUMNS}
+ * columns. Once more tiles are held than fit within the budget, the least recently used tile
+ * is written to a slot of the spill file and dropped, and is read back the next time one of
+ * its cells is used. A tile that has not changed since it was read back is dropped without
+ * being written again. Formulas and values that are not numbers stay on the heap,
+ * held once however many cells use them, so the budget only covers the records of tiles.
+ * <p>
+ * The spill file is a temporary file deleted once the store is closed,
+ * unless a file is given. Errors accessing the file are thrown as an
+ * {@link UncheckedIOException}.
+ * <pre>
+ * {@code
+ * Sheet sheet = new SheetBuilder(parser, exp)
+ *         .storeIn(() -> new SpillingCellStore(64L * 1024 * 1024))
+ *         .empty(1000000, 25);
+ * }</pre>
+ */
+public class SpillingCellStore implements CellStore {
+    private static final int TILE_ROWS = OffHeapCellStore.TILE_ROWS;
+    private static final int TILE_COLUMNS = OffHeapCellStore.TILE_COLUMNS;
+    private static final int TILE_CELLS = TILE_ROWS * TILE_COLUMNS;
+
+    /**
+     * The number of bytes of each tile, in memory and in the spill file
+     */
+    public static final int TILE_BYTES = TILE_CELLS * CellRecords.RECORD;
+
+    /**
+     * A tile of cells, the number of its cells that are stored, and where it is spilled.
+     */
+    private static class Tile {
+        /**
+         * The records of the tile, or null while the tile is spilled
+         */
+        private ByteBuffer records;
+        private int cells;
+
+        /**
+         * The slot of the spill file holding the tile, or -1 if it was never spilled
+         */
+        private long slot = -1;
+
+        /**
+         * Whether the records differ from those in the slot
+         */
+        private boolean dirty = true;
+    }
+
+    private final Path path;
+    private FileChannel channel;
+
+    /**
+     * Every tile with a stored cell, whether held or spilled
+     */
+    private final Map<Long, Tile> tiles = new HashMap<>();
+
+    /**
+     * The tiles held in memory, in order of least recent use
+     */
+    private final LinkedHashMap<Long, Tile> held = new LinkedHashMap<>(16, 0.75f, true);
+    private final Deque<Long> freeSlots = new ArrayDeque<>();
+    private final ExpressionTable expressions = new ExpressionTable();
+    private long slots;
+    private int budget;
+    private int size;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Creates an empty store spilling to a temporary file, created once a tile is first spilled.
+     *
+     * @param budget The number of bytes of tiles that may be held in memory.
+     * @requires budget &gt;= TILE_BYTES
+     */
+    public SpillingCellStore(long budget) {
+        this(null, budget);
+    }
+
+    /**
+     * Creates an empty store spilling to the given file, replacing anything in the file
+     * once a tile is first spilled. The file is kept once the store is closed.
+     *
+     * @param path The file that tiles are spilled to.
+     * @param budget The number of bytes of tiles that may be held in memory.
+     * @requires budget &gt;= TILE_BYTES
+     */
+    public SpillingCellStore(Path path, long budget) {
+        this.path = path;
+        setBudget(budget);
+    }
+
+    /**
+     * Change the number of bytes of tiles that may be held in memory,
+     * spilling the least recently used tiles straight away if the budget is exceeded.
+     *
+     * @param budget The number of bytes of tiles that may be held in memory.
+     * @requires budget &gt;= TILE_BYTES
+     */
+    public void setBudget(long budget) {
+        this.budget = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budget / TILE_BYTES));
+        evict();
+    }
+
+    /**
+     * The number of bytes of tiles that may be held in memory.
+     *
+     * @return The memory budget, rounded down to a whole number of tiles.
+     */
+    public long getBudget() {
+        return (long) budget * TILE_BYTES;
+    }
+
+    /**
+     * The number of bytes of tiles currently held in memory.
+     *
+     * @return The number of bytes of every held tile.
+     */
+    public long heldBytes() {
+        return (long) held.size() * TILE_BYTES;
+    }
+
+    /**
+     * The number of times a cell was used whose tile was held in memory.
+     *
+     * @return The number of hits.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * The number of times a tile was read back from the spill file.
+     *
+     * @return The number of misses.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * The number of times a tile was dropped from memory to fit the budget.
+     *
+     * @return The number of evictions.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public Expression formula(CellLocation location) {
+        ByteBuffer records = records(key(location));
+        return records == null ? null
+                : CellRecords.formula(records, record(location), expressions);
+    }
+
+    @Override
+    public Expression value(CellLocation location) {
+        ByteBuffer records = records(key(location));
+        return records == null ? null
+                : CellRecords.value(records, record(location), expressions);
+    }
+
+    @Override
+    public void setFormula(CellLocation location, Expression formula) {
+        long key = key(location);
+        Tile tile = tiles.get(key);
+        if (tile == null) {
+            tile = new Tile();
+            tile.records = ByteBuffer.allocate(TILE_BYTES);
+            tiles.put(key, tile);
+            held.put(key, tile);
+            evict();
+        }
+        ByteBuffer records = records(key);
+        tile.dirty = true;
+        if (CellRecords.setFormula(records, record(location), formula, expressions)) {
+            tile.cells++;
+            size++;
+        }
+    }
+
+    @Override
+    public void setValue(CellLocation location, Expression value) {
+        long key = key(location);
+        ByteBuffer records = records(key);
+        tiles.get(key).dirty = true;
+        CellRecords.setValue(records, record(location), value, expressions);
+    }
+
+    @Override
+    public void remove(CellLocation location) {
+        long key = key(location);
+        ByteBuffer records = records(key);
+        if (records == null
+                || !CellRecords.remove(records, record(location), expressions, expressions)) {
+            return;
+        }
+        Tile tile = tiles.get(key);
+        tile.dirty = true;
+        size--;
+        if (--tile.cells == 0) {
+            tiles.remove(key);
+            held.remove(key);
+            if (tile.slot >= 0) {
+                freeSlots.push(tile.slot);
+            }
+        }
+    }
+
+    /**
+     * Reads every spilled tile in turn, without holding them in memory.
+     */
+    @Override
+    public Collection<CellLocation> locations() {
+        List<CellLocation> locations = new ArrayList<>(size);
+        ByteBuffer scratch = null;
+        for (Map.Entry<Long, Tile> entry : tiles.entrySet()) {
+            int top = (int) (entry.getKey() >> 32) * TILE_ROWS;
+            int left = (int) (long) entry.getKey() * TILE_COLUMNS;
+            ByteBuffer records = entry.getValue().records;
+            if (records == null) {
+                if (scratch == null) {
+                    scratch = ByteBuffer.allocate(TILE_BYTES);
+                }
+                read(entry.getValue().slot, scratch);
+                records = scratch;
+            }
+            for (int cell = 0; cell < TILE_CELLS; cell++) {
+                if (CellRecords.isStored(records, cell * CellRecords.RECORD)) {
+                    locations.add(new CellLocation(top + cell / TILE_COLUMNS,
+                            left + cell % TILE_COLUMNS));
+                }
+            }
+        }
+        return locations;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Also empties the spill file.
+     */
+    @Override
+    public void clear() {
+        tiles.clear();
+        held.clear();
+        freeSlots.clear();
+        expressions.clear();
+        slots = 0;
+        size = 0;
+        if (channel != null) {
+            try {
+                channel.truncate(0);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Closes the spill file, deleting it if it is temporary.
+     */
+    @Override
+    public void close() {
+        clear();
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                channel = null;
+            }
+        }
+    }
+
+    private static long key(CellLocation location) {
+        return (long) (location.getRow() / TILE_ROWS) << 32 | (location.getColumn() / TILE_COLUMNS);
+    }
+
+    private static int record(CellLocation location) {
+        return ((location.getRow() % TILE_ROWS) * TILE_COLUMNS
+                + location.getColumn() % TILE_COLUMNS) * CellRecords.RECORD;
+    }
+
+    /**
+     * Returns the records of a tile, reading the tile back from the spill file if needed,
+     * or null if no cell of the tile is stored.
+     */
+    private ByteBuffer records(long key) {
+        Tile tile = held.get(key);
+        if (tile != null) {
+            hits++;
+            return tile.records;
+        }
+        tile = tiles.get(key);
+        if (tile == null) {
+            return null;
+        }
+        misses++;
+        tile.records = ByteBuffer.allocate(TILE_BYTES);
+        read(tile.slot, tile.records);
+        tile.dirty = false;
+        held.put(key, tile);
+        evict();
+        return tile.records;
+    }
+
+    /**
+     * Spills the least recently used tiles until the held tiles fit within the budget.
+     */
+    private void evict() {
+        Iterator<Tile> oldest = held.values().iterator();
+        while (held.size() > budget) {
+            Tile tile = oldest.next();
+            oldest.remove();
+            if (tile.dirty) {
+                if (tile.slot < 0) {
+                    tile.slot = freeSlots.isEmpty() ? slots++ : freeSlots.pop();
+                }
+                write(tile.slot, tile.records);
+            }
+            tile.records = null;
+            evictions++;
+        }
+    }
+
+    private void read(long slot, ByteBuffer records) {
+        records.clear();
+        try {
+            long position = slot * TILE_BYTES;
+            while (records.hasRemaining()) {
+                if (channel.read(records, position + records.position()) < 0) {
+                    throw new IOException("Spilled tile " + slot + " is truncated");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void write(long slot, ByteBuffer records) {
+        ByteBuffer all = records.duplicate().clear();
+        try {
+            long position = slot * TILE_BYTES;
+            while (all.hasRemaining()) {
+                channel().write(all, position + all.position());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the spill file, opening it the first time a tile is spilled.
+     */
+    private FileChannel channel() throws IOException {
+        if (channel == null) {
+            if (path == null) {
+                channel = FileChannel.open(Files.createTempFile("sheet", ".spill"),
+                        StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.DELETE_ON_CLOSE);
+            } else {
+                channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+            }
+        }
+        return channel;
+    }
+}
@@ -0,0 +1,336 @@
+package sheep.sheets;
+
+import sheep.core.Recalculation;
+import sheep.core.UpdateResponse;
+import sheep.expression.Expression;
+import sheep.expression.TypeError;
+import sheep.parsing.Parser;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * A sheet that may be updated from many threads at once, evaluating updates of unrelated
+ * parts of the sheet in parallel.
+ * <p>
+ * The rows of the sheet are split into stripes of {@code stripeRows} rows, and each stripe
+ * is guarded by a lock, with stripes beyond the number of locks sharing locks in turn.
+ * An update first finds every cell it touches, see {@link Sheet#touchedBy(Map)}: the updated
+ * cells, every cell using them, and everything those cells depend upon. It then holds the
+ * locks of those stripes, always taken in ascending order so that updates never deadlock,
+ * until it is done. Updates whose cells are not connected therefore hold disjoint stripes,
+ * unless their cells share a stripe.
+ * <p>
+ * Storing formulas, wiring dependencies and storing values change structures shared by the
+ * whole sheet, so each update does them alone. Evaluating the cells, which is where a large
+ * recalculation spends its time, only reads the shared structures and changes cells within
+ * its own stripes, along with the columns of the ranges covering them, which are locked
+ * on their own, see {@link RangeColumn}. Updates holding disjoint stripes therefore evaluate
+ * at the same time.
+ * <p>
+ * Changes to the whole sheet, e.g. clearing it or undoing an update, hold every stripe.
+ * The sheet must hold its cells in a store that may be read from many threads while it is
+ * not being changed, e.g. a {@link PersistentCellStore}.
+ */
+public class StripedSheet extends Sheet {
+    /**
+     * The number of rows in a stripe, and the number of stripe locks, unless others are given
+     */
+    public static final int DEFAULT_STRIPE_ROWS = 64;
+    public static final int DEFAULT_STRIPES = 64;
+
+    private final int stripeRows;
+    private final ReentrantLock[] stripes;
+    private final ReentrantReadWriteLock structure = new ReentrantReadWriteLock();
+
+    /**
+     * Construct a new striped sheet holding its cells in a {@link PersistentCellStore}.
+     *
+     * @param parser The parser instance used to create expressions.
+     * @param builtins A mapping of built-in identifiers to expressions.
+     * @param defaultExpression The default expression to load in every cell.
+     * @param rows Amount of rows for the new sheet.
+     * @param columns Amount of columns for the new sheet.
+     * @requires rows &gt; 0
+     * @requires columns &gt; 0 &amp;&amp; columns &lt; 26
+     */
+    public StripedSheet(Parser parser, Map<String, Expression> builtins,
+                        Expression defaultExpression, int rows, int columns) {
+        this(parser, builtins, defaultExpression, rows, columns,
+                DEFAULT_STRIPE_ROWS, DEFAULT_STRIPES);
+    }
+
+    /**
+     * Construct a new striped sheet holding its cells in a {@link PersistentCellStore}.
+     *
+     * @param parser The parser instance used to create expressions.
+     * @param builtins A mapping of built-in identifiers to expressions.
+     * @param defaultExpression The default expression to load in every cell.
+     * @param rows Amount of rows for the new sheet.
+     * @param columns Amount of columns for the new sheet.
+     * @param stripeRows The number of rows guarded together by a lock.
+     * @param stripes The number of locks.
+     * @requires rows &gt; 0
+     * @requires columns &gt; 0 &amp;&amp; columns &lt; 26
+     * @requires stripeRows &gt; 0 &amp;&amp; stripes &gt; 0
+     */
+    public StripedSheet(Parser parser, Map<String, Expression> builtins,
+                        Expression defaultExpression, int rows, int columns,
+                        int stripeRows, int stripes) {
+        super(parser, builtins, defaultExpression, rows, columns, new PersistentCellStore());
+        this.stripeRows = stripeRows;
+        this.stripes = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+    }
+
+    @Override
+    void update(Map<CellLocation, Expression> cells) throws TypeError {
+        BitSet held = new BitSet(stripes.length);
+        try {
+            hold(held, cells);
+            structure.writeLock().lock();
+            try {
+                super.update(cells);
+            } finally {
+                structure.writeLock().unlock();
+            }
+        } finally {
+            release(held);
+        }
+    }
+
+    @Override
+    TypeError updateEach(Map<CellLocation, Expression> cells) {
+        BitSet held = new BitSet(stripes.length);
+        try {
+            hold(held, cells);
+            structure.writeLock().lock();
+            try {
+                return super.updateEach(cells);
+            } finally {
+                structure.writeLock().unlock();
+            }
+        } finally {
+            release(held);
+        }
+    }
+
+    /**
+     * Take the stripes of every cell touched by inserting the given cells, adding them to held.
+     */
+    private void hold(BitSet held, Map<CellLocation, Expression> cells) {
+        while (true) {
+            BitSet needed = stripesOf(cells);
+            needed.andNot(held);
+            if (needed.isEmpty()) {
+                return;
+            }
+            // the cells touched changed before the stripes were held, so take them again in order
+            release(held);
+            held.or(needed);
+            acquire(held);
+        }
+    }
+
+    /**
+     * Lets other updates evaluate, or read the sheet, while this update evaluates.
+     */
+    @Override
+    void startEvaluating() {
+        structure.readLock().lock();
+        structure.writeLock().unlock();
+    }
+
+    /**
+     * Takes back the structure to store the evaluated values.
+     * <p>
+     * A read lock cannot be upgraded, so the read lock is released before the write lock
+     * is taken, and other threads may change the sheet in between. This is safe as long as
+     * the stripes are held: any other update holds disjoint stripes, so it neither reads
+     * nor changes the cells read or evaluated by this update, see {@link #touchedBy(Map)},
+     * and changes to the whole sheet wait for every stripe. Reading the dependants of
+     * a cell, see {@link #usedBy(CellLocation)}, only records the dependencies of formulas
+     * already stored, without changing any cell.
+     */
+    @Override
+    void finishEvaluating() {
+        structure.readLock().unlock();
+        structure.writeLock().lock();
+    }
+
+    /**
+     * Performs the update straight away, as other updates could not run between slices.
+     */
+    @Override
+    public Recalculation recalculate(int row, int column, String input) {
+        return Recalculation.finished(update(row, column, input));
+    }
+
+    @Override
+    void restore(Map<CellLocation, Expression> cells, Map<CellLocation, Expression> known) {
+        exclusively(() -> super.restore(cells, known));
+    }
+
+    @Override
+    public void clear() {
+        exclusively(super::clear);
+    }
+
+    @Override
+    public void open(CellStore store, int rows, int columns) {
+        exclusively(() -> super.open(store, rows, columns));
+    }
+
+    @Override
+    public void updateDimensions(int rows, int columns) {
+        exclusively(() -> super.updateDimensions(rows, columns));
+    }
+
+    @Override
+    public void addListener(SheetListener listener) {
+        exclusively(() -> super.addListener(listener));
+    }
+
+    @Override
+    public void removeListener(SheetListener listener) {
+        exclusively(() -> super.removeListener(listener));
+    }
+
+    @Override
+    public UpdateResponse undo() {
+        return exclusively(super::undo);
+    }
+
+    @Override
+    public UpdateResponse redo() {
+        return exclusively(super::redo);
+    }
+
+    @Override
+    public void setUndoBudget(long bytes) {
+        exclusively(() -> super.setUndoBudget(bytes));
+    }
+
+    @Override
+    public Expression formulaAt(CellLocation location) {
+        return reading(() -> super.formulaAt(location));
+    }
+
+    @Override
+    public Expression valueAt(CellLocation location) {
+        return reading(() -> super.valueAt(location));
+    }
+
+    @Override
+    public List<CellLocation> populatedCells() {
+        return reading(super::populatedCells);
+    }
+
+    @Override
+    public SheetSnapshot snapshot() {
+        return reading(super::snapshot);
+    }
+
+    @Override
+    public SheetSnapshot snapshot(CellRange range) {
+        return reading(() -> super.snapshot(range));
+    }
+
+    @Override
+    public String encode() {
+        return reading(super::encode);
+    }
+
+    /**
+     * Records any dependencies not yet recorded, so the sheet is not read meanwhile.
+     */
+    @Override
+    public Set<CellLocation> usedBy(CellLocation location) {
+        structure.writeLock().lock();
+        try {
+            return super.usedBy(location);
+        } finally {
+            structure.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The stripes of every cell touched by inserting the given cells.
+     */
+    private BitSet stripesOf(Map<CellLocation, Expression> cells) {
+        List<CellRange> touched;
+        structure.writeLock().lock();
+        try {
+            touched = touchedBy(cells);
+        } finally {
+            structure.writeLock().unlock();
+        }
+        BitSet needed = new BitSet(stripes.length);
+        for (CellRange range : touched) {
+            int first = range.getFirstRow() / stripeRows;
+            int last = range.getLastRow() / stripeRows;
+            if (last - first + 1 >= stripes.length) {
+                needed.set(0, stripes.length);
+                break;
+            }
+            for (int stripe = first; stripe <= last; stripe++) {
+                needed.set(stripe % stripes.length);
+            }
+        }
+        return needed;
+    }
+
+    private void acquire(BitSet held) {
+        for (int stripe = held.nextSetBit(0); stripe >= 0; stripe = held.nextSetBit(stripe + 1)) {
+            stripes[stripe].lock();
+        }
+    }
+
+    private void release(BitSet held) {
+        for (int stripe = held.nextSetBit(0); stripe >= 0; stripe = held.nextSetBit(stripe + 1)) {
+            stripes[stripe].unlock();
+        }
+    }
+
+    private void exclusively(Runnable change) {
+        exclusively(() -> {
+            change.run();
+            return null;
+        });
+    }
+
+    /**
+     * Performs a change to the whole sheet, once no update is in progress.
+     */
+    private <T> T exclusively(Supplier<T> change) {
+        BitSet all = new BitSet(stripes.length);
+        all.set(0, stripes.length);
+        acquire(all);
+        try {
+            structure.writeLock().lock();
+            try {
+                return change.get();
+            } finally {
+                structure.writeLock().unlock();
+            }
+        } finally {
+            release(all);
+        }
+    }
+
+    private <T> T reading(Supplier<T> read) {
+        structure.readLock().lock();
+        try {
+            return read.get();
+        } finally {
+            structure.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package sheep.sheets;
+
+import sheep.expression.Expression;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The changes that may be undone and redone on a sheet, within a memory budget.
+ * <p>
+ * Each update of a sheet is recorded as its inverse: the previous formula of every cell it
+ * changed, with locations packed into longs. Undoing an update inserts the previous formulas
+ * again as a single update, so only the changed cells and the cells using them are
+ * recalculated, and records the formulas it replaced as a change that may be redone.
+ * <p>
+ * The oldest changes are forgotten once the recorded changes exceed the budget.
+ * The budget counts the records of each change, rather than the formulas,
+ * as formulas are mostly shared with the sheet or with other changes.
+ */
+class UndoHistory {
+    /**
+     * The number of bytes of changes kept unless another budget is set
+     */
+    static final long DEFAULT_BUDGET = 16L * 1024 * 1024;
+
+    /**
+     * The estimated number of bytes of each change, and of each cell of a change
+     */
+    private static final long CHANGE_BYTES = 64;
+    private static final long CELL_BYTES = Long.BYTES + 8;
+
+    /**
+     * The previous formulas of the cells changed by an update.
+     */
+    private record Change(long[] locations, Expression[] formulas) {
+        private long bytes() {
+            return CHANGE_BYTES + locations.length * CELL_BYTES;
+        }
+    }
+
+    /**
+     * What the next recorded change undoes.
+     */
+    private enum Mode { UPDATE, UNDO, REDO }
+
+    private final Deque<Change> undos = new ArrayDeque<>();
+    private final Deque<Change> redos = new ArrayDeque<>();
+    private long budget;
+    private long bytes;
+    private Mode mode = Mode.UPDATE;
+
+    /**
+     * The change being undone or redone, put back if replaying it fails
+     */
+    private Change replaying;
+
+    UndoHistory(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Change the number of bytes of changes kept, forgetting the oldest changes
+     * straight away if the budget is exceeded.
+     */
+    void setBudget(long budget) {
+        this.budget = budget;
+        trim();
+    }
+
+    long getBudget() {
+        return budget;
+    }
+
+    /**
+     * The estimated number of bytes of every change kept.
+     */
+    long bytes() {
+        return bytes;
+    }
+
+    boolean canUndo() {
+        return !undos.isEmpty();
+    }
+
+    boolean canRedo() {
+        return !redos.isEmpty();
+    }
+
+    /**
+     * Record the previous formulas of the cells changed by a successful update.
+     * A change made other than by undoing or redoing can no longer be redone.
+     */
+    void record(Map<CellLocation, Expression> previous) {
+        long[] locations = new long[previous.size()];
+        Expression[] formulas = new Expression[previous.size()];
+        int i = 0;
+        for (Map.Entry<CellLocation, Expression> entry : previous.entrySet()) {
+            locations[i] = pack(entry.getKey());
+            formulas[i] = entry.getValue();
+            i++;
+        }
+        Change change = new Change(locations, formulas);
+        if (mode == Mode.UPDATE) {
+            for (Change redo : redos) {
+                bytes -= redo.bytes();
+            }
+            redos.clear();
+        }
+        if (change.bytes() > budget) {
+            // the change cannot be kept, so no older change can be undone either
+            clear();
+            return;
+        }
+        (mode == Mode.UNDO ? redos : undos).push(change);
+        bytes += change.bytes();
+        replaying = null;
+        trim();
+    }
+
+    /**
+     * Start undoing the latest change, which is recorded as a change to redo once its
+     * formulas are inserted successfully.
+     *
+     * @return The cells to insert, or null if there is nothing to undo.
+     */
+    Map<CellLocation, Expression> startUndo() {
+        return start(undos, Mode.UNDO);
+    }
+
+    /**
+     * Start redoing the latest undone change, as per {@link #startUndo()}.
+     *
+     * @return The cells to insert, or null if there is nothing to redo.
+     */
+    Map<CellLocation, Expression> startRedo() {
+        return start(redos, Mode.REDO);
+    }
+
+    /**
+     * Finish undoing or redoing, putting the change back if its formulas were not inserted.
+     */
+    void finish() {
+        if (replaying != null) {
+            (mode == Mode.UNDO ? undos : redos).push(replaying);
+            bytes += replaying.bytes();
+            replaying = null;
+        }
+        mode = Mode.UPDATE;
+    }
+
+    /**
+     * Forget every change, e.g. once the cells of the sheet are replaced.
+     */
+    void clear() {
+        undos.clear();
+        redos.clear();
+        replaying = null;
+        bytes = 0;
+    }
+
+    private Map<CellLocation, Expression> start(Deque<Change> changes, Mode mode) {
+        Change change = changes.poll();
+        if (change == null) {
+            return null;
+        }
+        bytes -= change.bytes();
+        this.mode = mode;
+        replaying = change;
+        Map<CellLocation, Expression> cells = new HashMap<>(change.locations.length * 4 / 3 + 1);
+        for (int i = 0; i < change.locations.length; i++) {
+            cells.put(unpack(change.locations[i]), change.formulas[i]);
+        }
+        return cells;
+    }
+
+    /**
+     * Forget the oldest changes to undo, then to redo, until the budget is met.
+     */
+    private void trim() {
+        while (bytes > budget && !undos.isEmpty()) {
+            bytes -= undos.pollLast().bytes();
+        }
+        while (bytes > budget && !redos.isEmpty()) {
+            bytes -= redos.pollLast().bytes();
+        }
+    }
+
+    private static long pack(CellLocation location) {
+        return (long) location.getRow() << 32 | location.getColumn();
+    }
+
+    private static CellLocation unpack(long location) {
+        return new CellLocation((int) (location >>> 32), (int) location);
+    }
+}
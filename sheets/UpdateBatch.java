@@ -0,0 +1,166 @@
+package sheep.sheets;
+
+import sheep.core.UpdateResponse;
+import sheep.expression.Expression;
+import sheep.expression.TypeError;
+import sheep.parsing.ParseException;
+import sheep.parsing.Parser;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A set of cells to insert into a sheet in a single bulk update.
+ * <p>
+ * Each cell is parsed as soon as it is added, so the input strings
+ * do not need to be held in memory until the batch is applied.
+ * Applying the batch records the dependencies of every cell once
+ * and evaluates every affected cell exactly once, see {@link Sheet#updateAll(Map)}.
+ * <p>
+ * Cells may be restored along with their values, e.g. when loading a file that stores them.
+ * If every cell of the batch has a restored value then applying the batch evaluates nothing,
+ * see {@link #restore(CellLocation, Expression, Expression)}.
+ * <p>
+ * The sheet is not changed until the batch is applied.
+ */
+public class UpdateBatch {
+    private final Sheet sheet;
+    private final Parser parser;
+    private final Map<CellLocation, Expression> cells = new HashMap<>();
+    private final Map<CellLocation, Expression> values = new HashMap<>();
+
+    /**
+     * Construct a new empty batch of updates to a sheet.
+     *
+     * @param sheet The sheet to update.
+     * @param parser The parser used to parse the inputs.
+     */
+    UpdateBatch(Sheet sheet, Parser parser) {
+        this.sheet = sheet;
+        this.parser = parser;
+    }
+
+    /**
+     * Parse an input and add it to the batch.
+     * Adding a cell location that is already within the batch replaces the earlier input.
+     * <p>
+     * If the input cannot be parsed, then the update response must fail
+     * with "Unable to parse: [input]" and the cell is not added.
+     *
+     * @param row The row index to update.
+     * @param column The column index to update.
+     * @param input The value as a string to insert.
+     * @return Information about the status of parsing the input.
+     */
+    public UpdateResponse add(int row, int column, String input) {
+        try {
+            CellLocation location = new CellLocation(row, column);
+            cells.put(location, parser.parse(input));
+            values.remove(location);
+            return UpdateResponse.success();
+        } catch (ParseException e) {
+            return UpdateResponse.fail("Unable to parse: " + input);
+        }
+    }
+
+    /**
+     * Add an expression which has already been built to the batch,
+     * e.g. a formula read from a binary file.
+     * Adding a cell location that is already within the batch replaces the earlier input.
+     *
+     * @param location The cell location to update.
+     * @param formula The formula to insert.
+     */
+    public void add(CellLocation location, Expression formula) {
+        cells.put(location, formula);
+        values.remove(location);
+    }
+
+    /**
+     * Add an expression to the batch along with its already known value.
+     * Adding a cell location that is already within the batch replaces the earlier input.
+     * <p>
+     * Restored values are trusted rather than checked, so they must be consistent
+     * with the formulas of the sheet once the batch is applied,
+     * e.g. values saved together with the formulas of every other cell of the sheet.
+     *
+     * @param location The cell location to update.
+     * @param formula The formula to insert.
+     * @param value The value of the formula.
+     */
+    public void restore(CellLocation location, Expression formula, Expression value) {
+        cells.put(location, formula);
+        values.put(location, value);
+    }
+
+    /**
+     * Add every cell of another batch to this batch.
+     * Cell locations within both batches take the input of the other batch.
+     * <p>
+     * Separate batches may be filled on separate threads, e.g. when parsing
+     * parts of a file in parallel, then combined into a single batch to apply.
+     *
+     * @param other The batch of cells to add.
+     */
+    public void addAll(UpdateBatch other) {
+        for (CellLocation location : other.cells.keySet()) {
+            values.remove(location);
+        }
+        cells.putAll(other.cells);
+        values.putAll(other.values);
+    }
+
+    /**
+     * The number of cells within the batch.
+     * @return The number of cells added to the batch.
+     */
+    public int size() {
+        return cells.size();
+    }
+
+    /**
+     * Insert every cell of the batch into the sheet.
+     * <p>
+     * If every cell has a restored value, the values are stored without evaluating any cell.
+     * Otherwise every cell, and every cell using them, is evaluated.
+     * <p>
+     * If a {@link TypeError} occurs, then the update response must fail
+     * with "Type error: [e]" and the sheet is unchanged.
+     *
+     * @requires every location is within the bounds (row/columns) of the spreadsheet.
+     * @return Information about the status of performing the update.
+     */
+    public UpdateResponse apply() {
+        if (values.size() == cells.size()) {
+            sheet.restore(cells, values);
+            return UpdateResponse.success();
+        }
+        try {
+            sheet.update(cells);
+        } catch (TypeError e) {
+            return UpdateResponse.fail("Type error: " + e);
+        }
+        return UpdateResponse.success();
+    }
+
+    /**
+     * Insert every cell of the batch into the sheet as per {@link #apply()},
+     * except that a cell causing a {@link TypeError} is left out, along with every cell
+     * that transitively uses it, rather than leaving out the whole batch.
+     * Every cell is still evaluated at most once, see {@link Sheet#updateEach(Map)}.
+     *
+     * @requires every location is within the bounds (row/columns) of the spreadsheet.
+     * @return Information about the status of performing the update,
+     *         which fails with the first type error if any cell was left out.
+     */
+    public UpdateResponse applyEach() {
+        if (values.size() == cells.size()) {
+            return apply();
+        }
+        TypeError error = sheet.updateEach(cells);
+        if (error != null) {
+            return UpdateResponse.fail("Type error: " + error);
+        }
+        return UpdateResponse.success();
+    }
+}
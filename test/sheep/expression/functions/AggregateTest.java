@@ -0,0 +1,121 @@
+package sheep.expression.functions;
+
+import org.junit.Before;
+import org.junit.Test;
+import sheep.expression.CoreFactory;
+import sheep.expression.Expression;
+import sheep.expression.TypeError;
+import sheep.expression.basic.Constant;
+import sheep.expression.basic.Nothing;
+import sheep.parsing.ParseException;
+import sheep.parsing.Parser;
+import sheep.parsing.SimpleParser;
+import sheep.sheets.Sheet;
+import sheep.sheets.SheetBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AggregateTest {
+    private final Parser parser = new SimpleParser(new CoreFactory());
+    private Sheet sheet;
+
+    @Before
+    public void setUp() {
+        sheet = new SheetBuilder(parser, new Nothing()).empty(20, 6);
+    }
+
+    private String value(int row, int column) {
+        return sheet.valueAt(row, column).getContent();
+    }
+
+    private String evaluate(String formula) {
+        assertTrue(sheet.update(19, 5, formula).isSuccess());
+        return value(19, 5);
+    }
+
+    @Test
+    public void emptyCellsAgreeInListsAndRanges() {
+        sheet.update(0, 0, "5");
+        sheet.update(2, 0, "-3");
+        for (String function : new String[] {"SUM", "MIN", "MAX", "COUNT"}) {
+            assertEquals(function, evaluate(function + "(A0:A2)"),
+                    evaluate(function + "(A0, A1, A2)"));
+        }
+        assertEquals("2", evaluate("SUM(A0, A1, A2)"));
+        assertEquals("-3", evaluate("MIN(A0, A1, A2)"));
+        assertEquals("5", evaluate("MAX(A0, A1, A2)"));
+        assertEquals("2", evaluate("COUNT(A0, A1, A2)"));
+    }
+
+    @Test
+    public void onlyEmptyCells() {
+        for (String function : new String[] {"SUM", "MIN", "MAX", "COUNT"}) {
+            assertEquals(function, "0", evaluate(function + "(B0, B1)"));
+            assertEquals(function, "0", evaluate(function + "(B0:B1)"));
+        }
+        sheet.update(1, 1, "-4");
+        assertEquals("-4", evaluate("MAX(B0, B1)"));
+        assertEquals("-4", evaluate("MAX(B0:B1)"));
+        assertEquals("1", evaluate("COUNT(B0, B1)"));
+    }
+
+    @Test
+    public void rangeAggregatesUnderEdit() {
+        sheet.update(0, 2, "SUM(A0:B9)");
+        sheet.update(1, 2, "MIN(A0:B9)");
+        sheet.update(2, 2, "MAX(A0:B9)");
+        sheet.update(3, 2, "COUNT(A0:B9)");
+
+        Random random = new Random(26);
+        Long[][] cells = new Long[10][2];
+        for (int edit = 0; edit < 300; edit++) {
+            int row = random.nextInt(10);
+            int column = random.nextInt(2);
+            if (random.nextInt(4) == 0) {
+                cells[row][column] = null;
+                assertTrue(sheet.update(row, column, "").isSuccess());
+            } else {
+                cells[row][column] = (long) random.nextInt(201) - 100;
+                assertTrue(sheet.update(row, column, cells[row][column].toString()).isSuccess());
+            }
+
+            long count = 0;
+            long sum = 0;
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (Long[] values : cells) {
+                for (Long cell : values) {
+                    if (cell != null) {
+                        count++;
+                        sum += cell;
+                        min = Math.min(min, cell);
+                        max = Math.max(max, cell);
+                    }
+                }
+            }
+            assertEquals(String.valueOf(sum), value(0, 2));
+            assertEquals(String.valueOf(count == 0 ? 0 : min), value(1, 2));
+            assertEquals(String.valueOf(count == 0 ? 0 : max), value(2, 2));
+            assertEquals(String.valueOf(count), value(3, 2));
+        }
+    }
+
+    @Test
+    public void largeRangeVisitsTheState() throws ParseException, TypeError {
+        Map<String, Expression> state = new HashMap<>();
+        state.put("A0", new Constant(3));
+        state.put("Z99999999", new Constant(4));
+        state.put("B7", new Nothing());
+        state.put("Z100000000", new Constant(100));
+
+        // a range of billions of cells, summarised from the few held by the state
+        assertEquals(new Constant(7), parser.parse("SUM(A0:Z99999999)").value(state));
+        assertEquals(new Constant(2), parser.parse("COUNT(A0:Z99999999)").value(state));
+        assertEquals(new Constant(3), parser.parse("MIN(A0:Z99999999, B7)").value(state));
+        assertEquals(new Constant(4), parser.parse("MAX(A0:B9, Z99999999)").value(state));
+    }
+}
@@ -0,0 +1,114 @@
+package sheep.features.files;
+
+import org.junit.Before;
+import org.junit.Test;
+import sheep.expression.CoreFactory;
+import sheep.expression.basic.Nothing;
+import sheep.parsing.SimpleParser;
+import sheep.sheets.CellLocation;
+import sheep.sheets.CellRange;
+import sheep.sheets.Sheet;
+import sheep.sheets.SheetBuilder;
+import sheep.sheets.UpdateBatch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BinaryFormatTest {
+    private final SheetBuilder builder = new SheetBuilder(new SimpleParser(new CoreFactory()),
+            new Nothing());
+    private Sheet sheet;
+
+    @Before
+    public void setUp() {
+        sheet = builder.empty(10, 4);
+        sheet.update(0, 0, "3");
+        sheet.update(1, 0, "A0 * 2");
+        sheet.update(3, 0, "-5");
+        sheet.update(0, 1, "SUM(A0:A3)");
+        sheet.update(1, 1, "MAX(A0, A2, 4)");
+        assertTrue(sheet.fill(CellRange.maybeRange("C0:C1").orElseThrow(), "A0 + 1").isSuccess());
+    }
+
+    private byte[] write(Sheet sheet) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new FileSaving(sheet).writeBinary(sheet.snapshot(), bytes, new AtomicInteger());
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read a file into a new sheet, as {@link Load} does.
+     */
+    private Sheet read(byte[] bytes) throws IOException, FileFormatException {
+        Sheet loaded = builder.empty(1, 1);
+        FileLoading loading = new FileLoading(loaded);
+        UpdateBatch batch = loading.readBinary(new ByteArrayInputStream(bytes));
+        loaded.updateDimensions(loading.getRows(), loading.getCols());
+        assertTrue(batch.applyEach().isSuccess());
+        return loaded;
+    }
+
+    @Test
+    public void roundTrip() throws IOException, FileFormatException {
+        Sheet loaded = read(write(sheet));
+        assertEquals(sheet.getRows(), loaded.getRows());
+        assertEquals(sheet.getColumns(), loaded.getColumns());
+        for (int row = 0; row < sheet.getRows(); row++) {
+            for (int column = 0; column < sheet.getColumns(); column++) {
+                CellLocation location = new CellLocation(row, column);
+                assertEquals(location.toString(), sheet.formulaAt(location).render(),
+                        loaded.formulaAt(location).render());
+                assertEquals(location.toString(), sheet.valueAt(row, column).getContent(),
+                        loaded.valueAt(row, column).getContent());
+            }
+        }
+
+        // restored values are kept up to date as the loaded sheet changes
+        loaded.update(0, 0, "10");
+        assertEquals("25", loaded.valueAt(0, 1).getContent());
+        assertEquals("11", loaded.valueAt(0, 2).getContent());
+        assertEquals("21", loaded.valueAt(1, 2).getContent());
+    }
+
+    @Test
+    public void corruptedChecksum() throws IOException {
+        byte[] bytes = write(sheet);
+        bytes[bytes.length - 1] ^= 1;
+        assertThrows(FileFormatException.class, () -> read(bytes));
+    }
+
+    /**
+     * A file holding a single cell whose formula is an operation with the given
+     * number of arguments, as a variable-length number.
+     */
+    private static byte[] operation(byte... count) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryFormat.Writer writer = new BinaryFormat.Writer(bytes);
+        writer.writeHeader(10, 4, 1);
+        writer.flush();
+        // the row and column of the cell, then an operation named SUM
+        bytes.write(new byte[] {0, 0, 3, 3});
+        bytes.write("SUM".getBytes(StandardCharsets.US_ASCII));
+        bytes.write(count);
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void argumentCountTooLarge() throws IOException {
+        // 2^31 - 1 arguments
+        byte[] bytes = operation((byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0x07);
+        assertThrows(FileFormatException.class, () -> read(bytes));
+    }
+
+    @Test
+    public void argumentCountNegative() throws IOException {
+        byte[] bytes = operation((byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0x01);
+        assertThrows(FileFormatException.class, () -> read(bytes));
+    }
+}
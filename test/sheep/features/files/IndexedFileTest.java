@@ -0,0 +1,129 @@
+package sheep.features.files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import sheep.expression.CoreFactory;
+import sheep.expression.Expression;
+import sheep.expression.basic.Nothing;
+import sheep.parsing.SimpleParser;
+import sheep.sheets.CellLocation;
+import sheep.sheets.Sheet;
+import sheep.sheets.SheetBuilder;
+import sheep.sheets.UpdateBatch;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class IndexedFileTest {
+    private static final int ROWS = 3 * IndexedFile.BLOCK_ROWS + 10;
+
+    private final SheetBuilder builder = new SheetBuilder(new SimpleParser(new CoreFactory()),
+            new Nothing());
+    private Path path;
+    private Sheet sheet;
+
+    @Before
+    public void setUp() throws IOException {
+        path = Files.createTempFile("indexed", ".sheep");
+        sheet = builder.empty(ROWS, 3);
+        UpdateBatch batch = sheet.batch();
+        for (int row = 0; row < ROWS; row += 3) {
+            batch.add(row, 0, String.valueOf(row));
+            batch.add(row, 1, "A" + row + " * 2");
+        }
+        batch.add(0, 2, "SUM(A0:A" + (ROWS - 1) + ")");
+        batch.add(1, 2, "B" + (ROWS - 1) + " + A0");
+        assertTrue(batch.apply().isSuccess());
+        try (OutputStream stream = Files.newOutputStream(path)) {
+            new FileSaving(sheet).writeIndexed(sheet.snapshot(), stream, new AtomicInteger());
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    private void assertSameCells(Sheet loaded) {
+        assertEquals(sheet.getRows(), loaded.getRows());
+        assertEquals(sheet.getColumns(), loaded.getColumns());
+        for (int row = 0; row < ROWS; row++) {
+            for (int column = 0; column < 3; column++) {
+                CellLocation location = new CellLocation(row, column);
+                assertEquals(location.toString(), sheet.formulaAt(location).render(),
+                        loaded.formulaAt(location).render());
+                assertEquals(location.toString(), sheet.valueAt(row, column).getContent(),
+                        loaded.valueAt(row, column).getContent());
+            }
+        }
+    }
+
+    @Test
+    public void roundTripRead() throws IOException, FileFormatException {
+        Sheet loaded = builder.empty(1, 1);
+        FileLoading loading = new FileLoading(loaded);
+        try (FileChannel channel = FileChannel.open(path)) {
+            UpdateBatch batch = loading.readIndexed(channel);
+            loaded.updateDimensions(loading.getRows(), loading.getCols());
+            assertTrue(batch.applyEach().isSuccess());
+        }
+        assertSameCells(loaded);
+    }
+
+    @Test
+    public void roundTripPaged() throws IOException, FileFormatException {
+        Sheet loaded = builder.empty(1, 1);
+        FileChannel channel = FileChannel.open(path);
+        assertTrue(new FileLoading(loaded).openPaged(channel));
+        assertSameCells(loaded);
+
+        // the dependencies of paged cells are kept up to date as the loaded sheet changes
+        long sum = Long.parseLong(loaded.valueAt(0, 2).getContent());
+        int last = (ROWS - 1) / 3 * 3;
+        assertTrue(loaded.update(last, 0, "1").isSuccess());
+        assertEquals(String.valueOf(sum - last + 1), loaded.valueAt(0, 2).getContent());
+        assertEquals("2", loaded.valueAt(last, 1).getContent());
+        loaded.clear();
+    }
+
+    @Test
+    public void concurrentReadsPageBlocksInAndOut() throws Exception {
+        PagedCellStore store = new PagedCellStore(
+                IndexedFile.open(FileChannel.open(path)), IndexedFile.BLOCK_ROWS / 2);
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> readers = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                Random random = new Random(thread);
+                readers.add(threads.submit(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        int row = random.nextInt(ROWS) / 3 * 3;
+                        Expression value = store.value(new CellLocation(row, 0));
+                        assertEquals(String.valueOf(row), value.render());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> reader : readers) {
+                reader.get();
+            }
+        } finally {
+            threads.shutdown();
+            store.clear();
+        }
+        assertEquals(0, store.getPagedCells());
+    }
+}
@@ -0,0 +1,148 @@
+package sheep.features.files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import sheep.expression.CoreFactory;
+import sheep.expression.basic.Nothing;
+import sheep.parsing.SimpleParser;
+import sheep.sheets.CellLocation;
+import sheep.sheets.CellRange;
+import sheep.sheets.Sheet;
+import sheep.sheets.SheetBuilder;
+import sheep.sheets.UpdateBatch;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TextFormatTest {
+    private final SheetBuilder builder = new SheetBuilder(new SimpleParser(new CoreFactory()),
+            new Nothing());
+    private Sheet sheet;
+    private Path path;
+
+    @Before
+    public void setUp() throws IOException {
+        sheet = builder.empty(10, 4);
+        sheet.update(0, 0, "3");
+        sheet.update(1, 0, "A0 * 2");
+        sheet.update(3, 0, "-5");
+        sheet.update(0, 1, "SUM(A0:A3)");
+        sheet.update(1, 1, "MAX(A0, A2, 4)");
+        assertTrue(sheet.fill(CellRange.maybeRange("C0:C1").orElseThrow(), "A0 + 1").isSuccess());
+        path = Files.createTempFile("text", ".sheep");
+        Files.writeString(path, write(sheet));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    private static String write(Sheet sheet) throws IOException {
+        StringWriter text = new StringWriter();
+        new FileSaving(sheet).writeText(sheet.snapshot(), text, new AtomicInteger());
+        return text.toString();
+    }
+
+    /**
+     * Read a file into a new sheet, as {@link Load} does.
+     */
+    private Sheet read() throws IOException, FileFormatException {
+        Sheet loaded = builder.empty(1, 1);
+        FileLoading loading = new FileLoading(loaded);
+        try (FileChannel channel = FileChannel.open(path)) {
+            UpdateBatch batch = loading.loadValues(channel);
+            loaded.updateDimensions(loading.getRows(), loading.getCols());
+            assertTrue(batch.applyEach().isSuccess());
+        }
+        return loaded;
+    }
+
+    private void assertSameCells(Sheet loaded) {
+        assertEquals(sheet.getRows(), loaded.getRows());
+        assertEquals(sheet.getColumns(), loaded.getColumns());
+        for (int row = 0; row < sheet.getRows(); row++) {
+            for (int column = 0; column < sheet.getColumns(); column++) {
+                CellLocation location = new CellLocation(row, column);
+                assertEquals(location.toString(), sheet.formulaAt(location).render(),
+                        loaded.formulaAt(location).render());
+                assertEquals(location.toString(), sheet.valueAt(row, column).getContent(),
+                        loaded.valueAt(row, column).getContent());
+            }
+        }
+    }
+
+    @Test
+    public void onlyPopulatedCellsAreWritten() throws IOException {
+        String[] lines = write(sheet).split(System.lineSeparator());
+        assertEquals("10;4;7", lines[0]);
+        assertEquals(8, lines.length);
+    }
+
+    @Test
+    public void roundTripStreamed() throws IOException, FileFormatException {
+        Sheet loaded = read();
+        assertSameCells(loaded);
+
+        // the loaded formulas are recalculated as the loaded sheet changes
+        loaded.update(0, 0, "10");
+        assertEquals("25", loaded.valueAt(0, 1).getContent());
+        assertEquals("11", loaded.valueAt(0, 2).getContent());
+        assertEquals("21", loaded.valueAt(1, 2).getContent());
+    }
+
+    @Test
+    public void roundTripMapped() throws IOException, FileFormatException {
+        Sheet loaded = builder.empty(1, 1);
+        FileLoading loading = new FileLoading(loaded);
+        try (FileChannel channel = FileChannel.open(path)) {
+            UpdateBatch batch = loading.mapValues(channel);
+            loaded.updateDimensions(loading.getRows(), loading.getCols());
+            assertTrue(batch.applyEach().isSuccess());
+        }
+        assertSameCells(loaded);
+    }
+
+    @Test
+    public void roundTripRead() throws IOException, FileFormatException {
+        FileLoading loading = new FileLoading(builder.empty(1, 1));
+        Map<CellLocation, String> cells = loading.readValues(new StringReader(write(sheet)));
+        assertEquals(7, cells.size());
+        for (Map.Entry<CellLocation, String> cell : cells.entrySet()) {
+            assertEquals(sheet.formulaAt(cell.getKey()).render(), cell.getValue());
+        }
+    }
+
+    @Test
+    public void typeErrorLeavesOutItsCells() throws IOException, FileFormatException {
+        // the last cell adds to an empty cell, and is used by the cell before it
+        Files.writeString(path, String.join(System.lineSeparator(),
+                "10;4;4", "0;0;3", "1;0;A0 * 2", "2;0;A3 + 1", "4;0;A2 + A1", ""));
+        Sheet loaded = builder.empty(1, 1);
+        FileLoading loading = new FileLoading(loaded);
+        try (FileChannel channel = FileChannel.open(path)) {
+            UpdateBatch batch = loading.loadValues(channel);
+            loaded.updateDimensions(loading.getRows(), loading.getCols());
+            assertFalse(batch.applyEach().isSuccess());
+        }
+        assertEquals("3", loaded.valueAt(0, 0).getContent());
+        assertEquals("6", loaded.valueAt(1, 0).getContent());
+        assertEquals("", loaded.formulaAt(new CellLocation(2, 0)).render());
+        assertEquals("", loaded.valueAt(4, 0).getContent());
+    }
+
+    @Test
+    public void missingLines() throws IOException {
+        Files.writeString(path, String.join(System.lineSeparator(), "10;4;3", "0;0;3", ""));
+        assertThrows(FileFormatException.class, this::read);
+    }
+}
@@ -0,0 +1,90 @@
+package sheep.features.fill;
+
+import org.junit.Before;
+import org.junit.Test;
+import sheep.expression.CoreFactory;
+import sheep.expression.basic.Nothing;
+import sheep.parsing.SimpleParser;
+import sheep.sheets.Sheet;
+import sheep.sheets.SheetBuilder;
+import sheep.ui.Prompt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+public class FillDownTest {
+    private Sheet sheet;
+    private FillDown fill;
+
+    /**
+     * A prompt answering with the number of rows to fill, recording its messages.
+     */
+    private static class Answer implements Prompt {
+        private final String answer;
+        private final List<String> messages = new ArrayList<>();
+
+        private Answer(String answer) {
+            this.answer = answer;
+        }
+
+        @Override
+        public Optional<String> ask(String prompt) {
+            return Optional.of(answer);
+        }
+
+        @Override
+        public Optional<String[]> askMany(String[] prompts) {
+            return Optional.empty();
+        }
+
+        @Override
+        public boolean askYesNo(String prompt) {
+            return false;
+        }
+
+        @Override
+        public void message(String prompt) {
+            messages.add(prompt);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        sheet = new SheetBuilder(new SimpleParser(new CoreFactory()), new Nothing())
+                .empty(10, 2);
+        sheet.update(1, 0, "1");
+        sheet.update(2, 0, "A1 + 1");
+        fill = new FillDown(sheet);
+    }
+
+    private List<String> perform(String answer) {
+        Answer prompt = new Answer(answer);
+        fill.perform(2, 0, prompt);
+        return prompt.messages;
+    }
+
+    @Test
+    public void fillsTheRowsBelow() {
+        assertEquals(List.of(), perform("3"));
+        assertEquals("4", sheet.valueAt(4, 0).getContent());
+        assertEquals("", sheet.valueAt(5, 0).getContent());
+    }
+
+    @Test
+    public void stopsAtTheLastRow() {
+        // the selected row plus the count is beyond the largest int
+        assertEquals(List.of(), perform(String.valueOf(Integer.MAX_VALUE)));
+        assertEquals("9", sheet.valueAt(9, 0).getContent());
+    }
+
+    @Test
+    public void rejectsCountsBelowOne() {
+        for (String answer : new String[] {"0", "-3", String.valueOf(Integer.MIN_VALUE)}) {
+            assertEquals(List.of("Number of rows must be positive"), perform(answer));
+        }
+        assertEquals("", sheet.valueAt(3, 0).getContent());
+    }
+}
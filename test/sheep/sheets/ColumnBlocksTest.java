@@ -0,0 +1,185 @@
+package sheep.sheets;
+
+import org.junit.After;
+import org.junit.Test;
+import sheep.core.UpdateResponse;
+import sheep.expression.CoreFactory;
+import sheep.expression.Expression;
+import sheep.expression.basic.Nothing;
+import sheep.parsing.SimpleParser;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+public class ColumnBlocksTest {
+    private static final int ROWS = 1000;
+
+    private Path directory;
+
+    /**
+     * A store counting the values stored one cell at a time and in bulk.
+     */
+    private static class CountingStore extends PersistentCellStore {
+        private int cells = 0;
+        private int runs = 0;
+        private boolean storingRun = false;
+
+        @Override
+        public void setValue(CellLocation location, Expression value) {
+            if (!storingRun) {
+                cells++;
+            }
+            super.setValue(location, value);
+        }
+
+        @Override
+        public void setNumbers(int column, int firstRow, long[] numbers) {
+            runs++;
+            storingRun = true;
+            super.setNumbers(column, firstRow, numbers);
+            storingRun = false;
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (directory == null) {
+            return;
+        }
+        try (var files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    private Sheet sheet(Supplier<? extends CellStore> stores) {
+        return new SheetBuilder(new SimpleParser(new CoreFactory()), new Nothing())
+                .storeIn(stores)
+                .empty(ROWS, 4);
+    }
+
+    private Sheet mapped() throws IOException {
+        directory = Files.createTempDirectory("blocks");
+        Path path = directory.resolve("sheet.sheep");
+        return sheet(() -> {
+            try {
+                return MappedCellStore.create(path, ROWS, 4);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static CellRange range(String range) {
+        return CellRange.maybeRange(range).orElseThrow();
+    }
+
+    private static long value(Sheet sheet, int row, int column) {
+        return Long.parseLong(sheet.valueAt(row, column).getContent());
+    }
+
+    /**
+     * Fill a column of numbers, then columns computed from it column-wise,
+     * checking every value against one computed a cell at a time.
+     */
+    private void fillsMatchCellByCell(Sheet sheet) {
+        UpdateBatch batch = sheet.batch();
+        for (int row = 0; row < ROWS; row++) {
+            batch.add(row, 0, String.valueOf(row * 3 - 7));
+        }
+        assertTrue(batch.apply().isSuccess());
+
+        assertTrue(sheet.fill(range("B0:B" + (ROWS - 1)), "A0 * 2 + 1").isSuccess());
+        assertTrue(sheet.fill(range("C1:C" + (ROWS - 1)), "B1 - A0").isSuccess());
+        for (int row = 0; row < ROWS; row++) {
+            long a = row * 3 - 7;
+            assertEquals(2 * a + 1, value(sheet, row, 1));
+            if (row > 0) {
+                assertEquals(2 * a + 1 - ((row - 1) * 3 - 7), value(sheet, row, 2));
+            }
+        }
+
+        // the blocks are evaluated again column-wise from the changed column
+        batch = sheet.batch();
+        for (int row = 0; row < ROWS; row++) {
+            batch.add(row, 0, String.valueOf(row));
+        }
+        assertTrue(batch.apply().isSuccess());
+        for (int row = 1; row < ROWS; row++) {
+            assertEquals(2L * row + 1, value(sheet, row, 1));
+            assertEquals(row + 2L, value(sheet, row, 2));
+        }
+
+        // a single cell changed within a block
+        assertTrue(sheet.update(500, 0, "-1").isSuccess());
+        assertEquals(-1, value(sheet, 500, 1));
+        assertEquals(-1 - 499, value(sheet, 500, 2));
+        assertEquals(2 * 501 + 1 + 1, value(sheet, 501, 2));
+    }
+
+    @Test
+    public void persistentStore() {
+        fillsMatchCellByCell(sheet(PersistentCellStore::new));
+    }
+
+    @Test
+    public void offHeapStore() {
+        fillsMatchCellByCell(sheet(OffHeapCellStore::new));
+    }
+
+    @Test
+    public void mappedStore() throws IOException {
+        Sheet sheet = mapped();
+        fillsMatchCellByCell(sheet);
+        sheet.clear();
+    }
+
+    @Test
+    public void cellsAssignedInTheSameUpdateAreRead() {
+        Sheet sheet = sheet(PersistentCellStore::new);
+        assertTrue(sheet.fill(range("A0:A" + (ROWS - 1)), "5").isSuccess());
+        assertTrue(sheet.fill(range("B0:B" + (ROWS - 1)), "A0 + 1").isSuccess());
+
+        // the column read by the block is assigned a cell at a time within the same update
+        UpdateBatch batch = sheet.batch();
+        for (int row = 0; row < ROWS; row += 2) {
+            batch.add(row, 0, String.valueOf(row));
+        }
+        assertTrue(batch.apply().isSuccess());
+        for (int row = 0; row < ROWS; row++) {
+            assertEquals(row % 2 == 0 ? row + 1 : 6, value(sheet, row, 1));
+        }
+    }
+
+    @Test
+    public void emptyCellFailsTheBlock() {
+        Sheet sheet = sheet(PersistentCellStore::new);
+        assertTrue(sheet.fill(range("A0:A" + (ROWS - 1)), "1").isSuccess());
+        sheet.update(700, 0, "");
+
+        UpdateResponse response = sheet.fill(range("B0:B" + (ROWS - 1)), "A0 + 1");
+        assertFalse(response.isSuccess());
+        assertEquals("", sheet.valueAt(0, 1).getContent());
+    }
+
+    @Test
+    public void blocksAreStoredInBulk() {
+        CountingStore store = new CountingStore();
+        Sheet sheet = sheet(() -> store);
+        assertTrue(sheet.fill(range("A0:A" + (ROWS - 1)), "2").isSuccess());
+        store.cells = 0;
+        store.runs = 0;
+
+        assertTrue(sheet.fill(range("B0:B" + (ROWS - 1)), "A0 * A0").isSuccess());
+        assertEquals(0, store.cells);
+        assertEquals(1, store.runs);
+        assertEquals(4, value(sheet, ROWS - 1, 1));
+    }
+}
@@ -0,0 +1,144 @@
+package sheep.sheets;
+
+import org.junit.After;
+import org.junit.Test;
+import sheep.expression.CoreFactory;
+import sheep.expression.Expression;
+import sheep.expression.basic.Constant;
+import sheep.expression.basic.Nothing;
+import sheep.expression.shared.SharedFormula;
+import sheep.parsing.ParseException;
+import sheep.parsing.Parser;
+import sheep.parsing.SimpleParser;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class OffHeapCellStoreTest {
+    private static final int ROWS = 3 * OffHeapCellStore.TILE_ROWS;
+    private static final int COLUMNS = 2 * OffHeapCellStore.TILE_COLUMNS;
+
+    private final Parser parser = new SimpleParser(new CoreFactory());
+    private final OffHeapCellStore store = new OffHeapCellStore();
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    private static String render(Expression expression) {
+        return expression == null ? null : expression.render();
+    }
+
+    private void assertSameCells(CellStore expected) {
+        assertEquals(expected.size(), store.size());
+        assertEquals(new HashSet<>(expected.locations()), new HashSet<>(store.locations()));
+        for (CellLocation location : expected.locations()) {
+            assertEquals(location.toString(), render(expected.formula(location)),
+                    render(store.formula(location)));
+            assertEquals(location.toString(), render(expected.value(location)),
+                    render(store.value(location)));
+        }
+    }
+
+    @Test
+    public void matchesThePersistentStore() throws ParseException {
+        Expression[] formulas = {
+                parser.parse("A0 + 1"),
+                parser.parse("SUM(A0:B3)"),
+                new SharedFormula(parser.parse("A0 * 2"), 3, 1),
+                new SharedFormula(parser.parse("B1 - A0"), 0, 0),
+        };
+        Expression[] values = {new Nothing(), new Constant(-7), parser.parse("A0")};
+        PersistentCellStore expected = new PersistentCellStore();
+        Random random = new Random(41);
+        for (int i = 0; i < 20000; i++) {
+            CellLocation location = new CellLocation(random.nextInt(ROWS),
+                    random.nextInt(COLUMNS));
+            switch (random.nextInt(4)) {
+                case 0 -> {
+                    expected.remove(location);
+                    store.remove(location);
+                }
+                case 1 -> {
+                    Expression formula = new Constant(random.nextLong());
+                    expected.setFormula(location, formula);
+                    store.setFormula(location, formula);
+                }
+                default -> {
+                    Expression formula = formulas[random.nextInt(formulas.length)];
+                    expected.setFormula(location, formula);
+                    store.setFormula(location, formula);
+                }
+            }
+            if (expected.formula(location) != null) {
+                Expression value = random.nextBoolean()
+                        ? new Constant(random.nextInt())
+                        : values[random.nextInt(values.length)];
+                expected.setValue(location, value);
+                store.setValue(location, value);
+            }
+        }
+        assertSameCells(expected);
+    }
+
+    @Test
+    public void formulasAreHeldOnce() throws ParseException {
+        Expression template = parser.parse("A0 + B0");
+        for (int row = 0; row < ROWS; row++) {
+            CellLocation location = new CellLocation(row, 2);
+            store.setFormula(location, new SharedFormula(template, row, 0));
+            store.setValue(location, new Constant(row));
+        }
+        // the template, referred to by every record
+        assertEquals(1, store.heapExpressions());
+        assertEquals(3L * OffHeapCellStore.TILE_ROWS * OffHeapCellStore.TILE_COLUMNS
+                * CellRecords.RECORD, store.allocatedBytes());
+        assertEquals("A5 + B5", store.formula(new CellLocation(5, 2)).render());
+        assertEquals("5", store.value(new CellLocation(5, 2)).render());
+    }
+
+    @Test
+    public void removingCellsEmptiesTheStore() throws ParseException {
+        for (int row = 0; row < ROWS; row += 5) {
+            CellLocation location = new CellLocation(row, row % COLUMNS);
+            store.setFormula(location, parser.parse("A" + row + " + 1"));
+            store.setValue(location, parser.parse("A" + row));
+        }
+        assertTrue(store.heapExpressions() > 0);
+        for (CellLocation location : store.locations()) {
+            store.remove(location);
+        }
+        assertEquals(0, store.size());
+        assertEquals(0, store.heapExpressions());
+        assertTrue(store.locations().isEmpty());
+        assertNull(store.formula(new CellLocation(0, 0)));
+    }
+
+    @Test
+    public void numbersAcrossTiles() {
+        int firstRow = OffHeapCellStore.TILE_ROWS - 10;
+        long[] numbers = new long[OffHeapCellStore.TILE_ROWS + 20];
+        for (int i = 0; i < numbers.length; i++) {
+            CellLocation location = new CellLocation(firstRow + i, 3);
+            store.setFormula(location, new Constant(0));
+            store.setValue(location, new Nothing());
+            numbers[i] = i * 3L - 100;
+        }
+        store.setNumbers(3, firstRow, numbers);
+
+        // one row before the run, which is not stored
+        long[] read = new long[numbers.length + 1];
+        BitSet missing = store.numbers(3, firstRow - 1, read);
+        assertEquals(1, missing.cardinality());
+        assertTrue(missing.get(0));
+        for (int i = 0; i < numbers.length; i++) {
+            assertEquals(numbers[i], read[i + 1]);
+            assertEquals(new Constant(numbers[i]),
+                    store.value(new CellLocation(firstRow + i, 3)));
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package sheep.sheets;
+
+import org.junit.Before;
+import org.junit.Test;
+import sheep.expression.CoreFactory;
+import sheep.expression.basic.Nothing;
+import sheep.parsing.SimpleParser;
+
+import static org.junit.Assert.*;
+
+public class RangeTreeTest {
+    private Sheet sheet;
+
+    @Before
+    public void setUp() {
+        sheet = new SheetBuilder(new SimpleParser(new CoreFactory()), new Nothing())
+                .empty(2000, 5);
+    }
+
+    private String value(int row, int column) {
+        return sheet.valueAt(row, column).getContent();
+    }
+
+    @Test
+    public void overlappingPrefixRangesShareColumns() {
+        int cells = 1000;
+        UpdateBatch batch = sheet.batch();
+        for (int row = 0; row < cells; row++) {
+            batch.add(row, 0, String.valueOf(row + 1));
+            batch.add(row, 1, "SUM(A0:A" + row + ")");
+        }
+        assertTrue(batch.apply().isSuccess());
+        assertEquals(String.valueOf(cells * (cells + 1) / 2), value(cells - 1, 1));
+        assertEquals("1", value(0, 1));
+
+        // a range per cell covering half a million cells in all, summarised by one column
+        long nodes = sheet.rangeNodes();
+        assertTrue("nodes: " + nodes, nodes <= 4L * cells);
+
+        sheet.update(0, 0, "10");
+        assertEquals(String.valueOf(cells * (cells + 1) / 2 + 9), value(cells - 1, 1));
+        assertEquals(nodes, sheet.rangeNodes());
+    }
+
+    @Test
+    public void emptyCellsTakeNoNodes() {
+        sheet.update(0, 2, "SUM(A0:B1999)");
+        sheet.update(1, 2, "COUNT(A0:A1999)");
+        assertEquals("0", value(0, 2));
+        assertEquals("0", value(1, 2));
+        assertTrue(sheet.rangeNodes() <= 4);
+
+        sheet.update(1500, 1, "7");
+        assertEquals("7", value(0, 2));
+        assertEquals("0", value(1, 2));
+        sheet.update(1500, 1, "");
+        assertEquals("0", value(0, 2));
+    }
+
+    @Test
+    public void aggregatesFollowEdits() {
+        sheet.update(0, 2, "SUM(A0:B9)");
+        sheet.update(1, 2, "MIN(A0:B9)");
+        sheet.update(2, 2, "MAX(A0:B9)");
+        sheet.update(3, 2, "COUNT(A0:B9)");
+        sheet.update(4, 2, "SUM(A5:A5)");
+        for (int row = 0; row < 10; row++) {
+            sheet.update(row, 0, String.valueOf(row));
+        }
+        sheet.update(9, 1, "-4");
+        assertEquals("41", value(0, 2));
+        assertEquals("-4", value(1, 2));
+        assertEquals("9", value(2, 2));
+        assertEquals("11", value(3, 2));
+        assertEquals("5", value(4, 2));
+
+        sheet.update(9, 1, "");
+        sheet.update(5, 0, "100");
+        assertEquals("140", value(0, 2));
+        assertEquals("0", value(1, 2));
+        assertEquals("100", value(2, 2));
+        assertEquals("10", value(3, 2));
+        assertEquals("100", value(4, 2));
+
+        // the ranges of the removed formula are dropped, the others keep their columns
+        sheet.update(4, 2, "");
+        sheet.update(5, 0, "5");
+        assertEquals("45", value(0, 2));
+        assertTrue(sheet.undo().isSuccess());
+        assertEquals("140", value(0, 2));
+    }
+
+    @Test
+    public void rangesAddedLaterSeeEarlierValues() {
+        sheet.update(0, 2, "SUM(A0:A4)");
+        for (int row = 0; row < 20; row++) {
+            sheet.update(row, 0, "2");
+        }
+        sheet.update(1, 2, "SUM(A0:A19)");
+        sheet.update(2, 2, "SUM(A3:A12)");
+        assertEquals("10", value(0, 2));
+        assertEquals("40", value(1, 2));
+        assertEquals("20", value(2, 2));
+
+        // dropping every range of the column drops its values, which are loaded again
+        sheet.update(0, 2, "");
+        sheet.update(1, 2, "");
+        sheet.update(2, 2, "");
+        assertEquals(0, sheet.rangeNodes());
+        sheet.update(10, 0, "5");
+        sheet.update(0, 2, "SUM(A8:A11)");
+        assertEquals("11", value(0, 2));
+    }
+
+    @Test
+    public void lookupsFollowEdits() {
+        for (int row = 0; row < 10; row++) {
+            sheet.update(row, 0, String.valueOf(row * 10));
+            sheet.update(row, 1, String.valueOf(row));
+        }
+        sheet.update(0, 2, "VLOOKUP(40, A0:B9, 2, 0)");
+        sheet.update(1, 2, "MATCH(45, A0:A9)");
+        assertEquals("4", value(0, 2));
+        assertEquals("5", value(1, 2));
+
+        sheet.update(4, 0, "41");
+        sheet.update(7, 0, "40");
+        assertEquals("7", value(0, 2));
+        assertEquals("5", value(1, 2));
+    }
+}
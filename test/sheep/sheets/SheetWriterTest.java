@@ -0,0 +1,171 @@
+package sheep.sheets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import sheep.core.UpdateResponse;
+import sheep.expression.CoreFactory;
+import sheep.expression.Expression;
+import sheep.expression.basic.Nothing;
+import sheep.parsing.SimpleParser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SheetWriterTest {
+    private Sheet sheet;
+    private SheetWriter writer;
+
+    /**
+     * Records the cells of every update of the sheet,
+     * holding up the writer during the first update until released.
+     */
+    private static class Updates implements SheetListener {
+        private final List<Map<CellLocation, Expression>> updates = new ArrayList<>();
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        @Override
+        public void updated(Map<CellLocation, Expression> cells) {
+            synchronized (updates) {
+                updates.add(Map.copyOf(cells));
+            }
+            started.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void resized(int rows, int columns) {
+        }
+
+        @Override
+        public void cleared() {
+        }
+
+        @Override
+        public void replaced() {
+        }
+
+        private int count() {
+            synchronized (updates) {
+                return updates.size();
+            }
+        }
+    }
+
+    private final Updates updates = new Updates();
+
+    @Before
+    public void setUp() {
+        sheet = new SheetBuilder(new SimpleParser(new CoreFactory()), new Nothing())
+                .empty(100, 5);
+        sheet.addListener(updates);
+        writer = new SheetWriter(sheet);
+    }
+
+    @After
+    public void tearDown() {
+        updates.released.countDown();
+        writer.close();
+    }
+
+    /**
+     * Submit an update that holds up the writer, so later updates queue up behind it.
+     */
+    private CompletableFuture<UpdateResponse> holdUp() throws InterruptedException {
+        CompletableFuture<UpdateResponse> first = writer.submit(99, 4, "0");
+        assertTrue(updates.started.await(10, TimeUnit.SECONDS));
+        return first;
+    }
+
+    private String value(int row, int column) {
+        return sheet.valueAt(row, column).getContent();
+    }
+
+    @Test
+    public void queuedUpdatesAreBatched() throws InterruptedException {
+        CompletableFuture<UpdateResponse> first = holdUp();
+        List<CompletableFuture<UpdateResponse>> queued = new ArrayList<>();
+        for (int row = 0; row < 50; row++) {
+            queued.add(writer.submit(row, 0, String.valueOf(row)));
+            queued.add(writer.submit(row, 1, "A" + row + " * 2"));
+        }
+        updates.released.countDown();
+
+        assertTrue(first.join().isSuccess());
+        for (CompletableFuture<UpdateResponse> response : queued) {
+            assertTrue(response.join().isSuccess());
+        }
+        // the held up update, then every queued update at once
+        assertEquals(2, updates.count());
+        assertEquals(100, updates.updates.get(1).size());
+        for (int row = 0; row < 50; row++) {
+            assertEquals(String.valueOf(2 * row), value(row, 1));
+        }
+    }
+
+    @Test
+    public void updatesOfACellApplyInOrder() throws InterruptedException {
+        holdUp();
+        List<CompletableFuture<UpdateResponse>> queued = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            queued.add(writer.submit(0, 0, String.valueOf(i)));
+            queued.add(writer.submit(1, 0, "A0 + " + i));
+        }
+        updates.released.countDown();
+        for (CompletableFuture<UpdateResponse> response : queued) {
+            assertTrue(response.join().isSuccess());
+        }
+        assertEquals("499", value(0, 0));
+        assertEquals("998", value(1, 0));
+
+        // updates submitted after others from the same thread are applied after them
+        for (int i = 0; i < 500; i++) {
+            writer.submit(2, 0, String.valueOf(i));
+        }
+        assertTrue(writer.update(3, 0, "A2").isSuccess());
+        assertEquals("499", value(3, 0));
+    }
+
+    @Test
+    public void failingUpdatesFailAlone() throws InterruptedException {
+        holdUp();
+        CompletableFuture<UpdateResponse> first = writer.submit(0, 0, "1");
+        CompletableFuture<UpdateResponse> before = writer.submit(1, 0, "2");
+        CompletableFuture<UpdateResponse> unparsable = writer.submit(2, 0, "SUM(");
+        CompletableFuture<UpdateResponse> typeError = writer.submit(3, 0, "A4 + 1");
+        CompletableFuture<UpdateResponse> after = writer.submit(5, 0, "A0 + A1");
+        updates.released.countDown();
+
+        assertTrue(first.join().isSuccess());
+        assertTrue(before.join().isSuccess());
+        assertFalse(unparsable.join().isSuccess());
+        assertFalse(typeError.join().isSuccess());
+        assertTrue(after.join().isSuccess());
+        assertEquals("2", value(1, 0));
+        assertEquals("", value(2, 0));
+        assertEquals("", value(3, 0));
+        assertEquals("3", value(5, 0));
+    }
+
+    @Test
+    public void closedWriterRefusesUpdates() {
+        updates.released.countDown();
+        assertTrue(writer.update(0, 0, "1").isSuccess());
+        writer.close();
+        UpdateResponse response = writer.submit(0, 0, "2").join();
+        assertFalse(response.isSuccess());
+        assertEquals("Writer closed", response.getMessage());
+        assertEquals("1", value(0, 0));
+    }
+}
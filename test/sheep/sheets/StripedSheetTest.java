@@ -0,0 +1,175 @@
+package sheep.sheets;
+
+import org.junit.After;
+import org.junit.Test;
+import sheep.expression.CoreFactory;
+import sheep.expression.basic.Nothing;
+import sheep.parsing.Parser;
+import sheep.parsing.SimpleParser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StripedSheetTest {
+    private static final int THREADS = 4;
+    private static final int BLOCK_ROWS = 64;
+    private static final int ROWS = THREADS * BLOCK_ROWS;
+    private static final int COLUMNS = 4;
+
+    private final Parser parser = new SimpleParser(new CoreFactory());
+    private final ExecutorService threads = Executors.newFixedThreadPool(THREADS + 1);
+
+    /**
+     * A single update of a cell, made by one of the threads.
+     */
+    private record Update(int row, int column, String input) {
+    }
+
+    @After
+    public void tearDown() {
+        threads.shutdownNow();
+    }
+
+    /**
+     * A sheet of every column set to zero, so no formula reads an empty cell.
+     */
+    private void zero(Sheet sheet) {
+        UpdateBatch batch = sheet.batch();
+        for (int row = 0; row < ROWS; row++) {
+            for (int column = 0; column < COLUMNS; column++) {
+                batch.add(row, column, "0");
+            }
+        }
+        assertTrue(batch.apply().isSuccess());
+    }
+
+    private static String cell(int row, int column) {
+        return new CellLocation(row, column).toString();
+    }
+
+    /**
+     * Updates of the rows owned by a thread. Column A holds numbers and column B formulas
+     * reading the rows of the thread alone. Columns C and D read rows of other threads too,
+     * so their updates overlap those of other threads.
+     */
+    private static List<Update> updates(int thread, Random random, boolean overlapping) {
+        int first = thread * BLOCK_ROWS;
+        List<Update> updates = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            int row = first + random.nextInt(BLOCK_ROWS);
+            int own = first + random.nextInt(BLOCK_ROWS);
+            int any = random.nextInt(ROWS);
+            switch (overlapping ? random.nextInt(4) : random.nextInt(2)) {
+                case 0 -> updates.add(new Update(row, 0, String.valueOf(random.nextInt(100))));
+                case 1 -> updates.add(new Update(row, 1, cell(own, 0) + " * 2 + " + cell(row, 0)));
+                case 2 -> updates.add(new Update(row, 2, cell(any, 0) + " + " + cell(row, 1)));
+                default -> {
+                    int top = Math.min(any, own);
+                    int bottom = Math.max(any, own);
+                    updates.add(new Update(row, 3,
+                            "SUM(" + cell(top, 0) + ":" + cell(bottom, 1) + ")"));
+                }
+            }
+        }
+        return updates;
+    }
+
+    /**
+     * Applies the updates of every thread at once to a striped sheet, while another thread
+     * reads it, then applies the last update of each cell to a sheet one after another.
+     * Each thread updates its own cells, so both sheets must end up the same.
+     */
+    private void matchesSequentialSheet(long seed, boolean overlapping) throws Exception {
+        StripedSheet striped = new StripedSheet(parser, Map.of(), new Nothing(), ROWS, COLUMNS,
+                8, 16);
+        zero(striped);
+        List<List<Update>> all = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            all.add(updates(thread, new Random(seed * THREADS + thread), overlapping));
+        }
+
+        List<Future<?>> running = new ArrayList<>();
+        for (List<Update> updates : all) {
+            running.add(threads.submit(() -> {
+                for (int i = 0; i < updates.size(); i++) {
+                    Update update = updates.get(i);
+                    if (i % 10 == 9) {
+                        // a batch of this update and the next
+                        UpdateBatch batch = striped.batch();
+                        batch.add(update.row(), update.column(), update.input());
+                        if (i + 1 < updates.size()) {
+                            Update next = updates.get(++i);
+                            batch.add(next.row(), next.column(), next.input());
+                        }
+                        assertTrue(batch.apply().isSuccess());
+                    } else {
+                        assertTrue(striped.update(update.row(), update.column(),
+                                update.input()).isSuccess());
+                    }
+                }
+                return null;
+            }));
+        }
+        Future<?> reader = threads.submit(() -> {
+            Random random = new Random(seed);
+            while (!running.stream().allMatch(Future::isDone)) {
+                striped.valueAt(random.nextInt(ROWS), random.nextInt(COLUMNS));
+            }
+            return null;
+        });
+        for (Future<?> update : running) {
+            update.get(2, TimeUnit.MINUTES);
+        }
+        reader.get(2, TimeUnit.MINUTES);
+
+        Map<CellLocation, String> last = new HashMap<>();
+        for (List<Update> updates : all) {
+            for (Update update : updates) {
+                last.put(new CellLocation(update.row(), update.column()), update.input());
+            }
+        }
+        Sheet sequential = new SheetBuilder(parser, new Nothing()).empty(ROWS, COLUMNS);
+        zero(sequential);
+        for (int column = 0; column < COLUMNS; column++) {
+            for (int row = 0; row < ROWS; row++) {
+                String input = last.get(new CellLocation(row, column));
+                if (input != null) {
+                    assertTrue(sequential.update(row, column, input).isSuccess());
+                }
+            }
+        }
+
+        for (int row = 0; row < ROWS; row++) {
+            for (int column = 0; column < COLUMNS; column++) {
+                String location = cell(row, column);
+                assertEquals(location, sequential.formulaAt(row, column).getContent(),
+                        striped.formulaAt(row, column).getContent());
+                assertEquals(location, sequential.valueAt(row, column).getContent(),
+                        striped.valueAt(row, column).getContent());
+            }
+        }
+    }
+
+    @Test
+    public void disjointUpdates() throws Exception {
+        for (long seed = 0; seed < 5; seed++) {
+            matchesSequentialSheet(seed, false);
+        }
+    }
+
+    @Test
+    public void overlappingUpdates() throws Exception {
+        for (long seed = 0; seed < 5; seed++) {
+            matchesSequentialSheet(seed, true);
+        }
+    }
+}
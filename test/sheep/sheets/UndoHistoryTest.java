@@ -0,0 +1,133 @@
+package sheep.sheets;
+
+import org.junit.Before;
+import org.junit.Test;
+import sheep.core.UpdateResponse;
+import sheep.expression.CoreFactory;
+import sheep.expression.basic.Nothing;
+import sheep.parsing.SimpleParser;
+
+import static org.junit.Assert.*;
+
+public class UndoHistoryTest {
+    private Sheet sheet;
+
+    @Before
+    public void setUp() {
+        sheet = new SheetBuilder(new SimpleParser(new CoreFactory()), new Nothing()).empty(10, 3);
+    }
+
+    private String value(int row, int column) {
+        return sheet.valueAt(row, column).getContent();
+    }
+
+    private String formula(int row, int column) {
+        return sheet.formulaAt(row, column).getContent();
+    }
+
+    private void assertNothingTo(String action, UpdateResponse response) {
+        assertFalse(response.isSuccess());
+        assertEquals("Nothing to " + action, response.getMessage());
+    }
+
+    @Test
+    public void undoAndRedoUpdates() {
+        sheet.update(0, 0, "1");
+        sheet.update(1, 0, "A0 * 2");
+        sheet.update(0, 0, "5");
+        assertEquals("10", value(1, 0));
+
+        assertTrue(sheet.undo().isSuccess());
+        assertEquals("1", formula(0, 0));
+        assertEquals("2", value(1, 0));
+        assertTrue(sheet.undo().isSuccess());
+        assertEquals("", formula(1, 0));
+        assertEquals("", value(1, 0));
+        assertTrue(sheet.undo().isSuccess());
+        assertEquals("", formula(0, 0));
+        assertNothingTo("undo", sheet.undo());
+
+        assertTrue(sheet.redo().isSuccess());
+        assertTrue(sheet.redo().isSuccess());
+        assertEquals("2", value(1, 0));
+        assertTrue(sheet.redo().isSuccess());
+        assertEquals("5", formula(0, 0));
+        assertEquals("10", value(1, 0));
+        assertNothingTo("redo", sheet.redo());
+    }
+
+    @Test
+    public void batchesAndFillsAreUndoneAsAWhole() {
+        UpdateBatch batch = sheet.batch();
+        batch.add(0, 0, "2");
+        batch.add(1, 0, "3");
+        assertTrue(batch.apply().isSuccess());
+        assertTrue(sheet.fill(CellRange.maybeRange("B0:B1").orElseThrow(), "A0 * 10").isSuccess());
+        sheet.update(2, 1, "SUM(B0:B1)");
+        assertEquals("50", value(2, 1));
+
+        assertTrue(sheet.undo().isSuccess());
+        assertTrue(sheet.undo().isSuccess());
+        assertEquals("", formula(0, 1));
+        assertEquals("", formula(1, 1));
+        assertEquals("3", value(1, 0));
+        assertTrue(sheet.undo().isSuccess());
+        assertEquals("", formula(0, 0));
+        assertEquals("", formula(1, 0));
+
+        assertTrue(sheet.redo().isSuccess());
+        assertTrue(sheet.redo().isSuccess());
+        assertEquals("30", value(1, 1));
+    }
+
+    @Test
+    public void updatingDropsTheChangesToRedo() {
+        sheet.update(0, 0, "1");
+        sheet.update(0, 0, "2");
+        assertTrue(sheet.undo().isSuccess());
+        sheet.update(1, 0, "A0 + 1");
+        assertNothingTo("redo", sheet.redo());
+        assertEquals("2", value(1, 0));
+    }
+
+    @Test
+    public void failedUpdatesAreNotRecorded() {
+        sheet.update(0, 0, "1");
+        assertFalse(sheet.update(1, 0, "A2 + 1").isSuccess());
+        assertTrue(sheet.undo().isSuccess());
+        assertEquals("", formula(0, 0));
+        assertNothingTo("undo", sheet.undo());
+    }
+
+    @Test
+    public void replacingTheCellsForgetsTheHistory() {
+        sheet.update(0, 0, "1");
+        sheet.updateDimensions(20, 3);
+        assertNothingTo("undo", sheet.undo());
+
+        sheet.update(0, 0, "2");
+        assertTrue(sheet.undo().isSuccess());
+        sheet.clear();
+        assertNothingTo("undo", sheet.undo());
+        assertNothingTo("redo", sheet.redo());
+    }
+
+    @Test
+    public void oldestChangesBeyondTheBudgetAreForgotten() {
+        // room for two changes of a single cell
+        sheet.setUndoBudget(2 * (64 + 16));
+        for (int row = 0; row < 5; row++) {
+            sheet.update(row, 0, String.valueOf(row));
+        }
+        assertTrue(sheet.undo().isSuccess());
+        assertTrue(sheet.undo().isSuccess());
+        assertNothingTo("undo", sheet.undo());
+        assertEquals("2", formula(2, 0));
+        assertEquals("", formula(3, 0));
+
+        // a change larger than the budget cannot be undone, nor can any before it
+        assertTrue(sheet.fill(CellRange.maybeRange("B0:B9").orElseThrow(), "1").isSuccess());
+        assertNothingTo("undo", sheet.undo());
+        assertNothingTo("redo", sheet.redo());
+    }
+}
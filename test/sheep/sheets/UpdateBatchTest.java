@@ -0,0 +1,127 @@
+package sheep.sheets;
+
+import org.junit.Before;
+import org.junit.Test;
+import sheep.core.UpdateResponse;
+import sheep.expression.CoreFactory;
+import sheep.expression.basic.Nothing;
+import sheep.parsing.SimpleParser;
+
+import static org.junit.Assert.*;
+
+public class UpdateBatchTest {
+    private Sheet sheet;
+
+    @Before
+    public void setUp() {
+        sheet = new SheetBuilder(new SimpleParser(new CoreFactory()), new Nothing()).empty(10, 5);
+    }
+
+    private String value(int row, int column) {
+        return sheet.valueAt(row, column).getContent();
+    }
+
+    private String formula(int row, int column) {
+        return sheet.formulaAt(row, column).getContent();
+    }
+
+    @Test
+    public void applyInsertsEveryCell() {
+        UpdateBatch batch = sheet.batch();
+        batch.add(1, 0, "A0 + 1");
+        batch.add(0, 0, "1");
+        batch.add(2, 0, "SUM(A0:A1)");
+        assertEquals(3, batch.size());
+        assertTrue(batch.apply().isSuccess());
+        assertEquals("1", value(0, 0));
+        assertEquals("2", value(1, 0));
+        assertEquals("3", value(2, 0));
+    }
+
+    @Test
+    public void applyWithTypeErrorLeavesSheetUnchanged() {
+        sheet.update(0, 0, "5");
+        UpdateBatch batch = sheet.batch();
+        batch.add(0, 0, "1");
+        batch.add(0, 1, "A0:A1");
+        UpdateResponse response = batch.apply();
+        assertFalse(response.isSuccess());
+        assertTrue(response.getMessage().startsWith("Type error: "));
+        assertEquals("5", value(0, 0));
+        assertEquals("", formula(0, 1));
+    }
+
+    @Test
+    public void applyEachLeavesOutFailingCellsAndTheirUsers() {
+        UpdateBatch batch = sheet.batch();
+        batch.add(0, 0, "1");
+        batch.add(1, 0, "A0 + 1");
+        // a range cannot be the value of a cell
+        batch.add(0, 1, "A0:A1");
+        batch.add(1, 1, "B0 + 1");
+        batch.add(2, 1, "B1 + A1");
+        batch.add(0, 2, "A1 + 1");
+        batch.add(1, 2, "SUM(A0:A1)");
+        UpdateResponse response = batch.applyEach();
+        assertFalse(response.isSuccess());
+        assertTrue(response.getMessage().startsWith("Type error: "));
+
+        assertEquals("1", value(0, 0));
+        assertEquals("2", value(1, 0));
+        assertEquals("3", value(0, 2));
+        assertEquals("3", value(1, 2));
+        for (int row = 0; row < 3; row++) {
+            assertEquals("", formula(row, 1));
+            assertEquals("", value(row, 1));
+        }
+    }
+
+    @Test
+    public void applyEachCommitsEveryCellWithoutTypeError() {
+        UpdateBatch batch = sheet.batch();
+        for (int row = 0; row < 10; row++) {
+            batch.add(row, 0, row == 0 ? "1" : "A" + (row - 1) + " * 2");
+        }
+        assertTrue(batch.applyEach().isSuccess());
+        assertEquals("512", value(9, 0));
+    }
+
+    @Test
+    public void applyEachUndoesCommittedCellsTogether() {
+        sheet.update(0, 0, "7");
+        UpdateBatch batch = sheet.batch();
+        batch.add(0, 0, "1");
+        batch.add(1, 0, "A0 + 1");
+        batch.add(2, 0, "A0:A1");
+        assertFalse(batch.applyEach().isSuccess());
+        assertEquals("2", value(1, 0));
+
+        assertTrue(sheet.undo().isSuccess());
+        assertEquals("7", value(0, 0));
+        assertEquals("", formula(1, 0));
+        assertEquals("", formula(2, 0));
+        assertTrue(sheet.redo().isSuccess());
+        assertEquals("1", value(0, 0));
+        assertEquals("2", value(1, 0));
+        assertEquals("", formula(2, 0));
+    }
+
+    @Test
+    public void applyEachWithLargeBatchLeavesOutOnlyFailingChain() {
+        sheet = new SheetBuilder(new SimpleParser(new CoreFactory()), new Nothing())
+                .empty(5000, 3);
+        UpdateBatch batch = sheet.batch();
+        for (int row = 0; row < 5000; row++) {
+            batch.add(row, 0, String.valueOf(row));
+            batch.add(row, 1, row == 2500 ? "A0:A1" : "A" + row + " + 1");
+            batch.add(row, 2, "B" + row + " * 2");
+        }
+        assertFalse(batch.applyEach().isSuccess());
+        assertEquals("4999", value(4999, 0));
+        assertEquals("5000", value(4999, 1));
+        assertEquals("10000", value(4999, 2));
+        assertEquals("", formula(2500, 1));
+        assertEquals("", formula(2500, 2));
+        assertEquals("2500", value(2499, 1));
+    }
+}
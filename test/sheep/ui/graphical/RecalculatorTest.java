@@ -0,0 +1,88 @@
+package sheep.ui.graphical;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import sheep.core.Recalculation;
+import sheep.core.UpdateResponse;
+import sheep.expression.CoreFactory;
+import sheep.expression.basic.Nothing;
+import sheep.parsing.SimpleParser;
+import sheep.sheets.MappedCellStore;
+import sheep.sheets.Sheet;
+import sheep.sheets.SheetBuilder;
+
+import javax.swing.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class RecalculatorTest {
+    private static final int ROWS = 40_000;
+
+    private Path directory;
+    private Sheet sheet;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("recalculator");
+        Path path = directory.resolve("sheet.sheep");
+        sheet = new SheetBuilder(new SimpleParser(new CoreFactory()), new Nothing())
+                .storeIn(() -> {
+                    try {
+                        return MappedCellStore.create(path, ROWS, 1);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .empty(ROWS, 1);
+        sheet.update(0, 0, "1");
+        for (int row = 1; row < ROWS; row++) {
+            sheet.update(row, 0, "A" + (row - 1) + " + 1");
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        sheet.clear();
+        try (var files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    public void readBetweenSlicesDoesNotFinish() throws Exception {
+        Recalculator recalculator = new Recalculator();
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<UpdateResponse> response = new AtomicReference<>();
+        AtomicReference<Recalculation> calculation = new AtomicReference<>();
+        SwingUtilities.invokeAndWait(() -> {
+            calculation.set(sheet.recalculate(0, 0, "2"));
+            recalculator.start(calculation.get(), result -> {
+                response.set(result);
+                done.countDown();
+            });
+        });
+        SwingUtilities.invokeAndWait(() -> {
+            assertTrue(recalculator.isRecalculating());
+            assertEquals(String.valueOf(ROWS), sheet.valueAt(ROWS - 1, 0).getContent());
+            assertEquals("1", sheet.valueAt(0, 0).getContent());
+            assertEquals("1", sheet.formulaAt(0, 0).getContent());
+            assertTrue(calculation.get().isCalculating(ROWS - 1, 0));
+            assertTrue(recalculator.isRecalculating());
+        });
+        assertTrue(done.await(1, TimeUnit.MINUTES));
+        assertTrue(response.get().isSuccess());
+        assertEquals(String.valueOf(ROWS + 1), sheet.valueAt(ROWS - 1, 0).getContent());
+        assertEquals("2", sheet.formulaAt(0, 0).getContent());
+    }
+}
@@ -42,4 +42,15 @@ public interface Prompt {
      * @param prompt The message to display.
      */
     void message(String prompt);
+
+    /**
+     * Display a short status to the user without interrupting them,
+     * e.g. the progress of a task running in the background.
+     * A later status replaces the earlier one.
+     * By default, the status is not displayed.
+     *
+     * @param status The status to display.
+     */
+    default void status(String status) {
+    }
 }
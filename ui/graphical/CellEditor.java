@@ -1,30 +1,37 @@
 package sheep.ui.graphical;
 
 import sheep.core.SheetView;
+import sheep.ui.Prompt;
 
 import javax.swing.*;
 import java.awt.*;
+import java.io.UncheckedIOException;
 
 /**
  * A custom cell editor that when an edit box is opened
  * on a cell containing a {@link Location},
  * will look up the formula at the location
  * using the given {@link SheetView}.
+ * If the formula cannot be read from the file the sheet is paged in from,
+ * the failure is reported through the prompt and the edit is cancelled.
  */
 class CellEditor extends DefaultCellEditor {
     private final JTextField field;
     private final SheetView view;
+    private final Prompt prompt;
 
     /**
      * Construct a new custom cell editor.
      *
      * @param view The view to use to lookup the formula.
      * @param field The default text field to use for the edit box.
+     * @param prompt The prompt failures to read formulas are reported through.
      */
-    public CellEditor(SheetView view, JTextField field) {
+    public CellEditor(SheetView view, JTextField field, Prompt prompt) {
         super(field);
         this.view = view;
         this.field = field;
+        this.prompt = prompt;
     }
 
     /**
@@ -37,7 +44,13 @@ class CellEditor extends DefaultCellEditor {
         Component comp = super.getTableCellEditorComponent(table, value,
                 isSelected, row, column);
         if (value instanceof Location location) {
-            field.setText(view.formulaAt(location.row(), location.column()).getContent());
+            try {
+                field.setText(view.formulaAt(location.row(), location.column()).getContent());
+            } catch (UncheckedIOException e) {
+                field.setText("");
+                prompt.message(GUI.unreadable(e));
+                SwingUtilities.invokeLater(this::cancelCellEditing);
+            }
         }
         return comp;
     }
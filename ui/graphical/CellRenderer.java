@@ -2,26 +2,48 @@ package sheep.ui.graphical;
 
 import sheep.core.SheetView;
 import sheep.core.ViewElement;
+import sheep.ui.Prompt;
 
 import javax.swing.*;
 import javax.swing.table.DefaultTableCellRenderer;
 import java.awt.*;
+import java.io.UncheckedIOException;
 
 /**
  * A custom cell renderer that uses the {@link SheetView} instance
  * to lookup the value to render based on the {@link Location}
  * stored in the table model.
+ * <p>
+ * While a recalculation is in progress, cells it has evaluated render their new value
+ * and cells still to be evaluated render as calculating, see {@link Recalculator}.
+ * Cells that cannot be read from the file the sheet is paged in from render as unreadable,
+ * and the failure is shown as the status of the prompt, as a cell may be rendered many times.
  */
 class CellRenderer extends DefaultTableCellRenderer {
+    /**
+     * The text of a cell that is still to be evaluated
+     */
+    private static final String CALCULATING = "calculating...";
+
+    /**
+     * The text of a cell that cannot be read
+     */
+    private static final String UNREADABLE = "unreadable";
 
     private final SheetView view;
+    private final Recalculator recalculator;
+    private final Prompt prompt;
 
     /**
      * Construct a new cell renderer.
      * @param view The view to use for rendering values.
+     * @param recalculator The recalculations in progress, whose new values are rendered.
+     * @param prompt The prompt failures to read cells are reported through.
      */
-    public CellRenderer(SheetView view) {
+    public CellRenderer(SheetView view, Recalculator recalculator, Prompt prompt) {
         this.view = view;
+        this.recalculator = recalculator;
+        this.prompt = prompt;
     }
 
     /**
@@ -50,9 +72,18 @@ class CellRenderer extends DefaultTableCellRenderer {
         }
         if (row > 0 && column > 0) {
             setHorizontalAlignment(SwingConstants.LEFT);
-            ViewElement element = view.valueAt(row - 1, column - 1);
+            ViewElement element;
+            try {
+                element = view.valueAt(row - 1, column - 1);
+            } catch (UncheckedIOException e) {
+                prompt.status(GUI.unreadable(e));
+                return result;
+            }
             setBackground(getColorByName(element.getBackground()));
             setForeground(getColorByName(element.getForeground()));
+            if (recalculator.isCalculating(row - 1, column - 1)) {
+                setForeground(Configuration.CALCULATING_FOREGROUND);
+            }
         }
         return result;
     }
@@ -65,7 +96,17 @@ class CellRenderer extends DefaultTableCellRenderer {
     @Override
     protected void setValue(Object value) {
         if (value instanceof Location location) {
-            String rendered = view.valueAt(location.row(), location.column()).getContent();
+            String rendered;
+            try {
+                rendered = recalculator.isCalculating(location.row(), location.column())
+                        ? CALCULATING
+                        : recalculator.valueAt(location.row(), location.column())
+                                .orElseGet(() -> view.valueAt(location.row(), location.column())
+                                        .getContent());
+            } catch (UncheckedIOException e) {
+                rendered = UNREADABLE;
+                prompt.status(GUI.unreadable(e));
+            }
             setText(rendered);
             setToolTipText(rendered);
             return;
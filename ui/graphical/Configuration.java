@@ -9,6 +9,7 @@ final class Configuration {
     static final Color LINE_COLOR = Color.LIGHT_GRAY;
     static final Color HEADER_COLUMN_FOREGROUND = Color.GRAY;
     static final Color HEADER_COLUMN_BACKGROUND = Color.WHITE;
+    static final Color CALCULATING_FOREGROUND = Color.GRAY;
     static final int ROW_HEIGHT = 20;
     static final int HEADER_COLUMN_WIDTH = 50;
     static final int COLUMN_WIDTH = 100;
@@ -13,6 +13,7 @@ import java.awt.*;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.io.UncheckedIOException;
 import java.util.Optional;
 
 /**
@@ -20,9 +21,17 @@ import java.util.Optional;
  * <p>
  * Requires a {@link SheetView} and {@link SheetUpdate} to determine
  * what to render and how to update the sheet respectively.
+ * <p>
+ * A sheet paged in from a file may fail to read the file at any time, throwing an
+ * {@link UncheckedIOException}. Such failures are caught wherever the window reads or
+ * updates the sheet and reported to the user, rather than ending the event in progress.
  */
 public class GUI extends UI {
 
+    private final Recalculator recalculator = new Recalculator();
+    private final JLabel status = new JLabel(" ");
+    private final Prompt prompt = new MessagePrompt(status);
+
     /**
      * Construct a new graphical interface.
      *
@@ -52,17 +61,21 @@ public class GUI extends UI {
         // We use a small hack of storing Location instances
         // in the table model so that both the value is rendered
         // but the formula is retrieved when editing.
-        SheetModel model = new SheetModel(frame, view, updater);
+        SheetModel model = new SheetModel(frame, view, updater, recalculator, prompt);
         JTable table = new JTable(model);
+        recalculator.attach(table);
         style(table);
 
         table.addKeyListener(new Shortcuts(table));
 
-        Prompt prompt = new MessagePrompt();
         new Timer(tickSpeed, (e) -> {
             for (Tick tick : tickCallbacks) {
-                if (tick.onTick(prompt)) {
-                    refreshUI(table);
+                try {
+                    if (tick.onTick(prompt)) {
+                        refreshUI(table);
+                    }
+                } catch (UncheckedIOException error) {
+                    prompt.status(unreadable(error));
                 }
             }
         }).start();
@@ -86,6 +99,7 @@ public class GUI extends UI {
 
         panel.add(formulaView(table));
         panel.add(table);
+        panel.add(status);
 
         frame.add(panel);
 
@@ -94,11 +108,34 @@ public class GUI extends UI {
     }
 
     private TableColumn configureColumn(TableColumn column) {
-        column.setCellRenderer(new CellRenderer(view));
-        column.setCellEditor(new CellEditor(view, new JTextField()));
+        column.setCellRenderer(new CellRenderer(view, recalculator, prompt));
+        column.setCellEditor(new CellEditor(view, new JTextField(), prompt));
         return column;
     }
 
+    /**
+     * Describe a failure to read the file a sheet is paged in from, to report it to the user.
+     *
+     * @param e The failure thrown while reading or updating the sheet.
+     * @return A message describing the failure.
+     */
+    static String unreadable(UncheckedIOException e) {
+        return "Unable to read the sheet file: " + e.getCause().getMessage();
+    }
+
+    /**
+     * Perform the action of a feature on the selected cell, then refresh the table.
+     */
+    private void perform(Feature feature, JTable table, Prompt prompt) {
+        try {
+            feature.action()
+                    .perform(table.getSelectedRow() - 1, table.getSelectedColumn() - 1, prompt);
+        } catch (UncheckedIOException e) {
+            prompt.message(unreadable(e));
+        }
+        refreshUI(table);
+    }
+
     private void refreshUI(JTable table) {
         int size = table.getColumnCount() - 1;
         if (size > view.getColumns()) {
@@ -133,10 +170,8 @@ public class GUI extends UI {
                 return;
             }
             for (Feature action : keys.get(keyId)) {
-                action.action()
-                        .perform(table.getSelectedRow() - 1, table.getSelectedColumn() - 1, prompt);
+                perform(action, table, prompt);
             }
-            refreshUI(table);
         }
 
         @Override
@@ -145,6 +180,21 @@ public class GUI extends UI {
     }
 
     private static class MessagePrompt implements Prompt {
+        private final JLabel status;
+
+        /**
+         * A prompt that does not display statuses.
+         */
+        public MessagePrompt() {
+            this(null);
+        }
+
+        /**
+         * A prompt that displays statuses in the given label.
+         */
+        public MessagePrompt(JLabel status) {
+            this.status = status;
+        }
 
         @Override
         public Optional<String> ask(String prompt) {
@@ -189,6 +239,13 @@ public class GUI extends UI {
             JOptionPane.showMessageDialog(null, prompt,
                     "Prompt", JOptionPane.PLAIN_MESSAGE);
         }
+
+        @Override
+        public void status(String status) {
+            if (this.status != null) {
+                this.status.setText(status);
+            }
+        }
     }
 
     /**
@@ -201,10 +258,7 @@ public class GUI extends UI {
 
         for (Feature feature : features.values()) {
             JMenuItem item = new JMenuItem(feature.name());
-            item.addActionListener(e -> {
-                feature.action().perform(table.getSelectedRow() - 1, table.getSelectedColumn() - 1, prompt);
-                refreshUI(table);
-            });
+            item.addActionListener(e -> perform(feature, table, prompt));
             menu.add(item);
         }
         menuBar.add(menu);
@@ -242,10 +296,17 @@ public class GUI extends UI {
                 return;
             }
 
-            ViewElement element = view.formulaAt(
-                    table.getSelectedRow() - 1,
-                    table.getSelectedColumn() - 1
-            );
+            ViewElement element;
+            try {
+                element = view.formulaAt(
+                        table.getSelectedRow() - 1,
+                        table.getSelectedColumn() - 1
+                );
+            } catch (UncheckedIOException error) {
+                formulaView.setText("");
+                prompt.status(unreadable(error));
+                return;
+            }
 
             formulaView.setText(element.getContent());
             formulaView.setForeground(CellRenderer.getColorByName(element.getForeground()));
@@ -0,0 +1,159 @@
+package sheep.ui.graphical;
+
+import sheep.core.Recalculation;
+import sheep.core.UpdateResponse;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Cooperatively schedules a {@link Recalculation} on the event dispatch thread.
+ * <p>
+ * The recalculation is stepped for at most {@link #SLICE_NANOS} at a time,
+ * then the next slice is queued behind any pending events, so the window repaints
+ * and handles input between slices however long the recalculation takes.
+ * Before each slice, the cells visible within the table are given priority,
+ * and cells still to be evaluated are rendered as calculating, see {@link CellRenderer}.
+ * A recalculation failing to read the file the sheet is paged in from is abandoned,
+ * finishing with a failed response describing the failure.
+ */
+class Recalculator {
+    /**
+     * The time spent recalculating per slice, half of a 60 frames per second frame
+     */
+    static final long SLICE_NANOS = 8_000_000;
+
+    private JTable table;
+    private Recalculation current;
+    private Consumer<UpdateResponse> finished;
+    private Rectangle prioritised;
+
+    /**
+     * Attach the table whose visible cells are given priority and repainted after each slice.
+     *
+     * @param table The table rendering the sheet.
+     */
+    void attach(JTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Give the visible cells of the table priority in a recalculation.
+     *
+     * @param calculation The recalculation to prioritise.
+     */
+    void prioritise(Recalculation calculation) {
+        if (table == null) {
+            return;
+        }
+        prioritised = table.getVisibleRect();
+        if (prioritised.isEmpty()) {
+            return;
+        }
+        int lastRow = table.rowAtPoint(new Point(prioritised.x,
+                prioritised.y + prioritised.height - 1));
+        int lastColumn = table.columnAtPoint(new Point(prioritised.x + prioritised.width - 1,
+                prioritised.y));
+        // offset by one to account for headers
+        int firstRow = Math.max(table.rowAtPoint(prioritised.getLocation()) - 1, 0);
+        int firstColumn = Math.max(table.columnAtPoint(prioritised.getLocation()) - 1, 0);
+        lastRow = (lastRow < 0 ? table.getRowCount() : lastRow) - 1;
+        lastColumn = (lastColumn < 0 ? table.getColumnCount() : lastColumn) - 1;
+        if (lastRow >= firstRow && lastColumn >= firstColumn) {
+            calculation.prioritise(firstRow, firstColumn, lastRow, lastColumn);
+        }
+    }
+
+    /**
+     * Start recalculating in slices, replacing no recalculation in progress.
+     *
+     * @param calculation The recalculation to step until it finishes.
+     * @param finished Called with the response of the recalculation once it finishes.
+     * @requires {@link #isRecalculating()} is false
+     */
+    void start(Recalculation calculation, Consumer<UpdateResponse> finished) {
+        this.current = calculation;
+        this.finished = finished;
+        SwingUtilities.invokeLater(this::slice);
+    }
+
+    /**
+     * Whether a recalculation is in progress.
+     * @return True if a recalculation has been started and not finished.
+     */
+    boolean isRecalculating() {
+        return current != null;
+    }
+
+    /**
+     * Finish the recalculation in progress straight away, if any,
+     * e.g. before another update is made.
+     */
+    void settle() {
+        if (current != null) {
+            current.step(Long.MAX_VALUE);
+            finish();
+        }
+    }
+
+    /**
+     * Whether the cell is still to be evaluated by the recalculation in progress.
+     *
+     * @param row The row index of the cell.
+     * @param column The column index of the cell.
+     * @return True if the cell is calculating, otherwise false.
+     */
+    boolean isCalculating(int row, int column) {
+        return current != null && current.isCalculating(row, column);
+    }
+
+    /**
+     * The new value of the cell if it has been evaluated by the recalculation in progress.
+     *
+     * @param row The row index of the cell.
+     * @param column The column index of the cell.
+     * @return The rendered value of the cell, or empty if it was not evaluated.
+     */
+    Optional<String> valueAt(int row, int column) {
+        return current == null ? Optional.empty() : current.valueAt(row, column);
+    }
+
+    private void slice() {
+        if (current == null) {
+            return;
+        }
+        if (table != null && !table.getVisibleRect().equals(prioritised)) {
+            prioritise(current);
+        }
+        try {
+            if (current.step(SLICE_NANOS)) {
+                finish();
+                return;
+            }
+        } catch (UncheckedIOException e) {
+            Consumer<UpdateResponse> failed = finished;
+            current = null;
+            if (table != null) {
+                table.repaint();
+            }
+            failed.accept(UpdateResponse.fail(GUI.unreadable(e)));
+            return;
+        }
+        if (table != null) {
+            table.repaint();
+        }
+        SwingUtilities.invokeLater(this::slice);
+    }
+
+    private void finish() {
+        Recalculation done = current;
+        current = null;
+        if (table != null) {
+            table.repaint();
+        }
+        finished.accept(done.response());
+    }
+}
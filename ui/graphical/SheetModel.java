@@ -1,13 +1,17 @@
 package sheep.ui.graphical;
 
+import sheep.core.Recalculation;
 import sheep.core.SheetUpdate;
 import sheep.core.SheetView;
+import sheep.core.SlicedUpdate;
 import sheep.core.UpdateResponse;
+import sheep.ui.Prompt;
 
 import javax.swing.*;
 import javax.swing.event.TableModelEvent;
 import javax.swing.event.TableModelListener;
 import javax.swing.table.TableModel;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -18,11 +22,18 @@ import java.util.List;
  * When a cell is updated, {@link SheetUpdate} is invoked to
  * update the underlying sheet model.
  * A popup is displayed if the update is invalid.
+ * <p>
+ * If the updater is a {@link SlicedUpdate}, the sheet is recalculated a slice at a time
+ * by a {@link Recalculator}, so a large recalculation never freezes the window.
+ * Updates recalculated within the first slice behave as though performed at once.
+ * A failure to read the file the sheet is paged in from is reported through the prompt.
  */
 class SheetModel implements TableModel {
     private final JFrame parent;
     private final SheetView view;
     private final SheetUpdate updater;
+    private final Recalculator recalculator;
+    private final Prompt prompt;
 
     private final List<TableModelListener> listeners = new ArrayList<>();
 
@@ -32,11 +43,16 @@ class SheetModel implements TableModel {
      * @param parent The window the table is in, used to create a popup.
      * @param view The view to render, this is used to calculate the model dimensions.
      * @param updater The updater to use when the model is edited.
+     * @param recalculator The scheduler of recalculations started by edits.
+     * @param prompt The prompt failures to read the sheet are reported through.
      */
-    public SheetModel(JFrame parent, SheetView view, SheetUpdate updater) {
+    public SheetModel(JFrame parent, SheetView view, SheetUpdate updater,
+                      Recalculator recalculator, Prompt prompt) {
         this.parent = parent;
         this.view = view;
         this.updater = updater;
+        this.recalculator = recalculator;
+        this.prompt = prompt;
     }
 
     @Override
@@ -95,17 +111,47 @@ class SheetModel implements TableModel {
      * the underlying model.
      * If the update is unsuccessful, render a message box and prevent exiting
      * the editing mode by throwing a runtime exception.
+     * <p>
+     * If the recalculation takes longer than a slice, it continues between events,
+     * and the message box is rendered once it finishes if it is unsuccessful.
      */
     @Override
     public void setValueAt(Object aValue, int rowIndex, int columnIndex) {
         if (aValue instanceof String value) {
-            UpdateResponse response = updater.update(rowIndex - 1, columnIndex - 1, value);
+            Recalculation calculation;
+            try {
+                recalculator.settle();
+                calculation = updater instanceof SlicedUpdate sliced
+                        ? sliced.recalculate(rowIndex - 1, columnIndex - 1, value)
+                        : Recalculation.finished(
+                                updater.update(rowIndex - 1, columnIndex - 1, value));
+                recalculator.prioritise(calculation);
+                if (!calculation.step(Recalculator.SLICE_NANOS)) {
+                    recalculator.start(calculation, this::recalculated);
+                    return;
+                }
+            } catch (UncheckedIOException e) {
+                prompt.message(GUI.unreadable(e));
+                throw new RuntimeException(e);
+            }
+            UpdateResponse response = calculation.response();
             if  (!response.isSuccess()) {
                 JOptionPane.showMessageDialog(parent, response.getMessage());
                 throw new RuntimeException();
             }
         }
 
+        changed();
+    }
+
+    private void recalculated(UpdateResponse response) {
+        if (!response.isSuccess()) {
+            JOptionPane.showMessageDialog(parent, response.getMessage());
+        }
+        changed();
+    }
+
+    private void changed() {
         for (TableModelListener listener : listeners) {
             listener.tableChanged(new TableModelEvent(this));
         }